@@ -20,13 +20,16 @@ import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.collections15.Transformer;
 import org.apache.commons.collections15.map.LazyMap;
@@ -51,10 +54,13 @@ import edu.uci.ics.jung.visualization.decorators.EdgeShape.IndexedRendering;
  * by Giuseppe di Battista, Peter Eades, Roberto Tamassia and Ioannigs G.
  * Tollis.
  *
- * It was created to work with relatively small graphs, so the algorithms here
- * are not optimized (they are not even of the best complexity class possible
- * for the problem). Also, recursion is used in some algorithms, so the depth of
- * the DAG is also somewhat limited (~8000 levels ? :-) ).
+ * The layers are assigned by longest path, in linear time. The vertices of
+ * each layer are ordered by barycenter sweeps (a bounded number of them,
+ * keeping the ordering with the fewest crossings) followed by adjacent
+ * exchanges, and the horizontal coordinates are assigned as described by
+ * Brandes and K&ouml;pf, "Fast and Simple Horizontal Coordinate Assignment".
+ * These phases work on arrays of vertex indices and don't recurse, so deep
+ * DAGs with a few hundred vertices are laid out quickly.
  *
  * As this class uses virtual vertices to route the edges around the other
  * vertices, the EdgeShapeTransformer used must be aware of virtual vertices.
@@ -64,9 +70,6 @@ import edu.uci.ics.jung.visualization.decorators.EdgeShape.IndexedRendering;
  *
  * FIXME: The layout does not take into account locked vertices.
  *
- * FIXME: It is still not very good at minimizing edge crossings. The
- * orderVertice() method has a lot of room to improvements.
- *
  * FIXME: The final layout does not take into account multi-graphs (unconnected
  * components), so when laid-out they will be somewhat entangled. This another
  * thing that can be improved in grapicalLayout().
@@ -91,6 +94,9 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
     private static final int MINIMUM_SEPARATION_BETWEEN_LAYERS = 20;
     private static final int MINIMUM_SEPARATION_BETWEEN_VERTICES = 20;
    
+    /* The most barycenter sweeps (and exchange passes) made when ordering */
+    private static final int MAXIMUM_SWEEPS = 24;
+   
     /* The final locations */
     protected Map<Virtualizable<V>, Point2D> locations = LazyMap.decorate(
             new HashMap<Virtualizable<V>, Point2D>(),
@@ -106,8 +112,12 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
     /* Some other graph info */
     protected HashSet<Virtualizable<V>> roots = new HashSet<Virtualizable<V>>();
    
-    /* From the root layer we can navigate to the others */
-    protected Layer<V> rootLayer;
+    /* The vertices (real and virtual) of each layer, in order, from the top */
+    protected List<List<Virtualizable<V>>> layers =
+        new ArrayList<List<Virtualizable<V>>>();
+   
+    /* The layers as arrays of vertex indices, used for ordering them */
+    LayeredGraph layeredGraph;
    
     /*
      * Associates the layer number to each edge. Used to fastly find the layer
@@ -170,6 +180,11 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
      *
      */
     public void initialize() {
+        this.roots.clear();
+        this.layers.clear();
+        this.vertexLevel.clear();
+        this.virtualEdges.clear();
+        this.locations.clear();
         createVirtualGraph();
         findRoots();
         assignLayers();
@@ -216,57 +231,47 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
     }
    
     /**
-     * For each of the roots found in the graph, distribute the following
-     * vertices in the layers, using a maximu depth approach.
-     *
+     * Puts each vertex one layer below the lowest of its predecessors (so the
+     * roots are on the top layer), visiting the vertices in topological
+     * order.
      */
     protected void assignLayers() {
+        Map<Virtualizable<V>, Integer> unplacedPredecessors =
+            new HashMap<Virtualizable<V>, Integer>();
+        LinkedList<Virtualizable<V>> ready =
+            new LinkedList<Virtualizable<V>>(this.roots);
+        int numPlaced = 0;
        
-        this.rootLayer = new Layer<V>(
-                (DirectedGraph<Virtualizable<V>, ?>) this.virtualGraph, null,
-                null);
         for (Virtualizable<V> root : this.roots) {
-            assignLayers(root, rootLayer);
+            this.vertexLevel.put(root, 0);
         }
-    }
-   
-    /**
-     * A recursive method for allocating the layer for each vertex. Recursively
-     * scans the graph, in a depth first manner, assigning each vertex to a
-     * deeper layer.
-     *
-     * @param v
-     *            The current vertex
-     * @param layer
-     *            The level of the current vertex
-     * @param this.vertexLevel A list of all the vertex that have already been
-     *        visited
-     */
-    protected void assignLayers(Virtualizable<V> v, Layer<V> layer) {
-       
-        int previousLayerOfNode;
-        int thisLevel = layer.getLevel();
-        layer.add(v);
-        this.vertexLevel.put(v, thisLevel);
-       
-        for (Virtualizable<V> child : this.virtualGraph.getSuccessors(v)) {
-            if (this.vertexLevel.containsKey(child)) {
-                previousLayerOfNode = this.vertexLevel.get(child);
-                if (thisLevel >= previousLayerOfNode) {
-                    layer.getLayerOnLevel(previousLayerOfNode).remove(child);
-                    this.vertexLevel.remove(child);
-                    // When calling assignLayers again, all the descendants of
-                    // this node will be reassigned
-                    // FIXME: This algorithm is not efficient at all!
-                } else {
-                    /*
-                     * We stop the iteration if the child is already in a level
-                     * bigger than this one
-                     */
-                    return;
+        while (!ready.isEmpty()) {
+            Virtualizable<V> v = ready.removeFirst();
+            int level = this.vertexLevel.get(v);
+            while (this.layers.size() <= level) {
+                this.layers.add(new ArrayList<Virtualizable<V>>());
+            }
+            this.layers.get(level).add(v);
+            numPlaced++;
+           
+            for (Virtualizable<V> child : this.virtualGraph.getSuccessors(v)) {
+                Integer childLevel = this.vertexLevel.get(child);
+                if (childLevel == null || childLevel <= level) {
+                    this.vertexLevel.put(child, level + 1);
+                }
+                Integer unplaced = unplacedPredecessors.get(child);
+                if (unplaced == null) {
+                    unplaced = this.virtualGraph.getPredecessorCount(child);
+                }
+                unplaced--;
+                unplacedPredecessors.put(child, unplaced);
+                if (unplaced == 0) {
+                    ready.add(child);
                 }
             }
-            assignLayers(child, layer.getNextLayer(true));
+        }
+        if (numPlaced < this.virtualGraph.getVertexCount()) {
+            throw new Error("This graph is not acyclic.");
         }
     }
    
@@ -307,7 +312,7 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
                     virtual = new Virtualizable<V>(null, true);
                     list.add(virtual);
                    
-                    this.rootLayer.getLayerOnLevel(layerFirst + 1).add(virtual);
+                    this.layers.get(layerFirst + 1).add(virtual);
                     this.vertexLevel.put(virtual, layerFirst + 1);
                    
                     this.virtualGraph.removeEdge(e);
@@ -328,93 +333,97 @@ public class DAGLayoutBattista<V extends Comparable<V>, E extends Comparable<E>>
     }
    
     /**
-     * Sweeps each layer (but the first) and order the vertices
+     * Orders the vertices in each layer to reduce the edge crossings, using
+     * barycenter sweeps and adjacent exchanges on index arrays.
      */
     protected void orderVertices() {
-        Layer<V> currentLayer = this.rootLayer.getNextLayer(false);
-        while (currentLayer != null) {
-            orderVertices(currentLayer);
-            currentLayer = currentLayer.getNextLayer(false);
-        }
-    }
-   
-    /**
-     * Order the vertices in this layer using a layer-by-layer sweep and an
-     * adjacent-exchange algorithm. Repeats the ordering until the total
-     * crossing number for the layer does not reduce any further.
-     */
-    protected void orderVertices(Layer<V> layer) {
+        Map<Virtualizable<V>, Integer> indices =
+            new HashMap<Virtualizable<V>, Integer>();
+        List<Virtualizable<V>> vertices = new ArrayList<Virtualizable<V>>();
+        int[][] order = new int[this.layers.size()][];
        
-        // No need to order only one vertex
-        if (layer.size() < 2) {
-            return;
+        for (int l = 0; l < order.length; l++) {
+            List<Virtualizable<V>> layer = this.layers.get(l);
+            order[l] = new int[layer.size()];
+            for (int k = 0; k < order[l].length; k++) {
+                Virtualizable<V> v = layer.get(k);
+                order[l][k] = vertices.size();
+                indices.put(v, vertices.size());
+                vertices.add(v);
+            }
         }
+        int numVertices = vertices.size();
+        int[][] upper = new int[numVertices][];
+        int[][] lower = new int[numVertices][];
+        boolean[] virtual = new boolean[numVertices];
        
-        boolean crossingChanged = true;
-        Virtualizable<V> u, v;
-        List<Virtualizable<V>> oldOrdering;
-        Iterator<Virtualizable<V>> it;
+        for (int i = 0; i < numVertices; i++) {
+            Virtualizable<V> v = vertices.get(i);
+            upper[i] = toIndices(this.virtualGraph.getPredecessors(v), indices);
+            lower[i] = toIndices(this.virtualGraph.getSuccessors(v), indices);
+            virtual[i] = v.virtual;
+        }
+        this.layeredGraph = new LayeredGraph(order, upper, lower, virtual);
+        this.layeredGraph.reduceCrossings(MAXIMUM_SWEEPS);
        
-        while (crossingChanged) {
-            crossingChanged = false;
-            oldOrdering = new LinkedList<Virtualizable<V>>(layer.getVertices());
-           
-            it = oldOrdering.iterator();
-            u = it.next();
-            while (it.hasNext()) {
-                v = it.next();
-                if (layer.crossings(u, v) > layer.crossings(v, u)) {
-                    layer.exchange(u, v);
-                    crossingChanged = true;
-                }
-                u = v; // Step to the next node
+        for (int l = 0; l < order.length; l++) {
+            List<Virtualizable<V>> layer = this.layers.get(l);
+            layer.clear();
+            for (int i : this.layeredGraph.order[l]) {
+                layer.add(vertices.get(i));
             }
         }
     }
    
+    private int[] toIndices(Collection<Virtualizable<V>> vertices,
+            Map<Virtualizable<V>, Integer> indices) {
+        int[] result = new int[vertices.size()];
+        int k = 0;
+        for (Virtualizable<V> v : vertices) {
+            result[k++] = indices.get(v);
+        }
+        return result;
+    }
+   
     /**
-     * Assign a 2D position for each node. This position is based on the
-     * requested dimensions of the graph respecting a minimum separation between
-     * nodes and layers and trying to distribute the layers and the vertices
-     * evenly across the drawing area.
+     * Assign a 2D position for each node. The layers are distributed evenly
+     * down the drawing area, respecting a minimum separation. The horizontal
+     * coordinates come from the Brandes-K&ouml;pf assignment, scaled to
+     * spread the widest layer across the drawing area, but no closer than
+     * the minimum separation.
      *
      * FIXME: This layout will not give a good layout for multi-graphs, because
      * it does not consider each multi-graph as an separate entity.
      *
      */
     protected void graphicalLayout() {
-        int layerNumber = 0;
-        int vertexNumber = 0;
-       
-        double separationBetweenVertices;
-        double separationBetweenLayers = this.getSize().height / (this.rootLayer
-                                                 .getRemainingLevels() + 1);
+        double separationBetweenLayers = this.getSize().height / this.layers.size();
         double start = -separationBetweenLayers / 2;
        
         if (separationBetweenLayers < MINIMUM_SEPARATION_BETWEEN_LAYERS) {
             separationBetweenLayers = MINIMUM_SEPARATION_BETWEEN_LAYERS;
         }
+        double[] x = this.layeredGraph.assignCoordinates();
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        for (double xi : x) {
+            minX = Math.min(minX, xi);
+            maxX = Math.max(maxX, xi);
+        }
+        double separationBetweenVertices =
+            this.getSize().width / (maxX - minX + 2);
+        if (separationBetweenVertices < MINIMUM_SEPARATION_BETWEEN_VERTICES) {
+            separationBetweenVertices = MINIMUM_SEPARATION_BETWEEN_VERTICES;
+        }
        
-        Layer<V> currentLayer = this.rootLayer;
-        while (currentLayer != null) {
-            layerNumber++;
-
-            separationBetweenVertices = this.getSize().width / (currentLayer
-                                                .size() + 1);
-            if (separationBetweenVertices < MINIMUM_SEPARATION_BETWEEN_VERTICES) {
-                separationBetweenVertices = MINIMUM_SEPARATION_BETWEEN_VERTICES;
-            }
-           
-            vertexNumber = 0;
-            for (Virtualizable<V> v : currentLayer.getVertices()) {
-                vertexNumber++;
-                setLocation(v, vertexNumber * separationBetweenVertices,
-                        layerNumber * separationBetweenLayers
-                                + start);
+        for (int l = 0; l < this.layers.size(); l++) {
+            int[] layer = this.layeredGraph.order[l];
+            for (int k = 0; k < layer.length; k++) {
+                setLocation(this.layers.get(l).get(k),
+                        (x[layer[k]] - minX + 1) * separationBetweenVertices,
+                        (l + 1) * separationBetweenLayers + start);
             }
-            currentLayer = currentLayer.getNextLayer(false);
         }
-       
     }
    
     /**
@@ -705,206 +714,447 @@ class Virtualizable<V extends Comparable<V>> implements
 }
 
 /**
- * Represents a layer in the layering of a DAG. It provides for the exchange of
- * position between two vertices in the layer, to calculate the degree of
- * crossing between two vertices and to find the layer directly before and
- * after.
+ * The layers of a DAG as arrays of vertex indices, with every edge joining
+ * adjacent layers (long edges having been broken up by virtual vertices).
+ * It orders the vertices of the layers to reduce edge crossings and assigns
+ * their horizontal coordinates.
  *
- * @author RSTARR
+ * @author rstarr
  *
  */
-class Layer<V extends Comparable<V>> {
-    private Layer<V> previousLayer;
-    private Layer<V> nextLayer;
-    private LinkedList<Virtualizable<V>> vertices = new LinkedList<Virtualizable<V>>();
-    private DirectedGraph<Virtualizable<V>, ?> graph;
+class LayeredGraph {
+    /* The vertices of each layer, in order */
+    int[][] order;
    
-    public Layer(DirectedGraph<Virtualizable<V>, ?> graph,
-            Layer<V> previousLayer, Layer<V> nextLayer) {
-        this.graph = graph;
-        this.previousLayer = previousLayer;
-        this.nextLayer = nextLayer;
+    /* The position of each vertex within its layer, and its layer */
+    int[] pos;
+    int[] layerOf;
+   
+    /* The neighbors of each vertex in the layers above and below it */
+    int[][] upper;
+    int[][] lower;
+   
+    /* Whether each vertex is a virtual one */
+    boolean[] virtual;
+   
+    LayeredGraph(int[][] order, int[][] upper, int[][] lower,
+            boolean[] virtual) {
+        this.order = order;
+        this.upper = upper;
+        this.lower = lower;
+        this.virtual = virtual;
+        this.pos = new int[virtual.length];
+        this.layerOf = new int[virtual.length];
+        for (int l = 0; l < order.length; l++) {
+            updatePositions(l);
+            for (int v : order[l]) {
+                this.layerOf[v] = l;
+            }
+        }
     }
    
-    /**
-     * @param previousLayerOfNode
-     * @return
-     */
-    protected Layer<V> getLayerOnLevel(int layer) {
-        if (getLevel() == layer) {
-            return this;
-        } else if (getLevel() > layer && this.previousLayer != null) {
-            return this.previousLayer.getLayerOnLevel(layer);
-        } else if (getLevel() < layer && this.nextLayer != null) {
-            return this.nextLayer.getLayerOnLevel(layer);
-        } else {
-            return null;
+    private void updatePositions(int layer) {
+        for (int k = 0; k < this.order[layer].length; k++) {
+            this.pos[this.order[layer][k]] = k;
         }
     }
    
     /**
-     * @return
+     * Sweeps down and up the layers, sorting each by the barycenters of its
+     * neighbors in the layer just swept, until the crossings stop falling
+     * or maxSweeps sweeps are made. The ordering with the fewest crossings
+     * is then improved by exchanging adjacent vertices.
      */
-    public int size() {
-        return this.vertices.size();
+    void reduceCrossings(int maxSweeps) {
+        int numLayers = this.order.length;
+        long fewestCrossings = countCrossings();
+        int[][] bestOrder = copyOrder();
+        int sweepsWithoutImprovement = 0;
+       
+        for (int sweep = 0; sweep < maxSweeps && fewestCrossings > 0
+                && sweepsWithoutImprovement < 4; sweep++) {
+            if (sweep % 2 == 0) {
+                for (int l = 1; l < numLayers; l++) {
+                    sortByBarycenter(l, this.upper);
+                }
+            } else {
+                for (int l = numLayers - 2; l >= 0; l--) {
+                    sortByBarycenter(l, this.lower);
+                }
+            }
+            long crossings = countCrossings();
+            if (crossings < fewestCrossings) {
+                fewestCrossings = crossings;
+                bestOrder = copyOrder();
+                sweepsWithoutImprovement = 0;
+            } else {
+                sweepsWithoutImprovement++;
+            }
+        }
+        this.order = bestOrder;
+        for (int l = 0; l < numLayers; l++) {
+            updatePositions(l);
+        }
+        for (int pass = 0; pass < maxSweeps && transpose(); pass++) {
+            // keep exchanging while it helps
+        }
     }
    
-    /**
-     * True if there is no layer before this one
-     *
-     * @return
-     */
-    public boolean isFirstLayer() {
-        return this.previousLayer == null;
+    private int[][] copyOrder() {
+        int[][] copy = new int[this.order.length][];
+        for (int l = 0; l < copy.length; l++) {
+            copy[l] = new int[this.order[l].length];
+            System.arraycopy(this.order[l], 0, copy[l], 0, copy[l].length);
+        }
+        return copy;
     }
    
     /**
-     * True if there is no layer after this one.
-     *
-     * @return
+     * Sorts the layer by the mean position of each vertex's neighbors.
+     * Vertices without neighbors keep their positions as their keys, and
+     * ties keep their current order.
      */
-    public boolean isLastLayer() {
-        return this.nextLayer == null;
+    private void sortByBarycenter(int layer, int[][] neighbors) {
+        int[] vertices = this.order[layer];
+        final double[] keys = new double[vertices.length];
+        Integer[] sorted = new Integer[vertices.length];
+       
+        for (int k = 0; k < vertices.length; k++) {
+            int[] adjacent = neighbors[vertices[k]];
+            if (adjacent.length == 0) {
+                keys[k] = k;
+            } else {
+                double sum = 0;
+                for (int w : adjacent) {
+                    sum += this.pos[w];
+                }
+                keys[k] = sum / adjacent.length;
+            }
+            sorted[k] = k;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer k1, Integer k2) {
+                return Double.compare(keys[k1], keys[k2]);
+            }
+        });
+        int[] newOrder = new int[vertices.length];
+        for (int k = 0; k < newOrder.length; k++) {
+            newOrder[k] = vertices[sorted[k]];
+        }
+        this.order[layer] = newOrder;
+        updatePositions(layer);
     }
    
     /**
-     * Returns the next layer. If the create argument is true and this layer is
-     * the last layer, a new layer will be created and returned.
+     * Exchanges adjacent vertices wherever that reduces the crossings of
+     * their edges (above and below).
      *
-     * @param create
-     *            If true, a new layer will be created if this is the last
-     *            layer.
-     * @return The next layer, or null if this is the last layer and create is
-     *         <code>false</code>.
+     * @return whether any vertices were exchanged
      */
-    public Layer<V> getNextLayer(boolean create) {
-        if (isLastLayer() && create) {
-            this.nextLayer = new Layer<V>(this.graph, this, null);
+    private boolean transpose() {
+        boolean exchanged = false;
+        for (int l = 0; l < this.order.length; l++) {
+            int[] layer = this.order[l];
+            for (int k = 0; k + 1 < layer.length; k++) {
+                int v = layer[k];
+                int w = layer[k + 1];
+                if (pairCrossings(w, v) < pairCrossings(v, w)) {
+                    layer[k] = w;
+                    layer[k + 1] = v;
+                    this.pos[w] = k;
+                    this.pos[v] = k + 1;
+                    exchanged = true;
+                }
+            }
         }
-        return this.nextLayer;
+        return exchanged;
     }
    
     /**
-     * Returns the previous layer. If the create argument is true and this layer
-     * is the first layer, a new layer will be created and returned.
-     *
-     * @param create
-     *            If true, a new layer will be created if this is the first
-     *            layer.
-     * @return The previous layer, or null if this is the first layer and create
-     *         is <code>false</code>.
+     * @return the number of crossings between the edges of v and those of
+     *         w, if v were just left of w
      */
-    public Layer<V> getPreviousLayer(boolean create) {
-        if (isFirstLayer() && create) {
-            this.previousLayer = new Layer<V>(this.graph, null, this);
+    private int pairCrossings(int v, int w) {
+        return pairCrossings(this.upper[v], this.upper[w])
+               + pairCrossings(this.lower[v], this.lower[w]);
+    }
+   
+    private int pairCrossings(int[] leftNeighbors, int[] rightNeighbors) {
+        int crossings = 0;
+        for (int a : leftNeighbors) {
+            for (int b : rightNeighbors) {
+                if (this.pos[a] > this.pos[b]) {
+                    crossings++;
+                }
+            }
         }
-        return this.previousLayer;
+        return crossings;
     }
    
     /**
-     * Return the level in which this layer is. The first layer has level 0.
-     *
-     * @return The level in which this layer is.
+     * @return the number of edge crossings in the current ordering
      */
-    public int getLevel() {
-        if (isFirstLayer()) {
-            return 0;
-        } else {
-            return 1 + this.previousLayer.getLevel();
+    long countCrossings() {
+        long crossings = 0;
+        for (int l = 0; l + 1 < this.order.length; l++) {
+            crossings += countCrossings(l);
         }
+        return crossings;
     }
    
     /**
-     * Return the number of levels separating this layer from the last layer.
+     * Counts the crossings between a layer and the next one by counting the
+     * inversions in the positions of the lower ends of the edges, taken in
+     * order of their upper ends, with a binary indexed tree.
      */
-    public int getRemainingLevels() {
-        if (isLastLayer()) {
-            return 0;
-        } else {
-            return 1 + this.nextLayer.getRemainingLevels();
+    private long countCrossings(int layer) {
+        int lowerSize = this.order[layer + 1].length;
+        int[] tree = new int[lowerSize + 1];
+        long crossings = 0;
+        int numInserted = 0;
+       
+        for (int u : this.order[layer]) {
+            int[] ends = new int[this.lower[u].length];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = this.pos[this.lower[u][i]];
+            }
+            Arrays.sort(ends);
+            for (int end : ends) {
+                int numAtOrBefore = 0;
+                for (int i = end + 1; i > 0; i -= i & -i) {
+                    numAtOrBefore += tree[i];
+                }
+                crossings += numInserted - numAtOrBefore;
+                for (int i = end + 1; i <= lowerSize; i += i & -i) {
+                    tree[i]++;
+                }
+                numInserted++;
+            }
         }
+        return crossings;
     }
    
     /**
-     * Get an ordered collection of the vertices in this layer
+     * Assigns horizontal coordinates (one unit being the minimum separation)
+     * as Brandes and K&ouml;pf do: vertices are aligned into vertical blocks
+     * with their median neighbors, four times (aligning upwards and
+     * downwards, from the left and from the right), avoiding segments that
+     * cross inner segments between virtual vertices. Each alignment is
+     * compacted by placing each block as far left (or right) as the blocks
+     * before it allow, and the four results are balanced.
      *
-     * @return
+     * @return the coordinate of each vertex
      */
-    public List<Virtualizable<V>> getVertices() {
-        return this.vertices;
+    double[] assignCoordinates() {
+        int numVertices = this.pos.length;
+        Set<Long> conflicts = markTypeOneConflicts();
+        double[][] xs = new double[4][];
+        double[] minX = new double[4];
+        double[] maxX = new double[4];
+        int narrowest = 0;
+       
+        for (int dir = 0; dir < 4; dir++) {
+            boolean down = dir < 2;
+            boolean leftToRight = dir % 2 == 0;
+            xs[dir] = alignAndCompact(down, leftToRight, conflicts);
+            minX[dir] = Double.POSITIVE_INFINITY;
+            maxX[dir] = Double.NEGATIVE_INFINITY;
+            for (double x : xs[dir]) {
+                minX[dir] = Math.min(minX[dir], x);
+                maxX[dir] = Math.max(maxX[dir], x);
+            }
+            if (maxX[dir] - minX[dir] < maxX[narrowest] - minX[narrowest]) {
+                narrowest = dir;
+            }
+        }
+        double[] x = new double[numVertices];
+        double[] candidates = new double[4];
+        for (int v = 0; v < numVertices; v++) {
+            for (int dir = 0; dir < 4; dir++) {
+                // Align the left layouts on the left and the right on the right
+                double shift = (dir % 2 == 0) ? minX[narrowest] - minX[dir]
+                                             : maxX[narrowest] - maxX[dir];
+                candidates[dir] = xs[dir][v] + shift;
+            }
+            Arrays.sort(candidates);
+            x[v] = (candidates[1] + candidates[2]) / 2;
+        }
+        return x;
     }
    
     /**
-     * Add a vertex as the last vertex of this layer
+     * Marks the segments that cross an inner segment (one joining two
+     * virtual vertices), so that straight long edges are preferred when
+     * aligning.
      *
-     * @param v
+     * @return the marked segments, as keys from segmentKey
      */
-    public void add(Virtualizable<V> v) {
-        this.vertices.add(v);
+    private Set<Long> markTypeOneConflicts() {
+        Set<Long> conflicts = new HashSet<Long>();
+        for (int i = 0; i + 1 < this.order.length; i++) {
+            int[] upperLayer = this.order[i];
+            int[] lowerLayer = this.order[i + 1];
+            int k0 = 0;
+            int l = 0;
+           
+            for (int l1 = 0; l1 < lowerLayer.length; l1++) {
+                int innerUpper = getInnerSegmentUpperEnd(lowerLayer[l1]);
+                if (l1 == lowerLayer.length - 1 || innerUpper >= 0) {
+                    int k1 = upperLayer.length - 1;
+                    if (innerUpper >= 0) {
+                        k1 = this.pos[innerUpper];
+                    }
+                    for (; l <= l1; l++) {
+                        int v = lowerLayer[l];
+                        for (int u : this.upper[v]) {
+                            if (this.pos[u] < k0 || this.pos[u] > k1) {
+                                conflicts.add(segmentKey(u, v));
+                            }
+                        }
+                    }
+                    k0 = k1;
+                }
+            }
+        }
+        return conflicts;
     }
    
     /**
-     * Add a vertex as the last vertex of this layer
-     *
-     * @param v
+     * @return the virtual vertex above v, if v is virtual too; otherwise -1
      */
-    public void remove(Virtualizable<V> v) {
-        this.vertices.remove(v);
+    private int getInnerSegmentUpperEnd(int v) {
+        int upperEnd = -1;
+        if (this.virtual[v]) {
+            for (int u : this.upper[v]) {
+                if (this.virtual[u]) {
+                    upperEnd = u;
+                }
+            }
+        }
+        return upperEnd;
     }
    
-    /**
-     * Exchange the position of two vertices u and v.
-     *
-     * @param u
-     * @param v
-     */
-    public void exchange(Virtualizable<V> u, Virtualizable<V> v) {
-        int posU = this.vertices.indexOf(u);
-        int posV = this.vertices.indexOf(v);
-       
-        this.vertices.set(posV, u);
-        this.vertices.set(posU, v);
+    private long segmentKey(int upperEnd, int lowerEnd) {
+        return (long) upperEnd * this.pos.length + lowerEnd;
     }
    
     /**
-     * Return the number of vertices that arrive in u that are crossed by
-     * vertices arriving in v. If this is the first layer, returns always 0.
+     * Aligns vertices into blocks in one of the four directions and
+     * compacts the blocks.
      *
-     * @param u
-     * @param v
-     * @return The number of crossings
+     * @param down whether to align with the neighbors above (working down
+     *            the layers) rather than those below (working up)
+     * @param leftToRight whether to work from the left of each layer
+     * @param conflicts the segments not to align along
+     * @return the coordinate of each vertex
      */
-    public int crossings(final Virtualizable<V> u, final Virtualizable<V> v) {
-        if (isFirstLayer()) {
-            return 0;
-        } else {
-            int posU = this.vertices.indexOf(u);
-            int posV = this.vertices.indexOf(v);
-           
-            if (posU == posV) {
-                return 0;
-            } else {
-                int crossing = 0;
-               
-                Collection<Virtualizable<V>> inVerticesU = this.graph
-                        .getPredecessors(u);
-                Collection<Virtualizable<V>> inVerticesV = this.graph
-                        .getPredecessors(v);
-               
-                for (Virtualizable<V> w : inVerticesU) {
-                    for (Virtualizable<V> z : inVerticesV) {
-                        if (this.previousLayer.getPos(z) < this.previousLayer
-                                .getPos(w)) {
-                            crossing++;
+    private double[] alignAndCompact(boolean down, boolean leftToRight,
+            Set<Long> conflicts) {
+        int numVertices = this.pos.length;
+        int numLayers = this.order.length;
+        int[] root = new int[numVertices];
+        int[] align = new int[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            root[v] = v;
+            align[v] = v;
+        }
+       
+        for (int i = 1; i < numLayers; i++) {
+            int[] layer = this.order[down ? i : numLayers - 1 - i];
+            int r = -1;
+            for (int t = 0; t < layer.length; t++) {
+                int v = layer[leftToRight ? t : layer.length - 1 - t];
+                int[] neighbors = sortByPosition(down ? this.upper[v]
+                                                     : this.lower[v],
+                        leftToRight);
+                int d = neighbors.length;
+                // The lower and upper medians (the same if d is odd)
+                for (int m = (d - 1) / 2; m <= d / 2 && d > 0; m++) {
+                    if (align[v] == v) {
+                        int u = neighbors[m];
+                        long key = down ? segmentKey(u, v) : segmentKey(v, u);
+                        int tu = transformedPosition(u, leftToRight);
+                        if (!conflicts.contains(key) && r < tu) {
+                            align[u] = v;
+                            root[v] = root[u];
+                            align[v] = root[v];
+                            r = tu;
                         }
                     }
                 }
-                return crossing;
             }
         }
+        return compact(root, leftToRight);
+    }
+   
+    private int transformedPosition(int v, boolean leftToRight) {
+        return leftToRight ? this.pos[v]
+                           : this.order[this.layerOf[v]].length - 1 - this.pos[v];
     }
    
-    private int getPos(Virtualizable<V> v) {
-        return this.vertices.indexOf(v);
+    private int[] sortByPosition(int[] vertices, boolean leftToRight) {
+        long[] keyed = new long[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            keyed[i] = ((long) this.pos[vertices[i]] << 32) | vertices[i];
+        }
+        Arrays.sort(keyed);
+        int[] sorted = new int[vertices.length];
+        for (int i = 0; i < sorted.length; i++) {
+            int k = leftToRight ? i : sorted.length - 1 - i;
+            sorted[k] = (int) keyed[i];
+        }
+        return sorted;
+    }
+   
+    /**
+     * Places each block one unit beyond the furthest block before it in any
+     * of its layers, taking the blocks in topological order (the blocks
+     * form a DAG, since aligned segments never cross).
+     *
+     * @return the coordinate of each vertex, negated when working from the
+     *         right
+     */
+    private double[] compact(int[] root, boolean leftToRight) {
+        int numVertices = this.pos.length;
+        // Each vertex links its block to the block of its predecessor in
+        // its layer; these are kept as lists threaded through the arrays.
+        int[] firstLink = new int[numVertices];
+        int[] nextLink = new int[numVertices];
+        int[] numPredecessors = new int[numVertices];
+        Arrays.fill(firstLink, -1);
+       
+        for (int[] layer : this.order) {
+            for (int t = 1; t < layer.length; t++) {
+                int w = layer[leftToRight ? t : layer.length - 1 - t];
+                int p = layer[leftToRight ? t - 1 : layer.length - t];
+                nextLink[w] = firstLink[root[p]];
+                firstLink[root[p]] = w;
+                numPredecessors[root[w]]++;
+            }
+        }
+        double[] blockX = new double[numVertices];
+        int[] ready = new int[numVertices];
+        int numReady = 0;
+        for (int v = 0; v < numVertices; v++) {
+            if (root[v] == v && numPredecessors[v] == 0) {
+                ready[numReady++] = v;
+            }
+        }
+        for (int next = 0; next < numReady; next++) {
+            int block = ready[next];
+            for (int w = firstLink[block]; w >= 0; w = nextLink[w]) {
+                int successor = root[w];
+                blockX[successor] =
+                    Math.max(blockX[successor], blockX[block] + 1);
+                if (--numPredecessors[successor] == 0) {
+                    ready[numReady++] = successor;
+                }
+            }
+        }
+        double[] x = new double[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            x[v] = leftToRight ? blockX[root[v]] : -blockX[root[v]];
+        }
+        return x;
     }
 }
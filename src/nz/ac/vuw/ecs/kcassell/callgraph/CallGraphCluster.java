@@ -62,6 +62,12 @@ public class CallGraphCluster extends CallGraphNode
     
     /** The (recursive) count of all subnodes. */
     protected int nodeCount = 0;
+
+    /** The (recursive) leaf nodes in sorted order, computed on first use.
+     *  The cluster's nodes don't change after construction, so the leaves
+     *  never need to be recollected.  An array is kept rather than a set,
+     *  as a TreeSet costs an entry object per leaf for every cluster. */
+    protected CallGraphNode[] elements = null;
     
     protected static CallGraphClusterComparator clusterComparator =
         new CallGraphClusterComparator();
@@ -121,22 +127,45 @@ public class CallGraphCluster extends CallGraphNode
         this.nodes.addAll(nodes);
     }
 
+    /**
+     * @return a read-only view of the cluster's immediate subnodes, some
+     * of which may themselves be clusters
+     */
+    public SortedSet<CallGraphNode> getNodes()
+    {
+        return Collections.unmodifiableSortedSet(nodes);
+    }
+
     /* (non-Javadoc)
 	 * @see nz.ac.vuw.ecs.kcassell.callgraph.ClusterIfc#getElements()
 	 */
     public SortedSet<CallGraphNode> getElements()
     {
-    	SortedSet<CallGraphNode> elements =
+    	SortedSet<CallGraphNode> leaves =
     		new TreeSet<CallGraphNode>(comparator);
-    	
-    	for (CallGraphNode node : nodes) {
-    		if (node instanceof CallGraphCluster) {
-    			CallGraphCluster cluster = (CallGraphCluster)node;
-    			SortedSet<CallGraphNode> subElements = cluster.getElements();
-    			elements.addAll(subElements);
-    		} else { // unclustered node
-    			elements.add(node);
+    	Collections.addAll(leaves, getElementArray());
+        return Collections.unmodifiableSortedSet(leaves);
+    }
+
+    /**
+     * @return the (recursive) leaf nodes in sorted order.  The array is
+     * shared, so callers must not modify it.
+     */
+    protected CallGraphNode[] getElementArray()
+    {
+    	if (elements == null) {
+    		SortedSet<CallGraphNode> leaves =
+    			new TreeSet<CallGraphNode>(comparator);
+
+    		for (CallGraphNode node : nodes) {
+    			if (node instanceof CallGraphCluster) {
+    				CallGraphCluster cluster = (CallGraphCluster)node;
+    				Collections.addAll(leaves, cluster.getElementArray());
+    			} else { // unclustered node
+    				leaves.add(node);
+    			}
     		}
+    		elements = leaves.toArray(new CallGraphNode[leaves.size()]);
     	}
         return elements;
     }
@@ -193,7 +222,7 @@ public class CallGraphCluster extends CallGraphNode
         	// we assume the child nodes are non-cluster nodes.
         	if (node instanceof CallGraphCluster) {
         		CallGraphCluster graphCluster = (CallGraphCluster)node;
-        		SortedSet<CallGraphNode> memberNodes = graphCluster.getElements();
+        		CallGraphNode[] memberNodes = graphCluster.getElementArray();
         		
         		if (memberNodes != null) {
             		MemberCluster memCluster = new MemberCluster();
@@ -317,7 +346,7 @@ public class CallGraphCluster extends CallGraphNode
 	            
 	            if (node instanceof CallGraphCluster) {
 	            	CallGraphCluster cluster = (CallGraphCluster)node;
-	                size = cluster.getElements().size();
+	                size = cluster.getElementArray().length;
 	            } else {
 	            	size = 1;
 	            }
@@ -145,8 +145,16 @@ public class CallGraphLink implements Comparable<CallGraphLink> {
 		int n = 100;
 
 		public CallGraphLink transform(EdgeMetadata metadata) {
+			return createLink(metadata.getProperties());
+		}
+
+		/**
+		 * Creates a link from its GraphML data, keyed by GraphML key id.
+		 * @param properties the edge's data, with key defaults applied
+		 * @return the new link
+		 */
+		public CallGraphLink createLink(Map<String, String> properties) {
 			CallGraphLink link = new CallGraphLink();
-			Map<String, String> properties = metadata.getProperties();
 			String label = properties.get(GRAPHML_LABEL);
 			link.setLabel((label != null) ? label : ("CGLink" + n++));
 			String sScore = properties.get(GRAPHML_SCORE);
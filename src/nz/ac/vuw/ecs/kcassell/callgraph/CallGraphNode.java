@@ -35,6 +35,7 @@ package nz.ac.vuw.ecs.kcassell.callgraph;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -176,6 +177,13 @@ public class CallGraphNode {
 		scores.put(String, score);
 	}
 
+	/**
+	 * @return a read-only view of the node's scores, keyed by score type
+	 */
+	public Map<String, Number> getScores() {
+		return Collections.unmodifiableMap(scores);
+	}
+
 	public String getScoreTypeForLabel() {
 		return scoreTypeForLabel;
 	}
@@ -359,8 +367,16 @@ public class CallGraphNode {
 		int n = 0;
 
 		public CallGraphNode transform(NodeMetadata metadata) {
+			return createNode(metadata.getProperties());
+		}
+
+		/**
+		 * Creates a node from its GraphML data, keyed by GraphML key id.
+		 * @param properties the node's data, with key defaults applied
+		 * @return the new node
+		 */
+		public CallGraphNode createNode(Map<String, String> properties) {
 			CallGraphNode node = new CallGraphNode();
-			Map<String, String> properties = metadata.getProperties();
 			String label = properties.get(GRAPHML_LABEL);
 			if (label == null) {
 				label = "CGNode" + n++;
@@ -379,7 +395,7 @@ public class CallGraphNode {
 			}
 			node.setScore(ScoreType.BASIC, score);
 			String sMember = properties.get(GRAPHML_MEMBER_TYPE);
-			if (sMember.equals(NodeType.FIELD.toString())) {
+			if (NodeType.FIELD.toString().equals(sMember)) {
 				node.setNodeType(NodeType.FIELD);
 			} else {
 				node.setNodeType(NodeType.METHOD);
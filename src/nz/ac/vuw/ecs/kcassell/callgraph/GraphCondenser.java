@@ -32,9 +32,13 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -47,6 +51,13 @@ import org.eclipse.jdt.core.JavaModelException;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 
+/**
+ * Builds quotient graphs, in which groups of nodes are replaced by single
+ * nodes.  The nodes of the original graph are numbered once, each is
+ * assigned to a group, and the new graph is then built in a single pass
+ * over the original links, so the work is linear in the number of nodes
+ * and links.
+ */
 public class GraphCondenser {
 
 	/**
@@ -62,31 +73,41 @@ public class GraphCondenser {
 			Set<CallGraphCluster> clusters) {
 		Graph<CallGraphNode, CallGraphLink> jungGraph = oldGraph.getJungGraph();
 		Factory<CallGraphNode> vertexFactory = oldGraph.getVertexFactory();
-		JavaCallGraph newGraph = new JavaCallGraph();
-		newGraph.setName(oldGraph.getName());
-		newGraph.setHandle(oldGraph.getHandle());
-		newGraph.setDefaultEdgeType(oldGraph.getDefaultEdgeType());
-		
-		// The key is the original node; the value is the (possibly newly condensed)
-		// node
-		Hashtable<CallGraphNode, CallGraphNode> nodeTranslator =
-			new Hashtable<CallGraphNode, CallGraphNode>();
-		// Add the condensed nodes to the node translator
-		convertClustersToNodes(vertexFactory, clusters, nodeTranslator);
-		
-		// Add the uncondensed nodes to the node translator
-		for (CallGraphNode node : jungGraph.getVertices()) {
-			if (!nodeTranslator.containsKey(node)) {
-				nodeTranslator.put(node, node);
+		List<CallGraphNode> vertices =
+			new ArrayList<CallGraphNode>(jungGraph.getVertices());
+		Map<CallGraphNode, Integer> ids = getIds(vertices);
+		int[] component = new int[vertices.size()];
+		Arrays.fill(component, -1);
+		List<CallGraphNode> componentNodes = new ArrayList<CallGraphNode>();
+
+		// The condensed nodes come first
+		for (CallGraphCluster cluster : clusters) {
+			SortedSet<CallGraphNode> clusterNodes = cluster.getElements();
+			int clusterSize = clusterNodes.size();
+			if (clusterSize > 0) {
+				CallGraphNode newNode = (clusterSize == 1)
+					? clusterNodes.first()
+					: createNodeForCluster(cluster, vertexFactory);
+				for (CallGraphNode origNode : clusterNodes) {
+					Integer id = ids.get(origNode);
+					if (id != null) {
+						component[id] = componentNodes.size();
+					}
+				}
+				componentNodes.add(newNode);
 			}
 		}
-		Collection<CallGraphNode> newNodes = nodeTranslator.values();
-		
-		// Add nodes to the new graph
-		for (CallGraphNode newNode : newNodes) {
-			newGraph.addNode(newNode);
+		// followed by the uncondensed nodes
+		for (int id = 0; id < component.length; id++) {
+			if (component[id] < 0) {
+				component[id] = componentNodes.size();
+				componentNodes.add(vertices.get(id));
+			}
 		}
-		createLinks(oldGraph, newGraph, nodeTranslator);
+		JavaCallGraph newGraph = createGraph(oldGraph, componentNodes);
+		int[][] successors = getSuccessorIds(jungGraph, vertices, ids);
+		createLinks(successors, component, componentNodes, newGraph,
+				newGraph.getEdgeFactory(), newGraph.getDefaultEdgeType(), false);
 		return newGraph;
 	}
 
@@ -103,129 +124,159 @@ public class GraphCondenser {
 		Graph<CallGraphNode, CallGraphLink> jungGraph = oldGraph.getJungGraph();
 		Factory<CallGraphNode> nodeFactory = oldGraph.getVertexFactory();
 		Factory<CallGraphLink> linkFactory = oldGraph.getEdgeFactory();
+		List<CallGraphNode> vertices =
+			new ArrayList<CallGraphNode>(jungGraph.getVertices());
+		Map<CallGraphNode, Integer> ids = getIds(vertices);
+		int[][] successors = getSuccessorIds(jungGraph, vertices, ids);
+		int[] component = new int[vertices.size()];
+		int numComponents =
+			CycleCalculator.assignComponents(successors, component);
+		
+		// Gather the members of each strongly connected component
+		List<Set<CallGraphNode>> members =
+			new ArrayList<Set<CallGraphNode>>(numComponents);
+		for (int c = 0; c < numComponents; c++) {
+			members.add(null);
+		}
+		for (int id = 0; id < component.length; id++) {
+			Set<CallGraphNode> scc = members.get(component[id]);
+			if (scc == null) {
+				scc = new HashSet<CallGraphNode>();
+				members.set(component[id], scc);
+			}
+			scc.add(vertices.get(id));
+		}
+		List<CallGraphNode> componentNodes =
+			new ArrayList<CallGraphNode>(numComponents);
+		for (Set<CallGraphNode> scc : members) {
+			if (scc.size() == 1) {
+				componentNodes.add(scc.iterator().next());
+			}
+			else {
+				CallGraphCluster cluster = new CallGraphCluster(scc);
+				componentNodes.add(createNodeForCluster(cluster, nodeFactory));
+			}
+		}
+		JavaCallGraph newGraph = createGraph(oldGraph, componentNodes);
+		createLinks(successors, component, componentNodes, newGraph,
+				linkFactory, EdgeType.DIRECTED, true);
+		return newGraph;
+	}
+
+	/**
+	 * Numbers the nodes by their position in the list.
+	 * @param vertices the nodes of the original graph
+	 * @return the id of each node
+	 */
+	private static Map<CallGraphNode, Integer> getIds(
+			List<CallGraphNode> vertices) {
+		Map<CallGraphNode, Integer> ids =
+			new HashMap<CallGraphNode, Integer>(2 * vertices.size());
+		for (int id = 0; id < vertices.size(); id++) {
+			ids.put(vertices.get(id), id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the successors of every node as ids, each successor
+	 * appearing once per node.
+	 * @param jungGraph the original graph
+	 * @param vertices the nodes of the original graph
+	 * @param ids the id of each node
+	 * @return the ids of the successors of each node, indexed by id
+	 */
+	private static int[][] getSuccessorIds(
+			Graph<CallGraphNode, CallGraphLink> jungGraph,
+			List<CallGraphNode> vertices, Map<CallGraphNode, Integer> ids) {
+		int[][] successors = new int[vertices.size()][];
+		for (int id = 0; id < successors.length; id++) {
+			Collection<CallGraphNode> nodeSuccessors =
+				jungGraph.getSuccessors(vertices.get(id));
+			successors[id] = new int[nodeSuccessors.size()];
+			int i = 0;
+			for (CallGraphNode successor : nodeSuccessors) {
+				successors[id][i++] = ids.get(successor);
+			}
+		}
+		return successors;
+	}
+
+	/**
+	 * Creates a graph with the name, handle and default edge type of the
+	 * original graph, containing the specified nodes.
+	 */
+	private static JavaCallGraph createGraph(JavaCallGraph oldGraph,
+			List<CallGraphNode> nodes) {
 		JavaCallGraph newGraph = new JavaCallGraph();
 		newGraph.setName(oldGraph.getName());
 		newGraph.setHandle(oldGraph.getHandle());
 		newGraph.setDefaultEdgeType(oldGraph.getDefaultEdgeType());
-		
-		CycleCalculator cycler = new CycleCalculator();
-		Set<CallGraphCluster> clusters = cycler.getStronglyConnectedComponents(jungGraph);
-		// The key is the original node; the value is the (possibly newly condensed)
-		// node in the DAG
-		Hashtable<CallGraphNode, CallGraphNode> nodeTranslator =
-			new Hashtable<CallGraphNode, CallGraphNode>();
-		Set<CallGraphNode> nodes =
-			convertClustersToNodes(nodeFactory, clusters, nodeTranslator);
 		for (CallGraphNode node : nodes) {
 			newGraph.addNode(node);
 		}
-		createDAGLinks(jungGraph, linkFactory, newGraph.getJungGraph(), nodeTranslator);
 		return newGraph;
 	}
 
-	private static void createDAGLinks(Graph<CallGraphNode, CallGraphLink> jungGraph,
-			Factory<CallGraphLink> linkFactory,
-			Graph<CallGraphNode, CallGraphLink> dag,
-			Hashtable<CallGraphNode, CallGraphNode> nodeTranslator) {
-		Collection<CallGraphNode> origVertices = jungGraph.getVertices();
-		for (CallGraphNode origVertex : origVertices) {
-			CallGraphNode dagVertex = nodeTranslator.get(origVertex);
-			if (dagVertex == null) {
-				System.err.println("GraphCondenser.createDAGLinks: unable to locate DAG vertex for " + origVertex);
-			}
-			else {
-				Collection<CallGraphNode> successors = jungGraph.getSuccessors(origVertex);
-				
-				for (CallGraphNode successor : successors) {
-					CallGraphNode dagSuccesor = nodeTranslator.get(successor);
-					
-					if (!dagVertex.equals(dagSuccesor)	// ensure no self-loop
-							&& !dag.isSuccessor(dagVertex, dagSuccesor))  /* no dups  */ {
-						CallGraphLink dagLink = linkFactory.create();
-						dag.addEdge(dagLink, dagVertex, dagSuccesor, EdgeType.DIRECTED);
-					}
-				}
-			}
-		}
-	}
-
 	/**
-	 * Create links for the newly condensed graph based on the edges that were
-	 * present in the original graph.
-	 * @param oldGraph the original graph
+	 * Create links for the quotient graph based on the edges that were
+	 * present in the original graph.  Links within a group are dropped.
+	 * @param successors the successor ids of each original node
+	 * @param component the group of each original node
+	 * @param componentNodes the node in the new graph for each group
 	 * @param newGraph the new graph, to which edges are being added
-	 * @param nodeTranslator matches up nodes in the original graph to those
-	 * (possibly condensed) nodes in the new graph.
+	 * @param linkFactory creates the new links
+	 * @param edgeType the type of the new links
+	 * @param noDuplicates whether to create at most one link from one
+	 *   group to another
 	 */
-	private static void createLinks(JavaCallGraph oldGraph,
+	private static void createLinks(int[][] successors, int[] component,
+			List<CallGraphNode> componentNodes,
 			JavaCallGraph newGraph,
-			Hashtable<CallGraphNode, CallGraphNode> nodeTranslator) {
-		Graph<CallGraphNode, CallGraphLink> oldJungGraph =
-			oldGraph.getJungGraph();
+			Factory<CallGraphLink> linkFactory,
+			EdgeType edgeType,
+			boolean noDuplicates) {
 		Graph<CallGraphNode, CallGraphLink> newJungGraph =
 			newGraph.getJungGraph();
-		Collection<CallGraphNode> origVertices = oldJungGraph.getVertices();
-		for (CallGraphNode origVertex : origVertices) {
-			CallGraphNode newVertex = nodeTranslator.get(origVertex);
-			// Handle the case where a vertex may have been removed,
-			// e.g. a constructor
-			if (newVertex == null) {
-				System.err.println("GraphCondenser.createLinks: unable to locate vertex for "
-						+ origVertex);
-			}
-			else { 	// newVertex != null
-				Collection<CallGraphNode> successors =
-					oldJungGraph.getSuccessors(origVertex);
-				EdgeType edgeType = newGraph.getDefaultEdgeType();
-				Factory<CallGraphLink> linkFactory = newGraph.getEdgeFactory();
+		int numComponents = componentNodes.size();
+		
+		// Visit the original nodes group by group so that duplicate links
+		// can be detected by remembering the last group that linked to
+		// each target group
+		int[] firstMember = new int[numComponents + 1];
+		for (int id = 0; id < component.length; id++) {
+			firstMember[component[id] + 1]++;
+		}
+		for (int c = 0; c < numComponents; c++) {
+			firstMember[c + 1] += firstMember[c];
+		}
+		int[] members = new int[component.length];
+		int[] next = new int[numComponents];
+		System.arraycopy(firstMember, 0, next, 0, numComponents);
+		for (int id = 0; id < component.length; id++) {
+			members[next[component[id]]++] = id;
+		}
+		int[] lastLinkedFrom = new int[numComponents];
+		Arrays.fill(lastLinkedFrom, -1);
 
-				// Link newVertex to its successors
-				for (CallGraphNode succ : successors) {
-					CallGraphNode newSucc = nodeTranslator.get(succ);
-					CallGraphLink edge = linkFactory.create();
+		for (int c = 0; c < numComponents; c++) {
+			CallGraphNode newVertex = componentNodes.get(c);
+			for (int m = firstMember[c]; m < firstMember[c + 1]; m++) {
+				for (int successor : successors[members[m]]) {
+					int target = component[successor];
 					
 					// Don't link a node to itself
-					if (!newVertex.equals(newSucc)) {
-						newJungGraph.addEdge(edge, newVertex, newSucc, edgeType);
+					if (target != c
+							&& (!noDuplicates || lastLinkedFrom[target] != c)) {
+						lastLinkedFrom[target] = c;
+						CallGraphLink edge = linkFactory.create();
+						newJungGraph.addEdge(edge, newVertex,
+								componentNodes.get(target), edgeType);
 					}
-				}	// for
-			}	// else newVertex != null
-		}	// for
-	}
-
-	/**
-	 * Create nodes from clusters.  If the cluster contains one node,
-	 * that node is added to the collection.  If the cluster contains multiple
-	 * nodes, a new node is created that represents the cluster, and
-	 * that node is added to the collection.
-	 * @param nodeFactory used to create new nodes
-	 * @param clusters contain one or more nodes
-	 * @param nodeTranslator keeps track of node correspondences -
-	 *   the key is the original node; the value is the (possibly newly condensed)
-	 *   node in the DAG
-	 */
-	private static Set<CallGraphNode> convertClustersToNodes(Factory<CallGraphNode> nodeFactory,
-			Set<CallGraphCluster> clusters,
-			Hashtable<CallGraphNode, CallGraphNode> nodeTranslator) {
-		HashSet<CallGraphNode> newNodes = new HashSet<CallGraphNode>();
-		for (CallGraphCluster cluster : clusters) {
-			SortedSet<CallGraphNode> clusterNodes = cluster.getElements();
-			int clusterSize = clusterNodes.size();
-			if (clusterSize == 1) {
-				CallGraphNode node = clusterNodes.first();
-				newNodes.add(node);
-				nodeTranslator.put(node, node);
-			}
-			else if (clusterSize > 1) {
-				CallGraphNode combinedNode =
-					createNodeForCluster(cluster, nodeFactory);
-				newNodes.add(combinedNode);
-				for (CallGraphNode origNode : clusterNodes) {
-					nodeTranslator.put(origNode, combinedNode);
 				}
 			}
 		}
-		return newNodes;
+		newGraph.graphChanged();
 	}
 
 	private static CallGraphNode createNodeForCluster(CallGraphCluster cluster,
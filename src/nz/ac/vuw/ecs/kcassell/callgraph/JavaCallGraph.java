@@ -33,8 +33,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,11 +42,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseSearchUtils;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
 
 import org.apache.commons.collections15.Factory;
 import org.apache.commons.collections15.Transformer;
@@ -80,8 +82,7 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	protected Graph<CallGraphNode, CallGraphLink> jungGraph =
 		new SparseMultigraph<CallGraphNode, CallGraphLink>();
 
-	// private final Logger logger =
-	// Logger.getLogger(this.getClass().getSimpleName());
+	private static final UtilLogger logger = new UtilLogger("JavaCallGraph");
 
 	protected Factory<CallGraphNode> vertexFactory =
 		new CallGraphNode.CallGraphNodeFactory();
@@ -122,6 +123,16 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	 *  in bottom up order. */
 	private IType[] supertypes;
 
+	/** Counts the changes made to the graph's nodes and links through this
+	 * object, so that results computed from the graph can be cached. */
+	protected int version = 0;
+
+	/** The fingerprint of the graph's structure, when last calculated. */
+	private String fingerprint = null;
+
+	/** The version of the graph the fingerprint was calculated for. */
+	private int fingerprintVersion = 0;
+
 
 	/**
 	 * This keeps track of the correspondence between a vertex and its label.
@@ -196,6 +207,57 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	}
 
 
+	/**
+	 * @return a number that changes whenever nodes or links are added or
+	 *  removed through this object (or graphChanged is called)
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Records a change made directly to the JUNG graph, so that results
+	 * cached for the previous version aren't used.
+	 */
+	public void graphChanged() {
+		version++;
+	}
+
+	/**
+	 * Gets a fingerprint of the graph's structure: a digest of the labels
+	 * and types of the nodes and of the endpoints of the links, which
+	 * doesn't depend on the order they were added in.  Graphs with the
+	 * same structure have the same fingerprint, even in different
+	 * sessions, so results calculated from a graph can be stored and
+	 * reused.
+	 * @return the fingerprint, as a hexadecimal string
+	 */
+	public String getFingerprint() {
+		if (fingerprint == null || fingerprintVersion != version) {
+			List<String> lines = new ArrayList<String>();
+			for (CallGraphNode node : jungGraph.getVertices()) {
+				lines.add("N " + node.getLabel() + " " + node.getNodeType());
+			}
+			for (CallGraphLink link : jungGraph.getEdges()) {
+				Pair<CallGraphNode> ends = jungGraph.getEndpoints(link);
+				String first = ends.getFirst().getLabel();
+				String second = ends.getSecond().getLabel();
+				EdgeType edgeType = jungGraph.getEdgeType(link);
+				if (EdgeType.UNDIRECTED.equals(edgeType)
+						&& first.compareTo(second) > 0) {
+					String temp = first;
+					first = second;
+					second = temp;
+				}
+				lines.add("L " + first + " " + second + " " + edgeType);
+			}
+			Collections.sort(lines);
+			fingerprint = StringUtils.getDigest(lines);
+			fingerprintVersion = version;
+		}
+		return fingerprint;
+	}
+
 	/**
 	 * 
 	 * @return the underlying JUng graph representation
@@ -208,6 +270,10 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		return labelsToVertices;
 	}
 
+	public SettableTransformer<CallGraphNode, String> getVertexLabeler() {
+		return vertexLabeler;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -361,6 +427,7 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 	 */
 	public void addNode(CallGraphNode node) {
 		jungGraph.addVertex(node);
+		version++;
 		String label = node.getLabel();
 		vertexLabeler.set(node, label);
 		labelsToVertices.put(label, node);
@@ -414,6 +481,7 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		}
 		link.setLabel(node1.getLabel() + "-" + node2.getLabel());
 		jungGraph.addEdge(link, node1, node2, edgeType);
+		version++;
 		return link;
 	}
 
@@ -488,6 +556,28 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		return jungGraph.getNeighbors(node);
 	}
 
+	/**
+	 * Gets the labels of a node and its neighbors.  The distance
+	 * calculators that build a member's properties from its neighbors'
+	 * labels use this to find the members whose properties include the
+	 * member's label, i.e. whose distances an edit to it may change.
+	 * @param label the label of the node
+	 * @return the label and the labels of the node's neighbors; just the
+	 *   label if there is no such node
+	 */
+	public Collection<String> getNeighborhoodLabels(String label) {
+		Collection<String> labels = new ArrayList<String>();
+		labels.add(label);
+		CallGraphNode node = getNode(label);
+
+		if (node != null) {
+			for (CallGraphNode neighbor : getNeighbors(node)) {
+				labels.add(neighbor.getLabel());
+			}
+		}
+		return labels;
+	}
+
 	/**
 	 * Adds the provided call data to the graph.
 	 * 
@@ -507,7 +597,7 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		Map<IMethod, HashSet<IMethod>> methodsCalledMap =
 			callData.getMethodsCalledMap();
 		createLinksToMethods(methodsCalledMap);
-		System.out.println(this.toString());
+		logger.fine("{0}", this);
 	}
 
 	protected void createLinksToMethods(
@@ -649,28 +739,29 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		HashSet<CallGraphNode> requiredMethods = new HashSet<CallGraphNode>();
 
 		IType[] supertypes = getSupertypes();
-		HashSet<IMethod> allSuperMethods = new HashSet<IMethod>();
+		// Index the supertypes' methods by their similarity keys
+		HashSet<String> superMethodKeys = new HashSet<String>();
 		
 		for (IType supertype : supertypes) {
 			if (includeObjectMethods
 					|| !"Object".equals(supertype.getElementName())) {
 				IMethod[] methods = supertype.getMethods();
-				List<IMethod> superMethods = Arrays.asList(methods);
-				allSuperMethods.addAll(superMethods);
+				for (IMethod superMethod : methods) {
+					superMethodKeys.add(
+							EclipseSearchUtils.getSimilarityKey(superMethod));
+				}
 			}
 		}
 		
 		// Check each method to see if it is declared elsewhere
 		for (IMethod method : theseMethods) {
-			for (IMethod superMethod : allSuperMethods) {
-				if (method.isSimilar(superMethod)) {
-					CallGraphNode node =
-						labelsToVertices.get(method.getHandleIdentifier());
-					
-					if (node != null) {
-						requiredMethods.add(node);
-					}
-					break;
+			if (superMethodKeys.contains(
+					EclipseSearchUtils.getSimilarityKey(method))) {
+				CallGraphNode node =
+					labelsToVertices.get(method.getHandleIdentifier());
+				
+				if (node != null) {
+					requiredMethods.add(node);
 				}
 			}
 		}
@@ -710,12 +801,55 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 					jungGraph.removeVertex(node);
 				}
 			} // for
+			version++;
 		}
 	}
 
 
+	/**
+	 * Creates a copy of this graph whose structure can be modified without
+	 * affecting the original.  The nodes and links themselves are shared,
+	 * but the JUNG graph, the label index, and the labeler are copied.
+	 */
 	public Object clone() throws CloneNotSupportedException {
-		return super.clone();
+		JavaCallGraph copy = (JavaCallGraph) super.clone();
+		copy.jungGraph = copyJungGraph(jungGraph);
+		copy.labelsToVertices =
+			new HashMap<String, CallGraphNode>(labelsToVertices);
+		copy.vertexLabeler = new MapSettableTransformer<CallGraphNode, String>(
+				new HashMap<CallGraphNode, String>());
+		for (CallGraphNode node : jungGraph.getVertices()) {
+			copy.vertexLabeler.set(node, vertexLabeler.transform(node));
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies the vertices and edges of a JUNG graph into a new graph of
+	 * the same class (or a SparseMultigraph, if that class can't be
+	 * instantiated).
+	 * @param graphIn the graph to copy
+	 * @return the copy
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Graph<CallGraphNode, CallGraphLink> copyJungGraph(
+			Graph<CallGraphNode, CallGraphLink> graphIn) {
+		Graph<CallGraphNode, CallGraphLink> graphOut = null;
+		try {
+			graphOut = graphIn.getClass().getDeclaredConstructor()
+				.newInstance();
+		} catch (Exception e) {
+			graphOut = new SparseMultigraph<CallGraphNode, CallGraphLink>();
+		}
+		for (CallGraphNode node : graphIn.getVertices()) {
+			graphOut.addVertex(node);
+		}
+		for (CallGraphLink link : graphIn.getEdges()) {
+			Pair<CallGraphNode> endpoints = graphIn.getEndpoints(link);
+			graphOut.addEdge(link, endpoints.getFirst(), endpoints.getSecond(),
+					graphIn.getEdgeType(link));
+		}
+		return graphOut;
 	}
 
 	/**
@@ -738,6 +872,7 @@ implements Cloneable, ParameterConstants, RefactoringConstants {
 		for (CallGraphNode node : toRemove) {
 			jungGraph.removeVertex(node);
 		}
+		version++;
 	}
 
 	/**
@@ -32,17 +32,23 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.callgraph;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 
-import edu.uci.ics.jung.algorithms.shortestpath.BFSDistanceLabeler;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.SparseGraph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 
 /**
+ * Finds the level of each node of a graph: the fields are on level 0, and
+ * the other nodes are one level beyond the nearest node with a link to
+ * them. The levels are found by a breadth first search from all the fields
+ * at once, over integer ids, and are kept (with the links between adjacent
+ * levels) until a different graph, or a different version of a
+ * JavaCallGraph, is asked about.
  * @author kcassell
  * 
  */
@@ -51,6 +57,39 @@ public class LevelFinder {
 	private static final UtilLogger logger =
     	new UtilLogger("LevelFinder");
 
+	/** The level of nodes that can't be reached from any field. */
+	public static final int UNREACHABLE = -1;
+
+	/** The graph whose levels are held (null if they shouldn't be reused),
+	 * with its version and size when they were found. */
+	protected Graph<CallGraphNode, CallGraphLink> levelledGraph = null;
+	protected int levelledVersion = 0;
+	protected int levelledVertexCount = 0;
+	protected int levelledEdgeCount = 0;
+
+	/** The DAG last created from the levels of a JavaCallGraph, which is
+	 * reused for as long as the levels are (null if there is none). */
+	protected Graph<CallGraphNode, CallGraphLink> levelledDAG = null;
+
+	/** The nodes of the graph, indexed by their ids. */
+	protected ArrayList<CallGraphNode> vertices = new ArrayList<CallGraphNode>();
+	protected HashMap<CallGraphNode, Integer> ids =
+		new HashMap<CallGraphNode, Integer>();
+
+	/** The level of each node, by id. This (like the other arrays) is
+	 * reused for later graphs, growing as needed. */
+	protected int[] levels = new int[0];
+
+	/** The ids of the nodes reached, in the order visited. This also serves
+	 * as the search's queue. */
+	protected int[] visited = new int[0];
+	protected int numVisited = 0;
+
+	/** The links from each node to those on the previous level with links
+	 * to it, as pairs of ids: dagLinks[2i] to dagLinks[2i + 1]. */
+	protected int[] dagLinks = new int[0];
+	protected int numDagLinks = 0;
+
 	/**
 	 * @param args
 	 */
@@ -126,40 +165,162 @@ public class LevelFinder {
 		return dag;
 	}
 
+	/**
+	 * Creates the DAG of the levels of a call graph (see
+	 * createDAG(Graph)).  For the same version of the graph, the DAG
+	 * returned last time is returned again, so it must not be modified.
+	 * @param callGraph a graph containing methods and attributes
+	 * @return a directed acyclic graph
+	 */
+	public Graph<CallGraphNode, CallGraphLink> createDAG(JavaCallGraph callGraph) {
+		if (findLevels(callGraph) || levelledDAG == null) {
+			levelledDAG = createGraphFromLevels(EdgeType.DIRECTED);
+		}
+		return levelledDAG;
+	}
+
 	public Graph<CallGraphNode, CallGraphLink> createGraph(
 			Graph<CallGraphNode, CallGraphLink> inputGraph, EdgeType edgeType) {
 		Graph<CallGraphNode, CallGraphLink> dag = null;
-		HashSet<CallGraphNode> fields = extractFields(inputGraph);
 
 		if (inputGraph != null) {
-			dag = new SparseGraph<CallGraphNode, CallGraphLink>();
-			BFSDistanceLabeler<CallGraphNode, CallGraphLink> distancer = new BFSDistanceLabeler<CallGraphNode, CallGraphLink>();
-			distancer.labelDistances(inputGraph, fields);
-			for (CallGraphNode node : distancer.getVerticesInOrderVisited()) {
-				dag.addVertex(node);
-				Set<CallGraphNode> predecessors = distancer
-						.getPredecessors(node);
-				logger.fine("Predecessors of " + node.getLabel() + ": "
-						+ predecessors);
-
-				for (CallGraphNode pred : predecessors) {
-					dag.addEdge(new CallGraphLink(), node, pred, edgeType);
-				} // for predecessors
-			} // nodes in the graph
+			findLevels(inputGraph);
+			dag = createGraphFromLevels(edgeType);
 		} // if
 		return dag;
 	}
 
-	protected HashSet<CallGraphNode> extractFields(
-			Graph<CallGraphNode, CallGraphLink> inputGraph) {
-		HashSet<CallGraphNode> fields = new HashSet<CallGraphNode>();
-		for (CallGraphNode node : inputGraph.getVertices()) {
+	/**
+	 * @return a graph of the nodes reached (in the order visited) and the
+	 *  links from each to the nodes on the previous level linked to it
+	 */
+	protected Graph<CallGraphNode, CallGraphLink> createGraphFromLevels(
+			EdgeType edgeType) {
+		Graph<CallGraphNode, CallGraphLink> dag =
+			new SparseGraph<CallGraphNode, CallGraphLink>();
+		for (int i = 0; i < numVisited; i++) {
+			dag.addVertex(vertices.get(visited[i]));
+		}
+		for (int i = 0; i < numDagLinks; i++) {
+			dag.addEdge(new CallGraphLink(), getDAGLinkSource(i),
+					getDAGLinkTarget(i), edgeType);
+		}
+		return dag;
+	}
+
+	/**
+	 * Finds the levels of the call graph's nodes, unless they were found for
+	 * this version of the graph by the previous call.
+	 * @param callGraph a graph containing methods and attributes
+	 * @return true if the levels had to be found, false if they were reused
+	 */
+	public boolean findLevels(JavaCallGraph callGraph) {
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		boolean stale = graph != levelledGraph
+			|| callGraph.getVersion() != levelledVersion
+			|| graph.getVertexCount() != levelledVertexCount
+			|| graph.getEdgeCount() != levelledEdgeCount;
+
+		if (stale) {
+			findLevels(graph);
+			levelledGraph = graph;
+			levelledVersion = callGraph.getVersion();
+		} else {
+			logger.fine("Reusing the levels of {0}", callGraph.getName());
+		}
+		return stale;
+	}
+
+	/**
+	 * Finds the levels of the graph's nodes by a breadth first search from
+	 * all the fields. (Without a version to check, the levels of a bare
+	 * JUNG graph are always found afresh.)
+	 * @param graph a graph containing methods and attributes
+	 */
+	public void findLevels(Graph<CallGraphNode, CallGraphLink> graph) {
+		int numVertices = graph.getVertexCount();
+		vertices.clear();
+		ids.clear();
+		if (levels.length < numVertices) {
+			levels = new int[numVertices];
+			visited = new int[numVertices];
+		}
+		numVisited = 0;
+		numDagLinks = 0;
+		levelledGraph = null;
+		levelledDAG = null;
+		levelledVertexCount = numVertices;
+		levelledEdgeCount = graph.getEdgeCount();
+
+		for (CallGraphNode node : graph.getVertices()) {
+			int id = vertices.size();
+			ids.put(node, id);
+			vertices.add(node);
 			if (node.getNodeType() == NodeType.FIELD) {
-				fields.add(node);
+				levels[id] = 0;
+				visited[numVisited++] = id;
+			} else {
+				levels[id] = UNREACHABLE;
 			}
 		}
-		System.out.println("fields = " + fields);
-		return fields;
+		for (int head = 0; head < numVisited; head++) {
+			int id = visited[head];
+			int nextLevel = levels[id] + 1;
+			for (CallGraphNode successor : graph.getSuccessors(vertices.get(id))) {
+				int successorId = ids.get(successor);
+				if (levels[successorId] == UNREACHABLE) {
+					levels[successorId] = nextLevel;
+					visited[numVisited++] = successorId;
+				}
+				if (levels[successorId] == nextLevel) {
+					addDAGLink(successorId, id);
+				}
+			}
+		}
+	}
+
+	private void addDAGLink(int sourceId, int targetId) {
+		if (2 * numDagLinks == dagLinks.length) {
+			int[] newLinks = new int[Math.max(16, 2 * dagLinks.length)];
+			System.arraycopy(dagLinks, 0, newLinks, 0, dagLinks.length);
+			dagLinks = newLinks;
+		}
+		dagLinks[2 * numDagLinks] = sourceId;
+		dagLinks[2 * numDagLinks + 1] = targetId;
+		numDagLinks++;
+	}
+
+	/**
+	 * @return the level of the node in the graph whose levels were last
+	 *  found, or UNREACHABLE if no field links to it (or it isn't there)
+	 */
+	public int getLevel(CallGraphNode node) {
+		Integer id = ids.get(node);
+		return (id == null) ? UNREACHABLE : levels[id];
+	}
+
+	/** @return the nodes reached from the fields, in the order visited */
+	public List<CallGraphNode> getVerticesInOrderVisited() {
+		List<CallGraphNode> nodes = new ArrayList<CallGraphNode>(numVisited);
+		for (int i = 0; i < numVisited; i++) {
+			nodes.add(vertices.get(visited[i]));
+		}
+		return nodes;
+	}
+
+	/** @return the number of links between adjacent levels */
+	public int getNumDAGLinks() {
+		return numDagLinks;
+	}
+
+	/** @return the node (not on level 0) that DAG link i starts from */
+	public CallGraphNode getDAGLinkSource(int i) {
+		return vertices.get(dagLinks[2 * i]);
+	}
+
+	/** @return the node one level closer to the fields that link i ends at */
+	public CallGraphNode getDAGLinkTarget(int i) {
+		return vertices.get(dagLinks[2 * i + 1]);
 	}
 
 }
@@ -30,51 +30,158 @@ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 
+
 package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
-import nz.ac.vuw.ecs.kcassell.callgraph.VertexLabeler;
+import nz.ac.vuw.ecs.kcassell.callgraph.io.BinaryCallGraphFormat;
 import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
-import nz.ac.vuw.ecs.kcassell.callgraph.io.GraphReader;
 import nz.ac.vuw.ecs.kcassell.cluster.BetweennessClusterer;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
 import edu.uci.ics.jung.graph.Graph;
 
+/**
+ * Proposes new classes for each of a batch of call graphs by removing
+ * edges of high betweenness until numToCreate new clusters have formed.
+ * The graphs are processed concurrently on a bounded pool of threads, each
+ * subject to an optional time limit, and the results are written as CSV or
+ * JSON lines in the order the graph files were given.  The result for each
+ * graph is also kept in its own file in the output directory, and is reused
+ * as long as it is newer than the graph file.
+ */
 public class ClassProposer
 {
     protected static final UtilLogger logger =
         new UtilLogger("ClassProposer");
-    
+
+    /** The format for comma separated values, one line per graph. */
+    public static final String CSV_FORMAT = "csv";
+
+    /** The format for JSON objects, one line per graph. */
+    public static final String JSON_LINES_FORMAT = "jsonl";
+
+    /** The outcome of proposing classes for one graph. */
+    public enum Status
+    {
+        /** The clusters were computed. */
+        OK,
+        /** An up-to-date result was read from the output directory. */
+        CACHED,
+        /** The time limit ran out before the clusters were computed. */
+        TIMEOUT,
+        /** The graph could not be read or clustered. */
+        ERROR;
+
+        public String toString()
+        {
+            return name().toLowerCase();
+        }
+    }
+
     /** The number of new classes to recommend. */
     protected int numToCreate = 4;
-    
-    /** The object that will write out the results as tabular data.
-     * The values will be separated by the FIELD_SEPARATOR.   */
-    protected PrintWriter output = null;
 
-    /** The string that serves to separate the values for a given class. */
-    public static final String FIELD_SEPARATOR = "^";
+    /** The number of graphs to process at once. */
+    protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The time allowed for each graph, in seconds; 0 means no limit. */
+    protected long timeoutSeconds = 0;
+
+    /** CSV_FORMAT or JSON_LINES_FORMAT. */
+    protected String format = CSV_FORMAT;
+
+    /** Where the result for each graph file is kept. */
+    protected File outputDir = new File("ClassProposerOutput");
+
+    /** Whether to recompute results that are up to date. */
+    protected boolean force = false;
+
+    /**
+     * The clusters proposed for one graph file.  For graphs that were
+     * clustered, clusterings maps the number of edges removed to the
+     * sizes of the clusters that formed; for cached results, only the
+     * record read from the output directory is available.
+     */
+    public static class Proposal
+    {
+        protected File graphFile = null;
+        protected Status status = Status.OK;
+        protected int numNodes = 0;
+        protected int numEdges = 0;
+        protected SortedMap<Integer, List<Integer>> clusterings = null;
+        protected String message = "";
+        protected String record = null;
+
+        public Proposal(File graphFile)
+        {
+            this.graphFile = graphFile;
+        }
+
+        public File getGraphFile()
+        {
+            return graphFile;
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        public int getNumNodes()
+        {
+            return numNodes;
+        }
+
+        public int getNumEdges()
+        {
+            return numEdges;
+        }
+
+        /** @return the cluster sizes keyed by the number of edges removed */
+        public SortedMap<Integer, List<Integer>> getClusterings()
+        {
+            return clusterings;
+        }
+
+        public String getMessage()
+        {
+            return message;
+        }
 
-    /** The string that serves to separate the size values for multiple clusters. */
-    public static final String SIZE_SEPARATOR = ", ";
-    
+        /** @return the line written for this graph, without a line end */
+        public String getRecord()
+        {
+            return record;
+        }
+    }
 
     /**
      * @param numToCreate the number of new classes to recommend
@@ -84,163 +191,674 @@ public class ClassProposer
         this.numToCreate = numToCreate;
     }
 
-    protected void printHeaderLine(PrintWriter output)
+    /**
+     * @param numThreads the number of graphs to process at once
+     */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param timeoutSeconds the time allowed for each graph; 0 means no limit
+     */
+    public void setTimeoutSeconds(long timeoutSeconds)
     {
-        output.print("Class");
-        output.print(FIELD_SEPARATOR);
-        output.print("#nodes");
-        output.print(FIELD_SEPARATOR);
-        output.print("#edges");
-        output.print(FIELD_SEPARATOR);
-        output.print("t0 szs");
-        
-        for (int i = 1; i <= numToCreate; i++)
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @param format CSV_FORMAT or JSON_LINES_FORMAT
+     */
+    public void setFormat(String format)
+    {
+        if (!CSV_FORMAT.equals(format) && !JSON_LINES_FORMAT.equals(format))
+        {
+            throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        this.format = format;
+    }
+
+    /**
+     * @param outputDir where the result for each graph file is kept
+     */
+    public void setOutputDir(File outputDir)
+    {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * @param force whether to recompute results that are up to date
+     */
+    public void setForce(boolean force)
+    {
+        this.force = force;
+    }
+
+    /**
+     * Proposes classes for each of the graph files, numThreads at a time.
+     * @param graphFiles Pajek or binary call graph files
+     * @return the proposals, in the same order as the graph files
+     */
+    public List<Proposal> proposeClasses(List<File> graphFiles)
+    {
+        outputDir.mkdirs();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        ScheduledExecutorService watchdogs = (timeoutSeconds > 0)
+                ? Executors.newSingleThreadScheduledExecutor() : null;
+        List<Future<Proposal>> futures =
+            new ArrayList<Future<Proposal>>(graphFiles.size());
+        List<Proposal> proposals = new ArrayList<Proposal>(graphFiles.size());
+
+        try
+        {
+            for (File graphFile : graphFiles)
+            {
+                futures.add(pool.submit(
+                        new ProposalTask(graphFile, watchdogs)));
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                proposals.add(getProposal(futures.get(i), graphFiles.get(i)));
+            }
+        }
+        finally
         {
-            output.print(FIELD_SEPARATOR);
-            output.print("-edges" + i); // #edges removed
-            output.print(FIELD_SEPARATOR);
-            output.print("t" + i + " szs"); // size of the clusters
+            pool.shutdownNow();
+            if (watchdogs != null)
+            {
+                watchdogs.shutdownNow();
+            }
         }
-        output.println();
+        return proposals;
     }
 
-    /** Creates a PrintWriter for writing the results.   */
-    protected PrintWriter setUpOutput(String resultsFileName)
+    /** Waits for the proposal, turning any failure into an error result. */
+    private Proposal getProposal(Future<Proposal> future, File graphFile)
     {
+        Proposal proposal = null;
         try
         {
-            File outFile = new File(resultsFileName);
-            FileWriter fileWriter = new FileWriter(outFile);
-            output = new PrintWriter(new BufferedWriter(fileWriter));
-            System.out.println("output will go to " + outFile.getAbsolutePath());
+            proposal = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            proposal = errorProposal(graphFile, e);
         }
-        catch (IOException e1)
+        catch (ExecutionException e)
         {
-            logger.severe("Error opening results file " 
-                    + resultsFileName + ":" + e1);
-            e1.printStackTrace();
-            System.exit(0);
+            proposal = errorProposal(graphFile, e.getCause());
         }
-        return output;
+        return proposal;
     }
 
+    private Proposal errorProposal(File graphFile, Throwable cause)
+    {
+        logger.severe("Error processing " + graphFile + ":" + cause);
+        Proposal proposal = new Proposal(graphFile);
+        proposal.status = Status.ERROR;
+        proposal.message = String.valueOf(cause);
+        proposal.record = toRecord(proposal);
+        return proposal;
+    }
 
-    protected void detectClusters(JavaCallGraph callGraph)
+    /**
+     * Proposes classes for one graph file, reusing the result in the
+     * output directory when it is up to date, and saving it there otherwise.
+     */
+    private class ProposalTask implements Callable<Proposal>
     {
-        Graph<CallGraphNode, CallGraphLink> jungGraph = callGraph.getJungGraph();
-        BetweennessClusterer clusterer = new BetweennessClusterer(callGraph);
-        int numEdgesToRemove = 0;
-        Collection<CallGraphNode> clusters = clusterer.cluster(numEdgesToRemove);
-        logger.info("Original clusters = " + clusters);
-        int origClusterCount = clusters.size();
-        int lastClusterCount = origClusterCount;
-        printClusterSizes(clusters);
+        private final File graphFile;
+        private final ScheduledExecutorService watchdogs;
+
+        ProposalTask(File graphFile, ScheduledExecutorService watchdogs)
+        {
+            this.graphFile = graphFile;
+            this.watchdogs = watchdogs;
+        }
 
-        while ((lastClusterCount < origClusterCount + numToCreate)
-                && (numEdgesToRemove < jungGraph.getEdgeCount()))
+        public Proposal call() throws IOException
         {
-            numEdgesToRemove++;
-            clusters = clusterer.cluster(numEdgesToRemove);
-            
-            // When a new cluster is produced, update the output
-            if (clusters.size() > lastClusterCount)
+            File resultFile = getResultFile(graphFile);
+            Proposal proposal = null;
+
+            if (!force && isUpToDate(resultFile, graphFile))
+            {
+                proposal = new Proposal(graphFile);
+                proposal.status = Status.CACHED;
+                proposal.record = readRecord(resultFile);
+            }
+            if (proposal == null || proposal.record == null)
             {
-                lastClusterCount = clusters.size();
-                output.print(FIELD_SEPARATOR);
-                output.print(numEdgesToRemove); // #edges removed
-                output.print(FIELD_SEPARATOR);
-                printClusterSizes(clusters); // size of the clusters
+                proposal = proposeWithTimeLimit(graphFile, watchdogs);
+                proposal.record = toRecord(proposal);
+                if (proposal.status == Status.OK)
+                {
+                    writeRecord(resultFile, proposal.record);
+                }
             }
+            return proposal;
         }
-        logger.info("number of edges removed =\n" + numEdgesToRemove);
-        List<CallGraphLink> edgesRemoved = clusterer.getEdgesRemoved();
-        String edgesRemovedString =
-            clusterer.edgesRemovedToString(jungGraph, edgesRemoved);
-        logger.info("edgesRemoved =\n" + edgesRemovedString);
-        logger.info("Clusters =\n" + clusters);
     }
 
-    /** Print the number of nodes in each cluster. */
-    protected void printClusterSizes(Collection<CallGraphNode> nodes)
+    /**
+     * Interrupts a worker thread when its time is up, unless the worker
+     * has finished first.
+     */
+    private static class Watchdog implements Runnable
     {
-    	List<Integer> sizes = CallGraphCluster.getClusterSizes(nodes);
-    	Collections.sort(sizes);
-//        buf.delete(buf.lastIndexOf(SIZE_SEPARATOR), buf.length() - 1);
-        output.print(sizes.toString());
+        private final Thread worker = Thread.currentThread();
+        private boolean finished = false;
+        private boolean expired = false;
+
+        public synchronized void run()
+        {
+            if (!finished)
+            {
+                expired = true;
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * Stops the watchdog and clears any interrupt it caused.
+         * @return whether the time ran out
+         */
+        synchronized boolean finish()
+        {
+            finished = true;
+            if (expired)
+            {
+                Thread.interrupted();
+            }
+            return expired;
+        }
     }
 
-	public static void main(String[] args)
+    /**
+     * Proposes classes for the graph, stopping when timeoutSeconds have
+     * passed since it started (rather than since it was submitted).
+     */
+    protected Proposal proposeWithTimeLimit(File graphFile,
+            ScheduledExecutorService watchdogs)
     {
-        ClassProposer proposer = new ClassProposer();
-        String resultsFileName = "ClassProposerResults" + System.currentTimeMillis();
-        PrintWriter output = proposer.setUpOutput(resultsFileName);
-        proposer.printHeaderLine(output);
-        CallGraphNode.CallGraphNodeFactory vertexFactory =
-        	new CallGraphNode.CallGraphNodeFactory();
-        CallGraphLink.CallGraphLinkFactory edgeFactory =
-        	new CallGraphLink.CallGraphLinkFactory();
-        CallGraphReader reader = new CallGraphReader(vertexFactory, edgeFactory);
-        
-        for (String dataFile : args)
+        Proposal proposal = null;
+        if (watchdogs == null)
+        {
+            proposal = proposeClasses(graphFile);
+        }
+        else
         {
+            Watchdog watchdog = new Watchdog();
+            ScheduledFuture<?> alarm =
+                watchdogs.schedule(watchdog, timeoutSeconds, TimeUnit.SECONDS);
             try
             {
-            	JavaCallGraph callGraph = reader.readPajekNetGraph(dataFile);
-                proposer.detectClusters(callGraph);
-                // calculateBarycentricScores(callGraph);
+                proposal = proposeClasses(graphFile);
+            }
+            finally
+            {
+                alarm.cancel(false);
+                if (watchdog.finish())
+                {
+                    proposal = new Proposal(graphFile);
+                    proposal.status = Status.TIMEOUT;
+                    proposal.message = "No result after "
+                        + timeoutSeconds + " seconds";
+                    logger.warning(graphFile + ": " + proposal.message);
+                }
+            }
+        }
+        return proposal;
+    }
+
+    /**
+     * Reads the graph file and proposes classes for it.
+     * @param graphFile a Pajek or binary call graph file
+     * @return the proposal, with an error status if the graph could
+     *  not be read
+     */
+    public Proposal proposeClasses(File graphFile)
+    {
+        Proposal proposal = new Proposal(graphFile);
+        logger.info("Processing " + graphFile);
+        try
+        {
+            CallGraphReader reader = new CallGraphReader(
+                    new CallGraphNode.CallGraphNodeFactory(),
+                    new CallGraphLink.CallGraphLinkFactory());
+            JavaCallGraph callGraph = reader.readGraph(graphFile.getPath());
+            detectClusters(callGraph, proposal);
+        }
+        catch (IOException e)
+        {
+            logger.severe("Error reading " + graphFile + ":" + e);
+            proposal.status = Status.ERROR;
+            proposal.message = e.toString();
+        }
+        return proposal;
+    }
+
+    /**
+     * Removes the edges of highest betweenness until numToCreate new
+     * clusters have formed, recording the cluster sizes each time a new
+     * cluster appears.
+     */
+    protected void detectClusters(JavaCallGraph callGraph, Proposal proposal)
+    {
+        Graph<CallGraphNode, CallGraphLink> jungGraph = callGraph.getJungGraph();
+        proposal.numNodes = jungGraph.getVertexCount();
+        proposal.numEdges = jungGraph.getEdgeCount();
+        BetweennessClusterer clusterer = new BetweennessClusterer(callGraph);
+        SortedMap<Integer, Collection<CallGraphNode>> clusterings =
+            clusterer.clusterIncrementally(numToCreate);
+        proposal.clusterings = new TreeMap<Integer, List<Integer>>();
+
+        for (Map.Entry<Integer, Collection<CallGraphNode>> entry
+                : clusterings.entrySet())
+        {
+            List<Integer> sizes =
+                CallGraphCluster.getClusterSizes(entry.getValue());
+            Collections.sort(sizes);
+            proposal.clusterings.put(entry.getKey(), sizes);
+        }
+        logger.fine("{0}: edges removed = {1}", callGraph.getName(),
+                clusterer.getEdgesRemoved());
+        logger.fine("{0}: clusters = {1}", callGraph.getName(),
+                clusterer.getClusters());
+    }
+
+    /**
+     * @return where the result for the graph file is kept, which depends
+     *  on numToCreate and the format.  Part of a digest of the graph
+     *  file's path is included so that graphs of the same name in
+     *  different directories don't share a result.
+     */
+    protected File getResultFile(File graphFile)
+    {
+        String path = null;
+        try
+        {
+            path = graphFile.getCanonicalPath();
+        }
+        catch (IOException e)
+        {
+            path = graphFile.getAbsolutePath();
+        }
+        String digest =
+            StringUtils.getDigest(Collections.singletonList(path));
+        return new File(outputDir, getClassName(graphFile) + "."
+                + digest.substring(0, 8) + ".n" + numToCreate + "." + format);
+    }
+
+    /**
+     * @return whether the result file exists and is newer than the graph file
+     */
+    protected static boolean isUpToDate(File resultFile, File graphFile)
+    {
+        return resultFile.isFile()
+            && resultFile.lastModified() >= graphFile.lastModified();
+    }
+
+    /** @return the first line of the file, or null if it cannot be read */
+    protected static String readRecord(File resultFile)
+    {
+        String record = null;
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new FileReader(resultFile));
+            record = reader.readLine();
+        }
+        catch (IOException e)
+        {
+            logger.warning("Unable to read " + resultFile + ":" + e);
+        }
+        finally
+        {
+            closeQuietly(reader);
+        }
+        return record;
+    }
+
+    /**
+     * Writes the record to a temporary file and renames it, so that a
+     * run interrupted part way never leaves a partial result behind.
+     * Failing to save the result is only worth a warning, since the
+     * record itself is still good.
+     */
+    protected static void writeRecord(File resultFile, String record)
+    throws IOException
+    {
+        File tempFile = File.createTempFile(resultFile.getName(), ".tmp",
+                resultFile.getParentFile());
+        PrintWriter writer =
+            new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
+        try
+        {
+            writer.println(record);
+        }
+        finally
+        {
+            writer.close();
+        }
+        if (writer.checkError())
+        {
+            throw new IOException("Error writing " + tempFile);
+        }
+        resultFile.delete();
+        if (!tempFile.renameTo(resultFile))
+        {
+            logger.warning("Unable to rename " + tempFile
+                    + " to " + resultFile);
+            tempFile.delete();
+        }
+    }
+
+    private static void closeQuietly(BufferedReader reader)
+    {
+        if (reader != null)
+        {
+            try
+            {
+                reader.close();
             }
             catch (IOException e)
             {
-                ClassProposer.logger.severe("Error reading " + dataFile + ":" + e);
+                logger.warning("Error closing reader:" + e);
             }
-            output.println();
-        }   //for
-        output.flush();
+        }
+    }
+
+    /**
+     * @return the class name (actually the graph file's base name)
+     */
+    protected static String getClassName(File graphFile)
+    {
+        String name = graphFile.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
     }
 
-	protected Graph<CallGraphNode, CallGraphLink> getGraphFromDataFile(
-			PrintWriter output,
-			GraphReader<CallGraphNode, CallGraphLink> graphReader,
-			File dataFile)
-			throws FileNotFoundException {
-		Graph<CallGraphNode, CallGraphLink> jungGraph;
-		System.out.println("Reading " + dataFile);
-		logger.info("Processing Pajek net file: " + dataFile);
-		printClassName(output, dataFile);
-		readInputFile(graphReader, dataFile);
-		jungGraph = graphReader.getGraph();
-		output.print(jungGraph.getVertexCount()); output.print(FIELD_SEPARATOR);
-		output.print(jungGraph.getEdgeCount()); output.print(FIELD_SEPARATOR);
-        Collection<CallGraphNode> vertices = jungGraph.getVertices();
-        VertexLabeler.relabelCallGraphNodes(graphReader, vertices);
-		return jungGraph;
-	}
+    /** @return the line describing the proposal in the current format */
+    protected String toRecord(Proposal proposal)
+    {
+        return JSON_LINES_FORMAT.equals(format)
+            ? toJsonRecord(proposal) : toCsvRecord(proposal);
+    }
 
     /**
-     * Prints the class name (actually the input file's base).
-     * @param output
-     * @param dataFile
+     * @return the CSV header, which has a pair of columns for each new
+     *  cluster: the number of edges removed and the cluster sizes
      */
-    protected static void printClassName(PrintWriter output, File dataFile)
+    protected String getCsvHeader()
     {
-        output.print(dataFile.getName().replaceFirst(".net", ""));
-        output.print(FIELD_SEPARATOR);
+        StringBuilder buf =
+            new StringBuilder("File,Class,Status,#nodes,#edges,t0 szs");
+
+        for (int i = 1; i <= numToCreate; i++)
+        {
+            buf.append(",-edges").append(i);    // #edges removed
+            buf.append(",t").append(i).append(" szs");  // size of the clusters
+        }
+        buf.append(",Message");
+        return buf.toString();
+    }
+
+    protected String toCsvRecord(Proposal proposal)
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append(csvQuote(proposal.graphFile.getPath())).append(',');
+        buf.append(csvQuote(getClassName(proposal.graphFile))).append(',');
+        buf.append(proposal.status).append(',');
+        buf.append(proposal.numNodes).append(',');
+        buf.append(proposal.numEdges);
+        int numColumns = 0;
+
+        if (proposal.clusterings != null)
+        {
+            for (Map.Entry<Integer, List<Integer>> entry
+                    : proposal.clusterings.entrySet())
+            {
+                if (numColumns > 0)
+                {
+                    buf.append(',').append(entry.getKey());
+                }
+                buf.append(',').append(csvQuote(entry.getValue().toString()));
+                numColumns++;
+            }
+        }
+        // Pad rows with fewer new clusters, so the messages line up
+        for (; numColumns <= numToCreate; numColumns++)
+        {
+            buf.append(numColumns == 0 ? "," : ",,");
+        }
+        buf.append(',').append(csvQuote(proposal.message));
+        return buf.toString();
+    }
+
+    /** Quotes the value if it contains a comma, quote, or line break. */
+    protected static String csvQuote(String value)
+    {
+        String quoted = value;
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+        {
+            quoted = '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return quoted;
+    }
+
+    protected String toJsonRecord(Proposal proposal)
+    {
+        StringBuilder buf = new StringBuilder("{\"file\":");
+        appendJsonString(buf, proposal.graphFile.getPath());
+        buf.append(",\"class\":");
+        appendJsonString(buf, getClassName(proposal.graphFile));
+        buf.append(",\"status\":\"").append(proposal.status).append('"');
+        buf.append(",\"nodes\":").append(proposal.numNodes);
+        buf.append(",\"edges\":").append(proposal.numEdges);
+        buf.append(",\"clusterings\":[");
+
+        if (proposal.clusterings != null)
+        {
+            String separator = "";
+            for (Map.Entry<Integer, List<Integer>> entry
+                    : proposal.clusterings.entrySet())
+            {
+                buf.append(separator);
+                buf.append("{\"edgesRemoved\":").append(entry.getKey());
+                buf.append(",\"sizes\":[");
+                String sizeSeparator = "";
+                for (Integer size : entry.getValue())
+                {
+                    buf.append(sizeSeparator).append(size);
+                    sizeSeparator = ",";
+                }
+                buf.append("]}");
+                separator = ",";
+            }
+        }
+        buf.append("],\"message\":");
+        appendJsonString(buf, proposal.message);
+        buf.append('}');
+        return buf.toString();
+    }
+
+    protected static void appendJsonString(StringBuilder buf, String value)
+    {
+        buf.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+            case '"':
+                buf.append("\\\"");
+                break;
+            case '\\':
+                buf.append("\\\\");
+                break;
+            case '\n':
+                buf.append("\\n");
+                break;
+            case '\r':
+                buf.append("\\r");
+                break;
+            case '\t':
+                buf.append("\\t");
+                break;
+            default:
+                if (c < ' ')
+                {
+                    String hex = Integer.toHexString(c);
+                    buf.append("\\u");
+                    for (int j = hex.length(); j < 4; j++)
+                    {
+                        buf.append('0');
+                    }
+                    buf.append(hex);
+                }
+                else
+                {
+                    buf.append(c);
+                }
+            }
+        }
+        buf.append('"');
     }
 
     /**
-     * @param graphReader
-     * @param dataFile
-     * @throws FileNotFoundException
+     * Writes the proposals to the results file, in order, preceded by a
+     * header line for CSV.
      */
-    protected static void readInputFile(
-            GraphReader<CallGraphNode, CallGraphLink> graphReader, File dataFile)
-            throws FileNotFoundException
+    public void writeResults(List<Proposal> proposals, File resultsFile)
+    throws IOException
     {
-        InputStream stream = new FileInputStream(dataFile);
-        BufferedReader bufferedReader = new BufferedReader(
-                new InputStreamReader(stream));
-        graphReader.readPajekNetGraph(bufferedReader);
+        PrintWriter output =
+            new PrintWriter(new BufferedWriter(new FileWriter(resultsFile)));
+        try
+        {
+            if (CSV_FORMAT.equals(format))
+            {
+                output.println(getCsvHeader());
+            }
+            for (Proposal proposal : proposals)
+            {
+                output.println(proposal.record);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+        if (output.checkError())
+        {
+            throw new IOException("Error writing " + resultsFile);
+        }
     }
 
+    /**
+     * Expands directories into the Pajek and binary call graph files
+     * they contain, sorted by name.
+     * @param paths the names of graph files and directories
+     * @return the graph files, in the order given
+     */
+    public static List<File> getGraphFiles(List<String> paths)
+    {
+        List<File> files = new ArrayList<File>();
+
+        for (String path : paths)
+        {
+            File fileOrDir = new File(path);
+            if (fileOrDir.isDirectory())
+            {
+                File[] dirFiles = fileOrDir.listFiles();
+                Arrays.sort(dirFiles);
+                for (File file : dirFiles)
+                {
+                    String name = file.getName();
+                    if (file.isFile() && (name.endsWith(".net")
+                            || name.endsWith("." + BinaryCallGraphFormat.BINARY_EXT)))
+                    {
+                        files.add(file);
+                    }
+                }
+            }
+            else
+            {
+                files.add(fileOrDir);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Usage: ClassProposer [-threads n] [-timeout seconds] [-format csv|jsonl]
+     *  [-numToCreate n] [-outDir dir] [-out resultsFile] [-force]
+     *  file-or-directory...
+     */
+    public static void main(String[] args)
+    {
+        ClassProposer proposer = new ClassProposer();
+        File resultsFile = null;
+        List<String> paths = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if ("-threads".equals(arg))
+            {
+                proposer.setNumThreads(Integer.parseInt(args[++i]));
+            }
+            else if ("-timeout".equals(arg))
+            {
+                proposer.setTimeoutSeconds(Long.parseLong(args[++i]));
+            }
+            else if ("-format".equals(arg))
+            {
+                proposer.setFormat(args[++i]);
+            }
+            else if ("-numToCreate".equals(arg))
+            {
+                proposer.setNumToCreate(Integer.parseInt(args[++i]));
+            }
+            else if ("-outDir".equals(arg))
+            {
+                proposer.setOutputDir(new File(args[++i]));
+            }
+            else if ("-out".equals(arg))
+            {
+                resultsFile = new File(args[++i]);
+            }
+            else if ("-force".equals(arg))
+            {
+                proposer.setForce(true);
+            }
+            else
+            {
+                paths.add(arg);
+            }
+        }
+        if (resultsFile == null)
+        {
+            resultsFile = new File(proposer.outputDir,
+                    "ClassProposerResults." + proposer.format);
+        }
+        List<File> graphFiles = getGraphFiles(paths);
+        List<Proposal> proposals = proposer.proposeClasses(graphFiles);
+
+        try
+        {
+            proposer.writeResults(proposals, resultsFile);
+            logger.info("output is in " + resultsFile.getAbsolutePath());
+        }
+        catch (IOException e)
+        {
+            logger.severe("Error writing results file "
+                    + resultsFile + ":" + e);
+        }
+    }
 
 }
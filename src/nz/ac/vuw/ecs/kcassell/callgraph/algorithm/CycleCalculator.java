@@ -36,6 +36,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -100,6 +101,79 @@ public class CycleCalculator {
 		return clusters;
 	}
 	
+	/**
+	 * Assigns each vertex to its strongly connected component using an
+	 * iterative version of Tarjan's algorithm over integer ids.  Unlike
+	 * getStronglyConnectedComponents, this neither recurses (so large
+	 * graphs can't overflow the call stack) nor searches the node stack,
+	 * so it runs in time linear in the number of vertices and links.
+	 * @param successors the ids of the successors of each vertex, indexed
+	 *   by vertex id
+	 * @param component filled with the component of each vertex.
+	 *   Components are numbered in reverse topological order, i.e. every
+	 *   link between two components goes to the lower numbered one.
+	 * @return the number of components
+	 */
+	public static int assignComponents(int[][] successors, int[] component) {
+		int numVertices = successors.length;
+		int[] visitIndex = new int[numVertices];
+		int[] lowLink = new int[numVertices];
+		boolean[] onStack = new boolean[numVertices];
+		int[] sccStack = new int[numVertices];
+		int sccStackSize = 0;
+		// The depth-first search path, and where each vertex on it is
+		// up to in its list of successors
+		int[] path = new int[numVertices];
+		int[] nextSuccessor = new int[numVertices];
+		int visited = 0;
+		int numComponents = 0;
+		Arrays.fill(visitIndex, -1);
+
+		for (int root = 0; root < numVertices; root++) {
+			if (visitIndex[root] < 0) {
+				int depth = 0;
+				path[0] = root;
+				visitIndex[root] = lowLink[root] = visited++;
+				sccStack[sccStackSize++] = root;
+				onStack[root] = true;
+
+				while (depth >= 0) {
+					int v = path[depth];
+					if (nextSuccessor[v] < successors[v].length) {
+						int w = successors[v][nextSuccessor[v]++];
+						if (visitIndex[w] < 0) {
+							visitIndex[w] = lowLink[w] = visited++;
+							sccStack[sccStackSize++] = w;
+							onStack[w] = true;
+							path[++depth] = w;
+						}
+						else if (onStack[w] && visitIndex[w] < lowLink[v]) {
+							lowLink[v] = visitIndex[w];
+						}
+					}
+					else {
+						// v is the root of a component, which consists of
+						// the vertices above it on the stack
+						if (lowLink[v] == visitIndex[v]) {
+							int top;
+							do {
+								top = sccStack[--sccStackSize];
+								onStack[top] = false;
+								component[top] = numComponents;
+							} while (top != v);
+							numComponents++;
+						}
+						depth--;
+						if (depth >= 0 && lowLink[v] < lowLink[path[depth]]) {
+							lowLink[path[depth]] = lowLink[v];
+						}
+					}
+				}
+			}
+		}
+		return numComponents;
+	}
+	
 	/**
 	 * Returns true if the supplied graph contains cycles of any
 	 * length (including a node with a link to itself).
@@ -38,6 +38,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.logging.Level;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
@@ -62,6 +63,26 @@ public class HITSScorer
     protected String graphFile = null; //ThesisConstants.WORKSPACE_ROOT + "datasets/basetests/personCarAsym.net";
     protected String metricsFile = null; //ThesisConstants.WORKSPACE_ROOT + "datasets/basetests/personCarAsym.net";
 
+    /** The number of the highest scoring hubs and authorities to log. */
+    protected int numToRank = 20;
+
+    /** Orders nodes by label, for breaking ties between scores. */
+    protected static final Comparator<CallGraphNode> LABEL_COMPARATOR =
+        new Comparator<CallGraphNode>()
+        {
+            public int compare(CallGraphNode node1, CallGraphNode node2)
+            {
+                int result = 0;
+                String label1 = node1.getLabel();
+                String label2 = node2.getLabel();
+                if (label1 != null)
+                {
+                    result = label1.compareTo(label2);
+                }
+                return result;
+            }
+        };
+
     /** @param dataFile the file containing call graph info. */
     public void setGraphFile(String dataFile)
     {
@@ -74,6 +95,12 @@ public class HITSScorer
         this.metricsFile = metricsFile;
     }
 
+    /** @param numToRank the number of top hubs and authorities to log */
+    public void setNumToRank(int numToRank)
+    {
+        this.numToRank = numToRank;
+    }
+
     /**
      * Order the vertices such that those with the highest hub score appear first.
      * @param vertices the graph nodes
@@ -96,12 +123,7 @@ public class HITSScorer
                 result = Double.compare(score1.hub, score2.hub) * -1; // highest first
                 if (result == 0)
                 {
-                    String label1 = node1.getLabel();
-                    String label2 = node2.getLabel();
-                    if (label1 != null)
-                    {
-                        result = label1.compareTo(label2);
-                    }
+                    result = LABEL_COMPARATOR.compare(node1, node2);
                 }
                 return result;
             }
@@ -132,12 +154,7 @@ public class HITSScorer
                 result = Double.compare(score1.authority, score2.authority) * -1; // highest first
                 if (result == 0)
                 {
-                    String label1 = node1.getLabel();
-                    String label2 = node2.getLabel();
-                    if (label1 != null)
-                    {
-                        result = label1.compareTo(label2);
-                    }
+                    result = LABEL_COMPARATOR.compare(node1, node2);
                 }
                 return result;
             }
@@ -153,6 +170,8 @@ public class HITSScorer
      *      indicates the file with metric data for the methods
      *   -graphFile <fileName>
      *      indicates the PajekNet data file
+     *   -numToRank <number>
+     *      indicates how many of the top hubs and authorities to log
      * @throws IOException
      */
     public static void main(String[] args) throws IOException
@@ -169,29 +188,41 @@ public class HITSScorer
     }
 
     
+    /**
+     * Scores the graph's nodes with SparseHITS, storing their authority and
+     * hub scores, and logs the top numToRank hubs and authorities.
+     */
     public void assignHITSScores(
             Graph<CallGraphNode, CallGraphLink> graph)
     {
-        HITS<CallGraphNode, CallGraphLink> hitsAlgo =
-            new HITS<CallGraphNode, CallGraphLink>(graph);
+        SparseHITS<CallGraphNode> hitsAlgo =
+            new SparseHITS<CallGraphNode>(graph);
         hitsAlgo.evaluate();
         
         Collection<CallGraphNode> vertices = graph.getVertices();
         
+        boolean logScores = logger.isLoggable(Level.FINE);
         logger.fine("Label^authority^hub");
         for (CallGraphNode vertex : vertices)
         {
-            Scores score = hitsAlgo.getVertexScore(vertex);
-            vertex.setScore(ScoreType.AUTHORITY, score.authority);
-            vertex.setScore(ScoreType.HUB, score.hub);
-            String SEP = "^";
-            logger.fine(vertex.getLabel() + SEP + score.authority + SEP + score.hub);
+            double authority = hitsAlgo.getAuthorityScore(vertex);
+            double hub = hitsAlgo.getHubScore(vertex);
+            vertex.setScore(ScoreType.AUTHORITY, authority);
+            vertex.setScore(ScoreType.HUB, hub);
+            if (logScores) {
+                String SEP = "^";
+                logger.fine(vertex.getLabel() + SEP + authority + SEP + hub);
+            }
         }
         
-        List<CallGraphNode> orderedHubs = orderHubs(vertices, hitsAlgo);
-        logger.fine("Ordered hubs = " + orderedHubs);
-        List<CallGraphNode> orderedAuths = orderAuthorities(vertices, hitsAlgo);
-        logger.fine("Ordered authorities = " + orderedAuths);
+        if (logScores) {
+            List<CallGraphNode> orderedHubs =
+                hitsAlgo.getTopHubs(numToRank, LABEL_COMPARATOR);
+            logger.fine("Ordered hubs = {0}", orderedHubs);
+            List<CallGraphNode> orderedAuths =
+                hitsAlgo.getTopAuthorities(numToRank, LABEL_COMPARATOR);
+            logger.fine("Ordered authorities = {0}", orderedAuths);
+        }
     }
 
 
@@ -207,6 +238,10 @@ public class HITSScorer
             {
                 demo.setGraphFile(args[i+1]);
             }
+            else if ("-numToRank".equals(args[i]) && (args.length > i + 1))
+            {
+                demo.setNumToRank(Integer.parseInt(args[i+1]));
+            }
         }
     }
 
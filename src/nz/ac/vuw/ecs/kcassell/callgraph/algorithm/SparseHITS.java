@@ -0,0 +1,463 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * Computes hub and authority scores as JUNG's HITS does (with no random
+ * jumps), but on a compact copy of the graph: the in and out neighbors of
+ * each vertex are held in index arrays, and the scores in primitive
+ * vectors. Each iteration multiplies the vectors by the adjacency matrix,
+ * splitting the rows among threads for large graphs, and iteration stops
+ * when no score changes by more than the tolerance or the maximum number
+ * of iterations is reached.
+ * <p>
+ * Unlike JUNG, each iteration computes the hub scores from the new
+ * authority scores (as Kleinberg does) rather than from the previous ones.
+ * JUNG's scores often alternate between two states without converging;
+ * these converge to the same scores as JUNG's do, when they do.
+ * @author kcassell
+ */
+public class SparseHITS<V>
+{
+    /** Graphs with fewer vertices than this are scored on one thread. */
+    protected static final int MIN_VERTICES_PER_THREAD = 2048;
+
+    /** The vertices, in the order of their indices. */
+    protected final List<V> vertices;
+
+    /** The index of each vertex. */
+    protected final Map<V, Integer> indices;
+
+    /** inSources[inStarts[v]..inStarts[v+1]) are the sources of v's in edges
+     * (other than self loops), and similarly for the out edges. */
+    protected final int[] inStarts;
+    protected final int[] inSources;
+    protected final int[] outStarts;
+    protected final int[] outTargets;
+
+    /** Vertices with no out edges, and with no in edges. */
+    protected final int[] sinks;
+    protected final int[] sources;
+
+    protected double[] hubs;
+    protected double[] authorities;
+
+    protected double tolerance = 0.001;
+    protected int maxIterations = 100;
+    protected int numThreads = Runtime.getRuntime().availableProcessors();
+    protected int iterations = 0;
+
+    public <E> SparseHITS(Graph<V, E> graph)
+    {
+        vertices = new ArrayList<V>(graph.getVertices());
+        int numVertices = vertices.size();
+        indices = new HashMap<V, Integer>(numVertices * 2);
+        for (int i = 0; i < numVertices; i++)
+        {
+            indices.put(vertices.get(i), i);
+        }
+        int[] inDegrees = new int[numVertices];
+        int[] outDegrees = new int[numVertices];
+        // Undirected edges are taken as links both ways
+        int[] edgeSources = new int[2 * graph.getEdgeCount()];
+        int[] edgeTargets = new int[edgeSources.length];
+        int numEdges = 0;
+
+        for (E edge : graph.getEdges())
+        {
+            Pair<V> endpoints = graph.getEndpoints(edge);
+            int source = indices.get(endpoints.getFirst());
+            int target = indices.get(endpoints.getSecond());
+            boolean undirected =
+                graph.getEdgeType(edge) == EdgeType.UNDIRECTED;
+            outDegrees[source]++;
+            inDegrees[target]++;
+            if (undirected && source != target)
+            {
+                outDegrees[target]++;
+                inDegrees[source]++;
+            }
+            if (source != target)
+            {
+                edgeSources[numEdges] = source;
+                edgeTargets[numEdges] = target;
+                numEdges++;
+                if (undirected)
+                {
+                    edgeSources[numEdges] = target;
+                    edgeTargets[numEdges] = source;
+                    numEdges++;
+                }
+            }
+        }
+        inStarts = new int[numVertices + 1];
+        outStarts = new int[numVertices + 1];
+        for (int e = 0; e < numEdges; e++)
+        {
+            inStarts[edgeTargets[e] + 1]++;
+            outStarts[edgeSources[e] + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++)
+        {
+            inStarts[v + 1] += inStarts[v];
+            outStarts[v + 1] += outStarts[v];
+        }
+        inSources = new int[numEdges];
+        outTargets = new int[numEdges];
+        int[] inNext = new int[numVertices];
+        int[] outNext = new int[numVertices];
+        System.arraycopy(inStarts, 0, inNext, 0, numVertices);
+        System.arraycopy(outStarts, 0, outNext, 0, numVertices);
+        for (int e = 0; e < numEdges; e++)
+        {
+            inSources[inNext[edgeTargets[e]]++] = edgeSources[e];
+            outTargets[outNext[edgeSources[e]]++] = edgeTargets[e];
+        }
+        sinks = verticesWithNoEdges(outDegrees);
+        sources = verticesWithNoEdges(inDegrees);
+    }
+
+    private static int[] verticesWithNoEdges(int[] degrees)
+    {
+        int count = 0;
+        for (int degree : degrees)
+        {
+            if (degree == 0)
+            {
+                count++;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int v = 0; v < degrees.length; v++)
+        {
+            if (degrees[v] == 0)
+            {
+                result[count++] = v;
+            }
+        }
+        return result;
+    }
+
+    /** @param tolerance iteration stops once no score changes by more than this */
+    public void setTolerance(double tolerance)
+    {
+        this.tolerance = tolerance;
+    }
+
+    /** @param maxIterations the most iterations to make */
+    public void setMaxIterations(int maxIterations)
+    {
+        this.maxIterations = maxIterations;
+    }
+
+    /** @param numThreads the most threads to share each iteration among */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /** @return the number of iterations made by evaluate */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * Iterates from uniform scores until they converge, the maximum number
+     * of iterations is reached, or the thread is interrupted (in which case
+     * the scores are those of the last complete iteration).
+     */
+    public void evaluate()
+    {
+        int numVertices = vertices.size();
+        hubs = new double[numVertices];
+        authorities = new double[numVertices];
+        Arrays.fill(hubs, 1.0 / numVertices);
+        Arrays.fill(authorities, 1.0 / numVertices);
+        iterations = 0;
+        int numChunks = Math.min(numThreads,
+                Math.max(1, numVertices / MIN_VERTICES_PER_THREAD));
+        ExecutorService pool = (numChunks > 1)
+            ? Executors.newFixedThreadPool(numChunks) : null;
+        try
+        {
+            boolean done = (numVertices == 0) || (maxIterations <= 0);
+            while (!done)
+            {
+                double[] newAuthorities = new double[numVertices];
+                double[] newHubs = new double[numVertices];
+                done = !multiply(inStarts, inSources, hubs, newAuthorities,
+                        numChunks, pool);
+                if (!done)
+                {
+                    spreadPotential(sources, hubs, newAuthorities);
+                    normalize(newAuthorities);
+                    done = !multiply(outStarts, outTargets, newAuthorities,
+                            newHubs, numChunks, pool);
+                }
+                if (!done)
+                {
+                    spreadPotential(sinks, newAuthorities, newHubs);
+                    normalize(newHubs);
+                    double maxDelta = Math.max(maxDifference(hubs, newHubs),
+                            maxDifference(authorities, newAuthorities));
+                    hubs = newHubs;
+                    authorities = newAuthorities;
+                    iterations++;
+                    done = iterations >= maxIterations || maxDelta < tolerance;
+                }
+            }
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Sets each product[v] to the sum of the scores of v's neighbors (those
+     * listed in neighbors[starts[v]..starts[v+1])), splitting the vertices
+     * among the pool's threads if there is a pool.
+     * @return false if interrupted
+     */
+    private boolean multiply(final int[] starts, final int[] neighbors,
+            final double[] scores, final double[] product,
+            int numChunks, ExecutorService pool)
+    {
+        boolean completed = true;
+        int numVertices = product.length;
+        if (pool == null)
+        {
+            multiplyRows(starts, neighbors, scores, product, 0, numVertices);
+        }
+        else
+        {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int chunk = 0; chunk < numChunks; chunk++)
+            {
+                final int first = (int) ((long) numVertices * chunk / numChunks);
+                final int last =
+                    (int) ((long) numVertices * (chunk + 1) / numChunks);
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        multiplyRows(starts, neighbors, scores, product,
+                                first, last);
+                        return null;
+                    }
+                });
+            }
+            try
+            {
+                for (Future<Object> future : pool.invokeAll(tasks))
+                {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                completed = false;
+            }
+            catch (ExecutionException e)
+            {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return completed;
+    }
+
+    private static void multiplyRows(int[] starts, int[] neighbors,
+            double[] scores, double[] product, int first, int last)
+    {
+        for (int v = first; v < last; v++)
+        {
+            double sum = 0.0;
+            for (int i = starts[v]; i < starts[v + 1]; i++)
+            {
+                sum += scores[neighbors[i]];
+            }
+            product[v] = sum;
+        }
+    }
+
+    /**
+     * As JUNG does, spreads the scores that would otherwise be lost at
+     * vertices without edges (the hub scores of sources, when computing
+     * authorities, and the authority of sinks, when computing hubs) evenly
+     * over all the vertices.
+     */
+    private static void spreadPotential(int[] unlinked, double[] scores,
+            double[] product)
+    {
+        double potential = 0.0;
+        for (int v : unlinked)
+        {
+            potential += scores[v];
+        }
+        for (int v = 0; v < product.length && potential > 0; v++)
+        {
+            product[v] += potential / product.length;
+        }
+    }
+
+    private static double maxDifference(double[] scores1, double[] scores2)
+    {
+        double maxDifference = 0.0;
+        for (int v = 0; v < scores1.length; v++)
+        {
+            maxDifference =
+                Math.max(maxDifference, Math.abs(scores1[v] - scores2[v]));
+        }
+        return maxDifference;
+    }
+
+    private static void normalize(double[] scores)
+    {
+        double sumOfSquares = 0.0;
+        for (double score : scores)
+        {
+            sumOfSquares += score * score;
+        }
+        double norm = Math.sqrt(sumOfSquares);
+        for (int v = 0; v < scores.length && norm > 0; v++)
+        {
+            scores[v] /= norm;
+        }
+    }
+
+    public double getHubScore(V vertex)
+    {
+        return hubs[indices.get(vertex)];
+    }
+
+    public double getAuthorityScore(V vertex)
+    {
+        return authorities[indices.get(vertex)];
+    }
+
+    /**
+     * @param k the number of vertices wanted
+     * @param tieBreaker orders vertices with equal scores (null to use the
+     *  graph's order)
+     * @return the k vertices with the highest hub scores, highest first
+     */
+    public List<V> getTopHubs(int k, Comparator<? super V> tieBreaker)
+    {
+        return selectTop(hubs, k, tieBreaker);
+    }
+
+    /**
+     * @param k the number of vertices wanted
+     * @param tieBreaker orders vertices with equal scores (null to use the
+     *  graph's order)
+     * @return the k vertices with the highest authority scores, highest first
+     */
+    public List<V> getTopAuthorities(int k, Comparator<? super V> tieBreaker)
+    {
+        return selectTop(authorities, k, tieBreaker);
+    }
+
+    /**
+     * Selects the highest scoring vertices with a heap of the k best seen
+     * so far, which takes O(n log k) time rather than a full sort's
+     * O(n log n).
+     */
+    protected List<V> selectTop(final double[] scores, int k,
+            final Comparator<? super V> tieBreaker)
+    {
+        // Orders the worst first
+        Comparator<Integer> worstFirst = new Comparator<Integer>()
+        {
+            public int compare(Integer v1, Integer v2)
+            {
+                int result = Double.compare(scores[v1], scores[v2]);
+                if (result == 0)
+                {
+                    result = (tieBreaker == null) ? v2 - v1
+                        : tieBreaker.compare(vertices.get(v2), vertices.get(v1));
+                }
+                return result;
+            }
+        };
+        int numWanted = Math.min(k, scores.length);
+        List<V> top = new ArrayList<V>(Math.max(0, numWanted));
+        if (numWanted > 0)
+        {
+            PriorityQueue<Integer> best =
+                new PriorityQueue<Integer>(numWanted, worstFirst);
+            for (int v = 0; v < scores.length; v++)
+            {
+                if (best.size() < numWanted)
+                {
+                    best.add(v);
+                }
+                else if (worstFirst.compare(v, best.peek()) > 0)
+                {
+                    best.poll();
+                    best.add(v);
+                }
+            }
+            while (!best.isEmpty())
+            {
+                top.add(vertices.get(best.poll()));
+            }
+            Collections.reverse(top);
+        }
+        return top;
+    }
+}
@@ -425,6 +425,9 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 			parameters.getParameter(ParameterConstants.CALCULATOR_KEY,
 									DistanceCalculatorEnum.IntraClass.toString());
 		DistanceCalculatorEnum calcType = DistanceCalculatorEnum.valueOf(sCalc);
+		String sLinkage =
+			parameters.getParameter(ParameterConstants.LINKAGE_KEY,
+									ClusterCombinationEnum.AVERAGE_LINK.toString());
 
 		try {
 			if (DistanceCalculatorEnum.GoogleDistance.equals(calcType)) {
@@ -473,9 +476,9 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 			    	LSACalculator.getCalculator(classHandle);
 				List<String> names =
 					EclipseUtils.getFilteredMemberHandles(classHandle);
-				MatrixBasedAgglomerativeClusterer clusterer =
-					new MatrixBasedAgglomerativeClusterer(names, calc);
-				MemberCluster cluster = clusterer.getSingleCluster();
+				MemberCluster cluster =
+					MatrixBasedAgglomerativeClusterer
+					.clusterElements(names, calc, sLinkage);
 				displayCluster(classHandle, cluster);
 			} else if (DistanceCalculatorEnum.Simon.equals(calcType)) {
 				SimonDistanceCalculator calc =
@@ -489,9 +492,9 @@ implements ClusterUIConstants, ParameterConstants, ActionListener {
 			    	VectorSpaceModelCalculator.getCalculator(classHandle);
 				List<String> names =
 					EclipseUtils.getFilteredMemberHandles(classHandle);
-				MatrixBasedAgglomerativeClusterer clusterer =
-					new MatrixBasedAgglomerativeClusterer(names, calc);
-				MemberCluster cluster = clusterer.getSingleCluster();
+				MemberCluster cluster =
+					MatrixBasedAgglomerativeClusterer
+					.clusterElements(names, calc, sLinkage);
 				displayCluster(classHandle, cluster);
 			} else {
 				String msg = "Unable to set up agglomerative clustering using " + sCalc;
@@ -38,11 +38,13 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 import javax.swing.JButton;
@@ -60,7 +62,10 @@ import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.cluster.BetweennessClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.ClusterCombinationEnum;
+import nz.ac.vuw.ecs.kcassell.cluster.DendrogramCuts;
+import nz.ac.vuw.ecs.kcassell.cluster.FlakeGraphClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
+import nz.ac.vuw.ecs.kcassell.cluster.MaxFlowClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MemberCluster;
 import nz.ac.vuw.ecs.kcassell.cluster.MixedModeClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.frequentitemsets.ItemSupportList;
@@ -127,6 +132,9 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 
 	/** The field separator for the CSV file. */
 	static final String  CSV_SEP = "|";
+
+	/** The distances at which the agglomerated clusters are counted. */
+	static final double[] CUT_OFFS = { 0.999, 0.9, 0.75, 0.5 };
 	
 	/** The main panel for this view. */
     private JSplitPane mainPanel = null;
@@ -464,8 +472,11 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 		try {
 			clusterCountWriter = new BufferedWriter(new FileWriter(clusterCountsFile));
 			clusterSizesWriter = new BufferedWriter(new FileWriter(clusterSizesFile));
-			String csvHeader = "Class" + CSV_SEP + 0.999 + CSV_SEP
-				+ 0.9 + CSV_SEP + 0.75 + CSV_SEP + 0.5 + "\n";
+			StringBuffer headerBuf = new StringBuffer("Class");
+			for (double cutOff : CUT_OFFS) {
+				headerBuf.append(CSV_SEP).append(cutOff);
+			}
+			String csvHeader = headerBuf.append("\n").toString();
 			clusterCountWriter.write(csvHeader);
 			clusterSizesWriter.write(csvHeader);
 			buf.append(csvHeader);
@@ -605,6 +616,20 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 				appendClusterSizes(clusters);
 				String sClusters = toOutputString(clusters);
 				buf.append(":\n" + sClusters);
+			} else if (ClustererEnum.MAX_FLOW.toString().equalsIgnoreCase(
+					sClusterer)) {
+				Collection<CallGraphNode> clusters = clusterUsingMaxFlow(callGraph);
+				buf.append("Final clusters for " + callGraph.getName());
+				appendClusterSizes(clusters);
+				String sClusters = toOutputString(clusters);
+				buf.append(":\n" + sClusters);
+			} else if (ClustererEnum.FLAKE.toString().equalsIgnoreCase(
+					sClusterer)) {
+				Collection<CallGraphNode> clusters = clusterUsingFlake(callGraph);
+				buf.append("Final clusters for " + callGraph.getName());
+				appendClusterSizes(clusters);
+				String sClusters = toOutputString(clusters);
+				buf.append(":\n" + sClusters);
 			}
 			textArea.append(buf.toString());
 		} catch (JavaModelException e) {
@@ -642,43 +667,34 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 				ClustererEnum.AGGLOMERATIVE.toString(),
 				calc.getType().toString(), linkage);
 		// TODO move this elsewhere
-		ArrayList<Object> clusters999 = cluster.getClustersAtDistance(0.999);
-		ArrayList<Object> clusters9 = cluster.getClustersAtDistance(0.9);
-		ArrayList<Object> clusters75 = cluster.getClustersAtDistance(0.75);
-		ArrayList<Object> clusters5 = cluster.getClustersAtDistance(0.5);
-		String countRow = writeClusterCounts(className, clusters999, clusters9,
-				clusters75, clusters5);
-		writeClusterSizes(className, clusters999, clusters9,
-				clusters75, clusters5);
+		DendrogramCuts cuts = new DendrogramCuts(cluster, CUT_OFFS);
+		String countRow = writeClusterCounts(className, cuts);
+		writeClusterSizes(className, cuts);
 		buf.append(countRow);
 
 		return cluster;
 	}
 
 
-	private String writeClusterCounts(String className, ArrayList<Object> clusters999,
-			ArrayList<Object> clusters9, ArrayList<Object> clusters75, ArrayList<Object> clusters5)
+	private String writeClusterCounts(String className, DendrogramCuts cuts)
 			throws IOException {
-		int count999 = clusters999.size();
-		int count9 = clusters9.size();
-		int count75 = clusters75.size();
-		int count5 = clusters5.size();
-		String row = className + CSV_SEP + count999 + CSV_SEP
-		+ count9 + CSV_SEP + count75 + CSV_SEP + count5 + "\n";
+		StringBuffer rowBuf = new StringBuffer(className);
+		for (int i = 0; i < CUT_OFFS.length; i++) {
+			rowBuf.append(CSV_SEP).append(cuts.getClusterCount(i));
+		}
+		String row = rowBuf.append("\n").toString();
 		clusterCountWriter.write(row);
 		clusterCountWriter.flush();
 		return row;
 	}
 
-	private String writeClusterSizes(String className, ArrayList<Object> clusters999,
-			ArrayList<Object> clusters9, ArrayList<Object> clusters75, ArrayList<Object> clusters5)
+	private String writeClusterSizes(String className, DendrogramCuts cuts)
 			throws IOException {
-		String sizes999 = MemberCluster.clusterSizesToString(clusters999);
-		String sizes9 = MemberCluster.clusterSizesToString(clusters9);
-		String sizes75 = MemberCluster.clusterSizesToString(clusters75);
-		String sizes5 = MemberCluster.clusterSizesToString(clusters5);
-		String row = className + CSV_SEP + sizes999 + CSV_SEP
-		+ sizes9 + CSV_SEP + sizes75 + CSV_SEP + sizes5 + "\n";
+		StringBuffer rowBuf = new StringBuffer(className);
+		for (int i = 0; i < CUT_OFFS.length; i++) {
+			rowBuf.append(CSV_SEP).append(cuts.getSizesString(i));
+		}
+		String row = rowBuf.append("\n").toString();
 		clusterSizesWriter.write(row);
 		clusterSizesWriter.flush();
 		return row;
@@ -755,6 +771,35 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 		return clusters;
 	}
 
+	/**
+	 * Cluster by cutting the minimum cut tree built by the MaxFlowClusterer.
+	 * @param callGraph
+	 */
+	public static Collection<CallGraphNode> clusterUsingMaxFlow(JavaCallGraph callGraph) {
+		MaxFlowClusterer clusterer = new MaxFlowClusterer(callGraph);
+		ArrayList<CallGraphNode> nodeClusters =
+			new ArrayList<CallGraphNode>(clusterer.cluster());
+		Collections.sort(nodeClusters, BetweennessClusterer.getSizeComparator());
+		return nodeClusters;
+	}
+
+	/**
+	 * Cluster using Flake's cut clustering with the cohesion threshold
+	 * specified by the user preferences/parameters.
+	 * @param callGraph
+	 */
+	public static Collection<CallGraphNode> clusterUsingFlake(JavaCallGraph callGraph) {
+		ApplicationParameters params = ApplicationParameters.getSingleton();
+		int threshold = params.getIntParameter(
+				ParameterConstants.FLAKE_COHESION_THRESHOLD_KEY, 2);
+		FlakeGraphClusterer clusterer =
+			new FlakeGraphClusterer(callGraph, threshold);
+		ArrayList<CallGraphNode> nodeClusters =
+			new ArrayList<CallGraphNode>(clusterer.cluster());
+		Collections.sort(nodeClusters, BetweennessClusterer.getSizeComparator());
+		return nodeClusters;
+	}
+
 
 	private static String toOutputString(Collection<CallGraphNode> clusters) {
 		StringBuffer buf = new StringBuffer();
@@ -1088,7 +1133,8 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 
 	/**
 	 * Collects distance measurements between the members of the
-	 * class visible in the graph view.
+	 * class visible in the graph view.  The matrices are kept in the
+	 * matrix store directory, if one is specified.
 	 */
 	protected void collectDistances() {
 		textArea.append(RUN_SEPARATOR);
@@ -1105,21 +1151,34 @@ public class BatchOutputView implements ActionListener, ParameterConstants {
 			ArrayList<DistanceCalculatorIfc<String>> calculators =
 				initializeCalculators(callGraph);
 			DistanceCollector collector = new DistanceCollector(calculators);
+			ApplicationParameters parameters = ApplicationParameters.getSingleton();
+			String sDirectory = parameters.getParameter(
+					ParameterConstants.MATRIX_STORE_DIRECTORY_KEY, "").trim();
+			if (sDirectory.length() > 0) {
+				boolean singlePrecision = parameters.getBooleanParameter(
+						ParameterConstants.MATRIX_STORE_SINGLE_PRECISION_KEY,
+						false);
+				collector.setMatrixDirectory(new File(sDirectory),
+						singlePrecision);
+			}
 			activateProgressBar(calculators.size());
 			int i = 0;
+			long start = System.currentTimeMillis();
 
-			for (DistanceCalculatorIfc<String> calc : calculators) {
-				long start = System.currentTimeMillis();
+			// One pass over the pairs of members for all of the calculators
+			collector.collectDistances(memberNames);
+			long end = System.currentTimeMillis();
+			HashMap<DistanceCalculatorIfc<String>, DistanceMatrix<String>> allDistances =
+				collector.getAllDistances();
 
-				DistanceMatrix<String> matrix =
-					collector.collectDistances(memberNames, calc);
+			for (DistanceCalculatorIfc<String> calc : calculators) {
+				DistanceMatrix<String> matrix = allDistances.get(calc);
 				textArea.append(calc.getType().toString() +
 						" distances for " + callGraph.getName() + ":\n");
 				textArea.append(matrix.toString());
 				progressBar.setValue(i++);
-				long end = System.currentTimeMillis();
-				textArea.append("Distance calculation above took " + (end - start) + " millis\n");
 			}
+			textArea.append("Distance calculations above took " + (end - start) + " millis\n");
 			inactivateProgressBar();
 		}
 	}
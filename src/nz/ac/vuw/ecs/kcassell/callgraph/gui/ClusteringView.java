@@ -49,6 +49,7 @@ import javax.swing.SwingUtilities;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.ClusterCombinationEnum;
 import nz.ac.vuw.ecs.kcassell.cluster.ClustererIfc;
 import nz.ac.vuw.ecs.kcassell.cluster.GraphBasedAgglomerativeClusterer;
 import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
@@ -213,6 +214,9 @@ public class ClusteringView implements ClusterUIConstants, ActionListener{
 			parameters.getParameter(ParameterConstants.CALCULATOR_KEY,
 									DistanceCalculatorEnum.IntraClass.toString());
 		DistanceCalculatorEnum calcType = DistanceCalculatorEnum.valueOf(sCalc);
+		String sLinkage =
+			parameters.getParameter(ParameterConstants.LINKAGE_KEY,
+									ClusterCombinationEnum.AVERAGE_LINK.toString());
 
 		try {
 			if (DistanceCalculatorEnum.GoogleDistance.equals(calcType)) {
@@ -269,9 +273,9 @@ public class ClusteringView implements ClusterUIConstants, ActionListener{
 			    	VectorSpaceModelCalculator.getCalculator(classHandle);
 				List<String> names =
 					EclipseUtils.getFilteredMemberHandles(classHandle);
-				MatrixBasedAgglomerativeClusterer clusterer =
-					new MatrixBasedAgglomerativeClusterer(names, calc);
-				MemberCluster cluster = clusterer.getSingleCluster();
+				MemberCluster cluster =
+					MatrixBasedAgglomerativeClusterer
+					.clusterElements(names, calc, sLinkage);
 				displayClusterString(cluster);
 				agglomerativePostProcessing(aggApplet);
 			} else {
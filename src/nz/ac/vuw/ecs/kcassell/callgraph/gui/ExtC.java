@@ -61,6 +61,7 @@ import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.CycleCalculator;
+import nz.ac.vuw.ecs.kcassell.callgraph.io.BinaryCallGraphFormat;
 import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
 import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphWriter;
 import nz.ac.vuw.ecs.kcassell.callgraph.io.GraphFileFilter;
@@ -217,9 +218,14 @@ implements ChangeListener, ParameterConstants, RefactoringConstants {
 					} else if (fileName.endsWith("xml")) {
 						CallGraphWriter.writeGraphML(extC.graphView.graph,
 								fileName);
+					} else if (fileName.endsWith(
+							"." + BinaryCallGraphFormat.BINARY_EXT)) {
+						CallGraphWriter.writeBinary(extC.graphView.graph,
+								fileName);
 					} else {
 						String message = "For GraphML, choose a file ending in '.xml'.  "
 								+ "For Pajek format, choose a file ending in '.net'.  "
+								+ "For binary format, choose a file ending in '.cgb'.  "
 								+ "For graphics, choose a file ending in '.eps' or '.png'.";
 						JOptionPane.showMessageDialog(extC.frame, message,
 								"Unknown file extension",
@@ -501,6 +507,8 @@ implements ChangeListener, ParameterConstants, RefactoringConstants {
 			callGraph = getPajekNetGraph(graphFile);
 		} else if (graphFile.endsWith("xml")) {
 			callGraph = readGraphMLGraph(graphFile);
+		} else if (graphFile.endsWith("." + BinaryCallGraphFormat.BINARY_EXT)) {
+			callGraph = readBinaryGraph(graphFile);
 		} else {
 			if (extC != null) {
 				String msg = "Unknown file type.  Unable to read graph from file "
@@ -531,6 +539,15 @@ implements ChangeListener, ParameterConstants, RefactoringConstants {
 		return callGraph;
 	}
 
+	private static JavaCallGraph readBinaryGraph(String graphFile)
+			throws IOException {
+		Factory<CallGraphNode> vertexFactory = new CallGraphNode.CallGraphNodeFactory();
+		Factory<CallGraphLink> edgeFactory = new CallGraphLink.CallGraphLinkFactory();
+		CallGraphReader reader = new CallGraphReader(vertexFactory, edgeFactory);
+		JavaCallGraph callGraph = reader.readBinaryGraph(graphFile);
+		return callGraph;
+	}
+
 	private static JavaCallGraph getPajekNetGraph(String graphFile)
 			throws IOException {
 		Factory<CallGraphNode> vertexFactory = new CallGraphNode.CallGraphNodeFactory();
@@ -41,7 +41,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -74,6 +81,9 @@ import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.algorithms.layout.SpringLayout;
 import edu.uci.ics.jung.algorithms.layout.SpringLayout2;
+import edu.uci.ics.jung.algorithms.layout.StaticLayout;
+import edu.uci.ics.jung.algorithms.layout.util.RandomLocationTransformer;
+import edu.uci.ics.jung.algorithms.util.IterativeContext;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.util.EdgeType;
 import edu.uci.ics.jung.visualization.BasicVisualizationServer;
@@ -179,8 +189,40 @@ implements ActionListener, ParameterConstants, ClusterUIConstants, ItemListener
     
     protected CallGraphNodeShapeTransformer vertexShapeTransformer = null;
     
-    /** A flag to indicate whether the graph needs to be laid out afresh. */
-    protected boolean doLayout = true;
+    /** The size of the area in which graphs are laid out. */
+    protected static final Dimension LAYOUT_SIZE = new Dimension(1000, 600);
+
+    /** The longest time (in milliseconds) to spend relaxing a layout
+     * that doesn't converge on its own, e.g. a SpringLayout. */
+    protected static final long RELAX_TIME_LIMIT = 5000;
+
+    /** Builds graphs and computes layouts away from the event dispatch
+     * thread, one request at a time. */
+    protected ExecutorService layoutExecutor =
+    	Executors.newSingleThreadExecutor(new ThreadFactory() {
+    		public Thread newThread(Runnable runnable) {
+    			Thread thread = new Thread(runnable, "GraphView layout");
+    			thread.setDaemon(true);
+    			return thread;
+    		}
+    	});
+
+    /** The graph and layout request in progress, if any. */
+    protected Future<?> pendingLayout = null;
+
+    /** The number of graph and layout requests made.  Results are only
+     * displayed for the latest request. */
+    protected int layoutRequestCount = 0;
+
+    /** The graph most recently built from the graph parameters.  This is
+     * only used on the layout thread. */
+    protected JavaCallGraph altGraph = null;
+
+    /** The graph altGraph was built from. */
+    protected JavaCallGraph altGraphSource = null;
+
+    /** The handle, version and graph parameters altGraph was built from. */
+    protected String altGraphKey = null;
 
     /** The default vertex to paint transformer colors fields red
      * and methods white.   */
@@ -496,34 +538,222 @@ implements ActionListener, ParameterConstants, ClusterUIConstants, ItemListener
     /**
      * Display the call graph, taking into account the various parameters
      * that might affect the display.  NOTE: this method may physically
-     * alter the graph to affect the display.
+     * alter the graph to affect the display.  The graph is built and laid
+     * out in the background, and displayed unless a later request has
+     * superseded it.
      * @param callGraph
      */
 	public void loadGraph(JavaCallGraph callGraph)
     {
-        graph = callGraph;
     	ApplicationParameters parameters = app.getApplicationParameters();
+		String sLayout = parameters.getParameter(GRAPH_LAYOUT_KEY,
+				GraphLayoutEnum.FRLayout.toString());
+		requestLayout(callGraph, true, sLayout);
+    }
 
-        // TODO be smarter about when to create new graphs vs. relayout
-    	try {
-    		graph = callGraph.getAltGraphUsingParams();
-		} catch (Exception e) {
-			String msg =
-				"Unable to modify graph using parameters: " + e.getMessage();
-			JOptionPane.showMessageDialog(graphPanel, msg,
-					"Error showing graph", JOptionPane.WARNING_MESSAGE);
-			e.printStackTrace();
+	/**
+	 * Builds (if necessary) and lays out the graph on the layout thread,
+	 * cancelling any earlier request that hasn't finished.  Vertices that
+	 * are already displayed start from their current positions.  This must
+	 * be called on the event dispatch thread.
+	 * @param callGraph the graph to display
+	 * @param useParams whether to rebuild the graph using the graph
+	 *  parameters (e.g. to include constructors or not)
+	 * @param sLayout the layout to use
+	 */
+	protected void requestLayout(final JavaCallGraph callGraph,
+			boolean useParams, final String sLayout) {
+		if (pendingLayout != null) {
+			pendingLayout.cancel(true);
 		}
+		final int requestNumber = ++layoutRequestCount;
+		final String graphKey = useParams ? getAltGraphKey(callGraph) : null;
+		final Map<String, Point2D> oldPositions = getDisplayedPositions();
+		mainPanel.setCursor(RefactoringConstants.WAIT_CURSOR);
+
+		pendingLayout = layoutExecutor.submit(new Runnable() {
+			public void run() {
+				final LayoutResult result = new LayoutResult();
+				result.oldPositions = oldPositions;
+				try {
+					computeLayout(callGraph, graphKey, sLayout, result);
+				} catch (RuntimeException e) {
+					result.layout = null;
+					result.errorMessage =
+						"Unable to lay out graph: " + e.getMessage();
+					e.printStackTrace();
+				}
 
-        determineDirectedness();
-		doLayout = true;
-		String sLayout = parameters.getParameter(GRAPH_LAYOUT_KEY,
-				GraphLayoutEnum.FRLayout.toString());
-		layoutGraph(sLayout);
-    	graphLabel.setText(graph.getName());
+				if (!Thread.currentThread().isInterrupted()) {
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (requestNumber == layoutRequestCount) {
+								showLayout(result);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/** What the layout thread produces for display. */
+	protected static class LayoutResult {
+		JavaCallGraph graph = null;
+		Layout<CallGraphNode, CallGraphLink> layout = null;
+		Map<String, Point2D> oldPositions = null;
+		String errorMessage = null;
+	}
+
+	/**
+	 * @return a key identifying the graph that getAltGraphUsingParams
+	 *  would build from the call graph, as it is now, with the current
+	 *  parameters
+	 */
+	protected String getAltGraphKey(JavaCallGraph callGraph) {
+		ApplicationParameters parameters = app.getApplicationParameters();
+		StringBuffer key = new StringBuffer(String.valueOf(callGraph.getHandle()));
+		key.append('#').append(callGraph.getVersion());
+		String[] graphKeys = { INCLUDE_CONSTRUCTORS_KEY,
+				INCLUDE_OBJECT_METHODS_KEY, INCLUDE_LOGGERS_KEY,
+				INCLUDE_STATICS_KEY, CONDENSE_IMPOSED_METHODS_KEY,
+				CONDENSE_OBJECTS_METHODS_KEY, EDGE_TYPE_KEY };
+		for (String graphKey : graphKeys) {
+			key.append('|').append(parameters.getParameter(graphKey, ""));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the positions of the displayed vertices, keyed by label
+	 */
+	protected Map<String, Point2D> getDisplayedPositions() {
+		Map<String, Point2D> positions = new HashMap<String, Point2D>();
+		if (visViewer != null) {
+			Layout<CallGraphNode, CallGraphLink> layout =
+				visViewer.getGraphLayout();
+			for (CallGraphNode node : layout.getGraph().getVertices()) {
+				Point2D point = layout.transform(node);
+				positions.put(node.getLabel(),
+						new Point2D.Double(point.getX(), point.getY()));
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Builds the graph (reusing the last one built if it was built from
+	 * the same, unchanged graph with the same parameters) and lays it out.  This runs on the layout
+	 * thread, and stops early if the thread is interrupted.
+	 * @param graphKey identifies the graph to build, or null to lay out
+	 *  the call graph as it is
+	 */
+	protected void computeLayout(JavaCallGraph callGraph, String graphKey,
+			String sLayout, LayoutResult result) {
+		result.graph = callGraph;
+
+		if (graphKey != null) {
+			if (callGraph == altGraphSource && graphKey.equals(altGraphKey)) {
+				result.graph = altGraph;
+			} else {
+		    	try {
+		    		result.graph = callGraph.getAltGraphUsingParams();
+		    		altGraph = result.graph;
+		    		altGraphSource = callGraph;
+		    		altGraphKey = graphKey;
+				} catch (Exception e) {
+					result.errorMessage =
+						"Unable to modify graph using parameters: " + e.getMessage();
+					e.printStackTrace();
+				}
+			}
+		}
+		if (!Thread.currentThread().isInterrupted()) {
+			Layout<CallGraphNode, CallGraphLink> endLayout =
+				getEndLayout(sLayout, result.graph);
+			endLayout.setInitializer(new SeededPositions(result.oldPositions,
+					new RandomLocationTransformer<CallGraphNode>(LAYOUT_SIZE)));
+			endLayout.setSize(LAYOUT_SIZE);
+			relax(endLayout);
+			// Fix the positions, so that the viewer doesn't start
+			// the layout all over again
+			result.layout = new StaticLayout<CallGraphNode, CallGraphLink>(
+					endLayout.getGraph(), endLayout, LAYOUT_SIZE);
+		}
+	}
+
+	/**
+	 * Steps an iterative layout until it is done, RELAX_TIME_LIMIT has
+	 * passed, or the thread is interrupted.
+	 */
+	protected static void relax(Layout<CallGraphNode, CallGraphLink> layout) {
+		if (layout instanceof IterativeContext) {
+			IterativeContext context = (IterativeContext) layout;
+			long stopTime = System.currentTimeMillis() + RELAX_TIME_LIMIT;
+			while (!context.done()
+					&& System.currentTimeMillis() < stopTime
+					&& !Thread.currentThread().isInterrupted()) {
+				context.step();
+			}
+		}
+	}
+
+	/**
+	 * Positions vertices where vertices with the same labels were,
+	 * and elsewhere as the fallback would.
+	 */
+	protected static class SeededPositions
+	implements Transformer<CallGraphNode, Point2D> {
+		private Map<String, Point2D> positions;
+		private Transformer<CallGraphNode, Point2D> fallback;
+
+		SeededPositions(Map<String, Point2D> positions,
+				Transformer<CallGraphNode, Point2D> fallback) {
+			this.positions = positions;
+			this.fallback = fallback;
+		}
+
+		public Point2D transform(CallGraphNode node) {
+			Point2D point = positions.get(node.getLabel());
+			return (point == null)
+				? fallback.transform(node) : (Point2D) point.clone();
+		}
+	}
+
+	/**
+	 * Displays the laid out graph, moving vertices from their old positions.
+	 * This runs on the event dispatch thread.
+	 */
+	protected void showLayout(LayoutResult result) {
+		pendingLayout = null;
+		if (result.errorMessage != null) {
+			JOptionPane.showMessageDialog(graphPanel, result.errorMessage,
+					"Error showing graph", JOptionPane.WARNING_MESSAGE);
+		}
+		mainPanel.setCursor(RefactoringConstants.DEFAULT_CURSOR);
+		if (result.layout != null) {
+			graph = result.graph;
+			determineDirectedness();
+			Graph<CallGraphNode, CallGraphLink> jungGraph = graph.getJungGraph();
+			Layout<CallGraphNode, CallGraphLink> endLayout = result.layout;
+			// New vertices appear in place; the others move there
+			Layout<CallGraphNode, CallGraphLink> startLayout =
+				new StaticLayout<CallGraphNode, CallGraphLink>(endLayout.getGraph(),
+						new SeededPositions(result.oldPositions, endLayout),
+						LAYOUT_SIZE);
+			graphPanel.removeAll();
+			// The visViewer is a JPanel
+			visViewer =
+				new VisualizationViewer<CallGraphNode, CallGraphLink>(endLayout);
+			updateVisViewerRenderContext(jungGraph);
+			animateLayoutTransition(startLayout, endLayout);
+			addGraphToGraphPanel();
+			visViewer.getRenderContext().getMultiLayerTransformer().setToIdentity();
+			graphLabel.setText(graph.getName());
+		}
         mainPanel.validate();
         mainPanel.repaint();
-    }
+	}
 
 
 	private void updateVisViewerRenderContext(
@@ -564,19 +794,16 @@ implements ActionListener, ParameterConstants, ClusterUIConstants, ItemListener
 			final JComboBox box = (JComboBox) source;
 			final String sourceName = box.getName();
 
+			// The requests only start the layout; the cursor shows it's
+			// in progress until the graph is displayed
 			SwingUtilities.invokeLater(new Runnable() {
 				public void run() {
-					try {
-						mainPanel.setCursor(RefactoringConstants.WAIT_CURSOR);
-						if (EDGE_TYPE_COMBO.equals(sourceName)) {
-							handleEdgeTypeRequest(box);
-						} else if (LAYOUT_COMBO.equals(sourceName)) {
-							handleLayoutRequest(box);
-						} else if (SIZING_COMBO.equals(sourceName)) {
-							handleSizingRequest(box);
-						}
-					} finally {
-						mainPanel.setCursor(RefactoringConstants.DEFAULT_CURSOR);
+					if (EDGE_TYPE_COMBO.equals(sourceName)) {
+						handleEdgeTypeRequest(box);
+					} else if (LAYOUT_COMBO.equals(sourceName)) {
+						handleLayoutRequest(box);
+					} else if (SIZING_COMBO.equals(sourceName)) {
+						handleSizingRequest(box);
 					}
 				}
 			}); // invokeLater
@@ -696,71 +923,36 @@ implements ActionListener, ParameterConstants, ClusterUIConstants, ItemListener
 	}
 
 	/**
-	 * Get the layout corresponding to item in the combo box.
+	 * Lay out the graph as chosen in the combo box.
 	 * @param box contains the list of possible layouts
-	 * @return the Layout object
 	 */
 	@SuppressWarnings("rawtypes")
-	private Layout<CallGraphNode, CallGraphLink> handleLayoutRequest(JComboBox box) {
-		doLayout = true;
+	private void handleLayoutRequest(JComboBox box) {
 		Object selectedItem = box.getSelectedItem();
 		String layoutString = selectedItem.toString();
 		ApplicationParameters parameters = app.getApplicationParameters();
 		parameters.setParameter(ParameterConstants.GRAPH_LAYOUT_KEY, layoutString);
-        Layout<CallGraphNode, CallGraphLink> endLayout = layoutGraph(layoutString);
-        return endLayout;
+        layoutGraph(layoutString);
 	}
 
 	/**
-	 * Show the graph according to the specified layout
+	 * Show the current graph according to the specified layout, without
+	 * rebuilding the graph.
 	 * @param sLayout the layout to use
-	 * @return the Layout object used
 	 */
-	protected Layout<CallGraphNode, CallGraphLink> layoutGraph(
-			String sLayout) {
-        Graph<CallGraphNode, CallGraphLink> jungGraph = graph.getJungGraph();
-        // The layouts correspond with the Jung graphs
-		Layout<CallGraphNode, CallGraphLink> startLayout = null;
-        boolean createNewStartLayout = loadingNewGraph(jungGraph);
-		
-		if (createNewStartLayout) {
-			startLayout = getLayout(sLayout, jungGraph);
-//        	startLayout = new FRLayout<CallGraphNode, CallGraphLink>(jungGraph);
-        } else { // This should only happen when redrawing an existing graph
-        	startLayout = visViewer.getGraphLayout();
-        }
-        Layout<CallGraphNode, CallGraphLink> endLayout = startLayout;
-		
-        // Only change the layout if a change is warranted
-        if (doLayout || createNewStartLayout) {
-        	graphPanel.removeAll();
-        	endLayout = getEndLayout(sLayout, jungGraph);
-            // The visViewer is a JPanel
-	        visViewer =
-	        	new VisualizationViewer<CallGraphNode, CallGraphLink>(endLayout);
-	        updateVisViewerRenderContext(jungGraph);
-	        animateLayoutTransition(startLayout, endLayout);
-    		addGraphToGraphPanel();
-            visViewer.getRenderContext().getMultiLayerTransformer().setToIdentity();
-            mainPanel.validate();
-            mainPanel.repaint();
-        }
-        doLayout = false;
-		return endLayout;
+	protected void layoutGraph(String sLayout) {
+		requestLayout(graph, false, sLayout);
 	}
 
 	private void addGraphToGraphPanel() {
-		Dimension viewportSize = new Dimension(1000, 600);
 		JScrollPane scrollPane = new JScrollPane(visViewer);
-		scrollPane.setPreferredSize(viewportSize);
+		scrollPane.setPreferredSize(LAYOUT_SIZE);
 		graphPanel.add(scrollPane);
 	}
 
 	private void animateLayoutTransition(
 			Layout<CallGraphNode, CallGraphLink> startLayout,
 			Layout<CallGraphNode, CallGraphLink> endLayout) {
-		endLayout.setInitializer(startLayout);
-		endLayout.setSize(visViewer.getSize());
 		LayoutTransition<CallGraphNode, CallGraphLink> transition =
 		    new LayoutTransition<CallGraphNode, CallGraphLink>(
 		    		visViewer, startLayout, endLayout);
@@ -772,45 +964,22 @@ implements ActionListener, ParameterConstants, ClusterUIConstants, ItemListener
 	/**
 	 * Creates the specified layout for the graph.
 	 * @param sLayout the requested layout
-	 * @param jungGraph the graph to lay out
+	 * @param callGraph the graph to lay out
 	 * @return the requested Layout
 	 */
-	private Layout<CallGraphNode, CallGraphLink> getEndLayout(String sLayout,
-			Graph<CallGraphNode, CallGraphLink> jungGraph) {
+	private static Layout<CallGraphNode, CallGraphLink> getEndLayout(
+			String sLayout, JavaCallGraph callGraph) {
 		Layout<CallGraphNode, CallGraphLink> endLayout = null;
 		
 		// Before we create a DAGLayout, we must ensure the graph has no cycles.
 		if (GraphLayoutEnum.DAGLayout.toString().equals(sLayout)) {
-			JavaCallGraph dag = GraphCondenser.toDAG(graph);
+			JavaCallGraph dag = GraphCondenser.toDAG(callGraph);
 		    endLayout = getLayout(sLayout, dag.getJungGraph());
 		}
 		else {
-		    endLayout = getLayout(sLayout, jungGraph);
+		    endLayout = getLayout(sLayout, callGraph.getJungGraph());
 		}
 		return endLayout;
 	}
 
-
-	/**
-	 * Determines whether the graph to be displayed is a new one.  A class's
-	 * call graph can be represented by several different graphs depending on
-	 * the graphing options chosen, so a change in an option can result in
-	 * a new graph.
-	 * @param jungGraph new graph
-	 * @return true when a new graph is to be displayed; false otherwise
-	 */
-	private boolean loadingNewGraph(
-			Graph<CallGraphNode, CallGraphLink> jungGraph) {
-		boolean createNewStartLayout = true;
-        
-		if (visViewer != null) {
-			Layout<CallGraphNode, CallGraphLink> oldLayout =
-				visViewer.getGraphLayout();
-			Graph<CallGraphNode, CallGraphLink> oldJungGraph =
-				oldLayout.getGraph();
-			createNewStartLayout = !jungGraph.equals(oldJungGraph);
-		}
-		return createNewStartLayout;
-	}
-
 }
@@ -0,0 +1,516 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+import nz.ac.vuw.ecs.kcassell.callgraph.VertexLabeler;
+
+import org.apache.commons.collections15.Factory;
+
+import edu.uci.ics.jung.algorithms.util.MapSettableTransformer;
+import edu.uci.ics.jung.algorithms.util.SettableTransformer;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.SparseMultigraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+/**
+ * A compact binary format for call graphs, read through a memory-mapped
+ * buffer.  All numbers are big-endian.  The file holds, in order:
+ * <pre>
+ * int magic, version, numVertices, numNodes, numEdges, numChildren,
+ *     numScores, numStrings, numStringBytes
+ * int[numVertices]     node index of each vertex
+ * int[numNodes]        string index of each node's label (-1 for none)
+ * int[numNodes]        string index of each node's simple name
+ * int[numNodes]        member flags (access) of each node
+ * int[numNodes + 1]    start of each node's children (CSR row offsets)
+ * int[numChildren]     node index of each child
+ * int[numNodes + 1]    start of each node's scores
+ * int[numScores]       string index of each score's type
+ * double[numScores]    value of each score
+ * int[numVertices + 1] start of each vertex's edges
+ * int[numEdges]        target vertex of each edge
+ * double[numEdges]     weight of each edge
+ * int[numStrings + 1]  start of each string in the string data
+ * byte[numNodes]       NodeType ordinal of each node
+ * byte[numNodes]       flags of each node (INHERITED_FLAG, INNER_FLAG)
+ * byte[numEdges]       flags of each edge (DIRECTED_FLAG, WEIGHTED_FLAG)
+ * byte[numStringBytes] string data, UTF-8
+ * </pre>
+ * The nodes are the vertices of the graph plus the subnodes of any
+ * CallGraphClusters, listed so that every cluster follows its subnodes;
+ * clusters are read back as CallGraphClusters.
+ * The label of a vertex is the one the JavaCallGraph knows it by.
+ * An edge is stored with the first of its endpoints.  Strings are stored
+ * once however many nodes use them.  The VERSION must be incremented
+ * whenever the layout, or the order of the NodeType constants, changes.
+ * @author Keith
+ */
+public class BinaryCallGraphFormat {
+
+	/** The extension for files in this format. */
+	public static final String BINARY_EXT = "cgb";
+
+	/** "CGBF" */
+	public static final int MAGIC = 0x43474246;
+
+	public static final int VERSION = 2;
+
+	public static final int DIRECTED_FLAG = 1;
+	public static final int WEIGHTED_FLAG = 2;
+
+	public static final int INHERITED_FLAG = 1;
+	public static final int INNER_FLAG = 2;
+
+	private static final int HEADER_SIZE = 9 * 4;
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * Writes the call graph to the file in binary format.
+	 * @param callGraph the graph to write
+	 * @param fileName the name of the file to write
+	 */
+	public static void write(JavaCallGraph callGraph, String fileName)
+			throws IOException {
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		Collection<CallGraphNode> vertices = graph.getVertices();
+		int numVertices = vertices.size();
+		int numEdges = graph.getEdgeCount();
+		Map<CallGraphNode, Integer> vertexIndices =
+			new HashMap<CallGraphNode, Integer>(2 * numVertices);
+		Map<CallGraphNode, Integer> nodeIndices =
+			new HashMap<CallGraphNode, Integer>(2 * numVertices);
+		List<CallGraphNode> nodes = new ArrayList<CallGraphNode>(numVertices);
+		int[] vertexNodes = new int[numVertices];
+		int v = 0;
+
+		for (CallGraphNode vertex : vertices) {
+			vertexIndices.put(vertex, v);
+			indexNodes(vertex, nodeIndices, nodes);
+			vertexNodes[v] = nodeIndices.get(vertex);
+			v++;
+		}
+
+		int numNodes = nodes.size();
+		Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+		List<byte[]> strings = new ArrayList<byte[]>();
+		int[] labels = new int[numNodes];
+		int[] simpleNames = new int[numNodes];
+		int[] memberFlags = new int[numNodes];
+		int[] childStarts = new int[numNodes + 1];
+		int[] scoreStarts = new int[numNodes + 1];
+		List<Integer> children = new ArrayList<Integer>();
+		List<Integer> scoreTypes = new ArrayList<Integer>();
+		List<Double> scores = new ArrayList<Double>();
+		byte[] nodeTypes = new byte[numNodes];
+		byte[] nodeFlags = new byte[numNodes];
+
+		for (int n = 0; n < numNodes; n++) {
+			CallGraphNode node = nodes.get(n);
+			String label = vertexIndices.containsKey(node) ?
+					callGraph.getVertexLabel(node) : node.getLabel();
+			labels[n] = indexString(label, stringIndices, strings);
+			simpleNames[n] =
+				indexString(node.getSimpleName(), stringIndices, strings);
+			memberFlags[n] = node.getMemberFlags();
+			nodeTypes[n] = (byte) node.getNodeType().ordinal();
+			int flags = 0;
+			if (node.isInherited()) {
+				flags |= INHERITED_FLAG;
+			}
+			if (node.isInner()) {
+				flags |= INNER_FLAG;
+			}
+			nodeFlags[n] = (byte) flags;
+			if (node instanceof CallGraphCluster) {
+				for (CallGraphNode child : ((CallGraphCluster) node).getNodes()) {
+					children.add(nodeIndices.get(child));
+				}
+			}
+			childStarts[n + 1] = children.size();
+			for (Map.Entry<String, Number> entry : node.getScores().entrySet()) {
+				Number score = entry.getValue();
+				if (score != null) {
+					scoreTypes.add(
+							indexString(entry.getKey(), stringIndices, strings));
+					scores.add(score.doubleValue());
+				}
+			}
+			scoreStarts[n + 1] = scores.size();
+		}
+		int numStringBytes = 0;
+		for (byte[] string : strings) {
+			numStringBytes += string.length;
+		}
+
+		// Count the edges from each vertex, then place them
+		int[] edgeStarts = new int[numVertices + 1];
+		Collection<CallGraphLink> edges = graph.getEdges();
+		for (CallGraphLink edge : edges) {
+			edgeStarts[vertexIndices.get(graph.getEndpoints(edge).getFirst()) + 1]++;
+		}
+		for (int i = 0; i < numVertices; i++) {
+			edgeStarts[i + 1] += edgeStarts[i];
+		}
+		int[] nextEdge = new int[numVertices];
+		System.arraycopy(edgeStarts, 0, nextEdge, 0, numVertices);
+		int[] targets = new int[numEdges];
+		double[] weights = new double[numEdges];
+		byte[] edgeFlags = new byte[numEdges];
+
+		for (CallGraphLink edge : edges) {
+			Pair<CallGraphNode> endpoints = graph.getEndpoints(edge);
+			int e = nextEdge[vertexIndices.get(endpoints.getFirst())]++;
+			targets[e] = vertexIndices.get(endpoints.getSecond());
+			int flags = 0;
+			if (graph.getEdgeType(edge) == EdgeType.DIRECTED) {
+				flags |= DIRECTED_FLAG;
+			}
+			Number weight = edge.getWeight();
+			if (weight != null) {
+				flags |= WEIGHTED_FLAG;
+				weights[e] = weight.doubleValue();
+			}
+			edgeFlags[e] = (byte) flags;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numVertices);
+			out.writeInt(numNodes);
+			out.writeInt(numEdges);
+			out.writeInt(children.size());
+			out.writeInt(scores.size());
+			out.writeInt(strings.size());
+			out.writeInt(numStringBytes);
+			writeInts(out, vertexNodes);
+			writeInts(out, labels);
+			writeInts(out, simpleNames);
+			writeInts(out, memberFlags);
+			writeInts(out, childStarts);
+			for (Integer child : children) {
+				out.writeInt(child);
+			}
+			writeInts(out, scoreStarts);
+			for (Integer scoreType : scoreTypes) {
+				out.writeInt(scoreType);
+			}
+			for (Double score : scores) {
+				out.writeDouble(score);
+			}
+			writeInts(out, edgeStarts);
+			writeInts(out, targets);
+			for (double weight : weights) {
+				out.writeDouble(weight);
+			}
+			int offset = 0;
+			for (byte[] string : strings) {
+				out.writeInt(offset);
+				offset += string.length;
+			}
+			out.writeInt(offset);
+			out.write(nodeTypes);
+			out.write(nodeFlags);
+			out.write(edgeFlags);
+			for (byte[] string : strings) {
+				out.write(string);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Adds the node, and any subnodes it has as a cluster, to the nodes
+	 * that haven't been indexed yet, subnodes first.  The cluster tree is
+	 * walked with an explicit stack so that deep trees can't overflow the
+	 * call stack.
+	 */
+	private static void indexNodes(CallGraphNode root,
+			Map<CallGraphNode, Integer> nodeIndices, List<CallGraphNode> nodes) {
+		if (!nodeIndices.containsKey(root)) {
+			LinkedList<CallGraphNode> stack = new LinkedList<CallGraphNode>();
+			LinkedList<Iterator<CallGraphNode>> childIterators =
+				new LinkedList<Iterator<CallGraphNode>>();
+			stack.addFirst(root);
+			childIterators.addFirst(getChildren(root));
+
+			while (!stack.isEmpty()) {
+				Iterator<CallGraphNode> childIterator = childIterators.getFirst();
+				CallGraphNode next = null;
+				while (next == null && childIterator.hasNext()) {
+					CallGraphNode child = childIterator.next();
+					if (!nodeIndices.containsKey(child)) {
+						next = child;
+					}
+				}
+				if (next == null) {
+					childIterators.removeFirst();
+					CallGraphNode node = stack.removeFirst();
+					nodeIndices.put(node, nodes.size());
+					nodes.add(node);
+				} else {
+					stack.addFirst(next);
+					childIterators.addFirst(getChildren(next));
+				}
+			}
+		}
+	}
+
+	private static Iterator<CallGraphNode> getChildren(CallGraphNode node) {
+		Collection<CallGraphNode> children = Collections.emptyList();
+		if (node instanceof CallGraphCluster) {
+			children = ((CallGraphCluster) node).getNodes();
+		}
+		return children.iterator();
+	}
+
+	/**
+	 * Reads a call graph written by write.  The file is memory mapped, so
+	 * little more is done than copying numbers out of the mapped pages and
+	 * building the graph objects.
+	 * @param fileName the name of the file to read
+	 * @param vertexFactory creates the vertices
+	 * @param edgeFactory creates the edges
+	 * @return the graph
+	 * @throws IOException if the file cannot be read, or is not in this
+	 * format or version
+	 */
+	public static JavaCallGraph read(String fileName,
+			Factory<CallGraphNode> vertexFactory,
+			Factory<CallGraphLink> edgeFactory) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer =
+				channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer, vertexFactory, edgeFactory, fileName);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static JavaCallGraph read(ByteBuffer buffer,
+			Factory<CallGraphNode> vertexFactory,
+			Factory<CallGraphLink> edgeFactory, String fileName)
+			throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException(fileName + " is not a binary call graph");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(fileName + " has binary call graph version "
+					+ version + "; expected " + VERSION);
+		}
+		int numVertices = buffer.getInt(8);
+		int numNodes = buffer.getInt(12);
+		int numEdges = buffer.getInt(16);
+		int numChildren = buffer.getInt(20);
+		int numScores = buffer.getInt(24);
+		int numStrings = buffer.getInt(28);
+		int numStringBytes = buffer.getInt(32);
+		int vertexNodesAt = HEADER_SIZE;
+		int labelsAt = vertexNodesAt + 4 * numVertices;
+		int simpleNamesAt = labelsAt + 4 * numNodes;
+		int memberFlagsAt = simpleNamesAt + 4 * numNodes;
+		int childStartsAt = memberFlagsAt + 4 * numNodes;
+		int childrenAt = childStartsAt + 4 * (numNodes + 1);
+		int scoreStartsAt = childrenAt + 4 * numChildren;
+		int scoreTypesAt = scoreStartsAt + 4 * (numNodes + 1);
+		int scoresAt = scoreTypesAt + 4 * numScores;
+		int edgeStartsAt = scoresAt + 8 * numScores;
+		int targetsAt = edgeStartsAt + 4 * (numVertices + 1);
+		int weightsAt = targetsAt + 4 * numEdges;
+		int stringStartsAt = weightsAt + 8 * numEdges;
+		int nodeTypesAt = stringStartsAt + 4 * (numStrings + 1);
+		int nodeFlagsAt = nodeTypesAt + numNodes;
+		int edgeFlagsAt = nodeFlagsAt + numNodes;
+		int stringDataAt = edgeFlagsAt + numEdges;
+
+		if (buffer.capacity() != stringDataAt + numStringBytes) {
+			throw new IOException(fileName + " is truncated or corrupt");
+		}
+		String[] strings = readStrings(buffer, stringStartsAt, numStrings,
+				stringDataAt, numStringBytes);
+		NodeType[] nodeTypes = NodeType.values();
+		VertexLabeler nodeLabeler = new VertexLabeler();
+		CallGraphNode[] nodes = new CallGraphNode[numNodes];
+
+		for (int n = 0; n < numNodes; n++) {
+			NodeType nodeType = nodeTypes[buffer.get(nodeTypesAt + n)];
+			CallGraphNode node = null;
+			if (nodeType == NodeType.CLUSTER) {
+				int childEnd = buffer.getInt(childStartsAt + 4 * (n + 1));
+				List<CallGraphNode> children = new ArrayList<CallGraphNode>();
+				for (int c = buffer.getInt(childStartsAt + 4 * n);
+						c < childEnd; c++) {
+					children.add(nodes[buffer.getInt(childrenAt + 4 * c)]);
+				}
+				node = new CallGraphCluster(children);
+			} else {
+				node = vertexFactory.create();
+				node.setNodeType(nodeType);
+			}
+			int labelIndex = buffer.getInt(labelsAt + 4 * n);
+			if (labelIndex >= 0) {
+				nodeLabeler.set(node, strings[labelIndex]);
+			}
+			int simpleNameIndex = buffer.getInt(simpleNamesAt + 4 * n);
+			node.setSimpleName((simpleNameIndex < 0) ?
+					null : strings[simpleNameIndex]);
+			node.setMemberFlags(buffer.getInt(memberFlagsAt + 4 * n));
+			int flags = buffer.get(nodeFlagsAt + n);
+			node.setInherited((flags & INHERITED_FLAG) != 0);
+			node.setInner((flags & INNER_FLAG) != 0);
+			int scoreEnd = buffer.getInt(scoreStartsAt + 4 * (n + 1));
+			for (int s = buffer.getInt(scoreStartsAt + 4 * n); s < scoreEnd; s++) {
+				node.setScore(strings[buffer.getInt(scoreTypesAt + 4 * s)],
+						buffer.getDouble(scoresAt + 8 * s));
+			}
+			nodes[n] = node;
+		}
+
+		Graph<CallGraphNode, CallGraphLink> graph =
+			new SparseMultigraph<CallGraphNode, CallGraphLink>();
+		HashMap<String, CallGraphNode> labelsToVertices =
+			new HashMap<String, CallGraphNode>(2 * numVertices);
+		SettableTransformer<CallGraphNode, String> vertexLabeler =
+			new MapSettableTransformer<CallGraphNode, String>(
+					new HashMap<CallGraphNode, String>(2 * numVertices));
+		CallGraphNode[] vertices = new CallGraphNode[numVertices];
+
+		for (int v = 0; v < numVertices; v++) {
+			int n = buffer.getInt(vertexNodesAt + 4 * v);
+			CallGraphNode vertex = nodes[n];
+			graph.addVertex(vertex);
+			if (buffer.getInt(labelsAt + 4 * n) >= 0) {
+				String label = vertex.getLabel();
+				vertexLabeler.set(vertex, label);
+				labelsToVertices.put(label, vertex);
+			}
+			vertices[v] = vertex;
+		}
+		int edgeStart = buffer.getInt(edgeStartsAt);
+		for (int v = 0; v < numVertices; v++) {
+			int edgeEnd = buffer.getInt(edgeStartsAt + 4 * (v + 1));
+			for (int e = edgeStart; e < edgeEnd; e++) {
+				CallGraphLink link = edgeFactory.create();
+				int flags = buffer.get(edgeFlagsAt + e);
+				if ((flags & WEIGHTED_FLAG) != 0) {
+					link.setWeight(buffer.getDouble(weightsAt + 8 * e));
+				}
+				EdgeType edgeType = ((flags & DIRECTED_FLAG) != 0) ?
+						EdgeType.DIRECTED : EdgeType.UNDIRECTED;
+				CallGraphNode target = vertices[buffer.getInt(targetsAt + 4 * e)];
+				graph.addEdge(link, vertices[v], target, edgeType);
+			}
+			edgeStart = edgeEnd;
+		}
+		return new JavaCallGraph(graph, labelsToVertices, vertexLabeler);
+	}
+
+	private static String[] readStrings(ByteBuffer buffer, int stringStartsAt,
+			int numStrings, int stringDataAt, int numStringBytes)
+			throws UnsupportedEncodingException {
+		byte[] data = new byte[numStringBytes];
+		ByteBuffer view = buffer.duplicate();
+		view.position(stringDataAt);
+		view.get(data);
+		String[] strings = new String[numStrings];
+		int start = buffer.getInt(stringStartsAt);
+
+		for (int i = 0; i < numStrings; i++) {
+			int end = buffer.getInt(stringStartsAt + 4 * (i + 1));
+			strings[i] = new String(data, start, end - start, ENCODING);
+			start = end;
+		}
+		return strings;
+	}
+
+	/**
+	 * @return the index of the string in the string table, adding it
+	 * if it is new, or -1 for null
+	 */
+	private static int indexString(String string,
+			Map<String, Integer> stringIndices, List<byte[]> strings)
+			throws UnsupportedEncodingException {
+		int index = -1;
+
+		if (string != null) {
+			Integer known = stringIndices.get(string);
+			if (known == null) {
+				index = strings.size();
+				stringIndices.put(string, index);
+				strings.add(string.getBytes(ENCODING));
+			} else {
+				index = known;
+			}
+		}
+		return index;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values)
+			throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+}
@@ -36,13 +36,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Vector;
 
@@ -50,6 +48,7 @@ import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger.MessageSupplier;
 
 import org.apache.commons.collections15.Factory;
 
@@ -58,8 +57,6 @@ import edu.uci.ics.jung.algorithms.util.SettableTransformer;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.SparseMultigraph;
 import edu.uci.ics.jung.graph.util.Pair;
-import edu.uci.ics.jung.io.PajekNetReader;
-import edu.uci.ics.jung.io.graphml.GraphMLReader2;
 
 /**
  * This class can read a graph from a file.
@@ -175,8 +172,11 @@ public class CallGraphReader {
 	 */
 	public JavaCallGraph readPajekNetGraph(String dataFile) throws IOException {
 		BufferedReader bufferedReader = getBufferedReader(dataFile);
-		JavaCallGraph callGraph = readPajekNetGraph(bufferedReader);
-		return callGraph;
+		try {
+			return readPajekNetGraph(bufferedReader);
+		} finally {
+			bufferedReader.close();
+		}
 	}
 
 	/**
@@ -185,14 +185,14 @@ public class CallGraphReader {
 	public JavaCallGraph readPajekNetGraph(BufferedReader bufferedReader)
 			throws IOException {
 		graph = new SparseMultigraph<CallGraphNode, CallGraphLink>();
-		PajekNetReader<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink> pajekReader = new PajekNetReader<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink>(
+		PajekNetParser<CallGraphNode, CallGraphLink> pajekParser =
+			new PajekNetParser<CallGraphNode, CallGraphLink>(
 				vertexFactory, edgeFactory);
 		CallGraphLink.SettableLinkWeightTransformer linkWeightTransformer =
 			new CallGraphLink.SettableLinkWeightTransformer();
-		pajekReader.setEdgeWeightTransformer(linkWeightTransformer);
-		// pajekReader.setVertexLabeller(vertex_labels)
-		pajekReader.load(bufferedReader, graph);
-		vertexLabeler = pajekReader.getVertexLabeller();
+		pajekParser.setEdgeWeightTransformer(linkWeightTransformer);
+		pajekParser.load(bufferedReader, graph);
+		vertexLabeler = pajekParser.getVertexLabeller();
 
 		transformVertices();
 		logEdges();
@@ -201,27 +201,52 @@ public class CallGraphReader {
 		return callGraph;
 	}
 
+	/**
+	 * Reads a graph in the format indicated by the file's extension:
+	 * Pajek (.net), GraphML (.xml) or binary (.cgb).
+	 * @param fileName the name of the file to read
+	 * @return the graph
+	 * @throws IOException if the file cannot be read or its extension
+	 * is not recognized
+	 */
+	public JavaCallGraph readGraph(String fileName) throws IOException {
+		JavaCallGraph callGraph = null;
+
+		if (fileName.endsWith("." + PajekNetFilenameFilter.PAJEK_NET_EXT)) {
+			callGraph = readPajekNetGraph(fileName);
+		} else if (fileName.endsWith(".xml")) {
+			callGraph = readGraphMLGraph(fileName);
+		} else if (fileName.endsWith("." + BinaryCallGraphFormat.BINARY_EXT)) {
+			callGraph = readBinaryGraph(fileName);
+		} else {
+			throw new IOException("Unknown graph file type: " + fileName);
+		}
+		return callGraph;
+	}
+
+	/**
+	 * Reads a graph stored in the compact binary format.
+	 * @see BinaryCallGraphFormat
+	 */
+	public JavaCallGraph readBinaryGraph(String fileName) throws IOException {
+		JavaCallGraph callGraph =
+			BinaryCallGraphFormat.read(fileName, vertexFactory, edgeFactory);
+		graph = callGraph.getJungGraph();
+		labelsToVertices = callGraph.getLabelsToVertices();
+		vertexLabeler = callGraph.getVertexLabeler();
+		return callGraph;
+	}
+
 	public JavaCallGraph readGraphMLGraph(String fileName) throws IOException {
-		BufferedReader fileReader = new BufferedReader(new FileReader(fileName));
-		graph = new SparseMultigraph<CallGraphNode, CallGraphLink>();
-		// GraphMLReader<Graph<CallGraphNode, CallGraphLink>, CallGraphNode,
-		// CallGraphLink> graphMLreader;
+		BufferedReader fileReader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName), CallGraphWriter.GRAPHML_ENCODING));
 		try {
-			// graphMLreader = new GraphMLReader<Graph<CallGraphNode,
-			// CallGraphLink>, CallGraphNode, CallGraphLink>(vertexFactory,
-			// edgeFactory);
-			// graphMLreader.load(fileReader, graph);
-			GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink> graphMLreader = new GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink>(
-					fileReader,
-					new JavaCallGraph.CallGraphMetadataTransformer(),
-					new CallGraphNode.GraphMLNodeMetadataReader(),
-					new CallGraphLink.EdgeMetadataTransformer(),
-					new CallGraphLink.HyperEdgeMetadataTransformer());
-			graph = graphMLreader.readGraph();
-		} catch (Exception e) {
-			String msg = "Troubles creating GraphMLReader";
-			logger.warning(msg + ": " + e);
-			throw new IOException(msg);
+			graph = new GraphMLParser().load(fileReader);
+		} catch (IOException e) {
+			logger.warning("Troubles reading GraphML from " + fileName + ": " + e);
+			throw e;
+		} finally {
+			fileReader.close();
 		}
 		Map<CallGraphNode, String> map = new HashMap<CallGraphNode, String>();
 		vertexLabeler = new MapSettableTransformer<CallGraphNode, String>(map);
@@ -285,21 +310,21 @@ public class CallGraphReader {
 			String vertexLabel = vertexLabeler.transform(vertex);
 			vertex.setSimpleName(vertexLabel);
 			labelsToVertices.put(vertexLabel, vertex);
-			logger.finer("Vertex " + vertex + " has label " + vertexLabel);
+			logger.finer("Vertex {0} has label {1}", vertex, vertexLabel);
 		}
 		return labelsToVertices;
 	}
 
 	private void logEdges() {
-		Collection<CallGraphLink> edges = graph.getEdges();
-		Iterator<CallGraphLink> eIterator = edges.iterator();
-		CallGraphLink edge = null;
-
-		while (eIterator.hasNext()) {
-			edge = eIterator.next();
-			String edgeLabel = getEdgeLabel(edge);
-			logger.finer("[" + edgeLabel + "], ");
-		}
+		logger.finer(new MessageSupplier() {
+			public String getMessage() {
+				StringBuffer buf = new StringBuffer("Edges: ");
+				for (CallGraphLink edge : graph.getEdges()) {
+					buf.append("[").append(getEdgeLabel(edge)).append("], ");
+				}
+				return buf.toString();
+			}
+		});
 	}
 
 }
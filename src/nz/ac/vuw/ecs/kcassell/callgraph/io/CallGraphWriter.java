@@ -33,39 +33,139 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.callgraph.io;
 
 import java.awt.Component;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TreeMap;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+import org.apache.commons.collections15.Transformer;
+
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 import edu.uci.ics.jung.io.GraphMLMetadata;
-import edu.uci.ics.jung.io.GraphMLWriter;
-import edu.uci.ics.jung.io.PajekNetWriter;
 import edu.uci.ics.screencap.Dump;
 import edu.uci.ics.screencap.EPSDump;
 import edu.uci.ics.screencap.PNGDump;
 
+/**
+ * Writes graphs in the Pajek and GraphML formats read by CallGraphReader,
+ * and saves images of components.  The graphs are written directly to a
+ * buffered stream in a single pass over the vertices and edges.
+ */
 public class CallGraphWriter {
 
+	private static final String LINE_SEPARATOR =
+		System.getProperty("line.separator");
+
+	/** The encoding declared by, and used for, GraphML files. */
+	public static final String GRAPHML_ENCODING = "UTF-8";
+
 	public static void writePajekNet(Graph<CallGraphNode, CallGraphLink> graph,
 			String fileName) throws IOException {
-		PajekNetWriter<CallGraphNode, CallGraphLink> writer = new PajekNetWriter<CallGraphNode, CallGraphLink>();
-		CallGraphNode.NodeLabelTransformer labeler = new CallGraphNode.NodeLabelTransformer();
-		CallGraphLink.LinkWeightTransformer weighter = new CallGraphLink.LinkWeightTransformer();
-		writer.save(graph, fileName, labeler, weighter);
+		Writer writer = new BufferedWriter(new FileWriter(fileName));
+		try {
+			writePajekNet(graph, writer,
+					new CallGraphNode.NodeLabelTransformer(),
+					new CallGraphLink.LinkWeightTransformer());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the graph in the same Pajek format as JUNG's PajekNetWriter:
+	 * numbered, quoted vertex labels, then the directed edges as "*Arcs"
+	 * and the undirected ones as "*Edges", each with its weight as a float.
+	 * An edge without a weight is written without one.
+	 * @param graph the graph to write
+	 * @param writer the destination, which is not closed
+	 * @param labeler provides the vertex labels (may be null)
+	 * @param weighter provides the edge weights (may be null)
+	 */
+	public static <V, E> void writePajekNet(Graph<V, E> graph, Writer writer,
+			Transformer<V, String> labeler, Transformer<E, Number> weighter)
+			throws IOException {
+		Collection<V> vertices = graph.getVertices();
+		Map<V, Integer> ids = new HashMap<V, Integer>(2 * vertices.size());
+		writer.write("*Vertices " + vertices.size());
+		writer.write(LINE_SEPARATOR);
+		int id = 1;
+
+		for (V vertex : vertices) {
+			ids.put(vertex, id);
+			writer.write(Integer.toString(id++));
+			String label = (labeler == null) ? null : labeler.transform(vertex);
+			if (label != null) {
+				writer.write(" \"");
+				writer.write(label);
+				writer.write("\"");
+			}
+			writer.write(LINE_SEPARATOR);
+		}
+		writePajekEdges(graph, writer, EdgeType.DIRECTED, "*Arcs", ids, weighter);
+		writePajekEdges(graph, writer, EdgeType.UNDIRECTED, "*Edges", ids,
+				weighter);
+		writer.flush();
+	}
+
+	/** Writes the section for the edges of the given type, if there are any. */
+	private static <V, E> void writePajekEdges(Graph<V, E> graph,
+			Writer writer, EdgeType edgeType, String tag, Map<V, Integer> ids,
+			Transformer<E, Number> weighter) throws IOException {
+		if (graph.getEdgeCount(edgeType) > 0) {
+			writer.write(tag);
+			writer.write(LINE_SEPARATOR);
+
+			for (E edge : graph.getEdges(edgeType)) {
+				Pair<V> endpoints = graph.getEndpoints(edge);
+				writer.write(ids.get(endpoints.getFirst()).toString());
+				writer.write(' ');
+				writer.write(ids.get(endpoints.getSecond()).toString());
+				Number weight =
+					(weighter == null) ? null : weighter.transform(edge);
+				if (weight != null) {
+					writer.write(' ');
+					writer.write(Float.toString(weight.floatValue()));
+				}
+				writer.write(LINE_SEPARATOR);
+			}
+		}
 	}
 
 	public static void writeGraphML(JavaCallGraph callGraph, String fileName)
 			throws IOException {
 		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
-		Writer fileWriter = new FileWriter(fileName);
-		GraphMLWriter<CallGraphNode, CallGraphLink> mlWriter =
-			new GraphMLWriter<CallGraphNode, CallGraphLink>();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(fileName), GRAPHML_ENCODING));
+		try {
+			writeGraphML(graph, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the graph as GraphML.  Each node has access, label, memberType
+	 * and score data; each weighted edge has its weight as score data.
+	 * Nodes are given the ids "n0", "n1", ...
+	 * @param graph the graph to write
+	 * @param writer the destination, which is not closed
+	 * @see GraphMLParser
+	 */
+	public static void writeGraphML(Graph<CallGraphNode, CallGraphLink> graph,
+			Writer writer) throws IOException {
 		TreeMap<String, GraphMLMetadata<CallGraphNode>> map =
 			new TreeMap<String, GraphMLMetadata<CallGraphNode>>();
 		map.put(CallGraphNode.GRAPHML_ACCESS, CallGraphNode
@@ -76,10 +176,107 @@ public class CallGraphWriter {
 				.getGraphMLMemberTypeMetaData());
 		map.put(CallGraphNode.GRAPHML_SCORE, CallGraphNode
 				.getGraphMLScoreMetaData());
-		// mlWriter.setVertexDescriptions(new
-		// CallGraphNode.NodeLabelTransformer());
-		mlWriter.setVertexData(map);
-		mlWriter.save(graph, fileWriter);
+
+		writer.write("<?xml version=\"1.0\" encoding=\""
+				+ GRAPHML_ENCODING + "\"?>\n");
+		writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"\n"
+				+ "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+				+ "xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns\">\n");
+		for (Map.Entry<String, GraphMLMetadata<CallGraphNode>> entry
+				: map.entrySet()) {
+			String key = entry.getKey();
+			GraphMLMetadata<CallGraphNode> metadata = entry.getValue();
+			// The score key is shared with the edges, so it has no default
+			boolean isScore = CallGraphNode.GRAPHML_SCORE.equals(key);
+			writer.write("<key id=\"" + key + "\" for=\""
+					+ (isScore ? "all" : "node") + "\">\n");
+			writer.write("<desc>");
+			writeEscaped(writer, metadata.description);
+			writer.write("</desc>\n");
+			if (!isScore && metadata.default_value != null) {
+				writer.write("<default>");
+				writeEscaped(writer, metadata.default_value);
+				writer.write("</default>\n");
+			}
+			writer.write("</key>\n");
+		}
+		writer.write("<graph edgedefault=\"directed\">\n");
+
+		Collection<CallGraphNode> vertices = graph.getVertices();
+		Map<CallGraphNode, String> ids =
+			new HashMap<CallGraphNode, String>(2 * vertices.size());
+		int id = 0;
+
+		for (CallGraphNode vertex : vertices) {
+			String nodeId = "n" + id++;
+			ids.put(vertex, nodeId);
+			writer.write("<node id=\"" + nodeId + "\">\n");
+			for (Map.Entry<String, GraphMLMetadata<CallGraphNode>> entry
+					: map.entrySet()) {
+				Object value = entry.getValue().transformer.transform(vertex);
+				if (value != null) {
+					writeData(writer, entry.getKey(), value.toString());
+				}
+			}
+			writer.write("</node>\n");
+		}
+		for (CallGraphLink edge : graph.getEdges()) {
+			Pair<CallGraphNode> endpoints = graph.getEndpoints(edge);
+			writer.write("<edge ");
+			if (graph.getEdgeType(edge) == EdgeType.UNDIRECTED) {
+				writer.write("directed=\"false\" ");
+			}
+			writer.write("source=\"" + ids.get(endpoints.getFirst())
+					+ "\" target=\"" + ids.get(endpoints.getSecond()) + "\"");
+			Number weight = edge.getWeight();
+			if (weight == null) {
+				writer.write("/>\n");
+			} else {
+				writer.write(">\n");
+				writeData(writer, CallGraphNode.GRAPHML_SCORE, weight.toString());
+				writer.write("</edge>\n");
+			}
+		}
+		writer.write("</graph>\n");
+		writer.write("</graphml>\n");
+		writer.flush();
+	}
+
+	private static void writeData(Writer writer, String key, String value)
+			throws IOException {
+		writer.write("<data key=\"" + key + "\">");
+		writeEscaped(writer, value);
+		writer.write("</data>\n");
+	}
+
+	/** Writes the text, escaping the characters that are special in XML. */
+	private static void writeEscaped(Writer writer, String text)
+			throws IOException {
+		int length = text.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '<') {
+				writer.write("&lt;");
+			} else if (c == '>') {
+				writer.write("&gt;");
+			} else if (c == '&') {
+				writer.write("&amp;");
+			} else if (c == '"') {
+				writer.write("&quot;");
+			} else {
+				writer.write(c);
+			}
+		}
+	}
+
+	/**
+	 * Writes the graph in the compact binary format.
+	 * @see BinaryCallGraphFormat
+	 */
+	public static void writeBinary(JavaCallGraph callGraph, String fileName)
+			throws IOException {
+		BinaryCallGraphFormat.write(callGraph, fileName);
 	}
 
 	public static void saveEPS(Component component, String fileName) throws IOException {
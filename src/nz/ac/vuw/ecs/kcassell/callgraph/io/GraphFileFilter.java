@@ -56,6 +56,8 @@ public class GraphFileFilter extends FileFilter {
 								|| name.endsWith(".eps")
 								|| name.endsWith(".png")
 								|| name.endsWith(".xml")
+								|| name.endsWith("."
+										+ BinaryCallGraphFormat.BINARY_EXT)
 								));
 		return result;
 	}
@@ -67,7 +69,7 @@ public class GraphFileFilter extends FileFilter {
 	 */
 	@Override
 	public String getDescription() {
-		return "Graph files (*.eps, *.png, *.net, *.xml)";
+		return "Graph files (*.cgb, *.eps, *.png, *.net, *.xml)";
 	}
 
 }
@@ -0,0 +1,266 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.SparseMultigraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+/**
+ * Reads a call graph stored in GraphML with a StAX stream reader, creating
+ * each node and link as soon as its element ends.  Unlike GraphMLReader2,
+ * no document model or per-element metadata objects are built.  Nodes and
+ * links are created from their data (with key defaults applied) exactly as
+ * GraphMLReader2 creates them via CallGraphNode.GraphMLNodeMetadataReader
+ * and CallGraphLink.EdgeMetadataTransformer.  Hyperedges, ports and nested
+ * graphs are not supported.
+ * @see CallGraphWriter#writeGraphML(Graph, java.io.Writer)
+ * @author Keith
+ */
+public class GraphMLParser {
+
+	private static final UtilLogger logger = new UtilLogger("GraphMLParser");
+
+	/** An edge whose endpoints had not been read when the edge was. */
+	private static class PendingEdge {
+		CallGraphLink link;
+		String source;
+		String target;
+		EdgeType edgeType;
+	}
+
+	protected CallGraphNode.GraphMLNodeMetadataReader nodeReader =
+		new CallGraphNode.GraphMLNodeMetadataReader();
+	protected CallGraphLink.EdgeMetadataTransformer linkReader =
+		new CallGraphLink.EdgeMetadataTransformer();
+
+	/** Key defaults for nodes, keyed by key id. */
+	private Map<String, String> nodeDefaults = new HashMap<String, String>();
+
+	/** Key defaults for edges, keyed by key id. */
+	private Map<String, String> edgeDefaults = new HashMap<String, String>();
+
+	/** The GraphML ids of the nodes read so far. */
+	private Map<String, CallGraphNode> nodesById =
+		new HashMap<String, CallGraphNode>();
+
+	private List<PendingEdge> pendingEdges = new ArrayList<PendingEdge>();
+
+	/**
+	 * Reads a graph from GraphML.
+	 * @param reader the source of the GraphML
+	 * @return the graph read
+	 * @throws IOException if the GraphML cannot be read or refers to
+	 * an undefined node
+	 */
+	public Graph<CallGraphNode, CallGraphLink> load(Reader reader)
+			throws IOException {
+		Graph<CallGraphNode, CallGraphLink> graph =
+			new SparseMultigraph<CallGraphNode, CallGraphLink>();
+		nodeDefaults.clear();
+		edgeDefaults.clear();
+		nodesById.clear();
+		XMLStreamReader xml = null;
+		try {
+			xml = XMLInputFactory.newInstance().createXMLStreamReader(reader);
+			parse(xml, graph);
+		} catch (XMLStreamException e) {
+			IOException ioe = new IOException("Bad GraphML: " + e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		} finally {
+			if (xml != null) {
+				try {
+					xml.close();
+				} catch (XMLStreamException e) {
+					logger.warning("Problem closing GraphML reader: " + e);
+				}
+			}
+		}
+		for (PendingEdge pending : pendingEdges) {
+			addEdge(graph, pending.link, pending.source, pending.target,
+					pending.edgeType, true);
+		}
+		pendingEdges.clear();
+		return graph;
+	}
+
+	private void parse(XMLStreamReader xml,
+			Graph<CallGraphNode, CallGraphLink> graph)
+			throws XMLStreamException, IOException {
+		EdgeType edgeDefault = EdgeType.DIRECTED;
+		Map<String, String> properties = new HashMap<String, String>();
+		StringBuffer text = new StringBuffer();
+		boolean collectingText = false;
+		boolean inNode = false;
+		boolean inEdge = false;
+		boolean warnedOfHyperedges = false;
+		String keyId = null;
+		String keyFor = null;
+		String dataKey = null;
+		String nodeId = null;
+		String source = null;
+		String target = null;
+		EdgeType edgeType = null;
+
+		while (xml.hasNext()) {
+			int event = xml.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+
+				if ("key".equals(name)) {
+					keyId = xml.getAttributeValue(null, "id");
+					keyFor = xml.getAttributeValue(null, "for");
+				} else if ("graph".equals(name)) {
+					String sDefault = xml.getAttributeValue(null, "edgedefault");
+					edgeDefault = "undirected".equals(sDefault) ?
+						EdgeType.UNDIRECTED : EdgeType.DIRECTED;
+				} else if ("node".equals(name)) {
+					nodeId = xml.getAttributeValue(null, "id");
+					properties.clear();
+					inNode = true;
+				} else if ("edge".equals(name)) {
+					source = xml.getAttributeValue(null, "source");
+					target = xml.getAttributeValue(null, "target");
+					String directed = xml.getAttributeValue(null, "directed");
+					if (directed == null) {
+						edgeType = edgeDefault;
+					} else {
+						edgeType = "true".equals(directed) ?
+							EdgeType.DIRECTED : EdgeType.UNDIRECTED;
+					}
+					properties.clear();
+					inEdge = true;
+				} else if ("data".equals(name) || "default".equals(name)) {
+					dataKey = xml.getAttributeValue(null, "key");
+					text.setLength(0);
+					collectingText = true;
+				} else if ("hyperedge".equals(name) && !warnedOfHyperedges) {
+					logger.warning("GraphML hyperedges are ignored");
+					warnedOfHyperedges = true;
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA) {
+				if (collectingText) {
+					text.append(xml.getTextCharacters(), xml.getTextStart(),
+							xml.getTextLength());
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = xml.getLocalName();
+
+				if ("default".equals(name)) {
+					addDefault(keyId, keyFor, text.toString().trim());
+					collectingText = false;
+				} else if ("data".equals(name)) {
+					if (inNode || inEdge) {
+						properties.put(dataKey, text.toString().trim());
+					}
+					collectingText = false;
+				} else if ("node".equals(name) && inNode) {
+					applyDefaults(properties, nodeDefaults);
+					CallGraphNode node = nodeReader.createNode(properties);
+					graph.addVertex(node);
+					nodesById.put(nodeId, node);
+					inNode = false;
+				} else if ("edge".equals(name) && inEdge) {
+					applyDefaults(properties, edgeDefaults);
+					CallGraphLink link = linkReader.createLink(properties);
+					addEdge(graph, link, source, target, edgeType, false);
+					inEdge = false;
+				}
+			}
+		}
+	}
+
+	private void addDefault(String keyId, String keyFor, String value) {
+		if (keyFor == null || "all".equals(keyFor) || "node".equals(keyFor)) {
+			nodeDefaults.put(keyId, value);
+		}
+		if (keyFor == null || "all".equals(keyFor) || "edge".equals(keyFor)) {
+			edgeDefaults.put(keyId, value);
+		}
+	}
+
+	private static void applyDefaults(Map<String, String> properties,
+			Map<String, String> defaults) {
+		for (Map.Entry<String, String> entry : defaults.entrySet()) {
+			if (!properties.containsKey(entry.getKey())) {
+				properties.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Adds the link to the graph if both its endpoints have been read.
+	 * Otherwise, it is held until the end of the document, when any
+	 * endpoint that is still missing is an error.
+	 */
+	private void addEdge(Graph<CallGraphNode, CallGraphLink> graph,
+			CallGraphLink link, String source, String target,
+			EdgeType edgeType, boolean atEnd) throws IOException {
+		CallGraphNode sourceNode = nodesById.get(source);
+		CallGraphNode targetNode = nodesById.get(target);
+
+		if (sourceNode != null && targetNode != null) {
+			graph.addEdge(link, sourceNode, targetNode, edgeType);
+		} else if (atEnd) {
+			throw new IOException("Edge " + source + " -> " + target
+					+ " refers to an undefined node");
+		} else {
+			PendingEdge pending = new PendingEdge();
+			pending.link = link;
+			pending.source = source;
+			pending.target = target;
+			pending.edgeType = edgeType;
+			pendingEdges.add(pending);
+		}
+	}
+
+}
@@ -36,20 +36,26 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
-import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger.MessageSupplier;
 
 import org.apache.commons.collections15.Factory;
 
@@ -57,8 +63,6 @@ import edu.uci.ics.jung.algorithms.util.SettableTransformer;
 import edu.uci.ics.jung.graph.Graph;
 import edu.uci.ics.jung.graph.SparseMultigraph;
 import edu.uci.ics.jung.graph.util.Pair;
-import edu.uci.ics.jung.io.PajekNetReader;
-import edu.uci.ics.jung.io.graphml.GraphMLReader2;
 
 /**
  * This class can read a graph from a file.
@@ -173,45 +177,137 @@ public class GraphReader<V, E> {
 	 */
 	public Graph<V, E> readPajekNetGraph(String dataFile) throws IOException {
 		BufferedReader bufferedReader = getBufferedReader(dataFile);
-		readPajekNetGraph(bufferedReader);
+		try {
+			readPajekNetGraph(bufferedReader);
+		} finally {
+			bufferedReader.close();
+		}
 		return graph;
 	}
 
 	/**
-	 * @param bufferedReader
+	 * Reads a Pajek graph.  The graph replaces the current one only if the
+	 * whole graph could be read.
+	 * @param bufferedReader supplies the graph in Pajek format
+	 * @throws IOException if the graph could not be read, in which case
+	 * the current graph is unchanged
+	 */
+	public void readPajekNetGraph(BufferedReader bufferedReader)
+			throws IOException {
+		Graph<V, E> newGraph = new SparseMultigraph<V, E>();
+		PajekNetParser<V, E> pajekParser =
+			new PajekNetParser<V, E>(vertexFactory, edgeFactory);
+		pajekParser.load(bufferedReader, newGraph);
+		graph = newGraph;
+		vertexLabeler = pajekParser.getVertexLabeller();
+
+		transformVertices();
+		logEdges();
+	}
+
+	/**
+	 * Reads each of the Pajek files in a directory with its own GraphReader,
+	 * using one thread per available processor.
+	 * @param directory the directory holding the Pajek (.net) files
+	 * @return the readers, in the order of the sorted file names
+	 * @see #readPajekNetGraphs(List, Factory, Factory, int)
+	 */
+	public static <V, E> List<GraphReader<V, E>> readPajekNetGraphs(
+			File directory, Factory<V> vertexFactory, Factory<E> edgeFactory) {
+		String[] names = directory.list(new PajekNetFilenameFilter());
+		List<File> files = new ArrayList<File>();
+		if (names != null) {
+			Arrays.sort(names);
+			for (String name : names) {
+				files.add(new File(directory, name));
+			}
+		}
+		return readPajekNetGraphs(files, vertexFactory, edgeFactory);
+	}
+
+	/**
+	 * Reads each of the Pajek files with its own GraphReader, using one
+	 * thread per available processor.
+	 * @see #readPajekNetGraphs(List, Factory, Factory, int)
+	 */
+	public static <V, E> List<GraphReader<V, E>> readPajekNetGraphs(
+			List<File> files, Factory<V> vertexFactory, Factory<E> edgeFactory) {
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		return readPajekNetGraphs(files, vertexFactory, edgeFactory, numThreads);
+	}
+
+	/**
+	 * Reads each of the Pajek files with its own GraphReader, using the
+	 * given number of threads.  The factories are shared by the readers,
+	 * so calls to them are synchronized.
+	 * @param files the Pajek files to read
+	 * @param vertexFactory creates the vertices for all of the graphs
+	 * @param edgeFactory creates the edges for all of the graphs
+	 * @param numThreads the maximum number of files to read at once
+	 * @return the readers, in the same order as the files.  The graph of
+	 * a reader whose file could not be read is null.
 	 */
-	public void readPajekNetGraph(BufferedReader bufferedReader) {
+	public static <V, E> List<GraphReader<V, E>> readPajekNetGraphs(
+			List<File> files, Factory<V> vertexFactory, Factory<E> edgeFactory,
+			int numThreads) {
+		final Factory<V> sharedVertexFactory =
+			new SynchronizedFactory<V>(vertexFactory);
+		final Factory<E> sharedEdgeFactory =
+			new SynchronizedFactory<E>(edgeFactory);
+		List<GraphReader<V, E>> readers = new ArrayList<GraphReader<V, E>>();
+		List<Future<Graph<V, E>>> futures = new ArrayList<Future<Graph<V, E>>>();
+		int poolSize = Math.max(1, Math.min(numThreads, files.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+
 		try {
-			graph = new SparseMultigraph<V, E>();
-			PajekNetReader<Graph<V, E>, V, E> pajekReader = new PajekNetReader<Graph<V, E>, V, E>(
-					vertexFactory, edgeFactory);
-			// pajekReader.setVertexLabeller(vertex_labels)
-			pajekReader.load(bufferedReader, graph);
-			vertexLabeler = pajekReader.getVertexLabeller();
-
-			transformVertices();
-			logEdges();
-		} catch (NoSuchElementException e) {
-			logger
-					.severe("Error in loading graph (perhaps caused by a blank line in the Pajek input file): "
-							+ e);
-		} catch (IOException e) {
-			logger.severe("Error in loading graph: " + e);
+			for (final File file : files) {
+				final GraphReader<V, E> reader =
+					new GraphReader<V, E>(sharedVertexFactory, sharedEdgeFactory);
+				readers.add(reader);
+				futures.add(pool.submit(new Callable<Graph<V, E>>() {
+					public Graph<V, E> call() throws IOException {
+						return reader.readPajekNetGraph(file.getPath());
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					logger.severe("Error reading " + files.get(i) + ": "
+							+ e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+		return readers;
+	}
+
+	/** Serializes calls to a factory shared by several threads. */
+	private static class SynchronizedFactory<T> implements Factory<T> {
+		private final Factory<T> factory;
+
+		SynchronizedFactory(Factory<T> factory) {
+			this.factory = factory;
+		}
+
+		public synchronized T create() {
+			return factory.create();
 		}
 	}
 
 	public static Graph<CallGraphNode, CallGraphLink> readGraphMLGraph(
 			String fileName) throws Exception {
-		BufferedReader fileReader = new BufferedReader(new FileReader(fileName));
-		GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink> graphMLreader = new GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink>(
-				fileReader, new JavaCallGraph.CallGraphMetadataTransformer(),
-				new CallGraphNode.GraphMLNodeMetadataReader(),
-				new CallGraphLink.EdgeMetadataTransformer(),
-				new CallGraphLink.HyperEdgeMetadataTransformer());
-		// GraphMLReader<Graph<V, E>, V, E> reader =
-		// new GraphMLReader<Graph<V, E>, V, E>(vertexFactory, edgeFactory);
-		Graph<CallGraphNode, CallGraphLink> graph = graphMLreader.readGraph();
-		return graph;
+		BufferedReader fileReader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName), CallGraphWriter.GRAPHML_ENCODING));
+		try {
+			return new GraphMLParser().load(fileReader);
+		} finally {
+			fileReader.close();
+		}
 	}
 
 	/**
@@ -258,19 +354,21 @@ public class GraphReader<V, E> {
 			V vertex = vIterator.next();
 			String vertexLabel = vertexLabeler.transform(vertex);
 			labelsToVertices.put(vertexLabel, vertex);
-			logger.finer("Vertex " + vertex + " has label " + vertexLabel);
+			logger.finer("Vertex {0} has label {1}", vertex, vertexLabel);
 		}
 		return labelsToVertices;
 	}
 
 	private void logEdges() {
-		Collection<E> edges = graph.getEdges();
-		Iterator<E> eIterator = edges.iterator();
-		while (eIterator.hasNext()) {
-			E edge = eIterator.next();
-			String edgeLabel = getEdgeLabel(edge);
-			logger.finer("[" + edgeLabel + "], ");
-		}
+		logger.finer(new MessageSupplier() {
+			public String getMessage() {
+				StringBuffer buf = new StringBuffer("Edges: ");
+				for (E edge : graph.getEdges()) {
+					buf.append("[").append(getEdgeLabel(edge)).append("], ");
+				}
+				return buf.toString();
+			}
+		});
 	}
 
 }
@@ -0,0 +1,309 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.commons.collections15.Factory;
+
+import edu.uci.ics.jung.algorithms.util.MapSettableTransformer;
+import edu.uci.ics.jung.algorithms.util.SettableTransformer;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+/**
+ * Reads a graph stored in Pajek format one line at a time, adding
+ * vertices and edges to the graph as they are parsed.  Unlike JUNG's
+ * PajekNetReader, this does not use regular expressions or tokenizer
+ * objects, looks up vertices in an array rather than a list, and
+ * tolerates blank lines.  The vertices and labels it produces are the
+ * same as PajekNetReader's: every vertex listed in the "*Vertices"
+ * line is created, and a vertex is only labelled if its line has a
+ * label.  Edge weights are read as Floats, also as PajekNetReader does.
+ * An instance should only be used by one thread at a time.
+ * @see CallGraphReader#readPajekNetGraph(String)
+ * @author Keith
+ */
+public class PajekNetParser<V, E> {
+
+	protected static final String VERTICES_TAG = "*vertices";
+	protected static final String ARCS_TAG = "*arcs";
+	protected static final String EDGES_TAG = "*edges";
+	protected static final String LIST_SUFFIX = "list";
+
+	protected Factory<V> vertexFactory = null;
+	protected Factory<E> edgeFactory = null;
+
+	/** Records the labels read for the vertices. */
+	protected SettableTransformer<V, String> vertexLabeller = null;
+
+	/** If not null, records the edge weights read. */
+	protected SettableTransformer<E, Number> edgeWeightTransformer = null;
+
+	/** The tokens of the line currently being parsed. */
+	private String[] tokens = new String[4];
+
+	/** The number of the line currently being parsed, for error messages. */
+	private int lineNumber = 0;
+
+	public PajekNetParser(Factory<V> vertexFactory, Factory<E> edgeFactory) {
+		this.vertexFactory = vertexFactory;
+		this.edgeFactory = edgeFactory;
+	}
+
+	public void setEdgeWeightTransformer(
+			SettableTransformer<E, Number> edgeWeightTransformer) {
+		this.edgeWeightTransformer = edgeWeightTransformer;
+	}
+
+	/**
+	 * @return the labels read by the last call to load
+	 */
+	public SettableTransformer<V, String> getVertexLabeller() {
+		return vertexLabeller;
+	}
+
+	/**
+	 * Reads the Pajek data, adding its vertices and edges to the graph.
+	 * Sections other than vertices, arcs and edges are skipped.
+	 * @param reader the source of the Pajek data
+	 * @param graph the graph to populate
+	 * @return the graph
+	 * @throws IOException if the data cannot be read or is malformed
+	 */
+	public Graph<V, E> load(BufferedReader reader, Graph<V, E> graph)
+			throws IOException {
+		vertexLabeller =
+			new MapSettableTransformer<V, String>(new HashMap<V, String>());
+		lineNumber = 0;
+		String line = nextLine(reader);
+
+		while (line != null && !isTag(line, VERTICES_TAG)) {
+			line = nextLine(reader);
+		}
+		if (line == null) {
+			return graph;
+		}
+		int numTokens = tokenize(line);
+		if (numTokens < 2) {
+			throw badLine("missing vertex count", line);
+		}
+		int numVertices = parseInt(tokens[1], line);
+		Object[] vertices = new Object[numVertices];
+
+		for (int i = 0; i < numVertices; i++) {
+			V vertex = vertexFactory.create();
+			vertices[i] = vertex;
+			graph.addVertex(vertex);
+		}
+		line = nextLine(reader);
+
+		while (line != null && !isTag(line)) {
+			readVertex(line, vertices);
+			line = nextLine(reader);
+		}
+		while (line != null) {
+			if (isTag(line, ARCS_TAG)) {
+				line = readEdges(reader, line, vertices, EdgeType.DIRECTED, graph);
+			} else if (isTag(line, EDGES_TAG)) {
+				line = readEdges(reader, line, vertices, EdgeType.UNDIRECTED, graph);
+			} else {
+				line = nextLine(reader);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Assigns the label (if any) on a vertex line to its vertex.  A quoted
+	 * label may contain blanks; an unquoted label must be the second of
+	 * either two or four (id, label, x, y) tokens.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readVertex(String line, Object[] vertices) throws IOException {
+		String index = null;
+		String label = null;
+		int quote = line.indexOf('"');
+
+		if (quote != -1) {
+			int endQuote = line.indexOf('"', quote + 1);
+			if (endQuote == -1) {
+				throw badLine("unbalanced quote marks", line);
+			}
+			index = line.substring(0, quote).trim();
+			label = line.substring(quote + 1, endQuote).trim();
+		} else {
+			int numTokens = tokenize(line);
+			if (numTokens == 0) {
+				return;
+			}
+			index = tokens[0];
+			if (numTokens == 2 || numTokens == 4) {
+				label = tokens[1];
+			}
+		}
+		V vertex = (V) vertices[parseVertexIndex(index, vertices, line)];
+
+		if (label != null && label.length() > 0) {
+			vertexLabeller.set(vertex, label);
+		}
+	}
+
+	/**
+	 * Reads the lines of an arcs or edges section, up to the next tag.
+	 * In a list section, each line holds a source followed by any number
+	 * of targets; otherwise it holds a source, a target and an optional
+	 * weight.
+	 * @return the line that ended the section, or null at end of input
+	 */
+	@SuppressWarnings("unchecked")
+	private String readEdges(BufferedReader reader, String tagLine,
+			Object[] vertices, EdgeType edgeType, Graph<V, E> graph)
+			throws IOException {
+		boolean isList =
+			tagLine.trim().toLowerCase().indexOf(LIST_SUFFIX) != -1;
+		String line = nextLine(reader);
+
+		while (line != null && !isTag(line)) {
+			int numTokens = tokenize(line);
+
+			if (numTokens == 1) {
+				throw badLine("missing target vertex", line);
+			} else if (numTokens > 1) {
+				V source = (V) vertices[parseVertexIndex(tokens[0], vertices, line)];
+				int lastTarget = isList ? numTokens - 1 : 1;
+
+				for (int i = 1; i <= lastTarget; i++) {
+					V target =
+						(V) vertices[parseVertexIndex(tokens[i], vertices, line)];
+					E edge = edgeFactory.create();
+					graph.addEdge(edge, source, target, edgeType);
+
+					if (!isList && numTokens > 2 && edgeWeightTransformer != null) {
+						edgeWeightTransformer.set(edge, parseFloat(tokens[2], line));
+					}
+				}
+			}
+			line = nextLine(reader);
+		}
+		return line;
+	}
+
+	private String nextLine(BufferedReader reader) throws IOException {
+		lineNumber++;
+		return reader.readLine();
+	}
+
+	/**
+	 * Splits the line on white space into the tokens array.
+	 * @return the number of tokens found
+	 */
+	private int tokenize(String line) {
+		int numTokens = 0;
+		int length = line.length();
+		int i = 0;
+
+		while (i < length) {
+			while (i < length && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i < length) {
+				int start = i;
+				while (i < length && !Character.isWhitespace(line.charAt(i))) {
+					i++;
+				}
+				if (numTokens == tokens.length) {
+					String[] larger = new String[2 * tokens.length];
+					System.arraycopy(tokens, 0, larger, 0, numTokens);
+					tokens = larger;
+				}
+				tokens[numTokens++] = line.substring(start, i);
+			}
+		}
+		return numTokens;
+	}
+
+	/** @return true if the line starts (ignoring leading blanks) with "*" */
+	private static boolean isTag(String line) {
+		int i = 0;
+		int length = line.length();
+
+		while (i < length && Character.isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		return i < length && line.charAt(i) == '*';
+	}
+
+	/** @return true if the line starts with the (lower case) tag */
+	private static boolean isTag(String line, String tag) {
+		String trimmed = line.trim();
+		return trimmed.regionMatches(true, 0, tag, 0, tag.length());
+	}
+
+	/** Converts a 1-based Pajek vertex number to an index into vertices. */
+	private int parseVertexIndex(String token, Object[] vertices, String line)
+			throws IOException {
+		int index = parseInt(token, line) - 1;
+
+		if (index < 0 || index >= vertices.length) {
+			throw badLine("vertex number " + token + " is not in the range [1,"
+					+ vertices.length + "]", line);
+		}
+		return index;
+	}
+
+	private int parseInt(String token, String line) throws IOException {
+		try {
+			return Integer.parseInt(token);
+		} catch (NumberFormatException e) {
+			throw badLine("bad number " + token, line);
+		}
+	}
+
+	private Float parseFloat(String token, String line) throws IOException {
+		try {
+			return Float.valueOf(token);
+		} catch (NumberFormatException e) {
+			throw badLine("bad weight " + token, line);
+		}
+	}
+
+	private IOException badLine(String problem, String line) {
+		return new IOException("Line " + lineNumber + ": " + problem
+				+ " in \"" + line + "\"");
+	}
+
+}
@@ -32,12 +32,19 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.cluster;
 
+import java.util.AbstractQueue;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
@@ -49,10 +56,15 @@ import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+import org.apache.commons.collections15.Transformer;
+
 import edu.uci.ics.jung.algorithms.cluster.EdgeBetweennessClusterer;
+import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
 import edu.uci.ics.jung.algorithms.importance.BetweennessCentrality;
 import edu.uci.ics.jung.algorithms.scoring.ClosenessCentrality;
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
 import edu.uci.ics.jung.graph.util.Pair;
 
 public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
@@ -155,18 +167,18 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 
 		Set<Set<CallGraphNode>> nodeGroupSet = clusterer.transform(jungGraph);
 		clusters = CallGraphCluster.toCallGraphClusters(nodeGroupSet);
-		utilLogger.fine("clusters = " + clusters);
+		utilLogger.fine("clusters = {0}", clusters);
 		edgesRemoved = clusterer.getEdgesRemoved();
-		utilLogger.fine("edgesRemoved = " + edgesRemoved);
+		utilLogger.fine("edgesRemoved = {0}", edgesRemoved);
 		int iCount = clusters.size();
 
-		String edgesRemovedString = edgesRemovedToString(jungGraph, edgesRemoved);
-
 		// New cluster
 		if (iCount > numClusters) {
 			numClusters = iCount;
 			utilLogger.info("New clusters after " + numEdgesToRemove
 					+ " edges removed:\n" + clusters);
+			String edgesRemovedString =
+				edgesRemovedToString(jungGraph, edgesRemoved);
 			utilLogger.info("Edges removed:\n" + edgesRemovedString);
 		}
 
@@ -180,6 +192,99 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 		return clusters;
 	}
 
+	/**
+	 * Removes the edge of highest betweenness, one at a time, until
+	 * numToCreate clusters beyond the original ones have formed or no edges
+	 * remain.  These are the removals EdgeBetweennessClusterer makes for
+	 * cluster(1), cluster(2), ..., but the betweenness is computed once per
+	 * removal rather than again for every longer prefix of removals.
+	 * Afterward, the removed edges are restored with their original edge
+	 * types.  Unlike cluster(int), this does not store the betweenness
+	 * scores on the nodes and links.  The search stops early if the
+	 * thread is interrupted, even part way through a betweenness pass.
+	 * @param numToCreate the number of new clusters wanted
+	 * @return each clustering with more clusters than the last, keyed by
+	 *  the number of edges removed to form it, starting with the original
+	 *  clusters at 0
+	 */
+	public SortedMap<Integer, Collection<CallGraphNode>> clusterIncrementally(
+			int numToCreate) {
+		Graph<CallGraphNode, CallGraphLink> jungGraph = callGraph.getJungGraph();
+		SortedMap<Integer, Collection<CallGraphNode>> clusterings =
+			new TreeMap<Integer, Collection<CallGraphNode>>();
+		WeakComponentClusterer<CallGraphNode, CallGraphLink> componentFinder =
+			new WeakComponentClusterer<CallGraphNode, CallGraphLink>();
+		edgesRemoved = new ArrayList<CallGraphLink>();
+		List<Pair<CallGraphNode>> endpointsRemoved =
+			new ArrayList<Pair<CallGraphNode>>();
+		List<EdgeType> edgeTypesRemoved = new ArrayList<EdgeType>();
+		clusters = CallGraphCluster.toCallGraphClusters(
+				componentFinder.transform(jungGraph));
+		clusterings.put(0, clusters);
+		int origClusterCount = clusters.size();
+		int lastClusterCount = origClusterCount;
+
+		try {
+			while (lastClusterCount < origClusterCount + numToCreate
+					&& jungGraph.getEdgeCount() > 0
+					&& !Thread.currentThread().isInterrupted()) {
+				CallGraphLink edge = null;
+				try {
+					edge = findHighestBetweennessEdge(jungGraph);
+				} catch (CancellationException e) {
+					break;
+				}
+				edgesRemoved.add(edge);
+				endpointsRemoved.add(jungGraph.getEndpoints(edge));
+				edgeTypesRemoved.add(jungGraph.getEdgeType(edge));
+				jungGraph.removeEdge(edge);
+				callGraph.graphChanged();
+				Set<Set<CallGraphNode>> nodeGroupSet =
+					componentFinder.transform(jungGraph);
+
+				if (nodeGroupSet.size() > lastClusterCount) {
+					lastClusterCount = nodeGroupSet.size();
+					clusters = CallGraphCluster.toCallGraphClusters(nodeGroupSet);
+					clusterings.put(edgesRemoved.size(), clusters);
+					utilLogger.fine("New clusters after {0} edges removed: {1}",
+							edgesRemoved.size(), clusters);
+				}
+			}
+		} finally {
+			for (int i = 0; i < edgesRemoved.size(); i++) {
+				Pair<CallGraphNode> endpoints = endpointsRemoved.get(i);
+				jungGraph.addEdge(edgesRemoved.get(i), endpoints.getFirst(),
+						endpoints.getSecond(), edgeTypesRemoved.get(i));
+			}
+			callGraph.graphChanged();
+		}
+		numClusters = lastClusterCount;
+		return clusterings;
+	}
+
+	/**
+	 * @return the first edge with the highest betweenness, as chosen by
+	 *  EdgeBetweennessClusterer
+	 * @throws CancellationException if the thread is interrupted before
+	 *  the betweenness has been computed
+	 */
+	private static CallGraphLink findHighestBetweennessEdge(
+			Graph<CallGraphNode, CallGraphLink> graph) {
+		InterruptibleBetweenness betweenness =
+			new InterruptibleBetweenness(graph);
+		CallGraphLink highestEdge = null;
+		double highestScore = -1.0;
+
+		for (CallGraphLink edge : graph.getEdges()) {
+			double score = betweenness.getEdgeScore(edge);
+			if (score > highestScore) {
+				highestEdge = edge;
+				highestScore = score;
+			}
+		}
+		return highestEdge;
+	}
+
 	public String edgesRemovedToString(
 			Graph<CallGraphNode, CallGraphLink> graph,
 			List<CallGraphLink> edgesRemoved) {
@@ -233,6 +338,7 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 			Pair<CallGraphNode> endpoints = removedEdgesMap.get(edge);
 			graph.addEdge(edge, endpoints.getFirst(), endpoints.getSecond());
 		}
+		callGraph.graphChanged();
 	}
 
 	private Map<CallGraphLink, Pair<CallGraphNode>> removeEdges(
@@ -244,6 +350,7 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 			removedEdges.put(edge, removedEdgeEndpoints);
 			graph.removeEdge(edge);
 		}
+		callGraph.graphChanged();
 		return removedEdges;
 	}
 
@@ -287,6 +394,62 @@ public class BetweennessClusterer implements ClustererIfc<CallGraphNode> {
 		return orderedNodes;
 	}
 
+	/**
+	 * Unweighted betweenness centrality that checks for interruption each
+	 * time a node is reached by a shortest path search, so that a single
+	 * pass over a large graph can't outlast a time limit.
+	 */
+	private static class InterruptibleBetweenness extends
+			edu.uci.ics.jung.algorithms.scoring.BetweennessCentrality<CallGraphNode, CallGraphLink> {
+
+		InterruptibleBetweenness(Graph<CallGraphNode, CallGraphLink> graph) {
+			super(graph);
+		}
+
+		@Override
+		protected void computeBetweenness(Queue<CallGraphNode> queue,
+				Transformer<CallGraphLink, ? extends Number> edgeWeights) {
+			super.computeBetweenness(new InterruptibleQueue(queue), edgeWeights);
+		}
+	}
+
+	/**
+	 * A queue that throws a CancellationException, rather than accept
+	 * another node, once the thread has been interrupted.  The interrupt
+	 * status is left set.
+	 */
+	private static class InterruptibleQueue extends
+			AbstractQueue<CallGraphNode> {
+		private final Queue<CallGraphNode> queue;
+
+		InterruptibleQueue(Queue<CallGraphNode> queue) {
+			this.queue = queue;
+		}
+
+		public boolean offer(CallGraphNode node) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Betweenness interrupted");
+			}
+			return queue.offer(node);
+		}
+
+		public CallGraphNode poll() {
+			return queue.poll();
+		}
+
+		public CallGraphNode peek() {
+			return queue.peek();
+		}
+
+		public int size() {
+			return queue.size();
+		}
+
+		public Iterator<CallGraphNode> iterator() {
+			return queue.iterator();
+		}
+	}
+
 //	public Collection<CallGraphNode> cluster(int iteration) {
 //		// TODO Auto-generated method stub
 //		return null;
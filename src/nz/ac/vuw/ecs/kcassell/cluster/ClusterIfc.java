@@ -36,7 +36,8 @@ import java.util.Set;
 
 public interface ClusterIfc<V> {
 
-	/** @return the elements that comprise the cluster. */
+	/** @return a read-only view of the elements that comprise
+	 * the cluster. */
 	public abstract Set<V> getElements();
 
 	/**
@@ -0,0 +1,279 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The clusters of a dendrogram at several distance cut offs, found in a
+ * single traversal.  For each cut off, the clusters are the same as
+ * MemberCluster.getClustersAtDistance gives (in the same order), but the
+ * tree is walked once for all of the cut offs, and the counts and sizes
+ * come from the precomputed element counts of the subclusters.  The work
+ * grows with the size of the tree plus the number of clusters found, rather
+ * than with the number of cut offs times the size of the tree.
+ * 
+ * @author kcassell
+ */
+public class DendrogramCuts {
+
+	/** The cut offs, in the order given. */
+	protected double[] cutOffs;
+
+	/** The number of clusters at each cut off. */
+	protected int[] clusterCounts;
+
+	/** For each cut off, the number of clusters of each size,
+	 * largest size first. */
+	protected List<SortedMap<Integer, Integer>> sizeHistograms;
+
+	/** For each cut off, the clusters (or null if they weren't kept). */
+	protected List<ArrayList<Object>> partitions = null;
+
+	/**
+	 * Finds the counts and sizes of the clusters at each cut off.
+	 * @param dendrogram the result of agglomerative clustering
+	 * @param cutOffs the distances at which to cut the dendrogram
+	 */
+	public DendrogramCuts(MemberCluster dendrogram, double[] cutOffs) {
+		this(dendrogram, cutOffs, false);
+	}
+
+	/**
+	 * @param dendrogram the result of agglomerative clustering
+	 * @param cutOffs the distances at which to cut the dendrogram
+	 * @param keepPartitions whether to collect the clusters themselves,
+	 *  not just their counts and sizes
+	 */
+	public DendrogramCuts(MemberCluster dendrogram, double[] cutOffs,
+			boolean keepPartitions) {
+		int numCuts = cutOffs.length;
+		this.cutOffs = new double[numCuts];
+		System.arraycopy(cutOffs, 0, this.cutOffs, 0, numCuts);
+		clusterCounts = new int[numCuts];
+		sizeHistograms = new ArrayList<SortedMap<Integer, Integer>>(numCuts);
+		for (int i = 0; i < numCuts; i++) {
+			sizeHistograms.add(
+				new TreeMap<Integer, Integer>(Collections.reverseOrder()));
+		}
+		if (keepPartitions) {
+			partitions = new ArrayList<ArrayList<Object>>(numCuts);
+			for (int i = 0; i < numCuts; i++) {
+				partitions.add(new ArrayList<Object>());
+			}
+		}
+		cut(dendrogram);
+	}
+
+	/**
+	 * A subcluster being searched, and the number of (ascending) cut offs
+	 * for which all of its ancestors, and it, were too far apart
+	 * to be a single cluster.
+	 */
+	private static class Frame {
+		Iterator<?> children;
+		int numActive;
+
+		Frame(Iterator<?> children, int numActive) {
+			this.children = children;
+			this.numActive = numActive;
+		}
+	}
+
+	/**
+	 * Walks the dendrogram once.  With the cut offs in ascending order,
+	 * the ones still splitting a subcluster are always a prefix: those
+	 * below the distances of all of its ancestors.  A subcluster is a
+	 * single cluster for the active cut offs at or above its distance,
+	 * and only the rest are passed on to its children.  Single elements
+	 * are singleton clusters for every active cut off, and are tallied
+	 * by the length of that prefix and summed at the end.
+	 */
+	protected void cut(MemberCluster dendrogram) {
+		int numCuts = cutOffs.length;
+		Integer[] ascending = sortIndicesByCutOff();
+		double[] sortedCutOffs = new double[numCuts];
+		for (int i = 0; i < numCuts; i++) {
+			sortedCutOffs[i] = cutOffs[ascending[i]];
+		}
+		// singletonsByPrefix[j] is the number of elements that are
+		// singletons for the lowest j cut offs
+		int[] singletonsByPrefix = new int[numCuts + 1];
+		List<Frame> stack = new ArrayList<Frame>();
+		int numActive = visit(dendrogram, numCuts, sortedCutOffs, ascending);
+		stack.add(new Frame(dendrogram.getChildren().iterator(), numActive));
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.get(stack.size() - 1);
+
+			if (frame.numActive == 0 || !frame.children.hasNext()) {
+				stack.remove(stack.size() - 1);
+			} else {
+				Object child = frame.children.next();
+				if (child instanceof MemberCluster) {
+					MemberCluster subcluster = (MemberCluster) child;
+					int childActive = visit(subcluster, frame.numActive,
+							sortedCutOffs, ascending);
+					stack.add(new Frame(subcluster.getChildren().iterator(),
+							childActive));
+				} else {
+					singletonsByPrefix[frame.numActive]++;
+					if (partitions != null) {
+						for (int i = 0; i < frame.numActive; i++) {
+							partitions.get(ascending[i]).add(child);
+						}
+					}
+				}
+			}
+		}
+		int singletons = 0;
+		for (int i = numCuts - 1; i >= 0; i--) {
+			singletons += singletonsByPrefix[i + 1];
+			if (singletons > 0) {
+				clusterCounts[ascending[i]] += singletons;
+				addToHistogram(ascending[i], 1, singletons);
+			}
+		}
+	}
+
+	/**
+	 * Records the subcluster as a cluster for the active cut offs at or
+	 * above its distance.
+	 * @return the number of cut offs that still split the subcluster
+	 */
+	private int visit(MemberCluster subcluster, int numActive,
+			double[] sortedCutOffs, Integer[] ascending) {
+		double distance = subcluster.getDistance();
+		int firstJoined = numActive;
+		while (firstJoined > 0 && distance <= sortedCutOffs[firstJoined - 1]) {
+			firstJoined--;
+		}
+		int size = subcluster.getElementCount();
+		for (int i = firstJoined; i < numActive; i++) {
+			int cutIndex = ascending[i];
+			clusterCounts[cutIndex]++;
+			addToHistogram(cutIndex, size, 1);
+			if (partitions != null) {
+				partitions.get(cutIndex).add(subcluster);
+			}
+		}
+		return firstJoined;
+	}
+
+	private void addToHistogram(int cutIndex, int size, int quantity) {
+		SortedMap<Integer, Integer> histogram = sizeHistograms.get(cutIndex);
+		Integer count = histogram.get(size);
+		histogram.put(size, (count == null) ? quantity : count + quantity);
+	}
+
+	/** @return the indices of the cut offs, from lowest to highest cut off */
+	private Integer[] sortIndicesByCutOff() {
+		Integer[] indices = new Integer[cutOffs.length];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		Arrays.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer index1, Integer index2) {
+				return Double.compare(cutOffs[index1], cutOffs[index2]);
+			}
+		});
+		return indices;
+	}
+
+	/** @return the cut offs, in the order given */
+	public double[] getCutOffs() {
+		double[] copy = new double[cutOffs.length];
+		System.arraycopy(cutOffs, 0, copy, 0, cutOffs.length);
+		return copy;
+	}
+
+	/**
+	 * @param cutIndex the position of the cut off, in the order given
+	 * @return the number of clusters at the cut off
+	 */
+	public int getClusterCount(int cutIndex) {
+		return clusterCounts[cutIndex];
+	}
+
+	/**
+	 * @param cutIndex the position of the cut off, in the order given
+	 * @return the number of clusters of each size at the cut off,
+	 *  largest size first
+	 */
+	public SortedMap<Integer, Integer> getSizeHistogram(int cutIndex) {
+		return Collections.unmodifiableSortedMap(sizeHistograms.get(cutIndex));
+	}
+
+	/**
+	 * @param cutIndex the position of the cut off, in the order given
+	 * @return the clusters at the cut off, as getClustersAtDistance
+	 *  would give them
+	 * @throws IllegalStateException if the partitions weren't kept
+	 */
+	public ArrayList<Object> getClusters(int cutIndex) {
+		if (partitions == null) {
+			throw new IllegalStateException("The partitions were not kept");
+		}
+		return partitions.get(cutIndex);
+	}
+
+	/**
+	 * @param cutIndex the position of the cut off, in the order given
+	 * @return the cluster sizes, in the format of
+	 *  MemberCluster.clusterSizesToString, e.g. "5,3(2),1"
+	 */
+	public String getSizesString(int cutIndex) {
+		StringBuffer sbuf = new StringBuffer();
+		for (Map.Entry<Integer, Integer> entry
+				: sizeHistograms.get(cutIndex).entrySet()) {
+			if (sbuf.length() > 0) {
+				sbuf.append(MemberCluster.QUANTITY_SEP);
+			}
+			sbuf.append(entry.getKey());
+			if (entry.getValue() > 1) {
+				sbuf.append("(").append(entry.getValue()).append(")");
+			}
+		}
+		return sbuf.toString();
+	}
+
+}
@@ -101,7 +101,7 @@ public class DisjointClusterer extends MatrixBasedAgglomerativeClusterer {
 		buildDistanceMatrix(clusterNames);
 		
 		separateSeeds();
-		logger.info(distanceMatrix.toString());
+		logger.fine("{0}", distanceMatrix);
 	}
 
 	public MemberCluster getCluster1() {
@@ -1,5 +1,19 @@
 package nz.ac.vuw.ecs.kcassell.cluster;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.Pair;
+
 /* 
  * This code came from JUng 1.7 but wasn't ported to 2.0
  * jung/src/edu/uci/ics/jung/algorithms/cluster/ExactFlowCommunity.java
@@ -20,135 +34,168 @@ package nz.ac.vuw.ecs.kcassell.cluster;
  * ExactFlowCommunity is an algorithm that uses a set of root nodes that are
  * supposed to be representative of a community to find the entire community
  * using principles based on max-flow/min-cut.
+ * <p>
+ * Without root nodes, the graph is partitioned using the cut clustering
+ * algorithm of Flake, Tarjan and Tsioutsiouliklis: an artificial sink is
+ * connected to every node, the minimum cut tree of the expanded graph is
+ * built, and the clusters are the parts of the tree left when the
+ * artificial sink is removed.  Each link has a capacity of the cohesion
+ * threshold (in both directions) and each link to the sink has a
+ * capacity of 1, so higher thresholds produce fewer, larger clusters.
  * @author Scott White
  * @see "Self-Organization of the Web and Identification of Communities by Gary
  * Flake, Steve Lawrence, Lee Giles, and Frans Coetzee, 2002"
  * @see "http://www.neci.nec.com/~lawrence/papers/web-computer02/web-computer02.pdf"
+ * @see "Graph Clustering and Minimum Cut Trees by Gary Flake, Robert Tarjan,
+ * and Kostas Tsioutsiouliklis, Internet Mathematics, 2004"
  */
-public class FlakeGraphClusterer {
+public class FlakeGraphClusterer implements ClustererIfc<CallGraphNode> {
     private int mCohesionThreshold;
 
+    /** The graph being clustered. */
+    private JavaCallGraph callGraph = null;
+
+    /** The current collection of clusters. */
+    private Collection<CallGraphNode> clusters = null;
+
+    /** The graph's nodes, indexed by their id in the flow network. */
+    private List<CallGraphNode> nodes = null;
+
+    /** Maps the graph's nodes to their id in the flow network. */
+    private HashMap<CallGraphNode, Integer> nodeIds = null;
+
     /**
      * Constructs and initializes the algorithm
+     * @param callGraph the graph whose nodes are to be clustered
      * @param cohesionThreshold a heuristic value that determines the
      * level of cohesion for the community to be extracted
      */
-    public FlakeGraphClusterer(int cohesionThreshold) {
+    public FlakeGraphClusterer(JavaCallGraph callGraph, int cohesionThreshold) {
+        this.callGraph = callGraph;
         mCohesionThreshold = cohesionThreshold;
     }
 
+    public Collection<CallGraphNode> getClusters() {
+        return clusters;
+    }
+
+    public int getCohesionThreshold() {
+        return mCohesionThreshold;
+    }
+
+    /**
+     * Partitions the graph using the cohesion threshold.
+     * @return the clusters
+     */
+    public Collection<CallGraphNode> cluster() {
+        return cluster(mCohesionThreshold);
+    }
+
+    /**
+     * Partitions the graph using the specified cohesion threshold.
+     * The clusterings for increasing thresholds are nested, so successive
+     * thresholds can be used to build a hierarchy of clusters.
+     * @param cohesionThreshold the capacity given to each link
+     * @return the clusters
+     */
+    public Collection<CallGraphNode> cluster(int cohesionThreshold) {
+        indexNodes();
+        int nodeCount = nodes.size();
+        // Node 0 is the artificial sink; the graph's nodes follow it.
+        FlowNetwork network = new FlowNetwork(nodeCount + 1);
+        addLinks(network, cohesionThreshold, 1);
+        for (int i = 0; i < nodeCount; i++) {
+            network.addUndirectedEdge(0, i + 1, 1);
+        }
+        long[] cutValues = new long[nodeCount + 1];
+        int[] parents = network.buildCutTree(cutValues);
+
+        // Each child of the sink heads one cluster
+        HashMap<Integer, Set<CallGraphNode>> groups =
+            new HashMap<Integer, Set<CallGraphNode>>();
+        for (int i = 1; i <= nodeCount; i++) {
+            int top = i;
+            while (parents[top] != 0) {
+                top = parents[top];
+            }
+            Set<CallGraphNode> group = groups.get(top);
+            if (group == null) {
+                group = new HashSet<CallGraphNode>();
+                groups.put(top, group);
+            }
+            group.add(nodes.get(i - 1));
+        }
+        Set<Set<CallGraphNode>> nodeGroupSet =
+            new HashSet<Set<CallGraphNode>>(groups.values());
+        clusters = CallGraphCluster.toCallGraphClusters(nodeGroupSet);
+        return clusters;
+    }
+
     /**
      * Extracts the community according to the cohesion threshold
-     * @param graph the original graph
-     * @param rootSet the set of nodes used to see the community
+     * @param rootSet the set of nodes used to seed the community
      * @return a set of nodes representative of the community used to seed the algorithm
      */
-//    public Set extract(//DirectedGraph graph
-//    		JavaCallGraph callGraph, Set rootSet) {
-//    	Graph<CallGraphNode,CallGraphLink> jungGraph = callGraph.getJungGraph();
-//        DirectedGraph flowGraph = (DirectedGraph) graph.copy();
-//        CallGraphNode source = flowGraph.addVertex(new SparseVertex());
-//        CallGraphNode sink = flowGraph.addVertex(new SparseVertex());
-//
-//        initializeFlowGraph(flowGraph,source, sink,rootSet);
-//        EdmondsKarpMaxFlow maxFlowSolver = new EdmondsKarpMaxFlow(flowGraph,source,sink,"CAPACITY","FLOW");
-//        maxFlowSolver.evaluate();
-//        Set sourceNodes = maxFlowSolver.getNodesInSourcePartition();
-//        for (Iterator vIt = sourceNodes.iterator();vIt.hasNext();) {
-//            CallGraphNode v = (CallGraphNode) vIt.next();
-//            if (v.getEqualVertex(flowGraph) != source) {
-//                communityVertices.add(v.getEqualVertex(graph));
-//            }
-//        }
-//
-//        return communityVertices;
-//    }
-//
-//    /**
-//     * Implements the "ApproximateFlowCommunity" algorithm. Repeatedly
-//     * finds the community at low distances from the starting set, and
-//     * grows outward. UNDERTESTED.
-//     * @param graph the original graph
-//     * @param rootSet the set of nodes used to see the community
-//     * @return a set of nodes representative of the community used to seed the algorithm
-//     */
-//    public static Set extract(DirectedGraph graph, Set rootSet, int numIterations) {
-//        Set members = new HashSet(rootSet);
-//        Set newMembers = null;
-//        int numPreviousMembers = members.size();
-//        int numCurrentMembers = 0;
-//
-//        for (int i=0;i<numIterations;i++) {
-//            FlakeGraphClusterer ecf = new FlakeGraphClusterer(members.size());
-//            newMembers = ecf.extract(graph,members);
-//            numCurrentMembers = newMembers.size();
-//            if (numPreviousMembers == numCurrentMembers) {
-//                break;
-//            }
-//            numPreviousMembers = numCurrentMembers;
-//            System.out.println(members.size());
-//            DoubleArrayList inDegrees = DegreeDistributions.getIndegreeValues(newMembers);
-//            int maxIndegree = (int) Descriptive.max(inDegrees);
-//            DoubleArrayList outDegrees = DegreeDistributions.getOutdegreeValues(newMembers);
-//            int maxOutdegree = (int) Descriptive.max(outDegrees);
-//
-//            for (Iterator vIt = newMembers.iterator(); vIt.hasNext();) {
-//                CallGraphNode v = (CallGraphNode) vIt.next();
-//                if (members.contains(v)) {
-//                    continue;
-//                }
-//                if (v.inDegree() == maxIndegree) {
-//                    members.add(v);
-//                } else if (v.outDegree() == maxOutdegree) {
-//                    members.add(v);
-//                }
-//            }
-//        }
-//
-//        return newMembers;
-//
-//    }
-//
-//    /**
-//     * Initialize the flow graph
-//     * @param flowGraph the flow graph
-//     * @param source the source node
-//     * @param sink the sink node
-//     * @param rootSet the set of nodes used to seed the community
-//     */
-//    protected void initializeFlowGraph(DirectedGraph flowGraph,CallGraphNode source, CallGraphNode sink,Set rootSet) {
-//
-//        NumericDecorator capacityDecorator = new NumericDecorator("CAPACITY",UserData.SHARED);
-//
-//        List edgesList = new ArrayList();
-//        edgesList.addAll(flowGraph.getEdges());
-//
-//        for (int idx = 0; idx < edgesList.size(); idx++) {
-//            DirectedEdge currentEdge = (DirectedEdge) edgesList.get(idx);
-//            capacityDecorator.setValue(new MutableInteger(mCohesionThreshold),currentEdge);
-//
-//            // finds edges that aren't reciprocated
-//            // that is, this is an edge from (A to B). This looks for the edge that runs from B to A.
-//            Edge otherEdge = currentEdge.getDest().findEdge(currentEdge.getSource());
-//            if (otherEdge == null) {
-//                otherEdge = GraphUtils.addEdge(flowGraph,currentEdge.getDest(),currentEdge.getSource());
-//                capacityDecorator.setValue(new MutableInteger(mCohesionThreshold),otherEdge);
-//            }
-//        }
-//
-//        for (Iterator vIt = flowGraph.getVertices().iterator(); vIt.hasNext();) {
-//            CallGraphNode currentVertex = (CallGraphNode) vIt.next();
-//            if (currentVertex != sink && !rootSet.contains(currentVertex)) {
-//                Edge newEdge = GraphUtils.addEdge(flowGraph,currentVertex,sink);
-//                capacityDecorator.setValue(new MutableInteger(1),newEdge);
-//            }
-//        }
-//
-//        for (Iterator rootIt = rootSet.iterator(); rootIt.hasNext();) {
-//            CallGraphNode currentRoot = (CallGraphNode) rootIt.next();
-//            currentRoot = (CallGraphNode) currentRoot.getEqualVertex(flowGraph);
-//            Edge e= GraphUtils.addEdge(flowGraph,source,currentRoot);
-//            capacityDecorator.setValue(new MutableInteger(Integer.MAX_VALUE),e);
-//        }
-//    }
+    public Set<CallGraphNode> extract(Set<CallGraphNode> rootSet) {
+        indexNodes();
+        int nodeCount = nodes.size();
+        int source = nodeCount;
+        int sink = nodeCount + 1;
+        FlowNetwork network = new FlowNetwork(nodeCount + 2);
+        addLinks(network, mCohesionThreshold, 0);
+
+        for (int i = 0; i < nodeCount; i++) {
+            if (rootSet.contains(nodes.get(i))) {
+                network.addEdge(source, i, FlowNetwork.INFINITE_CAPACITY);
+            } else {
+                network.addEdge(i, sink, 1);
+            }
+        }
+        network.maxFlow(source, sink);
+        boolean[] sourceSide = new boolean[nodeCount + 2];
+        network.getSourceSide(source, sourceSide);
+
+        Set<CallGraphNode> communityVertices = new HashSet<CallGraphNode>();
+        for (int i = 0; i < nodeCount; i++) {
+            if (sourceSide[i]) {
+                communityVertices.add(nodes.get(i));
+            }
+        }
+        return communityVertices;
+    }
+
+    /**
+     * Assigns each node of the graph an integer id.
+     */
+    private void indexNodes() {
+        if (nodes == null) {
+            Graph<CallGraphNode, CallGraphLink> jungGraph =
+                callGraph.getJungGraph();
+            nodes = new ArrayList<CallGraphNode>(jungGraph.getVertices());
+            nodeIds = new HashMap<CallGraphNode, Integer>();
+            for (int i = 0; i < nodes.size(); i++) {
+                nodeIds.put(nodes.get(i), i);
+            }
+        }
+    }
+
+    /**
+     * Adds each link of the graph to the network as an undirected
+     * edge with the given capacity.
+     * @param offset the difference between a node's index and its id
+     * in the network
+     */
+    private void addLinks(FlowNetwork network, int cohesionThreshold,
+            int offset) {
+        Graph<CallGraphNode, CallGraphLink> jungGraph =
+            callGraph.getJungGraph();
+        for (CallGraphLink link : jungGraph.getEdges()) {
+            Pair<CallGraphNode> endpoints = jungGraph.getEndpoints(link);
+            int first = nodeIds.get(endpoints.getFirst()) + offset;
+            int second = nodeIds.get(endpoints.getSecond()) + offset;
+            if (first != second) {
+                network.addUndirectedEdge(first, second, cohesionThreshold);
+            }
+        }
+    }
 }
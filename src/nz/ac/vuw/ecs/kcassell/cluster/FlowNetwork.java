@@ -0,0 +1,287 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.Arrays;
+
+/**
+ * A residual flow network on integer node ids.  The network is built once;
+ * {@link #reset()} restores the original capacities so that many s-t flows
+ * can be computed without reallocating anything.  Maximum flows are
+ * computed with Dinic's blocking flow algorithm.
+ * @author Keith
+ */
+public class FlowNetwork {
+
+	/** A capacity large enough to never be part of a minimum cut. */
+	public static final long INFINITE_CAPACITY = Long.MAX_VALUE / 4;
+
+	/** The number of nodes in the network. */
+	protected int nodeCount = 0;
+
+	/** The number of arcs (including reverse arcs) in the network. */
+	protected int arcCount = 0;
+
+	/** The index of the first arc leaving each node, or -1. */
+	protected int[] firstArc = null;
+
+	/** The index of the next arc leaving the same node, or -1. */
+	protected int[] nextArc = null;
+
+	/** The node each arc points to. */
+	protected int[] arcHead = null;
+
+	/** The capacity of each arc when the network was built. */
+	protected long[] capacity = null;
+
+	/** The remaining (residual) capacity of each arc. */
+	protected long[] residual = null;
+
+	/** BFS levels used by Dinic's algorithm; -1 means unreached. */
+	private int[] level = null;
+
+	/** The next arc to examine for each node during a blocking flow. */
+	private int[] currentArc = null;
+
+	/** The BFS queue, reused between phases. */
+	private int[] queue = null;
+
+	public FlowNetwork(int nodeCount) {
+		this.nodeCount = nodeCount;
+		firstArc = new int[nodeCount];
+		Arrays.fill(firstArc, -1);
+		int initialArcs = Math.max(16, nodeCount * 4);
+		nextArc = new int[initialArcs];
+		arcHead = new int[initialArcs];
+		capacity = new long[initialArcs];
+		residual = new long[initialArcs];
+		level = new int[nodeCount];
+		currentArc = new int[nodeCount];
+		queue = new int[nodeCount];
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Adds an arc from one node to another with the given capacity
+	 * (and the corresponding reverse arc with no capacity).
+	 * @return the index of the forward arc
+	 */
+	public int addEdge(int from, int to, long cap) {
+		return addArcPair(from, to, cap, 0);
+	}
+
+	/**
+	 * Adds an undirected edge, i.e. a pair of arcs that each have the
+	 * given capacity and are each other's reverse.
+	 * @return the index of the arc from a to b
+	 */
+	public int addUndirectedEdge(int a, int b, long cap) {
+		return addArcPair(a, b, cap, cap);
+	}
+
+	private int addArcPair(int from, int to, long cap, long reverseCap) {
+		ensureArcCapacity(arcCount + 2);
+		int arc = arcCount;
+		addArc(from, to, cap);
+		addArc(to, from, reverseCap);
+		return arc;
+	}
+
+	private void addArc(int from, int to, long cap) {
+		arcHead[arcCount] = to;
+		capacity[arcCount] = cap;
+		residual[arcCount] = cap;
+		nextArc[arcCount] = firstArc[from];
+		firstArc[from] = arcCount;
+		arcCount++;
+	}
+
+	private void ensureArcCapacity(int needed) {
+		if (needed > arcHead.length) {
+			int size = Math.max(needed, arcHead.length * 2);
+			int[] newNext = new int[size];
+			System.arraycopy(nextArc, 0, newNext, 0, arcCount);
+			nextArc = newNext;
+			int[] newHead = new int[size];
+			System.arraycopy(arcHead, 0, newHead, 0, arcCount);
+			arcHead = newHead;
+			long[] newCapacity = new long[size];
+			System.arraycopy(capacity, 0, newCapacity, 0, arcCount);
+			capacity = newCapacity;
+			long[] newResidual = new long[size];
+			System.arraycopy(residual, 0, newResidual, 0, arcCount);
+			residual = newResidual;
+		}
+	}
+
+	/**
+	 * Discards any flow, restoring the capacities the network was built with.
+	 */
+	public void reset() {
+		System.arraycopy(capacity, 0, residual, 0, arcCount);
+	}
+
+	/**
+	 * Computes a maximum flow from source to sink.  Any flow left over
+	 * from a previous computation is discarded first.
+	 * @return the value of the flow
+	 */
+	public long maxFlow(int source, int sink) {
+		reset();
+		long flow = 0;
+
+		if (source != sink) {
+			while (buildLevels(source, sink)) {
+				System.arraycopy(firstArc, 0, currentArc, 0, nodeCount);
+				long pushed = 0;
+				while ((pushed = augment(source, sink, INFINITE_CAPACITY)) > 0) {
+					flow += pushed;
+				}
+			}
+		}
+		return flow;
+	}
+
+	/**
+	 * Breadth first search over arcs with residual capacity.
+	 * @return true if the sink is reachable from the source
+	 */
+	private boolean buildLevels(int source, int sink) {
+		Arrays.fill(level, -1);
+		int head = 0;
+		int tail = 0;
+		level[source] = 0;
+		queue[tail++] = source;
+
+		while (head < tail) {
+			int node = queue[head++];
+			for (int arc = firstArc[node]; arc >= 0; arc = nextArc[arc]) {
+				int next = arcHead[arc];
+				if (residual[arc] > 0 && level[next] < 0) {
+					level[next] = level[node] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return level[sink] >= 0;
+	}
+
+	/**
+	 * Pushes flow along a single path of the level graph.  The recursion
+	 * depth is bounded by the length of the shortest augmenting path.
+	 * @return the amount of flow pushed
+	 */
+	private long augment(int node, int sink, long limit) {
+		if (node == sink) {
+			return limit;
+		}
+		for (; currentArc[node] >= 0; currentArc[node] = nextArc[currentArc[node]]) {
+			int arc = currentArc[node];
+			int next = arcHead[arc];
+			if (residual[arc] > 0 && level[next] == level[node] + 1) {
+				long pushed =
+					augment(next, sink, Math.min(limit, residual[arc]));
+				if (pushed > 0) {
+					residual[arc] -= pushed;
+					residual[arc ^ 1] += pushed;
+					return pushed;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Determines the source side of the minimum cut found by the last
+	 * call to maxFlow, i.e. the nodes reachable from the source in the
+	 * residual network.
+	 * @param source the source used for the last flow
+	 * @param sourceSide filled in with true for the nodes on the source side
+	 */
+	public void getSourceSide(int source, boolean[] sourceSide) {
+		Arrays.fill(sourceSide, 0, nodeCount, false);
+		int head = 0;
+		int tail = 0;
+		sourceSide[source] = true;
+		queue[tail++] = source;
+
+		while (head < tail) {
+			int node = queue[head++];
+			for (int arc = firstArc[node]; arc >= 0; arc = nextArc[arc]) {
+				int next = arcHead[arc];
+				if (residual[arc] > 0 && !sourceSide[next]) {
+					sourceSide[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds a Gomory-Hu (minimum cut) tree using Gusfield's algorithm,
+	 * which needs only nodeCount - 1 maximum flow computations on this
+	 * network and no node contractions.  The network should be symmetric,
+	 * i.e. built with undirected edges.  The tree is rooted at node 0.
+	 * @param cutValues filled in so that cutValues[i] is the weight of the
+	 * tree edge between i and its parent (the root's entry is unused)
+	 * @return the parent of each node in the tree
+	 */
+	public int[] buildCutTree(long[] cutValues) {
+		int[] parent = new int[nodeCount];
+		boolean[] sourceSide = new boolean[nodeCount];
+
+		for (int s = 1; s < nodeCount; s++) {
+			int t = parent[s];
+			long cut = maxFlow(s, t);
+			getSourceSide(s, sourceSide);
+			cutValues[s] = cut;
+
+			for (int i = 0; i < nodeCount; i++) {
+				if (i != s && sourceSide[i] && parent[i] == t) {
+					parent[i] = s;
+				}
+			}
+			if (sourceSide[parent[t]]) {
+				parent[s] = parent[t];
+				parent[t] = s;
+				cutValues[s] = cutValues[t];
+				cutValues[t] = cut;
+			}
+		}
+		return parent;
+	}
+}
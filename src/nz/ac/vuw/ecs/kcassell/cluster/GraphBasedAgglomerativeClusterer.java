@@ -34,8 +34,10 @@ package nz.ac.vuw.ecs.kcassell.cluster;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Stack;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
@@ -45,35 +47,57 @@ import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import edu.uci.ics.jung.algorithms.shortestpath.Distance;
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 
+/**
+ * An agglomerative clusterer that combines the endpoints of the shortest
+ * link in a call graph.  The graph supplied to the constructor is modified
+ * in place (so that views displaying it follow the clustering).  Rather than
+ * keeping a copy of the graph for each iteration, the clusterer records the
+ * nodes and links changed by each step, so moving backwards or forwards
+ * through the clustering history only touches the changed links.
+ * @author Keith
+ */
 public class GraphBasedAgglomerativeClusterer
 implements ClustererIfc<CallGraphNode> {
 	
 	/** Calculates distances between nodes. */
 	protected Distance<CallGraphNode> distanceCalculator = null;
 	
-	/** The stack keeps track of the change in the graph during clustering. */
-	// TODO replace with something more efficient
-	protected Stack<JavaCallGraph> graphStack = new Stack<JavaCallGraph>();
+	/** The graph being clustered.  It reflects the clustering after
+	 * previousIteration steps. */
+	protected JavaCallGraph callGraph = null;
+	
+	/** The changes made to the graph by each clustering step, in order.
+	 * Steps beyond previousIteration have been undone but may be redone. */
+	protected ArrayList<MergeStep> history = new ArrayList<MergeStep>();
+	
+	/** The candidate links, shortest first.  Links that are no longer
+	 * in the graph are discarded when they reach the head of the queue. */
+	protected PriorityQueue<CallGraphLink> linkQueue = null;
 	
 	/** Keeps track of how many clustering steps have occurred. */ 
 	protected int previousIteration = 0;
 
 	public GraphBasedAgglomerativeClusterer(JavaCallGraph callGraph,
 			Distance<CallGraphNode> distance) {
-//		this.callGraph = callGraph;
-		graphStack.push(callGraph);
+		this.callGraph = callGraph;
 		this.distanceCalculator = distance;
+		Collection<CallGraphLink> links = callGraph.getJungGraph().getEdges();
+		linkQueue = new PriorityQueue<CallGraphLink>(
+				Math.max(1, links.size()));
+		linkQueue.addAll(links);
 	}
 
 	/**
 	 * @return the clusters
 	 */
 	public Collection<CallGraphNode> getClusters() {
-		JavaCallGraph javaCallGraph = graphStack.elementAt(previousIteration);
 		Graph<CallGraphNode,CallGraphLink> jungGraph =
-			javaCallGraph.getJungGraph();
-		Collection<CallGraphNode> vertices = jungGraph.getVertices();
+			callGraph.getJungGraph();
+		Collection<CallGraphNode> vertices =
+			new ArrayList<CallGraphNode>(jungGraph.getVertices());
 		return vertices;
 	}
 
@@ -85,71 +109,87 @@ implements ClustererIfc<CallGraphNode> {
      * @return a collection of all clusters (some will be single nodes)
      */
 	public Collection<CallGraphNode> cluster() {
-		Collection<CallGraphNode> clusters = null;
-		int stackSize = graphStack.size();
-		
-		if (stackSize > 0) {
-			JavaCallGraph javaCallGraph = graphStack.peek();
-			Graph<CallGraphNode,CallGraphLink> jungGraph =
-				javaCallGraph.getJungGraph();
-			int vertexCount = jungGraph.getVertexCount();
-			ApplicationParameters params =
-				ApplicationParameters.getSingleton();
-			int iterations = params.getIntParameter(
-					ParameterConstants.AGGLOMERATION_CLUSTERS_KEY,
-					vertexCount - 1);
-			clusters = cluster(iterations);
-		}
+		Graph<CallGraphNode,CallGraphLink> jungGraph =
+			callGraph.getJungGraph();
+		int vertexCount = jungGraph.getVertexCount() + previousIteration;
+		ApplicationParameters params =
+			ApplicationParameters.getSingleton();
+		int iterations = params.getIntParameter(
+				ParameterConstants.AGGLOMERATION_CLUSTERS_KEY,
+				vertexCount - 1);
+		Collection<CallGraphNode> clusters = cluster(iterations);
 		return clusters;
 	}
 
     /**
      * Form clusters by combining nodes.  Two nodes should be combined
-     * for each iteration.
+     * for each iteration.  Iterations that have already been computed are
+     * revisited by undoing or redoing the recorded changes.
      * @param iteration the total number of cluster steps that should be
      * performed
      * @return a collection of all clusters (some will be single nodes)
      */
 	public Collection<CallGraphNode> cluster(int iteration) {
-		// clusters = new HashSet<CallGraphNode>();
-		Collection<CallGraphNode> clusters = null;
-		int stackSize = graphStack.size();
-		int numIterations = iteration + 1 - stackSize;
-		previousIteration = stackSize - 1;
+		iteration = Math.max(0, iteration);
 
-		for (int i = 0; i < numIterations && continueClustering(); i++) {
+		while (previousIteration > iteration) {
+			previousIteration--;
+			MergeStep step = history.get(previousIteration);
+			step.revert(callGraph);
+			// Restored links may be merge candidates again
+			linkQueue.addAll(step.removedLinks);
+		}
+		while (previousIteration < iteration
+				&& previousIteration < history.size()) {
+			history.get(previousIteration).apply(callGraph);
+			previousIteration++;
+		}
+		while (previousIteration < iteration && continueClustering()) {
 			clusterOnce();
 			previousIteration++;
-		}	// for
-		JavaCallGraph javaCallGraph = graphStack.elementAt(iteration);
-		Graph<CallGraphNode, CallGraphLink> jungGraph =
-			javaCallGraph.getJungGraph();
-		clusters = jungGraph.getVertices();
-		return clusters;
+		}	// while
+		return getClusters();
 	}
 
 	/**
-	 * Add a new level of clustering
+	 * Creates an independent copy of the graph as it was after the
+	 * specified number of clustering steps.
+	 * @param iteration the number of clustering steps
+	 * @return the copy, or null if the graph can't be copied
 	 */
-	protected void clusterOnce() {
-		JavaCallGraph javaCallGraph = graphStack.peek();
-		JavaCallGraph newCallGraph = null;
+	public JavaCallGraph getSnapshot(int iteration) {
+		JavaCallGraph snapshot = null;
+		int currentIteration = previousIteration;
+		cluster(iteration);
 		try {
-			newCallGraph = (JavaCallGraph)javaCallGraph.clone();
+			snapshot = (JavaCallGraph)callGraph.clone();
 		} catch (CloneNotSupportedException e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		Graph<CallGraphNode, CallGraphLink> graph =
-			newCallGraph.getJungGraph();
-		ArrayList<CallGraphLink> edgeList = getEdgesShortestFirst(graph);
-		//TODO remove self-links
-		if (0 < edgeList.size()) {
-			CallGraphLink link = edgeList.remove(0);
-			if (link != null) {
-				Collection<CallGraphNode> nearNodes =
-					graph.getIncidentVertices(link);
-				CallGraphCluster cluster = mergeNodes(newCallGraph, nearNodes);
+		cluster(currentIteration);
+		return snapshot;
+	}
+
+	/**
+	 * Add a new level of clustering, recording the changes made to the
+	 * graph.  A step is recorded even when nothing can be merged, so that
+	 * the history stays aligned with the iteration numbers.
+	 */
+	protected void clusterOnce() {
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		MergeStep step = new MergeStep();
+		CallGraphLink link = pollShortestLink(graph);
+
+		if (link != null) {
+			Collection<CallGraphNode> nearNodes =
+				graph.getIncidentVertices(link);
+			if (nearNodes.size() == 2) {
+				step.recordRemovals(graph, nearNodes);
+			}
+			CallGraphCluster cluster = mergeNodes(callGraph, nearNodes);
+			if (cluster == null) {
+				step = new MergeStep();
+			} else {
 				// Make the name show the iteration the cluster was made
 				// Parse the old name to remove the old number - avoid "+26+27"
 				String name = cluster.getSimpleName();
@@ -160,18 +200,30 @@ implements ClustererIfc<CallGraphNode> {
 				name += previousIteration + 1;
 				cluster.setSimpleName(name);
 				computeDistances(graph, cluster);
-			}	// if link exists
-		}
-		graphStack.push(newCallGraph);
+				step.recordAdditions(graph, cluster);
+				linkQueue.addAll(step.addedLinks);
+			}
+		}	// if link exists
+		history.add(step);
 	}
 
-	protected ArrayList<CallGraphLink> getEdgesShortestFirst(
+	/**
+	 * Removes links from the queue until one that is still part of the
+	 * graph is found.
+	 * @param graph the current graph
+	 * @return the shortest link in the graph, or null if there are none
+	 */
+	protected CallGraphLink pollShortestLink(
 			Graph<CallGraphNode, CallGraphLink> graph) {
-		Collection<CallGraphLink> edges = graph.getEdges();
-		ArrayList<CallGraphLink> edgeList =
-			new ArrayList<CallGraphLink>(edges);
-		Collections.sort(edgeList);
-		return edgeList;
+		CallGraphLink link = null;
+
+		while (link == null && !linkQueue.isEmpty()) {
+			CallGraphLink candidate = linkQueue.poll();
+			if (graph.containsEdge(candidate)) {
+				link = candidate;
+			}
+		}
+		return link;
 	}
 
 	protected CallGraphCluster mergeNodes(JavaCallGraph callGraph,
@@ -225,6 +277,7 @@ implements ClustererIfc<CallGraphNode> {
 		jungGraph.removeVertex(node1);
 		jungGraph.removeVertex(node2);
 		jungGraph.addVertex(cluster);
+		callGraph.graphChanged();
 		return cluster;
 	}
 
@@ -260,4 +313,104 @@ implements ClustererIfc<CallGraphNode> {
 		// ultimately have a user-supplied command object
 		return true;
 	}
+
+	/**
+	 * The changes one clustering step made to the graph: the nodes that
+	 * were merged (with their links), and the cluster that replaced them
+	 * (with its links).  Links are stored with their endpoints and
+	 * edge types so that they can be restored.
+	 */
+	protected static class MergeStep {
+		/** The nodes that were combined; empty if nothing was merged. */
+		protected List<CallGraphNode> removedNodes =
+			new ArrayList<CallGraphNode>();
+		
+		/** The links incident to the combined nodes. */
+		protected List<CallGraphLink> removedLinks =
+			new ArrayList<CallGraphLink>();
+		protected List<Pair<CallGraphNode>> removedEndpoints =
+			new ArrayList<Pair<CallGraphNode>>();
+		protected List<EdgeType> removedTypes = new ArrayList<EdgeType>();
+		
+		/** The node formed by the step; null if nothing was merged. */
+		protected CallGraphCluster cluster = null;
+		
+		/** The links incident to the new cluster. */
+		protected List<CallGraphLink> addedLinks =
+			new ArrayList<CallGraphLink>();
+		protected List<Pair<CallGraphNode>> addedEndpoints =
+			new ArrayList<Pair<CallGraphNode>>();
+		protected List<EdgeType> addedTypes = new ArrayList<EdgeType>();
+
+		/**
+		 * Remembers the nodes about to be merged and their links.
+		 * This must be called before the nodes are removed from the graph.
+		 */
+		protected void recordRemovals(Graph<CallGraphNode, CallGraphLink> graph,
+				Collection<CallGraphNode> nodes) {
+			removedNodes.addAll(nodes);
+			Set<CallGraphLink> seen = new HashSet<CallGraphLink>();
+			for (CallGraphNode node : nodes) {
+				for (CallGraphLink link : graph.getIncidentEdges(node)) {
+					// A link between the two nodes is seen twice
+					if (seen.add(link)) {
+						removedLinks.add(link);
+						removedEndpoints.add(graph.getEndpoints(link));
+						removedTypes.add(graph.getEdgeType(link));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Remembers the newly formed cluster and its links.
+		 */
+		protected void recordAdditions(Graph<CallGraphNode, CallGraphLink> graph,
+				CallGraphCluster newCluster) {
+			cluster = newCluster;
+			for (CallGraphLink link : graph.getIncidentEdges(newCluster)) {
+				addedLinks.add(link);
+				addedEndpoints.add(graph.getEndpoints(link));
+				addedTypes.add(graph.getEdgeType(link));
+			}
+		}
+
+		/** Redoes the step. */
+		protected void apply(JavaCallGraph callGraph) {
+			if (cluster != null) {
+				Graph<CallGraphNode, CallGraphLink> graph =
+					callGraph.getJungGraph();
+				for (CallGraphNode node : removedNodes) {
+					graph.removeVertex(node);
+				}
+				graph.addVertex(cluster);
+				addLinks(graph, addedLinks, addedEndpoints, addedTypes);
+				callGraph.graphChanged();
+			}
+		}
+
+		/** Undoes the step. */
+		protected void revert(JavaCallGraph callGraph) {
+			if (cluster != null) {
+				Graph<CallGraphNode, CallGraphLink> graph =
+					callGraph.getJungGraph();
+				graph.removeVertex(cluster);
+				for (CallGraphNode node : removedNodes) {
+					graph.addVertex(node);
+				}
+				addLinks(graph, removedLinks, removedEndpoints, removedTypes);
+				callGraph.graphChanged();
+			}
+		}
+
+		private static void addLinks(Graph<CallGraphNode, CallGraphLink> graph,
+				List<CallGraphLink> links,
+				List<Pair<CallGraphNode>> endpoints, List<EdgeType> types) {
+			for (int i = 0; i < links.size(); i++) {
+				Pair<CallGraphNode> pair = endpoints.get(i);
+				graph.addEdge(links.get(i), pair.getFirst(), pair.getSecond(),
+						types.get(i));
+			}
+		}
+	}	// class MergeStep
 }
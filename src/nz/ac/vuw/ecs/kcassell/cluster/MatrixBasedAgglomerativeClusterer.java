@@ -41,11 +41,15 @@ import java.util.Set;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
 import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.similarity.BulkDistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.CacheableDistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.ClusterDistanceUtils;
 import nz.ac.vuw.ecs.kcassell.similarity.CzibulaDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
 import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrixStore;
+import nz.ac.vuw.ecs.kcassell.similarity.DistancePrecisionEnum;
 import nz.ac.vuw.ecs.kcassell.similarity.IdentifierDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.IntraClassDistanceCalculator;
 import nz.ac.vuw.ecs.kcassell.similarity.JDeodorantDistanceCalculator;
@@ -92,6 +96,17 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	protected ClusterCombinationEnum whichLink =
 		ClusterCombinationEnum.AVERAGE_LINK;
 	
+	/** How precisely the distance matrices store distances. */
+	protected DistancePrecisionEnum precision = DistancePrecisionEnum.DOUBLE;
+	
+	/** For FIXED_POINT precision, the distance between adjacent
+	 * storable distances. */
+	protected double distanceStep = 0.001;
+	
+	/** Where calculated distances are kept for reuse; null if they
+	 * aren't kept. */
+	protected DistanceMatrixStore matrixStore = null;
+	
 	/** This keeps track of the clusters that have been seen.  The key
 	 * is the cluster name; the value is the cluster.  "Elements"
 	 * (clusters of one) will have a handle key and a null value. */
@@ -121,12 +136,13 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		String linkage = parameters.getParameter(ParameterConstants.LINKAGE_KEY,
 				ClusterCombinationEnum.AVERAGE_LINK.toString());
 		whichLink = ClusterCombinationEnum.valueOf(linkage);
+		initializeStorage();
 		for (String element : elements) {
 			clusterHistory.put(element, null);
 		}
 		buildDistanceMatrix(elements);
 		originalMatrix = distanceMatrix;
-		logger.info(distanceMatrix.toString());
+		logger.fine("{0}", distanceMatrix);
 	}
 
     /**
@@ -142,12 +158,29 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 			String linkage) {
 		distanceCalculator = calc;
 		whichLink = ClusterCombinationEnum.valueOf(linkage);
+		initializeStorage();
 		for (String element : elements) {
 			clusterHistory.put(element, null);
 		}
 		buildDistanceMatrix(elements);
 		originalMatrix = distanceMatrix;
-		logger.info(distanceMatrix.toString());
+		logger.fine("{0}", distanceMatrix);
+	}
+
+	/**
+	 * Reads how precisely the distance matrices store distances,
+	 * and where calculated distances are kept, from the application
+	 * parameters.
+	 */
+	protected void initializeStorage() {
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String sPrecision = parameters.getParameter(
+				ParameterConstants.DISTANCE_PRECISION_KEY,
+				DistancePrecisionEnum.DOUBLE.toString());
+		precision = DistancePrecisionEnum.valueOf(sPrecision.trim());
+		distanceStep = parameters.getDoubleParameter(
+				ParameterConstants.DISTANCE_STEP_KEY, distanceStep);
+		matrixStore = DistanceMatrixStore.getStore();
 	}
 
 	/**
@@ -156,13 +189,39 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	 * @param elements usually the handles for the class members
 	 */
 	protected void buildDistanceMatrix(List<String> elements) {
-		distanceMatrix = new DistanceMatrix<String>(elements);
+		DistanceMatrix<String> calculated = null;
+
+		// Reuse the distances calculated when the same members were
+		// last clustered with the same calculator, e.g. with another linkage
+		if (matrixStore != null
+				&& distanceCalculator instanceof CacheableDistanceCalculatorIfc) {
+			CacheableDistanceCalculatorIfc<String> cacheable =
+				(CacheableDistanceCalculatorIfc<String>) distanceCalculator;
+			calculated = matrixStore.load(elements, cacheable);
+			if (calculated == null) {
+				calculated = calculateElementDistances(elements);
+				matrixStore.store(calculated, cacheable);
+			}
+		} else if (distanceCalculator instanceof BulkDistanceCalculatorIfc) {
+			calculated = calculateElementDistances(elements);
+		}
+		distanceMatrix =
+			DistanceMatrix.createMatrix(elements, precision, distanceStep);
 		for (int row = 0; row < elements.size(); row++) {
 			String obj1 = elements.get(row);
 //			clusterHistory.put(obj1, null);	// "Cluster" of one element
 			for (int col = 0; col <= row; col++) {
 				String obj2 = elements.get(col);
-				Number distance = calculateDistance(obj1, obj2);
+				Number distance = null;
+				if (calculated == null) {
+					distance = calculateDistance(obj1, obj2);
+				} else {
+					distance = calculated.getDistance(obj1, obj2);
+					if (Double.isNaN(distance.doubleValue())) {
+						distance = (whichLink == ClusterCombinationEnum.SINGLE_LINK)
+							? 1.0 : 0.0;
+					}
+				}
 				if (distance.equals(RefactoringConstants.UNKNOWN_DISTANCE)) {
 					distance = 1.0;
 				} else {
@@ -173,6 +232,43 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		}
 	}
 
+	/**
+	 * Calculates the distances between the elements, independent of the
+	 * linkage, so that they can be stored for reuse.
+	 * @param elements usually the handles for the class members
+	 * @return the distances, with NaN where the calculator couldn't
+	 *   calculate a distance
+	 */
+	protected DistanceMatrix<String> calculateElementDistances(
+			List<String> elements) {
+		DistanceMatrix<String> calculated = new DistanceMatrix<String>(elements);
+		// The semantic calculators use handles, not "simple names"
+		boolean usesHandles =
+			DistanceCalculatorEnum.usesHandles(distanceCalculator.getType());
+		if (usesHandles
+				&& distanceCalculator instanceof BulkDistanceCalculatorIfc) {
+			calculated.fillMatrix(distanceCalculator);
+		} else {
+			for (int row = 0; row < elements.size(); row++) {
+				String obj1 = elements.get(row);
+				String name1 =
+					usesHandles ? obj1 : EclipseUtils.getNameFromHandle(obj1);
+				for (int col = 0; col <= row; col++) {
+					String obj2 = elements.get(col);
+					String name2 = usesHandles
+						? obj2 : EclipseUtils.getNameFromHandle(obj2);
+					Number distance =
+						distanceCalculator.calculateDistance(name1, name2);
+					if (distance == null) {
+						distance = Double.NaN;
+					}
+					calculated.setDistance(obj1, obj2, distance);
+				}
+			}
+		}
+		return calculated;
+	}
+
 	public DistanceMatrix<String> getDistanceMatrix() {
 		return distanceMatrix;
 	}
@@ -354,7 +450,8 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 	protected DistanceMatrix<String> modifyMatrix(MemberCluster cluster) {
 		String clusterName = cluster.getClusterName();
 		List<String> headers = getNewHeaders(cluster);
-		DistanceMatrix<String> newMatrix = new DistanceMatrix<String>(headers);
+		DistanceMatrix<String> newMatrix =
+			DistanceMatrix.createMatrix(headers, precision, distanceStep);
 		
 		// Copy over old matrix values, except for last row, which is new.
 		int numElements = headers.size();
@@ -724,9 +821,10 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		} else {
 			names = EclipseUtils.getFilteredMemberNames(handle);
 		}
-		MatrixBasedAgglomerativeClusterer clusterer =
-			new MatrixBasedAgglomerativeClusterer(names, calc);
-		MemberCluster cluster = clusterer.getSingleCluster();
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String linkage = parameters.getParameter(ParameterConstants.LINKAGE_KEY,
+				ClusterCombinationEnum.AVERAGE_LINK.toString());
+		MemberCluster cluster = clusterElements(names, calc, linkage);
 		return cluster;
 	}
 
@@ -747,9 +845,39 @@ public class MatrixBasedAgglomerativeClusterer implements ClustererIfc<String> {
 		} else {
 			names = EclipseUtils.getFilteredMemberNames(handle);
 		}
-		MatrixBasedAgglomerativeClusterer clusterer =
-			new MatrixBasedAgglomerativeClusterer(names, calc, linkage);
-		MemberCluster cluster = clusterer.getSingleCluster();
+		MemberCluster cluster = clusterElements(names, calc, linkage);
+		return cluster;
+	}
+
+	/**
+	 * Cluster the elements into a single cluster.  Single link clustering
+	 * of more elements than the nearest neighbor threshold is done by a
+	 * NearestNeighborAgglomerativeClusterer, so that no complete distance
+	 * matrix is built; everything else is clustered from the matrix.
+	 * @param elements the things to be clustered
+	 * @param calc the distance calculator to use
+	 * @param linkage the ClusterCombinationEnum name of the linkage
+	 * @return the cluster of all the elements
+	 */
+	public static MemberCluster clusterElements(List<String> elements,
+			DistanceCalculatorIfc<String> calc,
+			String linkage) {
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		int threshold = parameters.getIntParameter(
+				ParameterConstants.NEAREST_NEIGHBOR_THRESHOLD_KEY, 2000);
+		MemberCluster cluster = null;
+		if (ClusterCombinationEnum.SINGLE_LINK.toString().equals(linkage)
+				&& elements.size() > threshold) {
+			logger.info("Clustering " + elements.size()
+					+ " elements from their nearest neighbors");
+			NearestNeighborAgglomerativeClusterer clusterer =
+				new NearestNeighborAgglomerativeClusterer(elements, calc);
+			cluster = clusterer.getSingleCluster();
+		} else {
+			MatrixBasedAgglomerativeClusterer clusterer =
+				new MatrixBasedAgglomerativeClusterer(elements, calc, linkage);
+			cluster = clusterer.getSingleCluster();
+		}
 		return cluster;
 	}
 
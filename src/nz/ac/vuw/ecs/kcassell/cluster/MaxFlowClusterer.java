@@ -30,24 +30,38 @@ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 
+
 package nz.ac.vuw.ecs.kcassell.cluster;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.collections15.Transformer;
-
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
-import edu.uci.ics.jung.algorithms.flows.EdmondsKarpMaxFlow;
-import edu.uci.ics.jung.graph.DirectedGraph;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.Pair;
 
+/**
+ * Clusters the nodes of a graph using minimum cuts.  Every link has unit
+ * capacity in both directions.  If a source and sink are specified,
+ * cluster() splits the graph along a minimum source-sink cut.  Otherwise,
+ * clusters are formed by removing the lightest edges of the graph's
+ * Gomory-Hu (minimum cut) tree.
+ * The residual network is built once, on integer ids, and reused for
+ * every flow computation.
+ * @author Keith
+ */
 public class MaxFlowClusterer implements ClustererIfc<CallGraphNode> {
 
 	/** The graph being manipulated. */
@@ -55,19 +69,35 @@ public class MaxFlowClusterer implements ClustererIfc<CallGraphNode> {
 	
 	CallGraphNode source = null;
 	CallGraphNode sink = null;
-	
-	Transformer<CallGraphLink, Double> capTransformer =
-		new Transformer<CallGraphLink, Double>(){
-		
-		//TODO return the flow for an edge
-		public Double transform(CallGraphLink link) {
-			return 1.0;
-		}
-	};
 
-	// This Factory produces new edges for use by the algorithm
-	CallGraphLink.CallGraphLinkFactory edgeFactory =
-		new CallGraphLink.CallGraphLinkFactory();
+	/** The current collection of clusters. */
+	private Collection<CallGraphNode> clusters = null;
+
+	/** The graph's nodes, indexed by their id in the flow network. */
+	private List<CallGraphNode> nodes = null;
+
+	/** Maps the graph's nodes to their id in the flow network. */
+	private HashMap<CallGraphNode, Integer> nodeIds = null;
+
+	/** The residual network, built on first use. */
+	private FlowNetwork network = null;
+
+	/** The parent of each node in the minimum cut tree. */
+	private int[] cutTreeParents = null;
+
+	/** The cut value of the edge between each node and its parent. */
+	private long[] cutTreeValues = null;
+
+	/** The nodes (other than the root) of the cut tree,
+	 * ordered by increasing cut value. */
+	private Integer[] cutOrder = null;
+
+	private static UtilLogger utilLogger =
+		new UtilLogger("MaxFlowClusterer");
+
+	public MaxFlowClusterer(JavaCallGraph callGraph) {
+		this.callGraph = callGraph;
+	}
 
 	public MaxFlowClusterer(JavaCallGraph callGraph, CallGraphNode source,
 	CallGraphNode sink) {
@@ -76,38 +106,172 @@ public class MaxFlowClusterer implements ClustererIfc<CallGraphNode> {
 		this.sink = sink;
 	}
 
+	public Collection<CallGraphNode> getClusters() {
+		return clusters;
+	}
+
+	public JavaCallGraph getCallGraph() {
+		return callGraph;
+	}
+
+	/**
+	 * If a source and sink have been specified, separate them using a
+	 * minimum cut.  Otherwise, form the number of new clusters specified
+	 * by the user preferences/parameters (or 1 if not specified).
+	 * @return the clusters
+	 */
 	public Collection<CallGraphNode> cluster() {
-		// TODO make sure we use the largest connected component for max flow/min cut
-		// while saving the disconnected components
-		Collection<CallGraphNode> clusters = new ArrayList<CallGraphNode>();
-		Map<CallGraphLink, Double> edgeFlowMap = new HashMap<CallGraphLink, Double>();
-		Graph<CallGraphNode,CallGraphLink> jungGraph = callGraph.getJungGraph();
-		
-		if (jungGraph instanceof DirectedGraph<?,?>) {
-			DirectedGraph<CallGraphNode, CallGraphLink> directedGraph =
-				(DirectedGraph<CallGraphNode, CallGraphLink>)jungGraph;
-			//	See the Jung2 Tutorial for usage of EdmondsKarpMaxFlow
-			EdmondsKarpMaxFlow<CallGraphNode, CallGraphLink> maxFlowAlgo =
-				new EdmondsKarpMaxFlow(directedGraph, source, sink, capTransformer, edgeFlowMap,
-						edgeFactory);
-			maxFlowAlgo.evaluate();
-			Set<CallGraphNode> sinkPartition = maxFlowAlgo.getNodesInSinkPartition();
-			CallGraphCluster sinkCluster = new CallGraphCluster(sinkPartition);
-			clusters.add(sinkCluster);
-			Set<CallGraphNode> sourcePartition = maxFlowAlgo.getNodesInSourcePartition();
-			CallGraphCluster sourceCluster = new CallGraphCluster(sourcePartition);
-			clusters.add(sourceCluster);
-		} // TODO create directed equivalent of undirected graph by having two edges per one
+		if (source != null && sink != null) {
+			clusters = clusterAroundCut();
+		} else {
+			ApplicationParameters parameters =
+				ApplicationParameters.getSingleton();
+			int numToCreate = parameters.getIntParameter(
+					ParameterConstants.NEW_MAX_FLOW_CLUSTERS_KEY, 1);
+			cluster(numToCreate);
+		}
+		return clusters;
+	}
+
+	/**
+	 * Form clusters by removing edges from the minimum cut tree.  Edges
+	 * with a cut value of zero (separating disconnected parts of the
+	 * graph) are always removed; after that, the specified number of
+	 * the lightest remaining edges are removed.
+	 * @param numCuts the number of (nonzero) cuts to make
+	 * @return the clusters (the parts of the cut tree that remain connected)
+	 */
+	public Collection<CallGraphNode> cluster(int numCuts) {
+		buildCutTree();
+		int nodeCount = nodes.size();
+		boolean[] removed = new boolean[nodeCount];
+		int cuts = 0;
+
+		for (int i = 0; i < cutOrder.length; i++) {
+			int node = cutOrder[i];
+			if (cutTreeValues[node] == 0) {
+				removed[node] = true;
+			} else if (cuts < numCuts) {
+				removed[node] = true;
+				cuts++;
+			}
+		}
+		int[] roots = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			roots[i] = findClusterRoot(i, removed);
+		}
+		clusters = toClusters(roots);
+		utilLogger.fine("clusters after {0} cuts = {1}", cuts, clusters);
 		return clusters;
 	}
 
-	public Collection<CallGraphNode> cluster(int iteration) {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * Finds the node at the top of the part of the cut tree
+	 * containing the given node.
+	 */
+	private int findClusterRoot(int node, boolean[] removed) {
+		while (node != 0 && !removed[node]) {
+			node = cutTreeParents[node];
+		}
+		return node;
 	}
 
-	public Collection<CallGraphNode> getClusters() {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * Splits the graph into the source and sink sides of
+	 * a minimum source-sink cut.
+	 */
+	private Collection<CallGraphNode> clusterAroundCut() {
+		buildNetwork();
+		int sourceId = nodeIds.get(source);
+		int sinkId = nodeIds.get(sink);
+		long flow = network.maxFlow(sourceId, sinkId);
+		boolean[] sourceSide = new boolean[nodes.size()];
+		network.getSourceSide(sourceId, sourceSide);
+		utilLogger.fine("max flow from {0} to {1} = {2}", source, sink, flow);
+
+		Set<CallGraphNode> sourcePartition = new HashSet<CallGraphNode>();
+		Set<CallGraphNode> sinkPartition = new HashSet<CallGraphNode>();
+		for (int i = 0; i < sourceSide.length; i++) {
+			if (sourceSide[i]) {
+				sourcePartition.add(nodes.get(i));
+			} else {
+				sinkPartition.add(nodes.get(i));
+			}
+		}
+		Collection<CallGraphNode> cutClusters = new ArrayList<CallGraphNode>();
+		cutClusters.add(new CallGraphCluster(sinkPartition));
+		cutClusters.add(new CallGraphCluster(sourcePartition));
+		return cutClusters;
+	}
+
+	/**
+	 * Groups the nodes by the root of the part of the tree they belong to.
+	 */
+	private Collection<CallGraphNode> toClusters(int[] roots) {
+		HashMap<Integer, Set<CallGraphNode>> groups =
+			new HashMap<Integer, Set<CallGraphNode>>();
+		for (int i = 0; i < roots.length; i++) {
+			Set<CallGraphNode> group = groups.get(roots[i]);
+			if (group == null) {
+				group = new HashSet<CallGraphNode>();
+				groups.put(roots[i], group);
+			}
+			group.add(nodes.get(i));
+		}
+		Set<Set<CallGraphNode>> nodeGroupSet =
+			new HashSet<Set<CallGraphNode>>(groups.values());
+		return CallGraphCluster.toCallGraphClusters(nodeGroupSet);
+	}
+
+	/**
+	 * Builds the residual network for the graph, with every link
+	 * represented by a pair of arcs of unit capacity.
+	 */
+	private void buildNetwork() {
+		if (network == null) {
+			Graph<CallGraphNode, CallGraphLink> jungGraph =
+				callGraph.getJungGraph();
+			nodes = new ArrayList<CallGraphNode>(jungGraph.getVertices());
+			nodeIds = new HashMap<CallGraphNode, Integer>();
+			for (int i = 0; i < nodes.size(); i++) {
+				nodeIds.put(nodes.get(i), i);
+			}
+			network = new FlowNetwork(nodes.size());
+			for (CallGraphLink link : jungGraph.getEdges()) {
+				Pair<CallGraphNode> endpoints = jungGraph.getEndpoints(link);
+				int first = nodeIds.get(endpoints.getFirst());
+				int second = nodeIds.get(endpoints.getSecond());
+				if (first != second) {
+					network.addUndirectedEdge(first, second, 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the minimum cut tree, which is computed once and then
+	 * shared by all calls to cluster(int).
+	 */
+	private void buildCutTree() {
+		buildNetwork();
+		if (cutTreeParents == null) {
+			int nodeCount = nodes.size();
+			cutTreeValues = new long[nodeCount];
+			cutTreeParents = network.buildCutTree(cutTreeValues);
+			cutOrder = new Integer[Math.max(0, nodeCount - 1)];
+			for (int i = 1; i < nodeCount; i++) {
+				cutOrder[i - 1] = i;
+			}
+			Arrays.sort(cutOrder, new Comparator<Integer>() {
+				public int compare(Integer node1, Integer node2) {
+					long value1 = cutTreeValues[node1];
+					long value2 = cutTreeValues[node2];
+					if (value1 != value2) {
+						return (value1 < value2) ? -1 : 1;
+					}
+					return node1.compareTo(node2);
+				}
+			});
+		}
 	}
 }
@@ -35,19 +35,19 @@ package nz.ac.vuw.ecs.kcassell.cluster;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
-import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
-import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
-import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
-import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
 
 /**
  * This represents clusters of a class's members. A cluster consists of some
@@ -72,6 +72,29 @@ public class MemberCluster implements ClusterIfc<String> {
 	 */
 	protected int elementCount = 0;
 
+	/**
+	 * The leaves of the tree this cluster was last laid out with, shared
+	 * by every cluster in that tree.  The cluster's own elements (including
+	 * those in subclusters) are the contiguous range
+	 * [leafStart, leafEnd) of the order.  Null when the cluster has
+	 * changed since it was laid out.
+	 */
+	protected LeafOrder leafOrder = null;
+
+	/** Where the cluster's elements start in the leaf order. */
+	protected int leafStart = 0;
+
+	/** Where the cluster's elements end in the leaf order. */
+	protected int leafEnd = 0;
+
+	/** The clusters that this is a subcluster of, which must be laid
+	 * out again when this changes. */
+	protected ArrayList<MemberCluster> parents =
+		new ArrayList<MemberCluster>(1);
+
+	/** A read-only view of the elements. */
+	protected Set<String> elementView = new ElementView();
+
 	/** A user comment. It can be anything, e.g. a distance. */
 	protected String comment = "";
 
@@ -107,18 +130,89 @@ public class MemberCluster implements ClusterIfc<String> {
 	public void addElement(String element) {
 		children.add(element);
 		elementCount++;
+		elementsChanged();
 	}
 
 	@SuppressWarnings("unchecked")
-	public void addElements(Collection<String> elements) {
-		children.addAll(elements);
-		elementCount += elements.size();
+	public void addElements(Collection<String> newElements) {
+		children.addAll(newElements);
+		elementCount += newElements.size();
+		elementsChanged();
 	}
 
 	@SuppressWarnings("unchecked")
 	public void addCluster(MemberCluster cluster) {
 		children.add(cluster);
+		cluster.parents.add(this);
 		elementCount += cluster.getElementCount();
+		elementsChanged();
+	}
+
+	/**
+	 * Discards the leaf order of this cluster and of the clusters
+	 * containing it.  A cluster without a leaf order has no laid out
+	 * ancestors, so the walk stops there.
+	 */
+	protected void elementsChanged() {
+		ArrayList<MemberCluster> changed = new ArrayList<MemberCluster>();
+		changed.add(this);
+		while (!changed.isEmpty()) {
+			MemberCluster cluster = changed.remove(changed.size() - 1);
+			if (cluster.leafOrder != null) {
+				cluster.leafOrder = null;
+				changed.addAll(cluster.parents);
+			}
+		}
+	}
+
+	/**
+	 * Lays out the leaves of the tree rooted at this cluster in one
+	 * array, in depth first order, so that every cluster in the tree
+	 * occupies a contiguous range of it.  The tree is walked with an
+	 * explicit stack, as deep dendrograms would overflow the call stack.
+	 */
+	protected void layOutLeaves() {
+		ArrayList<String> leaves = new ArrayList<String>(elementCount);
+		ArrayList<MemberCluster> laidOut = new ArrayList<MemberCluster>();
+		ArrayList<MemberCluster> path = new ArrayList<MemberCluster>();
+		ArrayList<Iterator<?>> pathChildren = new ArrayList<Iterator<?>>();
+		leafStart = 0;
+		path.add(this);
+		pathChildren.add(children.iterator());
+
+		while (!path.isEmpty()) {
+			int top = path.size() - 1;
+			Iterator<?> iterator = pathChildren.get(top);
+			if (iterator.hasNext()) {
+				Object child = iterator.next();
+				if (child instanceof MemberCluster) {
+					MemberCluster subcluster = (MemberCluster)child;
+					subcluster.leafStart = leaves.size();
+					path.add(subcluster);
+					pathChildren.add(subcluster.children.iterator());
+				} else {
+					leaves.add((String)child);
+				}
+			} else {
+				MemberCluster cluster = path.remove(top);
+				pathChildren.remove(top);
+				cluster.leafEnd = leaves.size();
+				laidOut.add(cluster);
+			}
+		}
+		LeafOrder order =
+			new LeafOrder(leaves.toArray(new String[leaves.size()]));
+		for (MemberCluster cluster : laidOut) {
+			cluster.leafOrder = order;
+		}
+	}
+
+	/** @return the leaf order, laying out the cluster if necessary */
+	protected LeafOrder getLeafOrder() {
+		if (leafOrder == null) {
+			layOutLeaves();
+		}
+		return leafOrder;
 	}
 
 	/**
@@ -129,20 +223,10 @@ public class MemberCluster implements ClusterIfc<String> {
 		return elementCount;
 	}
 
-	/** @return the elements in the cluster (including those in subclusters. */
+	/** @return a read-only view of the elements in the cluster
+	 * (including those in subclusters). */
 	public Set<String> getElements() {
-		Set<String> elements = new HashSet<String>();
-
-		for (Object obj : children) {
-			if (obj instanceof String) {
-				elements.add((String) obj);
-			} else if (obj instanceof MemberCluster) {
-				MemberCluster cluster = (MemberCluster) obj;
-				Set<String> elements2 = cluster.getElements();
-				elements.addAll(elements2);
-			}
-		}
-		return elements;
+		return elementView;
 	}
 
 	/**
@@ -199,75 +283,27 @@ public class MemberCluster implements ClusterIfc<String> {
 	 * @see nz.ac.vuw.ecs.kcassell.callgraph.ClusterIfc#toNestedString()
 	 */
 	public String toNestedString() {
-		StringBuffer buf = new StringBuffer();
-		toNestedString(0, buf);
-		String nestedString = buf.toString();
-		return nestedString;
+		return toText(ClusterTextFormatEnum.NESTED);
 	}
 
 	protected void toNestedString(int indentLevel, StringBuffer buf) {
-		// If this is a top level (visible) node, print its name
-		if (indentLevel == 0) {
-			buf.append(clusterName).append("\n");
-		}
-		indentLevel++;
-		String leadSpaces = StringUtils.SPACES140.substring(0, 2 * indentLevel);
-
-		for (Object component : children) {
-			if (component instanceof MemberCluster) {
-				buf.append(leadSpaces);
-				MemberCluster cluster = (MemberCluster) component;
-				String name = cluster.getClusterName();
-				// Makes use of a naming convention oneName+OtherCount
-				int indexPlus = name.lastIndexOf("+");
-				// If the name of the cluster matches the "+ convention",
-				// extract the iteration number
-				if (indexPlus >= 0) {
-					String it = name.substring(indexPlus + 1);
-					buf.append("|+" + it + " (" + cluster.comment + ")\n");
-				} else {
-					buf.append("|+" + name + "\n");
-				}
-				cluster.toNestedString(indentLevel, buf);
-			} else if (component instanceof String) { // element
-				buf.append(leadSpaces).append("|-");
-				String name = EclipseUtils.getNameFromHandle(component
-						.toString());
-				buf.append(name).append("\n");
-			}
+		StringWriter stringWriter = new StringWriter();
+		try {
+			new MemberClusterWriter(stringWriter, ClusterTextFormatEnum.NESTED)
+				.writeNested(this, indentLevel);
+		} catch (IOException e) {
+			// A StringWriter doesn't throw IOExceptions
+			throw new IllegalStateException(e.toString());
 		}
-	}
-
-	public String toFlatString() {
-		StringBuffer buf = new StringBuffer(clusterName).append(":\n");
-		toFlatString(buf);
-		String flatString = buf.toString();
-		return flatString;
+		buf.append(stringWriter.getBuffer());
 	}
 
 	/**
 	 * Print all of the (leaf) elements of a cluster, disregarding
 	 * any nested structure.
-	 * @param buf collects the result
 	 */
-	protected void toFlatString(StringBuffer buf) {
-		String leadSpaces = "  ";
-		// If this is a leaf, print its name
-		if (children == null || children.size() == 0) {
-			buf.append(clusterName).append("\n");
-		}
-
-		for (Object component : children) {
-			if (component instanceof MemberCluster) {
-				MemberCluster cluster = (MemberCluster) component;
-				cluster.toFlatString(buf);
-			} else if (component instanceof String) { // element
-				buf.append(leadSpaces);
-				String name =
-					EclipseUtils.getNameFromHandle(component.toString());
-				buf.append(name).append("\n");
-			}
-		}
+	public String toFlatString() {
+		return toText(ClusterTextFormatEnum.FLAT);
 	}
 
 	/**
@@ -277,59 +313,7 @@ public class MemberCluster implements ClusterIfc<String> {
 	 * @see http://evolution.genetics.washington.edu/phylip/newicktree.html
 	 */
 	public String toNewickString() {
-		StringBuffer buf = new StringBuffer();
-		HashSet<String> namesSeen = new HashSet<String>();
-		toNewickString(0, buf, namesSeen, 1.0);
-		buf.append(";\n");
-		String nestedString = buf.toString();
-		return nestedString;
-	}
-
-	protected void toNewickString(int indentLevel, StringBuffer buf,
-			HashSet<String> namesSeen, Double parentDistance) {
-		String leadSpaces = StringUtils.SPACES140.substring(0, 2 * indentLevel);
-		buf.append(leadSpaces).append("(");
-		int nextIndent = indentLevel + 1;
-
-		for (Object child : children) {
-			buf.append("\n");
-			if (child instanceof MemberCluster) {
-				MemberCluster cluster = (MemberCluster) child;
-				
-				// If it's a group of one, treat it as an individual
-				if (cluster.getElementCount() == 1) {
-					Set<?> grandChildGroup = cluster.getChildren();
-					Object grandChild = grandChildGroup.iterator().next();
-					memberToNewickString(buf, namesSeen, leadSpaces, grandChild);
-				} else { // recursively handle the child
-					cluster.toNewickString(nextIndent, buf, namesSeen, distance);
-				}
-			} else if (child instanceof String) { // element
-				memberToNewickString(buf, namesSeen, leadSpaces, child);
-			}
-			buf.append(",");
-		}
-		int length = buf.length();
-		buf.delete(buf.lastIndexOf(","), length); // eliminate the last ","
-		buf.append("\n");
-		buf.append(leadSpaces).append(") ");
-		appendInternalNewickNodeName(buf);
-		appendNewickBranchLength(buf, parentDistance);
-	}
-
-	protected void memberToNewickString(StringBuffer buf,
-			HashSet<String> namesSeen, String leadSpaces, Object component) {
-		String name = EclipseUtils.getNameFromHandle(component
-				.toString());
-		if (namesSeen.contains(name)) {
-			name += "_" + namesSeen.size();
-			namesSeen.add(name);
-		}
-		buf.append(leadSpaces).append("  ").append(name);
-		// add Newick branch length
-		buf.append(":");
-		// Ensure there is a nonzero branch length
-		buf.append(String.format("%.2f", Math.max(0.01, distance)));
+		return toText(ClusterTextFormatEnum.NEWICK);
 	}
 
 	public double getDistance() {
@@ -340,51 +324,22 @@ public class MemberCluster implements ClusterIfc<String> {
 		this.distance = distance;
 	}
 
-	private void appendNewickBranchLength(StringBuffer buf, Double parentDistance) {
-		// Double clusteringIteration = getClusterIteration();
-		// // We make the branch length proportional to the iteration, although
-		// // proportional to the distance measure might be better
-		// buf.append(":").append(clusteringIteration);
-//		double maxChildDistance = getMaxChildDistance();
-		double branchLength = parentDistance - distance;
-		branchLength = Math.max(0.01, branchLength);
-		buf.append(":").append(String.format("%.2f", branchLength));
-	}
-
-	/**
-	 * Label the internal node with the distance (appended with the iteration).
-	 * Appending the iteration is necessary to make the label unique (to satisfy
-	 * Matlab). Spaces are replaced with underscores.
-	 */
-	private void appendInternalNewickNodeName(StringBuffer buf) {
-		Integer clusteringIteration = getClusterIteration();
-		if (clusteringIteration > 0) {
-			buf.append("it").append(clusteringIteration.intValue());
-			buf.append("-").append(String.format("%.2f", distance));
-		} else {
-			buf.append(getClusterName());
-		}
+	/** @return the cluster as text in the format given by the
+	 * application parameters */
+	public String toString() {
+		return toText(MemberClusterWriter.getFormatParameter());
 	}
 
-	public String toString() {
-		String text = "";
-		ApplicationParameters parameters = ApplicationParameters.getSingleton();
-		String clusterFormat =
-			 parameters.getParameter(
-							ParameterConstants.CLUSTER_TEXT_FORMAT_KEY,
-							ClusterTextFormatEnum.NEWICK.toString());
-		ClusterTextFormatEnum textFormatEnum =
-			ClusterTextFormatEnum.valueOf(clusterFormat);
-		if (ClusterTextFormatEnum.FLAT.equals(textFormatEnum)) {
-			text = toFlatString();
-		} else if (ClusterTextFormatEnum.NESTED.equals(textFormatEnum)) {
-			text = toNestedString();
-		} else if (ClusterTextFormatEnum.NEWICK.equals(textFormatEnum)) {
-			text = toNewickString();
-		} else {
-			text = toNestedString();
+	/** @return the cluster as text in the given format */
+	protected String toText(ClusterTextFormatEnum format) {
+		StringWriter stringWriter = new StringWriter();
+		try {
+			new MemberClusterWriter(stringWriter, format).write(this);
+		} catch (IOException e) {
+			// A StringWriter doesn't throw IOExceptions
+			throw new IllegalStateException(e.toString());
 		}
-		return text;
+		return stringWriter.toString();
 	}
 
 	/**
@@ -411,15 +366,14 @@ public class MemberCluster implements ClusterIfc<String> {
 	 * @throws IOException
 	 */
 	protected void writeNewickToFile(String fileName) throws IOException {
-		PrintWriter writer = null;
+		BufferedWriter writer = null;
 		FileWriter fileWriter = null;
 		
 		try {
 			fileWriter = new FileWriter(fileName);
-			writer = new PrintWriter(
-					new BufferedWriter(fileWriter));
-			String clusterString = toNewickString();
-			writer.print(clusterString );
+			writer = new BufferedWriter(fileWriter);
+			new MemberClusterWriter(writer, ClusterTextFormatEnum.NEWICK)
+				.writeNewick(this);
 		} finally {
 			if (writer != null) {
 				writer.close();
@@ -491,6 +445,69 @@ public class MemberCluster implements ClusterIfc<String> {
 		return clusterSize;
 	}
 
+	/**
+	 * The leaves of a tree of clusters in depth first order, with the
+	 * position of each leaf.
+	 */
+	protected static class LeafOrder {
+		protected final String[] leaves;
+
+		/** Maps each leaf to its position; built when first needed. */
+		protected Map<String, Integer> positions = null;
+
+		protected LeafOrder(String[] leaves) {
+			this.leaves = leaves;
+		}
+
+		protected synchronized Integer getPosition(Object leaf) {
+			if (positions == null) {
+				positions = new HashMap<String, Integer>(2 * leaves.length);
+				for (int i = 0; i < leaves.length; i++) {
+					positions.put(leaves[i], i);
+				}
+			}
+			return positions.get(leaf);
+		}
+	}
+
+	/**
+	 * A read-only view of the cluster's range of the leaf order.
+	 */
+	protected class ElementView extends AbstractSet<String> {
+
+		public int size() {
+			getLeafOrder();
+			return leafEnd - leafStart;
+		}
 
+		public boolean contains(Object element) {
+			Integer position = getLeafOrder().getPosition(element);
+			return position != null
+				&& position >= leafStart && position < leafEnd;
+		}
+
+		public Iterator<String> iterator() {
+			final String[] leaves = getLeafOrder().leaves;
+			final int end = leafEnd;
+			return new Iterator<String>() {
+				private int next = leafStart;
+
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				public String next() {
+					if (next >= end) {
+						throw new NoSuchElementException();
+					}
+					return leaves[next++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
 
 }
@@ -0,0 +1,357 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+/**
+ * Writes MemberClusters as text (Newick, nested, or flat) directly to a
+ * Writer.  The tree is walked with an explicit stack, so deep, unbalanced
+ * dendrograms don't overflow the call stack, and the whole text is never
+ * held in memory.  The text format is read from the application
+ * parameters once, when the writer is created.
+ * 
+ * @author kcassell
+ */
+public class MemberClusterWriter {
+
+	/** Where the text goes. */
+	protected Writer out = null;
+
+	/** The format used by write(MemberCluster). */
+	protected ClusterTextFormatEnum format = ClusterTextFormatEnum.NEWICK;
+
+	/** A cluster being written, and where we are among its children. */
+	private static class Frame {
+		MemberCluster cluster;
+		Iterator<?> children;
+		int indentLevel;
+		double parentDistance;
+		boolean first = true;
+
+		Frame(MemberCluster cluster, int indentLevel, double parentDistance) {
+			this.cluster = cluster;
+			this.children = cluster.getChildren().iterator();
+			this.indentLevel = indentLevel;
+			this.parentDistance = parentDistance;
+		}
+	}
+
+	/**
+	 * Creates a writer using the cluster text format from the
+	 * application parameters.
+	 * @param out where the text goes
+	 */
+	public MemberClusterWriter(Writer out) {
+		this(out, getFormatParameter());
+	}
+
+	/**
+	 * @param out where the text goes
+	 * @param format the format used by write(MemberCluster)
+	 */
+	public MemberClusterWriter(Writer out, ClusterTextFormatEnum format) {
+		this.out = out;
+		this.format = format;
+	}
+
+	/** @return the cluster text format from the application parameters */
+	protected static ClusterTextFormatEnum getFormatParameter() {
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String clusterFormat =
+			 parameters.getParameter(
+							ParameterConstants.CLUSTER_TEXT_FORMAT_KEY,
+							ClusterTextFormatEnum.NEWICK.toString());
+		return ClusterTextFormatEnum.valueOf(clusterFormat);
+	}
+
+	public ClusterTextFormatEnum getFormat() {
+		return format;
+	}
+
+	/**
+	 * Writes the cluster in this writer's format.
+	 */
+	public void write(MemberCluster cluster) throws IOException {
+		if (ClusterTextFormatEnum.FLAT.equals(format)) {
+			writeFlat(cluster);
+		} else if (ClusterTextFormatEnum.NEWICK.equals(format)) {
+			writeNewick(cluster);
+		} else {
+			writeNested(cluster, 0);
+		}
+	}
+
+	/**
+	 * Writes the tree using the Newick/New Hampshire format, ending with
+	 * ";\n".  A subcluster of one element is written as that element, and
+	 * each internal node is labelled with its iteration and distance (or
+	 * its name if it has no iteration).  Branch lengths are at least 0.01.
+	 * @see http://evolution.genetics.washington.edu/phylip/newicktree.html
+	 */
+	public void writeNewick(MemberCluster cluster) throws IOException {
+		Set<String> namesSeen = new HashSet<String>();
+		List<Frame> stack = new ArrayList<Frame>();
+		writeIndent(0);
+		out.write('(');
+		stack.add(new Frame(cluster, 0, 1.0));
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.get(stack.size() - 1);
+
+			if (frame.children.hasNext()) {
+				Object child = frame.children.next();
+				if (!frame.first) {
+					out.write(',');
+				}
+				frame.first = false;
+				out.write('\n');
+
+				if (child instanceof MemberCluster) {
+					MemberCluster subcluster = (MemberCluster) child;
+
+					// If it's a group of one, treat it as an individual
+					if (subcluster.getElementCount() == 1) {
+						Object grandChild =
+							subcluster.getChildren().iterator().next();
+						writeNewickMember(frame, grandChild, namesSeen);
+					} else {
+						writeIndent(frame.indentLevel + 1);
+						out.write('(');
+						stack.add(new Frame(subcluster, frame.indentLevel + 1,
+								frame.cluster.getDistance()));
+					}
+				} else if (child instanceof String) { // element
+					writeNewickMember(frame, child, namesSeen);
+				}
+			} else {
+				stack.remove(stack.size() - 1);
+				out.write('\n');
+				writeIndent(frame.indentLevel);
+				out.write(") ");
+				writeNewickNodeName(frame.cluster);
+				// Ensure there is a nonzero branch length
+				double branchLength = Math.max(0.01,
+						frame.parentDistance - frame.cluster.getDistance());
+				out.write(':');
+				out.write(formatDistance(branchLength));
+			}
+		}
+		out.write(";\n");
+	}
+
+	private void writeNewickMember(Frame frame, Object member,
+			Set<String> namesSeen) throws IOException {
+		String name = EclipseUtils.getNameFromHandle(member.toString());
+		if (namesSeen.contains(name)) {
+			name += "_" + namesSeen.size();
+			namesSeen.add(name);
+		}
+		writeIndent(frame.indentLevel + 1);
+		out.write(name);
+		out.write(':');
+		// Ensure there is a nonzero branch length
+		out.write(formatDistance(Math.max(0.01, frame.cluster.getDistance())));
+	}
+
+	/**
+	 * Label the internal node with the distance (appended with the
+	 * iteration). Appending the iteration is necessary to make the label
+	 * unique (to satisfy Matlab).
+	 */
+	private void writeNewickNodeName(MemberCluster cluster)
+	throws IOException {
+		int clusteringIteration = cluster.getClusterIteration();
+		if (clusteringIteration > 0) {
+			out.write("it");
+			out.write(Integer.toString(clusteringIteration));
+			out.write('-');
+			out.write(formatDistance(cluster.getDistance()));
+		} else {
+			out.write(cluster.getClusterName());
+		}
+	}
+
+	/**
+	 * Writes the cluster as an indented tree, with "|+" marking
+	 * subclusters and "|-" marking elements.  The cluster's own name
+	 * is written first if indentLevel is 0.
+	 */
+	public void writeNested(MemberCluster cluster, int indentLevel)
+	throws IOException {
+		// If this is a top level (visible) node, print its name
+		if (indentLevel == 0) {
+			out.write(cluster.getClusterName());
+			out.write('\n');
+		}
+		List<Frame> stack = new ArrayList<Frame>();
+		stack.add(new Frame(cluster, indentLevel + 1, 0.0));
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.get(stack.size() - 1);
+
+			if (!frame.children.hasNext()) {
+				stack.remove(stack.size() - 1);
+			} else {
+				Object component = frame.children.next();
+				if (component instanceof MemberCluster) {
+					writeIndent(frame.indentLevel);
+					MemberCluster subcluster = (MemberCluster) component;
+					String name = subcluster.getClusterName();
+					// Makes use of a naming convention oneName+OtherCount
+					int indexPlus = name.lastIndexOf("+");
+					// If the name of the cluster matches the "+ convention",
+					// write the iteration number
+					if (indexPlus >= 0) {
+						out.write("|+");
+						out.write(name, indexPlus + 1,
+								name.length() - indexPlus - 1);
+						out.write(" (");
+						out.write(subcluster.getComment());
+						out.write(")\n");
+					} else {
+						out.write("|+");
+						out.write(name);
+						out.write('\n');
+					}
+					stack.add(new Frame(subcluster, frame.indentLevel + 1, 0.0));
+				} else if (component instanceof String) { // element
+					writeIndent(frame.indentLevel);
+					out.write("|-");
+					out.write(EclipseUtils.getNameFromHandle(component.toString()));
+					out.write('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the cluster's name and then all of its (leaf) elements,
+	 * disregarding any nested structure.  Subclusters without children
+	 * are written by name.
+	 */
+	public void writeFlat(MemberCluster cluster) throws IOException {
+		out.write(cluster.getClusterName());
+		out.write(":\n");
+		List<Frame> stack = new ArrayList<Frame>();
+		pushFlat(stack, cluster);
+
+		while (!stack.isEmpty()) {
+			Frame frame = stack.get(stack.size() - 1);
+
+			if (!frame.children.hasNext()) {
+				stack.remove(stack.size() - 1);
+			} else {
+				Object component = frame.children.next();
+				if (component instanceof MemberCluster) {
+					pushFlat(stack, (MemberCluster) component);
+				} else if (component instanceof String) { // element
+					out.write("  ");
+					out.write(EclipseUtils.getNameFromHandle(component.toString()));
+					out.write('\n');
+				}
+			}
+		}
+	}
+
+	private void pushFlat(List<Frame> stack, MemberCluster cluster)
+	throws IOException {
+		// If this is a leaf, print its name
+		if (cluster.getChildren().isEmpty()) {
+			out.write(cluster.getClusterName());
+			out.write('\n');
+		}
+		stack.add(new Frame(cluster, 0, 0.0));
+	}
+
+	private void writeIndent(int indentLevel) throws IOException {
+		for (int i = 2 * indentLevel; i > 0; i--) {
+			out.write(' ');
+		}
+	}
+
+	/**
+	 * Formats the distance with two decimal places, giving the same
+	 * text as String.format("%.2f", distance) in an English locale:
+	 * the shortest decimal representation (Double.toString) is rounded
+	 * half up.
+	 */
+	public static String formatDistance(double distance) {
+		String text = null;
+		double magnitude = Math.abs(distance);
+		// Double.toString uses plain notation in [1e-3, 1e7)
+		if (magnitude >= 1.0e-3 && magnitude < 1.0e7) {
+			String digits = Double.toString(magnitude);
+			int point = digits.indexOf('.');
+			long hundredths = Long.parseLong(digits.substring(0, point)) * 100
+				+ 10 * digitAt(digits, point + 1) + digitAt(digits, point + 2);
+			if (digitAt(digits, point + 3) >= 5) {
+				hundredths++;
+			}
+			long fraction = hundredths % 100;
+			text = (hundredths / 100) + ((fraction < 10) ? ".0" : ".")
+				+ fraction;
+		} else if (magnitude < 1.0e-3) {
+			text = "0.00";
+		} else if (Double.isNaN(distance) || Double.isInfinite(distance)) {
+			text = Double.toString(magnitude);
+		} else {
+			text = new BigDecimal(Double.toString(magnitude))
+				.setScale(2, RoundingMode.HALF_UP).toPlainString();
+		}
+		// Negative values (including -0.0) keep their sign, as with %f
+		if (distance < 0.0 || (distance == 0.0 && 1.0 / distance < 0.0)) {
+			text = "-" + text;
+		}
+		return text;
+	}
+
+	/** @return the digit at the index, or 0 past the end of the digits */
+	private static int digitAt(String digits, int index) {
+		return (index < digits.length()) ? digits.charAt(index) - '0' : 0;
+	}
+
+}
@@ -0,0 +1,405 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.NearestNeighborGraph;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+/**
+ * A single link agglomerative clusterer that works from a
+ * NearestNeighborGraph rather than a complete distance matrix, so that
+ * classes with thousands of members can be clustered in memory
+ * proportional to the number of members.  Single link clustering merges
+ * the clusters joined by the shortest remaining link (Kruskal's minimum
+ * spanning tree algorithm), so the links are sorted once and then merged
+ * in order.  Clusters with no link between them are treated as being
+ * completely different, and are merged last.
+ * @author Keith
+ */
+public class NearestNeighborAgglomerativeClusterer
+implements ClustererIfc<String> {
+
+	/** The distance at which clusters without links are merged, unless
+	 * some link is longer.  As for MatrixBasedAgglomerativeClusterer, this
+	 * assumes 1.0 is the maximum distance. */
+	protected static final double UNLINKED_DISTANCE = 1.0;
+
+	/** The nearest neighbors of the original individuals. */
+	protected NearestNeighborGraph<String> neighborGraph = null;
+
+	/** Keeps track of how many clustering steps have occurred. */ 
+	protected int previousIteration = 0;
+
+	/** The individuals joined by each link, shortest link first. */
+	protected int[] linkEnds1;
+	protected int[] linkEnds2;
+	protected double[] linkDistances;
+
+	/** The next link to examine. */
+	protected int nextLink = 0;
+
+	/** The distance at which unlinked clusters are merged. */
+	protected double unlinkedDistance = UNLINKED_DISTANCE;
+
+	/** The union-find parent of each individual. */
+	protected int[] parent;
+
+	/** The names of the current clusters, in order of creation.  The
+	 * value is an individual in the cluster. */
+	protected LinkedHashMap<String, Integer> currentClusters =
+		new LinkedHashMap<String, Integer>();
+
+	/** The name of the cluster containing each union-find root. */
+	protected String[] rootNames;
+
+	/** This keeps track of the clusters that have been seen.  The key
+	 * is the cluster name; the value is the cluster.  "Elements"
+	 * (clusters of one) will have a handle key and a null value. */
+	protected HashMap<String, MemberCluster> clusterHistory =
+		new HashMap<String, MemberCluster>();
+
+    protected static final UtilLogger logger =
+    	new UtilLogger("NearestNeighborAgglomerativeClusterer");
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, initialize the clusterer by finding
+     * the nearest neighbors of each object.  The number of neighbors
+     * is a user preference/parameter.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     */
+	public NearestNeighborAgglomerativeClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc) {
+		this(elements, calc, ApplicationParameters.getSingleton()
+				.getIntParameter(ParameterConstants.NEAREST_NEIGHBORS_KEY, 10));
+	}
+
+    /**
+     * Given a list of (nonclustered) objects and a calculator to calculate
+     * the distances between them, initialize the clusterer by finding
+     * the nearest neighbors of each object.
+     * @param elements a collection of things to be clustered
+     * @param calc calculates the distances between objects
+     * @param numNeighbors how many neighbors to keep for each object
+     */
+	public NearestNeighborAgglomerativeClusterer(List<String> elements,
+			DistanceCalculatorIfc<String> calc, int numNeighbors) {
+		this(createNeighborGraph(elements, calc, numNeighbors));
+	}
+
+	/**
+	 * Initializes the clusterer from the neighbors of the elements.
+	 * @param neighborGraph the nearest neighbors of the elements
+	 */
+	public NearestNeighborAgglomerativeClusterer(
+			NearestNeighborGraph<String> neighborGraph) {
+		this.neighborGraph = neighborGraph;
+		List<String> elements = neighborGraph.getHeaders();
+		int size = elements.size();
+		parent = new int[size];
+		rootNames = new String[size];
+		for (int i = 0; i < size; i++) {
+			String element = elements.get(i);
+			parent[i] = i;
+			rootNames[i] = element;
+			currentClusters.put(element, i);
+			clusterHistory.put(element, null);
+		}
+		sortLinks();
+	}
+
+	private static NearestNeighborGraph<String> createNeighborGraph(
+			List<String> elements, DistanceCalculatorIfc<String> calc,
+			int numNeighbors) {
+		NearestNeighborGraph<String> neighborGraph =
+			new NearestNeighborGraph<String>(elements, numNeighbors);
+		neighborGraph.fill(calc);
+		logger.fine("{0}", neighborGraph);
+		return neighborGraph;
+	}
+
+	/**
+	 * Collects the links of the neighbor graph in order of distance.
+	 */
+	protected void sortLinks() {
+		int size = neighborGraph.getHeaders().size();
+		int numLinks = 0;
+		for (int i = 0; i < size; i++) {
+			numLinks += neighborGraph.getNeighborCount(i);
+		}
+		double[] distances = new double[numLinks];
+		int[] ends1 = new int[numLinks];
+		int[] ends2 = new int[numLinks];
+		int link = 0;
+		for (int i = 0; i < size; i++) {
+			for (int n = 0; n < neighborGraph.getNeighborCount(i); n++) {
+				ends1[link] = i;
+				ends2[link] = neighborGraph.getNeighbor(i, n);
+				distances[link] = neighborGraph.getNeighborDistance(i, n);
+				unlinkedDistance = Math.max(unlinkedDistance, distances[link]);
+				link++;
+			}
+		}
+		// Sort the link numbers by distance
+		Integer[] sorted = new Integer[numLinks];
+		for (int l = 0; l < numLinks; l++) {
+			sorted[l] = l;
+		}
+		final double[] keys = distances;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer l1, Integer l2) {
+				return Double.compare(keys[l1], keys[l2]);
+			}
+		});
+		linkEnds1 = new int[numLinks];
+		linkEnds2 = new int[numLinks];
+		linkDistances = new double[numLinks];
+		for (int l = 0; l < numLinks; l++) {
+			linkEnds1[l] = ends1[sorted[l]];
+			linkEnds2[l] = ends2[sorted[l]];
+			linkDistances[l] = distances[sorted[l]];
+		}
+	}
+
+	public NearestNeighborGraph<String> getNeighborGraph() {
+		return neighborGraph;
+	}
+
+	/**
+	 * @return the identifiers of the clusters
+	 */
+	public Collection<String> getClusters() {
+		return new ArrayList<String>(currentClusters.keySet());
+	}
+
+	/**
+	 * @return the clusters
+	 */
+	public Collection<MemberCluster> getMemberClusters() {
+		ArrayList<MemberCluster> memberClusters = new ArrayList<MemberCluster>();
+		
+		for (String name : currentClusters.keySet()) {
+			MemberCluster cluster = clusterHistory.get(name);
+			
+			// If a single element, convert it into a cluster
+			if (cluster == null) {
+				cluster = new MemberCluster();
+				cluster.addElement(name);
+			}
+			memberClusters.add(cluster);
+		}
+		return memberClusters;
+	}
+
+    /**
+	 * @return the clusterHistory
+	 */
+	public HashMap<String, MemberCluster> getClusterHistory() {
+		return clusterHistory;
+	}
+
+	/**
+     * Form clusters by combining nodes.  Quit when there is a single cluster
+     * @return the cluster of everything.
+     */
+	public MemberCluster getSingleCluster() {
+		MemberCluster cluster = null;
+		while (continueClustering()) {
+			cluster = clusterOnce();
+			previousIteration++;
+		}
+		return cluster;
+	}
+
+    /**
+     * Form clusters by combining nodes.  Two objects should be combined
+     * for each iteration.  The total number of cluster steps that should be
+     * performed is determined by a user preference/parameter.  By default,
+     * everything will be put into a single cluster.
+     * @return a collection of all clusters (some will be single objects)
+     */
+	public Collection<String> cluster() {
+		Collection<String> clusters = null;
+		int numElements = neighborGraph.getHeaders().size();
+		
+		if (numElements > 0) {
+			ApplicationParameters params =
+				ApplicationParameters.getSingleton();
+			int iterations = params.getIntParameter(
+					ParameterConstants.AGGLOMERATION_CLUSTERS_KEY,
+					numElements - 1);
+			clusters = cluster(iterations);
+		}
+		return clusters;
+	}
+
+    /**
+     * Form clusters by combining nodes.  Two nodes should be combined
+     * for each iteration.
+     * @param iteration the total number of cluster steps that should be
+     * performed
+     * @return a collection of all clusters (some will be single nodes)
+     */
+	public Collection<String> cluster(int iteration) {
+		int numIterations = iteration - previousIteration;
+
+		for (int i = 0; i < numIterations && continueClustering(); i++) {
+			clusterOnce();
+			previousIteration++;
+		}	// for
+		return getClusters();
+	}
+
+	/**
+	 * Add a new level of clustering by merging the clusters joined by
+	 * the shortest link between different clusters.
+	 */
+	protected MemberCluster clusterOnce() {
+		int root1 = -1;
+		int root2 = -1;
+		double distance = unlinkedDistance;
+		while (root1 == root2 && nextLink < linkDistances.length) {
+			root1 = find(linkEnds1[nextLink]);
+			root2 = find(linkEnds2[nextLink]);
+			distance = linkDistances[nextLink];
+			nextLink++;
+		}
+		// No links remain, so merge the two oldest clusters
+		if (root1 == root2) {
+			Iterator<Integer> iter = currentClusters.values().iterator();
+			root1 = find(iter.next());
+			root2 = find(iter.next());
+			distance = unlinkedDistance;
+		}
+		String near1 = rootNames[root1];
+		String near2 = rootNames[root2];
+		MemberCluster cluster = createCluster(near1, near2, distance);
+		parent[root2] = root1;
+		rootNames[root1] = cluster.getClusterName();
+		currentClusters.remove(near1);
+		currentClusters.remove(near2);
+		currentClusters.put(cluster.getClusterName(), root1);
+		return cluster;
+	}
+
+	/**
+	 * Creates a cluster from two identifiers (each of which may represent
+	 * one or more elements).
+	 * @param near1 the first cluster or element
+	 * @param near2 the second cluster or element
+	 * @param distance the distance between them
+	 * @return the new cluster
+	 */
+	protected MemberCluster createCluster(String near1, String near2,
+			double distance) {
+		MemberCluster cluster = new MemberCluster();
+		logger.fine("createCluster from {0}, {1}", near1, near2);
+		addChildToCluster(cluster, near1);
+		addChildToCluster(cluster, near2);
+		cluster.setDistance(distance);
+		String comment = "dist. = " + distance;
+		cluster.setComment(comment);
+
+		String clusterName =
+			nameCluster(cluster, (near1.compareTo(near2) < 0) ? near1 : near2);
+		clusterHistory.put(clusterName, cluster);
+		return cluster;
+	}
+
+	/**
+	 * Adds to a cluster based on an identifier (which may represent
+	 * one or more elements).
+	 * @param cluster the existing cluster
+	 * @param childName the identifier of the addition
+	 */
+	protected void addChildToCluster(MemberCluster cluster, String childName) {
+		MemberCluster childCluster = clusterHistory.get(childName);
+		if (childCluster == null) {
+			cluster.addElement(childName);
+		} else {
+			cluster.addCluster(childCluster);
+		}
+	}
+
+	/**
+	 * Create a name for the new cluster by combining the provided name
+	 * with the iteration number
+	 * @param cluster the cluster to be named
+	 * @param name the name to use as the basis of the new name
+	 */
+	protected String nameCluster(MemberCluster cluster, String name) {
+		int indexPlus = name.indexOf("+");
+		if (indexPlus >= 0) {
+			name = name.substring(0, indexPlus);
+		}
+		name += "+" + (previousIteration + 1);
+		cluster.setClusterName(name);
+		return name;
+	}
+
+	/**
+	 * @return the union-find root of the individual, compressing the
+	 *  path to it along the way
+	 */
+	private int find(int individual) {
+		int root = individual;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[individual] != root) {
+			int next = parent[individual];
+			parent[individual] = root;
+			individual = next;
+		}
+		return root;
+	}
+
+	protected boolean continueClustering() {
+		return currentClusters.size() > 1;
+	}
+
+}
@@ -32,6 +32,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.logging;
 
+import java.text.MessageFormat;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -52,6 +53,14 @@ import org.osgi.framework.Bundle;
  *
  */
 public class UtilLogger {
+
+	/**
+	 * Supplies a log message on demand, so that an expensive message
+	 * is only built if it is actually going to be logged.
+	 */
+	public interface MessageSupplier {
+		public String getMessage();
+	}
 	
 	/** The java logger, used when not executing in a plug-in. */
 	private Logger javaLogger = null;
@@ -131,47 +140,107 @@ public class UtilLogger {
 	}
 
 	public void finer(String string) {
-		if (pluginLogger != null) {
-			pluginLogger.log(new Status(Status.INFO,
-					ClassRefactoringPlugin.PLUGIN_ID, string));
-		} else {
-			javaLogger.finer(string);
-		}
+		log(Level.FINER, string);
 	}
 
 	public void fine(String string) {
-		if (pluginLogger != null) {
-			pluginLogger.log(new Status(Status.INFO,
-					ClassRefactoringPlugin.PLUGIN_ID, string));
-		} else {
-			javaLogger.fine(string);
-		}
+		log(Level.FINE, string);
 	}
 
 	public void info(String string) {
-		if (pluginLogger != null) {
-			pluginLogger.log(new Status(Status.INFO,
-					ClassRefactoringPlugin.PLUGIN_ID, string));
-		} else {
-			javaLogger.info(string);
-		}
+		log(Level.INFO, string);
 	}
 
 	public void warning(String string) {
+		log(Level.WARNING, string);
+	}
+
+	public void severe(String string) {
+		log(Level.SEVERE, string);
+	}
+
+	/**
+	 * Logs the message if the level is enabled.  Every level-specific
+	 * method comes through here or one of the other log(Level, ...)
+	 * methods, so they all agree with isLoggable.
+	 */
+	public void log(Level level, String msg) {
+		if (isLoggable(level)) {
+			logMessage(level, msg);
+		}
+	}
+
+	/**
+	 * The plug-in log has no levels, so detailed (below INFO) messages are
+	 * only logged there when Eclipse is running in debug mode.
+	 * @return whether a message at the given level would be logged
+	 */
+	public boolean isLoggable(Level level) {
+		boolean loggable = false;
 		if (pluginLogger != null) {
-			pluginLogger.log(new Status(Status.WARNING,
-					ClassRefactoringPlugin.PLUGIN_ID, string));
+			loggable = level.intValue() >= Level.INFO.intValue()
+				|| Platform.inDebugMode();
 		} else {
-			javaLogger.warning(string);
+			loggable = javaLogger.isLoggable(level);
 		}
+		return loggable;
 	}
 
-	public void severe(String string) {
+	/**
+	 * Logs the supplied message, which is only built if the level is enabled.
+	 */
+	public void log(Level level, MessageSupplier supplier) {
+		if (isLoggable(level)) {
+			logMessage(level, supplier.getMessage());
+		}
+	}
+
+	/**
+	 * Logs a message built from a java.text.MessageFormat pattern.
+	 * The parameters are only formatted if the level is enabled.
+	 */
+	public void log(Level level, String pattern, Object... params) {
+		if (isLoggable(level)) {
+			logMessage(level, MessageFormat.format(pattern, params));
+		}
+	}
+
+	public void finer(MessageSupplier supplier) {
+		log(Level.FINER, supplier);
+	}
+
+	public void finer(String pattern, Object... params) {
+		log(Level.FINER, pattern, params);
+	}
+
+	public void fine(MessageSupplier supplier) {
+		log(Level.FINE, supplier);
+	}
+
+	public void fine(String pattern, Object... params) {
+		log(Level.FINE, pattern, params);
+	}
+
+	public void info(MessageSupplier supplier) {
+		log(Level.INFO, supplier);
+	}
+
+	public void info(String pattern, Object... params) {
+		log(Level.INFO, pattern, params);
+	}
+
+	private void logMessage(Level level, String msg) {
 		if (pluginLogger != null) {
-			pluginLogger.log(new Status(Status.ERROR,
-					ClassRefactoringPlugin.PLUGIN_ID, string));
+			int severity = Status.INFO;
+			if (level.intValue() >= Level.SEVERE.intValue()) {
+				severity = Status.ERROR;
+			} else if (level.intValue() >= Level.WARNING.intValue()) {
+				severity = Status.WARNING;
+			}
+			pluginLogger.log(new Status(severity,
+					ClassRefactoringPlugin.PLUGIN_ID, msg));
 		} else {
-			javaLogger.severe(string);
+			javaLogger.log(level, msg);
 		}
 	}
 }
\ No newline at end of file
@@ -49,7 +49,6 @@ import nz.ac.vuw.ecs.kcassell.logging.UtilLogger;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 
 import org.eclipse.jdt.core.IJavaElement;
-import org.eclipse.jdt.core.JavaCore;
 
 public class MetricDatabaseLocator implements IDatabaseConstants, Constants {
 
@@ -139,7 +138,8 @@ public class MetricDatabaseLocator implements IDatabaseConstants, Constants {
 		while (resultSet.next()) {
 			TypeMetrics problemClassMetrics = new TypeMetrics();
 			String handle = resultSet.getString(HANDLE_FIELD.trim());
-			IJavaElement element = JavaCore.create(handle);
+			// Rows for the same class in repeated queries share the element
+			IJavaElement element = EclipseUtils.getElementFromHandle(handle);
 			problemClassMetrics.setHandle(handle);
 			problemClassMetrics.setJavaElement(element);
 
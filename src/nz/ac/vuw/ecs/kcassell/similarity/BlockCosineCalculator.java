@@ -0,0 +1,311 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseVector;
+
+/**
+ * Calculates the cosine distances between all pairs of document vectors
+ * at once.  The vectors are normalized and gathered into the rows of one
+ * matrix X, keeping only the dimensions that some vector uses, and then
+ * the similarities are the entries of X times its transpose.  The
+ * product is calculated in tiles of rows, and within a tile in slices
+ * of the dimensions, so that the rows being multiplied stay in the cache.
+ * The tiles are divided among several threads.
+ * <p>
+ * As with Similarity.cosineSimilarity, a zero vector has no similarity
+ * to anything.  A missing (null) vector is taken to be a zero vector.
+ * @author Keith
+ */
+public class BlockCosineCalculator {
+
+	/** The number of rows (and columns) in a tile of the product. */
+	protected static final int TILE_SIZE = 32;
+
+	/** The number of dimensions multiplied at a time within a tile. */
+	protected static final int SLICE_SIZE = 256;
+
+	/** Matrices with fewer rows than this are multiplied on one thread. */
+	protected static final int MIN_ROWS_PER_THREAD = 64;
+
+	/** The number of threads multiplying tiles. */
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	public BlockCosineCalculator() {
+	}
+
+	/**
+	 * @param numThreads the number of threads multiplying tiles
+	 */
+	public BlockCosineCalculator(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Stores the cosine distance, 1 - similarity (but at least 0),
+	 * between each pair of vectors in the matrix.
+	 * @param matrix the matrix to fill
+	 * @param vectors the document vectors, in the order of the
+	 *   matrix's headers
+	 */
+	public <V> void fillMatrix(DistanceMatrix<V> matrix,
+			List<DoubleVector> vectors) {
+		setDistances(matrix, calculateSimilarities(vectors));
+	}
+
+	/**
+	 * Stores the cosine distance, 1 - similarity (but at least 0),
+	 * between each pair of the matrix's headers.
+	 * @param matrix the matrix to fill
+	 * @param similarities the packed lower triangle of the similarities,
+	 *   as returned by calculateSimilarities
+	 */
+	protected static <V> void setDistances(DistanceMatrix<V> matrix,
+			double[] similarities) {
+		int numRows = matrix.getHeaders().size();
+		int index = 0;
+		for (int row = 0; row < numRows; row++) {
+			for (int col = 0; col <= row; col++) {
+				double distance = 1.0 - similarities[index++];
+				matrix.setEntry(row, col, Math.max(0.0, distance));
+			}
+		}
+	}
+
+	/**
+	 * Calculates the cosine similarities between the vectors.
+	 * @param vectors the document vectors, possibly null
+	 * @return the lower triangle of the similarity matrix, packed by rows
+	 *   (the similarity of row and col <= row is at row*(row+1)/2 + col)
+	 */
+	public double[] calculateSimilarities(List<DoubleVector> vectors) {
+		int numRows = vectors.size();
+		int[] columns = getColumns(vectors);
+		int width = 0;
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] >= 0) {
+				width++;
+			}
+		}
+		final double[] rows = getNormalizedRows(vectors, columns, width);
+		final double[] similarities =
+			new double[(int) ((long) numRows * (numRows + 1) / 2)];
+		final int finalWidth = width;
+		final int numTiles = (numRows + TILE_SIZE - 1) / TILE_SIZE;
+		int numTasks = Math.min(numThreads,
+				Math.max(1, numRows / MIN_ROWS_PER_THREAD));
+
+		if (numTasks == 1) {
+			for (int tileRow = 0; tileRow < numTiles; tileRow++) {
+				multiplyTileRow(rows, finalWidth, numRows, tileRow,
+						similarities);
+			}
+		} else {
+			// The tile rows get longer further down the triangle, so they
+			// are dealt out round robin to even out the work
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int task = 0; task < numTasks; task++) {
+				final int firstTileRow = task;
+				final int step = numTasks;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						for (int tileRow = firstTileRow; tileRow < numTiles;
+								tileRow += step) {
+							multiplyTileRow(rows, finalWidth, numRows,
+									tileRow, similarities);
+						}
+						return null;
+					}
+				});
+			}
+			runTasks(tasks, numTasks);
+		}
+		return similarities;
+	}
+
+	/**
+	 * Runs the tasks on their own pool of threads.
+	 */
+	protected static void runTasks(List<Callable<Object>> tasks,
+			int numThreads) {
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (Future<Object> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds the dimensions used by some vector.
+	 * @return for each dimension, its column in the gathered rows,
+	 *   or -1 if no vector uses it
+	 */
+	protected static int[] getColumns(List<DoubleVector> vectors) {
+		int length = 0;
+		for (DoubleVector vector : vectors) {
+			if (vector != null) {
+				length = Math.max(length, vector.length());
+			}
+		}
+		int[] columns = new int[length];
+		for (int i = 0; i < length; i++) {
+			columns[i] = -1;
+		}
+		for (DoubleVector vector : vectors) {
+			if (vector instanceof SparseVector) {
+				int[] nonZeros = ((SparseVector<?>) vector).getNonZeroIndices();
+				for (int i = 0; i < nonZeros.length; i++) {
+					columns[nonZeros[i]] = 0;
+				}
+			} else if (vector != null) {
+				for (int i = 0; i < vector.length(); i++) {
+					if (vector.get(i) != 0.0) {
+						columns[i] = 0;
+					}
+				}
+			}
+		}
+		int column = 0;
+		for (int i = 0; i < length; i++) {
+			if (columns[i] == 0) {
+				columns[i] = column++;
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Gathers the vectors into rows of unit length.
+	 * @param columns the column of each dimension, or -1 if unused
+	 * @param width the number of columns used
+	 * @return the rows, one after another
+	 */
+	protected static double[] getNormalizedRows(List<DoubleVector> vectors,
+			int[] columns, int width) {
+		double[] rows = new double[vectors.size() * width];
+		for (int r = 0; r < vectors.size(); r++) {
+			DoubleVector vector = vectors.get(r);
+			if (vector != null) {
+				int start = r * width;
+				double sumOfSquares = 0.0;
+				int[] indices = null;
+				if (vector instanceof SparseVector) {
+					indices = ((SparseVector<?>) vector).getNonZeroIndices();
+				}
+				int numIndices =
+					(indices == null) ? vector.length() : indices.length;
+				for (int j = 0; j < numIndices; j++) {
+					int i = (indices == null) ? j : indices[j];
+					if (columns[i] >= 0) {
+						double value = vector.get(i);
+						rows[start + columns[i]] = value;
+						sumOfSquares += value * value;
+					}
+				}
+				if (sumOfSquares > 0.0) {
+					double scale = 1.0 / Math.sqrt(sumOfSquares);
+					for (int c = start; c < start + width; c++) {
+						rows[c] *= scale;
+					}
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Multiplies the tiles in a row of tiles of the lower triangle,
+	 * storing the products in similarities.
+	 * @param rows the normalized rows, one after another
+	 * @param width the length of each row
+	 * @param numRows the number of rows
+	 * @param tileRow the index of the row of tiles
+	 * @param similarities the packed lower triangle of the product
+	 */
+	protected static void multiplyTileRow(double[] rows, int width,
+			int numRows, int tileRow, double[] similarities) {
+		int firstRow = tileRow * TILE_SIZE;
+		int lastRow = Math.min(numRows, firstRow + TILE_SIZE);
+		double[] tile = new double[TILE_SIZE * TILE_SIZE];
+
+		for (int firstCol = 0; firstCol <= firstRow; firstCol += TILE_SIZE) {
+			int lastCol = Math.min(lastRow, firstCol + TILE_SIZE);
+			for (int i = 0; i < tile.length; i++) {
+				tile[i] = 0.0;
+			}
+			for (int first = 0; first < width; first += SLICE_SIZE) {
+				int last = Math.min(width, first + SLICE_SIZE);
+				for (int row = firstRow; row < lastRow; row++) {
+					int rowStart = row * width;
+					int tileStart = (row - firstRow) * TILE_SIZE - firstCol;
+					int colEnd = Math.min(lastCol, row + 1);
+					for (int col = firstCol; col < colEnd; col++) {
+						int colStart = col * width;
+						double sum = 0.0;
+						for (int k = first; k < last; k++) {
+							sum += rows[rowStart + k] * rows[colStart + k];
+						}
+						tile[tileStart + col] += sum;
+					}
+				}
+			}
+			for (int row = firstRow; row < lastRow; row++) {
+				int tileStart = (row - firstRow) * TILE_SIZE - firstCol;
+				int packedStart = (int) ((long) row * (row + 1) / 2);
+				int colEnd = Math.min(lastCol, row + 1);
+				for (int col = firstCol; col < colEnd; col++) {
+					similarities[packedStart + col] = tile[tileStart + col];
+				}
+			}
+		}
+	}
+
+}
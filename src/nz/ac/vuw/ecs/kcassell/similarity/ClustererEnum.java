@@ -41,5 +41,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 public enum ClustererEnum {
 	AGGLOMERATIVE,
 	BETWEENNESS,
+	FLAKE,
+	MAX_FLOW,
 	MIXED_MODE
 }
@@ -64,6 +64,7 @@ public enum DistanceCalculatorEnum {
 			Czibula.equals(calcType)
 			|| JDeodorant.equals(calcType)
 			|| LocalNeighborhood.equals(calcType)
+			|| LSA.equals(calcType)
 			|| Simon.equals(calcType)
 			|| VectorSpaceModel.equals(calcType);
 		return useHandles;
@@ -1,10 +1,14 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
@@ -27,6 +31,20 @@ public class DistanceCollector {
 	private Collection<DistanceCalculatorIfc<String>> calculators =
 		new ArrayList<DistanceCalculatorIfc<String>>();
 
+	/** If not null, the directory where the distance matrices of
+	 * cacheable calculators are kept in memory-mapped files. */
+	private File matrixDirectory = null;
+
+	/** Whether the memory-mapped matrices store floats rather than doubles. */
+	private boolean singlePrecision = false;
+
+	/** How precisely the matrices on the heap store distances. */
+	private DistancePrecisionEnum precision = DistancePrecisionEnum.DOUBLE;
+
+	/** For FIXED_POINT precision, the distance between adjacent
+	 * storable distances. */
+	private double distanceStep = 0.001;
+
 	
 	public DistanceCollector(
 			Collection<DistanceCalculatorIfc<String>> calculators) {
@@ -41,10 +59,18 @@ public class DistanceCollector {
 	public void collectDistances(JavaCallGraph callGraph) {
 		List<CallGraphNode> nodes = callGraph.getNodes();
 		List<String> memberNames = getMemberNames(nodes);
-		
-		for (DistanceCalculatorIfc<String> calc : calculators) {
-			collectDistances(memberNames, calc);
-		}
+		collectDistances(memberNames);
+	}
+
+	/**
+	 * Uses each of a collection of calculators to calculate a
+	 * distance matrix between class members.  The pairs of members
+	 * are visited once, with the distances for all of the calculators
+	 * calculated together.
+	 * @param memberNames the names of class members
+	 */
+	public void collectDistances(List<String> memberNames) {
+		collectDistances(memberNames, calculators);
 	}
 
 	/**
@@ -56,13 +82,249 @@ public class DistanceCollector {
 	 */
 	public DistanceMatrix<String> collectDistances(List<String> memberNames,
 			DistanceCalculatorIfc<String> calc) {
-		DistanceMatrix<String> matrix =
-			new DistanceMatrix<String>(memberNames);
-		matrix.fillMatrix(calc);
-		allDistances.put(calc, matrix);
+		List<DistanceCalculatorIfc<String>> calcs =
+			new ArrayList<DistanceCalculatorIfc<String>>();
+		calcs.add(calc);
+		collectDistances(memberNames, calcs);
+		return allDistances.get(calc);
+	}
+
+	/**
+	 * Calculates a distance matrix between class members for each of
+	 * the calculators, except where the matrix directory already holds
+	 * the calculator's distances between the members.  A
+	 * BulkDistanceCalculatorIfc fills in its matrix itself; the others
+	 * share a single pass over the pairs of members.
+	 * @param memberNames the names of class members
+	 * @param calcs the distance calculators to use
+	 */
+	protected void collectDistances(List<String> memberNames,
+			Collection<DistanceCalculatorIfc<String>> calcs) {
+		List<DistanceCalculatorIfc<String>> calcsToFill =
+			new ArrayList<DistanceCalculatorIfc<String>>();
+		List<DistanceMatrix<String>> matricesToFill =
+			new ArrayList<DistanceMatrix<String>>();
+		List<DistanceMatrix<String>> newMatrices =
+			new ArrayList<DistanceMatrix<String>>();
+
+		for (DistanceCalculatorIfc<String> calc : calcs) {
+			DistanceMatrix<String> matrix = getStoredMatrix(memberNames, calc);
+			if (matrix == null) {
+				matrix = createMatrix(memberNames, calc);
+				newMatrices.add(matrix);
+				if (calc instanceof BulkDistanceCalculatorIfc) {
+					((BulkDistanceCalculatorIfc<String>) calc).fillMatrix(matrix);
+				} else {
+					calcsToFill.add(calc);
+					matricesToFill.add(matrix);
+				}
+			}
+			allDistances.put(calc, matrix);
+		}
+		fillMatrices(memberNames, calcsToFill, matricesToFill);
+
+		for (DistanceMatrix<String> matrix : newMatrices) {
+			if (matrix instanceof MappedDistanceMatrix) {
+				((MappedDistanceMatrix) matrix).flush();
+			}
+		}
+	}
+
+	/**
+	 * Fills the matrices in a single pass over the pairs of members.
+	 * Each member's properties for a PropertySetCalculatorIfc are
+	 * computed once, rather than once per pair, and are compared as
+	 * sorted arrays of property ids, with the ids shared by all of the
+	 * calculators.  Other calculators calculate each distance themselves.
+	 * @param memberNames the names of class members, which are also the
+	 *   headers of the matrices
+	 * @param calcs the distance calculators to use
+	 * @param matrices the matrices to fill, one per calculator
+	 */
+	protected void fillMatrices(List<String> memberNames,
+			List<DistanceCalculatorIfc<String>> calcs,
+			List<DistanceMatrix<String>> matrices) {
+		int numMembers = memberNames.size();
+		int numCalcs = calcs.size();
+		HashMap<String, Integer> propertyIds = new HashMap<String, Integer>();
+		int[][][] memberProperties = new int[numCalcs][][];
+
+		for (int c = 0; c < numCalcs; c++) {
+			if (calcs.get(c) instanceof PropertySetCalculatorIfc) {
+				memberProperties[c] = getPropertyIds(memberNames,
+						(PropertySetCalculatorIfc) calcs.get(c), propertyIds);
+			}
+		}
+		for (int row = 0; row < numMembers; row++) {
+			String name1 = memberNames.get(row);
+			for (int col = 0; col <= row; col++) {
+				String name2 = memberNames.get(col);
+				for (int c = 0; c < numCalcs; c++) {
+					Number distance = null;
+					int[][] properties = memberProperties[c];
+
+					if (properties == null) {
+						distance = calcs.get(c).calculateDistance(name1, name2);
+					}
+					else if (properties[row] != null
+							&& properties[col] != null) {
+						distance = 1.0 - JaccardCalculator.calculateSimilarity(
+								properties[row], properties[col]);
+					}
+					if (distance != null) {
+						matrices.get(c).setValue(row, col,
+								distance.doubleValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the properties of each member as a sorted array of ids.
+	 * @param memberNames the names of class members
+	 * @param calc the calculator providing the properties
+	 * @param propertyIds the ids of the properties seen so far; new
+	 *   properties are added to it
+	 * @return the property ids, indexed like the members, with null
+	 *   for members unknown to the calculator
+	 */
+	protected static int[][] getPropertyIds(List<String> memberNames,
+			PropertySetCalculatorIfc calc,
+			HashMap<String, Integer> propertyIds) {
+		int[][] memberProperties = new int[memberNames.size()][];
+
+		for (int i = 0; i < memberProperties.length; i++) {
+			Set<String> properties =
+				calc.getMemberProperties(memberNames.get(i));
+			if (properties != null) {
+				int[] ids = new int[properties.size()];
+				int j = 0;
+				for (String property : properties) {
+					Integer id = propertyIds.get(property);
+					if (id == null) {
+						id = propertyIds.size();
+						propertyIds.put(property, id);
+					}
+					ids[j++] = id;
+				}
+				Arrays.sort(ids);
+				memberProperties[i] = ids;
+			}
+		}
+		return memberProperties;
+	}
+
+	/**
+	 * Gets the calculator's distances from its file in the matrix
+	 * directory if the file holds the distances between the members.
+	 * A reused file is opened read only, so that other processes can
+	 * share it.
+	 * @param memberNames the names of class members
+	 * @param calc the distance calculator
+	 * @return the memory-mapped distance matrix, or null if there is none
+	 */
+	protected MappedDistanceMatrix getStoredMatrix(
+			List<String> memberNames, DistanceCalculatorIfc<String> calc) {
+		MappedDistanceMatrix matrix = null;
+		File file = getMatrixFile(memberNames, calc);
+		if (file != null) {
+			if (file.exists()) {
+				try {
+					MappedDistanceMatrix existing =
+						new MappedDistanceMatrix(file, true);
+					if (existing.getHeaders().equals(memberNames)
+						&& existing.isSinglePrecision() == singlePrecision) {
+						matrix = existing;
+					}
+				} catch (IOException e) {
+					System.err.println("Unable to read the matrix in "
+							+ file + ": " + e);
+				}
+			}
+		}
 		return matrix;
 	}
 
+	/**
+	 * Creates an empty matrix for the calculator's distances, in the
+	 * calculator's file in the matrix directory when there is one.
+	 * @param memberNames the names of class members
+	 * @param calc the distance calculator
+	 * @return the distance matrix
+	 */
+	protected DistanceMatrix<String> createMatrix(
+			List<String> memberNames, DistanceCalculatorIfc<String> calc) {
+		DistanceMatrix<String> matrix = null;
+		File file = getMatrixFile(memberNames, calc);
+		if (file != null) {
+			try {
+				matrix = new MappedDistanceMatrix(memberNames,
+						file, singlePrecision);
+			} catch (IOException e) {
+				System.err.println("Unable to use a memory-mapped matrix for "
+						+ calc.getType() + ": " + e);
+			}
+		}
+		if (matrix == null) {
+			matrix = DistanceMatrix.createMatrix(memberNames, precision,
+					distanceStep);
+		}
+		return matrix;
+	}
+
+	/**
+	 * The file is named by the calculator's type and its DistanceMatrixStore
+	 * key, so a calculator whose fingerprint has changed, e.g. because
+	 * its graph was edited, doesn't reuse distances calculated before.
+	 * @param memberNames the names of class members
+	 * @param calc the distance calculator
+	 * @return the file in the matrix directory for the calculator's
+	 *   distances, or null if they are kept on the heap
+	 */
+	protected File getMatrixFile(List<String> memberNames,
+			DistanceCalculatorIfc<String> calc) {
+		File file = null;
+		if (matrixDirectory != null
+				&& calc instanceof CacheableDistanceCalculatorIfc) {
+			CacheableDistanceCalculatorIfc<String> cacheable =
+				(CacheableDistanceCalculatorIfc<String>) calc;
+			String key = DistanceMatrixStore.getKey(memberNames, cacheable);
+			file = new File(matrixDirectory, calc.getType() + "-" + key
+					+ "." + MappedDistanceMatrix.MATRIX_EXT);
+		}
+		return file;
+	}
+
+	/**
+	 * Keeps the distance matrices of cacheable calculators in
+	 * memory-mapped files rather than on the heap.  A file that already
+	 * holds the distances between the same members, calculated by a
+	 * calculator with the same fingerprint, is reused without
+	 * recalculating them, so one directory can serve every class.
+	 * The distances of other calculators stay on the heap.
+	 * @param matrixDirectory the directory for the files, or null to keep
+	 *   the matrices on the heap
+	 * @param singlePrecision true to store floats rather than doubles
+	 */
+	public void setMatrixDirectory(File matrixDirectory,
+			boolean singlePrecision) {
+		this.matrixDirectory = matrixDirectory;
+		this.singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * Sets how precisely the matrices on the heap store distances.
+	 * @param precision how precisely the distances are stored
+	 * @param distanceStep for FIXED_POINT precision, the distance between
+	 *   adjacent storable distances
+	 */
+	public void setPrecision(DistancePrecisionEnum precision,
+			double distanceStep) {
+		this.precision = precision;
+		this.distanceStep = distanceStep;
+	}
+
 	/**
 	 * Collects the member names from the graph's nodes.
 	 * @param nodes
@@ -33,7 +33,10 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import nz.ac.vuw.ecs.kcassell.cluster.Distance;
@@ -72,36 +75,210 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 	 * @param distanceCalculator calculates the distances between nodes
 	 */
 	public DistanceMatrix(List<V> headers) {
-		this.headers = headers;
+		setHeaders(headers);
+		int size = headers.size();
+		matrix = new DenseDoubleMatrix2D(size, size);
+		matrix.assign(UNKNOWN_DISTANCE.doubleValue());
+	}
+
+	/**
+	 * For use by subclasses that store the distances elsewhere.
+	 */
+	protected DistanceMatrix() {
+	}
+
+	/**
+	 * Sets the headers and keeps track of which index in the array
+	 * corresponds to each member.  The headers are copied, so that
+	 * adding and removing members leaves the caller's list alone.
+	 * @param headers the members used for row and column headers
+	 */
+	protected void setHeaders(List<V> headers) {
+		this.headers = new ArrayList<V>(headers);
 		int index = 0;
+		memberIndex.clear();
 
-		// Keep track of which index in the array corresponds to each member
 		for (V member : headers) {
 			memberIndex.put(member, index++);
 		}
+	}
 
-		int size = headers.size();
-		matrix = new DenseDoubleMatrix2D(size, size);
-		matrix.assign(UNKNOWN_DISTANCE.doubleValue());
+	/**
+	 * Builds a matrix of unknown distances that stores the distances
+	 * with the given precision.
+	 * @param headers the members used for row and column headers
+	 * @param precision how precisely the distances are stored
+	 * @param step for FIXED_POINT precision, the distance between
+	 *   adjacent storable distances
+	 * @return the matrix
+	 */
+	public static <V> DistanceMatrix<V> createMatrix(List<V> headers,
+			DistancePrecisionEnum precision, double step) {
+		DistanceMatrix<V> matrix = null;
+		if (DistancePrecisionEnum.FLOAT.equals(precision)) {
+			matrix = new FloatDistanceMatrix<V>(headers);
+		} else if (DistancePrecisionEnum.FIXED_POINT.equals(precision)) {
+			matrix = new FixedPointDistanceMatrix<V>(headers, step);
+		} else {
+			matrix = new DistanceMatrix<V>(headers);
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return the number of entries in the lower left triangle
+	 *   (including the diagonal) of a matrix of the given size
+	 */
+	protected static int getTriangleSize(int size) {
+		long triangleSize = (long) size * (size + 1) / 2;
+		if (triangleSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many headers: " + size);
+		}
+		return (int) triangleSize;
+	}
+
+	/**
+	 * @return the index of the entry for the row and column in the
+	 *   lower left triangle, stored row by row
+	 */
+	protected static int getTriangleIndex(int row, int column) {
+		long index;
+		if (row < column) {
+			index = (long) column * (column + 1) / 2 + row;
+		} else {
+			index = (long) row * (row + 1) / 2 + column;
+		}
+		return (int) index;
 	}
 	
 	
 	/**
 	 * Use the distance calculator to fill in the distance matrix.
+	 * A BulkDistanceCalculatorIfc fills in all of the distances at once.
 	 * @param calc the distance calculator
 	 */
 	public void fillMatrix(DistanceCalculatorIfc<V> calc) {
-		for (int row = 0; row < headers.size(); row++) {
-			V obj1 = headers.get(row);
-			for (int col = 0; col <= row; col++) {
-				V obj2 = headers.get(col);
-				Number distance = calc.calculateDistance(obj1, obj2);
-				setDistance(obj1, obj2, distance);
+		if (calc instanceof BulkDistanceCalculatorIfc) {
+			((BulkDistanceCalculatorIfc<V>) calc).fillMatrix(this);
+		} else {
+			for (int row = 0; row < headers.size(); row++) {
+				V obj1 = headers.get(row);
+				for (int col = 0; col <= row; col++) {
+					V obj2 = headers.get(col);
+					Number distance = calc.calculateDistance(obj1, obj2);
+					setDistance(obj1, obj2, distance);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Adds a member, with unknown distances to the other members, as the
+	 * last row and column.  The storage grows geometrically, so adding
+	 * members one at a time takes amortized time proportional to the
+	 * number of members (for the new row) rather than its square.
+	 * @param member the member to add
+	 * @return the index of the member
+	 */
+	public int addMember(V member) {
+		Integer index = memberIndex.get(member);
+		if (index == null) {
+			index = headers.size();
+			ensureCapacity(index + 1);
+			headers.add(member);
+			memberIndex.put(member, index);
+		}
+		return index;
+	}
 
+	/**
+	 * Removes a member and its distances.  The last member takes the
+	 * removed member's place, so that only one row and column are moved;
+	 * the other members keep their indices.
+	 * @param member the member to remove
+	 * @return true if the member was in the matrix
+	 */
+	public boolean removeMember(V member) {
+		Integer index = memberIndex.remove(member);
+		if (index != null) {
+			int last = headers.size() - 1;
+			if (index != last) {
+				V moved = headers.get(last);
+				for (int i = 0; i < last; i++) {
+					if (i != index) {
+						setEntry(index, i, getEntry(last, i));
+						if (!isSymmetric) {
+							setEntry(i, index, getEntry(i, last));
+						}
+					}
+				}
+				setEntry(index, index, getEntry(last, last));
+				headers.set(index, moved);
+				memberIndex.put(moved, index);
+			}
+			// Leave unknown distances for a member added later
+			for (int i = 0; i <= last; i++) {
+				setEntry(last, i, UNKNOWN_DISTANCE.doubleValue());
+				if (!isSymmetric) {
+					setEntry(i, last, UNKNOWN_DISTANCE.doubleValue());
+				}
+			}
+			headers.remove(last);
+		}
+		return index != null;
+	}
+
+	/**
+	 * Recalculates the distances between the given members and all of the
+	 * members, e.g. after the members were added or edited.  This takes
+	 * time proportional to the number of members times the number of
+	 * given members, rather than the square of the number of members.
+	 * Members not in the matrix are ignored.
+	 * @param members the members whose distances may have changed
+	 * @param calc the distance calculator
+	 * @see IncrementalDistanceCalculatorIfc#getAffectedMembers(Object)
+	 */
+	public void recalculate(Collection<V> members, DistanceCalculatorIfc<V> calc) {
+		HashSet<Integer> recalculated = new HashSet<Integer>();
+
+		for (V member : members) {
+			Integer index = memberIndex.get(member);
+			if (index != null && recalculated.add(index)) {
+				for (int i = 0; i < headers.size(); i++) {
+					// Pairs of recalculated members are only calculated once
+					if (i == index || !recalculated.contains(i)) {
+						int row = Math.max(index, i);
+						int col = Math.min(index, i);
+						Number distance = calc.calculateDistance(
+								headers.get(row), headers.get(col));
+						if (distance == null) {
+							distance = UNKNOWN_DISTANCE;
+						}
+						setEntry(row, col, distance.doubleValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes room for distances between the given number of members.
+	 * Subclasses storing the distances elsewhere override this.
+	 * @param size the number of members
+	 */
+	protected void ensureCapacity(int size) {
+		int capacity = matrix.rows();
+		if (size > capacity) {
+			int newCapacity = Math.max(size, capacity + (capacity >> 1) + 1);
+			DoubleMatrix2D newMatrix =
+				new DenseDoubleMatrix2D(newCapacity, newCapacity);
+			newMatrix.assign(UNKNOWN_DISTANCE.doubleValue());
+			int oldSize = headers.size();
+			newMatrix.viewPart(0, 0, oldSize, oldSize)
+				.assign(matrix.viewPart(0, 0, oldSize, oldSize));
+			matrix = newMatrix;
+		}
+	}
 
 	/**
 	 * Gets the index corresponding to the supplied member.
@@ -123,6 +300,48 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 		return index;
 	}
 
+	/**
+	 * Gets the raw value stored at the row and column.  Subclasses storing
+	 * the distances elsewhere override this and setValue.
+	 * @return the value, or UNKNOWN_DISTANCE if none has been set
+	 */
+	protected double getValue(int row, int column) {
+		return matrix.get(row, column);
+	}
+
+	/**
+	 * Stores the raw value at the row and column.
+	 */
+	protected void setValue(int row, int column, double value) {
+		matrix.set(row, column, value);
+	}
+
+	/**
+	 * @return the value for the row and column, which is stored in the
+	 *   lower left when the matrix is symmetric
+	 */
+	protected double getEntry(int row, int column) {
+		double value;
+		if (isSymmetric && row < column) {
+			value = getValue(column, row);
+		} else {
+			value = getValue(row, column);
+		}
+		return value;
+	}
+
+	/**
+	 * Stores the value for the row and column, in the lower left when
+	 * the matrix is symmetric.
+	 */
+	protected void setEntry(int row, int column, double value) {
+		if (isSymmetric && row < column) {
+			setValue(column, row, value);
+		} else {
+			setValue(row, column, value);
+		}
+	}
+
 	public Number getDistance(V node1, V node2) {
 		Number distance = UNKNOWN_DISTANCE;
 
@@ -130,9 +349,9 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 		Integer index2 = memberIndex.get(node2);
 		if (index1 != null && index2 != null) {
 			if (isSymmetric && index2 > index1) {
-				distance = matrix.get(index2, index1);
+				distance = getValue(index2, index1);
 			} else {
-				distance = matrix.get(index1, index2);
+				distance = getValue(index1, index2);
 			}
 		}
 		return distance;
@@ -144,9 +363,9 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			Integer index2 = memberIndex.get(node2);
 			if (index1 != null && index2 != null) {
 				if (isSymmetric && index2 > index1) {
-					matrix.set(index2, index1, distance.doubleValue());
+					setValue(index2, index1, distance.doubleValue());
 				} else {
-					matrix.set(index1, index2, distance.doubleValue());
+					setValue(index1, index2, distance.doubleValue());
 				}
 			}
 		}
@@ -159,27 +378,27 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 	public Distance<V> findNearest() {
 		Distance<V> nearest = null;
 		double smallestYet = MAX_DISTANCE.doubleValue();
+		int size = headers.size();
 		
-		if (headers.size() > 1) {
-			smallestYet = matrix.get(1, 0);
+		if (size > 1) {
+			smallestYet = getValue(1, 0);
 			nearest = new Distance<V>(headers.get(0), headers.get(1), smallestYet);
 		}
-		int row = 0;
-		for (V element1: headers) {
-			int col = 0;
-			for (V element2: headers) {
-				double distance = matrix.get(row, col);
+		for (int row = 0; row < size; row++) {
+			// When symmetric, only the bottom left holds values
+			int numCols = isSymmetric ? row : size;
+			for (int col = 0; col < numCols; col++) {
+				double distance = getValue(row, col);
 				
 				if ( // (distance != 0) 
 						(row != col)
 						&& (distance != UNKNOWN_DISTANCE.doubleValue()) 
 						&& (distance < smallestYet)) {
-					nearest = new Distance<V>(element1, element2, distance);
+					nearest = new Distance<V>(headers.get(row),
+							headers.get(col), distance);
 					smallestYet = distance;
 				}
-				col++;
 			}
-			row++;
 		}
 		return nearest;
 	}
@@ -219,7 +438,7 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			member = String.format("%-10.10s", member);
 			buf.append(member);
 			for (int j = 0; j < size; j++) {
-				double distance = matrix.get(i, j);
+				double distance = getValue(i, j);
 				if (distance == UNKNOWN_DISTANCE.doubleValue()) {
 					buf.append("\t-");
 				} else {
@@ -239,7 +458,7 @@ public class DistanceMatrix<V> implements RefactoringConstants {
 			String member10 = String.format("%-10.10s", member);
 			buf.append(member10); // the shortened member name begins the row
 			for (int j = 0; j < i; j++) {
-				double distance = matrix.get(i, j);
+				double distance = getValue(i, j);
 				if (distance == UNKNOWN_DISTANCE.doubleValue()) {
 					buf.append("\t-");
 				} else {
@@ -0,0 +1,233 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
+
+/**
+ * The DistanceMatrixStore keeps distance matrices on disk, so that
+ * clustering the same members with the same calculator again, e.g. with
+ * a different linkage or in a later session, loads the distances rather
+ * than calculating them.
+ * <p>
+ * A matrix is keyed by a digest of the calculator's type and fingerprint
+ * (e.g. the fingerprint of its graph) and the members, and is kept in a
+ * MappedDistanceMatrix file named after the key.  When the files take
+ * more than the size limit, the least recently used are deleted.
+ * @author Keith
+ * @see CacheableDistanceCalculatorIfc
+ */
+public class DistanceMatrixStore {
+
+	/** The directory holding the matrix files. */
+	protected File directory;
+
+	/** The most bytes the matrix files may take. */
+	protected long maxBytes;
+
+	/** Whether matrices are stored as floats rather than doubles. */
+	protected boolean singlePrecision;
+
+	/**
+	 * @param directory the directory holding the matrix files
+	 * @param maxBytes the most bytes the matrix files may take
+	 * @param singlePrecision true to store floats; false to store doubles
+	 */
+	public DistanceMatrixStore(File directory, long maxBytes,
+			boolean singlePrecision) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * Creates a store as specified by the application parameters.
+	 * @return the store, or null if no directory is specified
+	 */
+	public static DistanceMatrixStore getStore() {
+		DistanceMatrixStore store = null;
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String sDirectory = parameters.getParameter(
+				ParameterConstants.MATRIX_STORE_DIRECTORY_KEY, "").trim();
+
+		if (sDirectory.length() > 0) {
+			int megabytes = parameters.getIntParameter(
+					ParameterConstants.MATRIX_STORE_MEGABYTES_KEY, 256);
+			boolean singlePrecision = parameters.getBooleanParameter(
+					ParameterConstants.MATRIX_STORE_SINGLE_PRECISION_KEY, false);
+			store = new DistanceMatrixStore(new File(sDirectory),
+					megabytes * 1024L * 1024L, singlePrecision);
+		}
+		return store;
+	}
+
+	/**
+	 * @return the key for the calculator's distances between the members
+	 */
+	public static String getKey(List<String> members,
+			CacheableDistanceCalculatorIfc<String> calc) {
+		List<String> lines = new ArrayList<String>(members.size() + 3);
+		lines.add(String.valueOf(calc.getType()));
+		lines.add(calc.getClass().getName());
+		lines.add(calc.getFingerprint());
+		lines.addAll(members);
+		return StringUtils.getDigest(lines);
+	}
+
+	/**
+	 * @return the file for the key
+	 */
+	protected File getFile(String key) {
+		return new File(directory, key + "." + MappedDistanceMatrix.MATRIX_EXT);
+	}
+
+	/**
+	 * Gets the stored distances between the members, if any.  The matrix
+	 * is opened read only, so it can be shared with other processes.
+	 * @param members the members, in the order of the matrix's headers
+	 * @param calc the calculator of the distances
+	 * @return the stored matrix, or null if there is none
+	 */
+	public DistanceMatrix<String> load(List<String> members,
+			CacheableDistanceCalculatorIfc<String> calc) {
+		MappedDistanceMatrix matrix = null;
+		File file = getFile(getKey(members, calc));
+
+		if (file.exists()) {
+			try {
+				MappedDistanceMatrix stored = new MappedDistanceMatrix(file, true);
+				if (stored.getHeaders().equals(members)) {
+					matrix = stored;
+					// Keep track of when the matrix was last used
+					file.setLastModified(System.currentTimeMillis());
+				}
+			} catch (IOException e) {
+				System.err.println("Unable to load the distances in "
+						+ file + ": " + e);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Stores the distances, and then deletes the least recently used
+	 * matrices while the store is over its size limit.
+	 * @param distances the distances calculated by the calculator
+	 * @param calc the calculator of the distances
+	 */
+	public void store(DistanceMatrix<String> distances,
+			CacheableDistanceCalculatorIfc<String> calc) {
+		List<String> members = distances.getHeaders();
+		String key = getKey(members, calc);
+		File file = getFile(key);
+		// Written under another name, so other processes never see
+		// a partly written matrix
+		File temp = new File(directory, key + ".tmp");
+
+		try {
+			directory.mkdirs();
+			MappedDistanceMatrix stored =
+				new MappedDistanceMatrix(members, temp, singlePrecision);
+			for (int row = 0; row < members.size(); row++) {
+				for (int col = 0; col <= row; col++) {
+					stored.setValue(row, col, distances.getEntry(row, col));
+				}
+			}
+			stored.flush();
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("unable to rename " + temp);
+			}
+			evict(file);
+		} catch (IOException e) {
+			System.err.println("Unable to store the distances in "
+					+ file + ": " + e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used matrices while the matrices take
+	 * more than maxBytes.
+	 * @param keep a matrix file that shouldn't be deleted
+	 */
+	protected void evict(File keep) {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.getName().endsWith(
+						"." + MappedDistanceMatrix.MATRIX_EXT);
+			}
+		});
+		if (files != null) {
+			long totalBytes = 0;
+			for (File file : files) {
+				totalBytes += file.length();
+			}
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File file1, File file2) {
+					int comparison = Long.valueOf(file1.lastModified())
+						.compareTo(file2.lastModified());
+					if (comparison == 0) {
+						comparison = file1.getName().compareTo(file2.getName());
+					}
+					return comparison;
+				}
+			});
+			for (int i = 0; i < files.length && totalBytes > maxBytes; i++) {
+				long length = files[i].length();
+				if (!files[i].equals(keep) && files[i].delete()) {
+					totalBytes -= length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the directory holding the matrix files
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+}
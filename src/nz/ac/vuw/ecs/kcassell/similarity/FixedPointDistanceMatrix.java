@@ -0,0 +1,136 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A symmetric DistanceMatrix that stores the distances as 16 bit multiples
+ * of a fixed step, and only stores the lower left triangle, so it needs
+ * about an eighth of the memory of a DistanceMatrix.  Distances are
+ * rounded to the nearest multiple of the step; negative distances (other
+ * than UNKNOWN_DISTANCE) are stored as 0, and distances beyond the
+ * largest multiple, MAX_STEPS * step, are stored as that multiple.
+ * MAX_DISTANCE is kept as is.
+ * <p>
+ * Rounding makes equal distances more common, so ties between nearest
+ * pairs are more common too.  Like the other matrices, findNearest
+ * decides them by position, so clustering remains deterministic.
+ * @author Keith
+ * @param <V> the type of the objects for which the distances are being stored
+ */
+public class FixedPointDistanceMatrix<V> extends DistanceMatrix<V> {
+
+	/** The largest number of steps that can be stored. */
+	public static final int MAX_STEPS = 0xfffd;
+
+	/** The stored value for MAX_DISTANCE. */
+	protected static final short MAX_CODE = (short) 0xfffe;
+
+	/** The stored value for UNKNOWN_DISTANCE. */
+	protected static final short UNKNOWN_CODE = (short) 0xffff;
+
+	/** The distance between adjacent storable distances. */
+	protected double step;
+
+	/** The (unsigned) number of steps of each distance, with
+	 * row r's at r * (r + 1) / 2 onwards. */
+	protected short[] values;
+
+	/**
+	 * Builds a matrix of unknown distances using the headers provided.
+	 * @param headers the members used for row and column headers
+	 * @param step the distance between adjacent storable distances, e.g.
+	 *   0.001 for distances between 0 and 1, or for short path lengths
+	 */
+	public FixedPointDistanceMatrix(List<V> headers, double step) {
+		if (!(step > 0.0)) {
+			throw new IllegalArgumentException("Invalid step " + step);
+		}
+		this.step = step;
+		setHeaders(headers);
+		values = new short[getTriangleSize(headers.size())];
+		Arrays.fill(values, UNKNOWN_CODE);
+	}
+
+	@Override
+	protected void ensureCapacity(int size) {
+		int length = getTriangleSize(size);
+		if (length > values.length) {
+			int newLength = (int) Math.min(Integer.MAX_VALUE,
+					Math.max(length, values.length * 3L / 2 + 1));
+			short[] newValues = new short[newLength];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			Arrays.fill(newValues, values.length, newLength, UNKNOWN_CODE);
+			values = newValues;
+		}
+	}
+
+	@Override
+	protected double getValue(int row, int column) {
+		short code = values[getTriangleIndex(row, column)];
+		double value;
+		if (code == UNKNOWN_CODE) {
+			value = UNKNOWN_DISTANCE.doubleValue();
+		} else if (code == MAX_CODE) {
+			value = MAX_DISTANCE.doubleValue();
+		} else {
+			value = (code & 0xffff) * step;
+		}
+		return value;
+	}
+
+	@Override
+	protected void setValue(int row, int column, double value) {
+		short code;
+		if (value == UNKNOWN_DISTANCE.doubleValue()) {
+			code = UNKNOWN_CODE;
+		} else if (value == MAX_DISTANCE.doubleValue()) {
+			code = MAX_CODE;
+		} else {
+			double steps = Math.rint(value / step);
+			code = (short) Math.max(0.0, Math.min(MAX_STEPS, steps));
+		}
+		values[getTriangleIndex(row, column)] = code;
+	}
+
+	/**
+	 * @return the distance between adjacent storable distances
+	 */
+	public double getStep() {
+		return step;
+	}
+
+}
@@ -0,0 +1,89 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A symmetric DistanceMatrix that stores the distances as 32 bit floats,
+ * and only stores the lower left triangle, so it needs about a quarter
+ * of the memory of a DistanceMatrix.  Distances that are too large for
+ * a float are stored as MAX_DISTANCE.
+ * @author Keith
+ * @param <V> the type of the objects for which the distances are being stored
+ */
+public class FloatDistanceMatrix<V> extends DistanceMatrix<V> {
+
+	/** The distances, with row r's at r * (r + 1) / 2 onwards. */
+	protected float[] values;
+
+	/**
+	 * Builds a matrix of unknown distances using the headers provided.
+	 * @param headers the members used for row and column headers
+	 */
+	public FloatDistanceMatrix(List<V> headers) {
+		setHeaders(headers);
+		values = new float[getTriangleSize(headers.size())];
+		Arrays.fill(values, UNKNOWN_DISTANCE.floatValue());
+	}
+
+	@Override
+	protected void ensureCapacity(int size) {
+		int length = getTriangleSize(size);
+		if (length > values.length) {
+			int newLength = (int) Math.min(Integer.MAX_VALUE,
+					Math.max(length, values.length * 3L / 2 + 1));
+			float[] newValues = new float[newLength];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			Arrays.fill(newValues, values.length, newLength, UNKNOWN_DISTANCE.floatValue());
+			values = newValues;
+		}
+	}
+
+	@Override
+	protected double getValue(int row, int column) {
+		double value = values[getTriangleIndex(row, column)];
+		if (Double.isInfinite(value)) {
+			value = MAX_DISTANCE.doubleValue();
+		}
+		return value;
+	}
+
+	@Override
+	protected void setValue(int row, int column, double value) {
+		values[getTriangleIndex(row, column)] = (float) value;
+	}
+
+}
@@ -33,6 +33,8 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -52,7 +54,8 @@ import nz.ac.vuw.ecs.kcassell.utils.Stemmer;
  */
 public class IdentifierDistanceCalculator
 extends JaccardCalculator
-implements DistanceCalculatorIfc<String>
+implements PropertySetCalculatorIfc, IncrementalDistanceCalculatorIfc<String>,
+	CacheableDistanceCalculatorIfc<String>
 {
 	/** A list of tokens that shouldn't be considered in the properties. */
 	protected ArrayList<String> toIgnore = new ArrayList<String>();
@@ -90,15 +93,24 @@ implements DistanceCalculatorIfc<String>
 		return properties;
 	}    
 
+	/**
+	 * @param member the member identifier, e.g."calculateDistance"
+	 * @return the property set of the identifier, without the tokens
+	 * that shouldn't be considered
+	 */
+	public Set<String> getMemberProperties(String member) {
+		Set<String> properties = getProperties(member);
+		properties.removeAll(toIgnore);
+		return properties;
+	}
+
     /** Calculate the distance between the identifiers 
      * @param id1 the first identifier
      * @param id1 the second identifier */
 	public Double calculateDistance(String id1, String id2) {
 		Double distance = null;
-		Set<String> properties1 = getProperties(id1);
-		properties1.removeAll(toIgnore);
-		Set<String> properties2 = getProperties(id2);
-		properties2.removeAll(toIgnore);
+		Set<String> properties1 = getMemberProperties(id1);
+		Set<String> properties2 = getMemberProperties(id2);
 		distance = calculateDistance(properties1, properties2);
 		return distance;
 	}
@@ -122,6 +134,24 @@ implements DistanceCalculatorIfc<String>
 		}
 	}
 
+	/**
+	 * The properties of a member only depend on its own identifier,
+	 * so editing a member only affects the member's own distances.
+	 * @param member the member identifier
+	 * @return the member
+	 */
+	public Collection<String> getAffectedMembers(String member) {
+		return Collections.singletonList(member);
+	}
+
+	/**
+	 * @return the tokens being ignored, which (with the identifiers)
+	 *   are all that the distances depend on
+	 */
+	public String getFingerprint() {
+		return toIgnore.toString();
+	}
+
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.Identifier;
 	}
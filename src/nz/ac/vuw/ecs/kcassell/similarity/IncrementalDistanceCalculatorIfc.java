@@ -0,0 +1,66 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Collection;
+
+/**
+ * This interface is for calculators that can tell which distances an
+ * edit to a class member may change, so that a DistanceMatrix can
+ * recalculate just those rather than all of them.  To update a matrix:
+ * <ul>
+ * <li>after adding a member, add it to the matrix and recalculate the
+ *   affected members;</li>
+ * <li>before removing a member, get the affected members; then remove
+ *   the member and recalculate the (remaining) affected members;</li>
+ * <li>before editing a member, get the affected members; then edit it,
+ *   get the affected members again, and recalculate both sets.  An edit
+ *   that drops a link leaves the former neighbor out of the second set,
+ *   and one that adds a link leaves the new neighbor out of the first,
+ *   though the properties of both have changed;</li>
+ * <li>treat a renamed member as removed and then added.</li>
+ * </ul>
+ * @author Keith
+ * @see DistanceMatrix#recalculate(Collection, DistanceCalculatorIfc)
+ */
+public interface IncrementalDistanceCalculatorIfc<V>
+extends DistanceCalculatorIfc<V>
+{
+    /**
+     * @param member a member that is being added, removed, or edited
+     * @return the members whose distances to other members may change,
+     *   including the member itself
+     */
+    public Collection<V> getAffectedMembers(V member);
+}
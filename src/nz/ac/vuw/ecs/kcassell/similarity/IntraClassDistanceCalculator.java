@@ -65,7 +65,7 @@ import edu.uci.ics.jung.graph.Graph;
  * 
  */
 public class IntraClassDistanceCalculator
-implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
+implements Distance<CallGraphNode>, CacheableDistanceCalculatorIfc<String> {
 	
 	protected UnweightedShortestPath<CallGraphNode, CallGraphLink>
 	shortestPathCalculator = null;
@@ -259,6 +259,17 @@ implements Distance<CallGraphNode>, DistanceCalculatorIfc<String> {
 		return distance;
 	}
 
+	/* (non-Javadoc)
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.CacheableDistanceCalculatorIfc#getFingerprint()
+	 */
+	public String getFingerprint() {
+		String fingerprint = "";
+		if (undirectedGraph != null) {
+			fingerprint = undirectedGraph.getFingerprint();
+		}
+		return fingerprint;
+	}
+
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.IntraClass;
 	}
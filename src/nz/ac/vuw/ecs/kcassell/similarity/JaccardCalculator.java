@@ -101,4 +101,43 @@ public class JaccardCalculator {
 		return similarity;
 	}
 
+	/**
+	 * This method computes Jaccard similarity between property sets
+	 * represented as sorted arrays of distinct property ids, as is done
+	 * when many pairs of the same objects are compared.
+	 * 
+	 * @param properties1
+	 *            the sorted property ids of the first object
+	 * @param properties2
+	 *            the sorted property ids of the second object
+	 * @return Jaccard similarity between 0 (no shared properties) and 1
+	 *         (identical properties)
+	 */
+	public static double calculateSimilarity(int[] properties1,
+			int[] properties2) {
+		int intersectionSize = 0;
+		int i1 = 0;
+		int i2 = 0;
+
+		while (i1 < properties1.length && i2 < properties2.length) {
+			if (properties1[i1] < properties2[i2]) {
+				i1++;
+			} else if (properties1[i1] > properties2[i2]) {
+				i2++;
+			} else {
+				intersectionSize++;
+				i1++;
+				i2++;
+			}
+		}
+		int unionSize =
+			properties1.length + properties2.length - intersectionSize;
+		double similarity = 0.0;
+
+		if (unionSize != 0) {
+			similarity = 1.0 * intersectionSize / unionSize;
+		}
+		return similarity;
+	}
+
 }
\ No newline at end of file
@@ -1,27 +1,26 @@
 package nz.ac.vuw.ecs.kcassell.similarity;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ObjectPersistence;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
 
 import org.eclipse.jdt.core.JavaModelException;
 
-import edu.ucla.sspace.common.KACSemanticSpace;
 import edu.ucla.sspace.common.Similarity;
-import edu.ucla.sspace.lsa.LatentSemanticAnalysis;
+import edu.ucla.sspace.vector.DenseVector;
 import edu.ucla.sspace.vector.DoubleVector;
-import edu.ucla.sspace.vector.Vector;
 
 /**
  * The LSACalculator uses Latent Semantic Analysis (LSA) to
@@ -31,16 +30,23 @@ import edu.ucla.sspace.vector.Vector;
  * stemmed parts of the identifier.
  * (2) A "document" could be a Java class with its terms being the members 
  * it accesses.
+ * <p>
+ * The term counts are weighted by log-entropy, and the LSA space is
+ * found by a truncated singular value decomposition (A ~ U S V') of the
+ * document-term matrix, using RandomizedSVD.  The documents' vectors are
+ * the rows of U S, and the terms' vectors are the rows of V S.  The
+ * space is plain arrays, so the calculator can be saved and restored.
  * @author kcassell
  *
  */
 public class LSACalculator 
 // TODO extends SemanticsCalculator
-implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
+implements BulkDistanceCalculatorIfc<String>,
+    CacheableDistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 
 	public static final double MAX_CONCEPTUAL_DISTANCE = 1.0;
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 3L;
 	
 	/** Maps a project name to the calculator for that project. */
 	protected static transient Hashtable<String, LSACalculator> calculatorMap =
@@ -50,16 +56,31 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * serialized calculator. 	 */
 	protected String projectName = null;
 	
-	/** The semantic space maintains document vectors
+	/** The number of dimensions of the LSA space. */
+	protected int rank = 0;
+	
+	/** The documents' vectors in the LSA space, one after another,
 	 * where class members are documents and the "words" are
-	 * stemmed parts of identifiers.  This will be a
-	 * LatentSemanticAnalysis object.  */
-	protected KACSemanticSpace semanticSpace = null;
+	 * stemmed parts of identifiers. */
+	protected double[] documentVectors = new double[0];
+	
+	/** The terms' vectors in the LSA space, one after another. */
+	protected double[] termVectors = new double[0];
+	
+	/** Maps each term to its index in termVectors. */
+	protected Map<String, Integer> termToIndex =
+		new HashMap<String, Integer>();
 	
-	/** Maintains a mapping from the member handle to the S-Space
+	/** Maintains a mapping from the member handle to the
 	 * document number. */
 	protected Map<String, Integer> memberHandleToDocumentNumber =
 		new HashMap<String, Integer>();
+	
+	/** A digest of the member documents, in the order they were read,
+	 * and of the parameters of the decomposition that the LSA space was
+	 * built from.  The order matters, as the decomposition's random
+	 * projection is indexed by the document and term numbers. */
+	protected String spaceFingerprint = "";
 
 	/**
 	 * Construct the calculator, building the semantic space
@@ -100,8 +121,7 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 					calculator = new LSACalculator(handle);
 					String fileName = calculator.getDataFileNameFromHandle(handle);
 					calculator.initializeSemanticSpace(fileName);
-					// All of the S-space objects are not Serializable
-//					calculator.save();
+					calculator.save();
 				} catch (IOException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -168,33 +188,91 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * @param fileName the name of the file that contains
 	 * one member per line.  The first token is the member handle, and the 
 	 * remaining tokens are the stemmed words found in identifiers.
+	 * @return the decomposition of the document-term matrix
 	 * @throws IOException
 	 */
-	public KACSemanticSpace initializeSemanticSpace(String fileName)
+	public RandomizedSVD initializeSemanticSpace(String fileName)
 	throws IOException {
-		semanticSpace = new LatentSemanticAnalysis();
-		BufferedReader documentFileReader = new BufferedReader(new FileReader(
-				fileName));
-		int lineNum = 0;
-		String line = null;
-		String memberName = null;
-		while ((line = documentFileReader.readLine()) != null) {
-			memberName = VectorSpaceModelCalculator
-				.processMemberDocument(semanticSpace, line);
-			
-			if (semanticSpace.getProcessedDocument()) {
-				memberHandleToDocumentNumber.put(memberName, lineNum++);
-			} else {
-				System.out.println("processMemberDocument failed for " + line);
+		termToIndex = new HashMap<String, Integer>();
+		memberHandleToDocumentNumber = new HashMap<String, Integer>();
+		List<String> documentLines = new ArrayList<String>();
+		List<int[]> documents = VectorSpaceModelCalculator.readDocuments(
+				fileName, termToIndex, memberHandleToDocumentNumber,
+				documentLines);
+		
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		int maxRank = parameters.getIntParameter(
+				ParameterConstants.LSA_RANK_KEY, 300);
+		int oversampling = parameters.getIntParameter(
+				ParameterConstants.LSA_OVERSAMPLING_KEY, 10);
+		int powerIterations = parameters.getIntParameter(
+				ParameterConstants.LSA_POWER_ITERATIONS_KEY, 2);
+		RandomizedSVD svd = new RandomizedSVD(maxRank, oversampling,
+				powerIterations, RandomizedSVD.DEFAULT_SEED,
+				Runtime.getRuntime().availableProcessors());
+		svd.decompose(createDocumentTermMatrix(documents, termToIndex.size()));
+		rank = svd.getNumValues();
+		List<String> fingerprintLines = new ArrayList<String>(documentLines);
+		fingerprintLines.add(maxRank + " " + oversampling + " "
+				+ powerIterations + " " + RandomizedSVD.DEFAULT_SEED);
+		spaceFingerprint = StringUtils.getDigest(fingerprintLines);
+		documentVectors = scaleColumns(svd.getLeftVectors(),
+				svd.getSingularValues());
+		termVectors = scaleColumns(svd.getRightVectors(),
+				svd.getSingularValues());
+		return svd;
+	}
+
+	/**
+	 * Creates the document-term matrix, with a row for each document,
+	 * weighting the counts by log-entropy: the count c of term t in a
+	 * document becomes log(1 + c) * (1 + sum(p log p) / log(n)), where
+	 * the sum is over the documents, p is the fraction of t's occurrences
+	 * in the document, and n is the number of documents.
+	 * @param documents the ids of the terms in each document
+	 * @param numTerms the number of distinct terms
+	 * @return the weighted matrix
+	 */
+	protected static SparseMatrix createDocumentTermMatrix(
+			List<int[]> documents, int numTerms) {
+		int numDocuments = documents.size();
+		SparseMatrix countMatrix =
+			VectorSpaceModelCalculator.createCountMatrix(documents, numTerms);
+		int[] columns = countMatrix.columns;
+		double[] counts = countMatrix.values;
+		double[] termCounts = new double[numTerms];
+		for (int i = 0; i < counts.length; i++) {
+			termCounts[columns[i]] += counts[i];
+		}
+		double[] entropies = new double[numTerms];
+		for (int i = 0; i < counts.length; i++) {
+			double p = counts[i] / termCounts[columns[i]];
+			entropies[columns[i]] += p * Math.log(p);
+		}
+		double logDocuments = Math.log(numDocuments);
+		double[] values = new double[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			double weight = 1.0;
+			if (numDocuments > 1) {
+				weight += entropies[columns[i]] / logDocuments;
 			}
+			values[i] = Math.log(1.0 + counts[i]) * weight;
 		}
-		documentFileReader.close();
-		
-		Properties props = System.getProperties();
-		props.setProperty(
-			LatentSemanticAnalysis.RETAIN_DOCUMENT_SPACE_PROPERTY, "true");
-		semanticSpace.processSpace(props);
-		return semanticSpace;
+		return new SparseMatrix(numTerms, countMatrix.rowStarts, columns,
+				values);
+	}
+
+	/**
+	 * @param vectors vectors with a value for each scale, one after another
+	 * @param scales the scale of each column
+	 * @return the vectors, with each column multiplied by its scale
+	 */
+	protected static double[] scaleColumns(double[] vectors, double[] scales) {
+		double[] scaled = new double[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			scaled[i] = vectors[i] * scales[i % scales.length];
+		}
+		return scaled;
 	}
 
 //	/**
@@ -236,11 +314,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		int numPairs = 0;
 		Double total = 0.0;
 		if (numMethods > 1) {
+			DistanceMatrix<String> distances =
+				new DistanceMatrix<String>(methodHandles);
+			fillMatrix(distances);
 			for (int i = 0; i < numMethods; i++) {
 				String handleI = methodHandles.get(i);
 				for (int j = i + 1; j < numMethods; j++) {
 					String handleJ = methodHandles.get(j);
-					Number distance = calculateDistance(handleI, handleJ);
+					Number distance = distances.getDistance(handleI, handleJ);
 					double similarity = 1.0 - distance.doubleValue();
 					numPairs++;
 					total += similarity;
@@ -263,24 +344,12 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	public Number calculateDistance(String handle1, String handle2) {
 		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Integer documentInt1 = memberHandleToDocumentNumber.get(handle1);
-		Integer documentInt2 = memberHandleToDocumentNumber.get(handle2);
+		DoubleVector vector1 = getDocumentVector(handle1);
+		DoubleVector vector2 = getDocumentVector(handle2);
 		
-		if (documentInt1 != null && documentInt2 != null) {
-			try {
-				DoubleVector vector1 =
-					semanticSpace.getDocumentVector(documentInt1);
-				try {
-					DoubleVector vector2 =
-						semanticSpace.getDocumentVector(documentInt2);
-					distance = VectorSpaceModelCalculator
-					    .calculateCosineDistance(vector1, vector2);
-				} catch (IllegalArgumentException e) {
-					System.err.println("No document vector found for " + handle2);
-				}
-			} catch (Exception e) {
-				System.err.println("No document vector found for " + handle1);
-			}
+		if (vector1 != null && vector2 != null) {
+			distance = VectorSpaceModelCalculator
+			    .calculateCosineDistance(vector1, vector2);
 		}
 		if (distance < 0.0) {
 			distance = MAX_CONCEPTUAL_DISTANCE;
@@ -288,6 +357,48 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return distance;
 	}
 
+	/**
+	 * Calculates the distances between all of the matrix's members at
+	 * once, by multiplying the matrix of their document vectors by its
+	 * transpose.
+	 * @param matrix the matrix whose headers are member handles
+	 */
+	public void fillMatrix(DistanceMatrix<String> matrix) {
+		List<String> handles = matrix.getHeaders();
+		List<DoubleVector> vectors = new ArrayList<DoubleVector>(handles.size());
+		for (String handle : handles) {
+			vectors.add(getDocumentVector(handle));
+		}
+		new BlockCosineCalculator().fillMatrix(matrix, vectors);
+	}
+
+	/**
+	 * @param handle the Eclipse handle of a class member
+	 * @return the member's document vector, or null if there is none
+	 */
+	protected DoubleVector getDocumentVector(String handle) {
+		DoubleVector vector = null;
+		Integer documentInt = memberHandleToDocumentNumber.get(handle);
+		
+		if (documentInt != null) {
+			vector = getVector(documentVectors, documentInt);
+		}
+		return vector;
+	}
+
+	/**
+	 * @param vectors vectors in the LSA space, one after another
+	 * @param index the index of a vector
+	 * @return the vector at the index
+	 */
+	protected DoubleVector getVector(double[] vectors, int index) {
+		DoubleVector vector = new DenseVector(rank);
+		for (int i = 0; i < rank; i++) {
+			vector.set(i, vectors[index * rank + i]);
+		}
+		return vector;
+	}
+
 	/**
 	 * Calculates the distance between two terms, e.g. two class members, based
 	 * on the similarity of the documents (e.g. classes) that contain them
@@ -297,16 +408,27 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	public Number calculateDistanceBetweenTerms(String handle1, String handle2) {
 		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Vector<?> vector1 = semanticSpace.getVector(handle1);
-		Vector<?> vector2 = semanticSpace.getVector(handle2);
-		distance = VectorSpaceModelCalculator
-			.calculateCosineDistance(vector1, vector2);
+		Integer termInt1 = termToIndex.get(handle1);
+		Integer termInt2 = termToIndex.get(handle2);
+		if (termInt1 != null && termInt2 != null) {
+			DoubleVector vector1 = getVector(termVectors, termInt1);
+			DoubleVector vector2 = getVector(termVectors, termInt2);
+			distance = VectorSpaceModelCalculator
+				.calculateCosineDistance(vector1, vector2);
+		}
 		return distance;
 	}
 
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.LSA;
 	}
+
+	/* (non-Javadoc)
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.CacheableDistanceCalculatorIfc#getFingerprint()
+	 */
+	public String getFingerprint() {
+		return spaceFingerprint;
+	}
 	
 	/**
 	 * A simple test
@@ -370,14 +492,10 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 				.get(documentMember2);
 		Integer documentInt3 = memberHandleToDocumentNumber
 				.get(documentMember3);
-		DoubleVector vector0 = semanticSpace
-				.getDocumentVector(documentInt0);
-		DoubleVector vector1 = semanticSpace
-				.getDocumentVector(documentInt1);
-		DoubleVector vector2 = semanticSpace
-				.getDocumentVector(documentInt2);
-		DoubleVector vector3 = semanticSpace
-				.getDocumentVector(documentInt3);
+		DoubleVector vector0 = getVector(documentVectors, documentInt0);
+		DoubleVector vector1 = getVector(documentVectors, documentInt1);
+		DoubleVector vector2 = getVector(documentVectors, documentInt2);
+		DoubleVector vector3 = getVector(documentVectors, documentInt3);
 		double similarity01 = Similarity.cosineSimilarity(vector0, vector1);
 		System.out.println("similarity01: " + similarity01);
 		double similarity12 = Similarity.cosineSimilarity(vector1, vector2);
@@ -45,7 +45,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
  *
  */
 public class LevenshteinDistanceCalculator
-implements DistanceCalculatorIfc<String> {
+implements CacheableDistanceCalculatorIfc<String> {
 
 	/**
 	 * Calculates the distance between the identifiers.
@@ -78,6 +78,14 @@ implements DistanceCalculatorIfc<String> {
 		return lDistance;
 	}
 
+	/**
+	 * @return an empty string, as the distances only depend on the
+	 *   identifiers
+	 */
+	public String getFingerprint() {
+		return "";
+	}
+
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.Levenshtein;
 	}
@@ -0,0 +1,305 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A symmetric DistanceMatrix whose distances are kept in a memory-mapped
+ * file rather than on the Java heap, so that matrices for tens of
+ * thousands of members neither exhaust the heap nor lengthen garbage
+ * collections.  The file can be reopened, by this or another process,
+ * without recalculating the distances.
+ * <p>
+ * Only the bottom left of the matrix, including the diagonal, is stored:
+ * the value for row r and column c (r >= c) is entry r * (r + 1) / 2 + c.
+ * Entries are floats or doubles.  All numbers are big-endian.  The file
+ * holds, in order:
+ * <pre>
+ * int magic, version, entrySize (4 or 8), numHeaders
+ * float/double[numHeaders * (numHeaders + 1) / 2]  the entries
+ * UTF[numHeaders]  the headers, as written by DataOutput.writeUTF
+ * </pre>
+ * Entries are stored exclusive-or'd with the bits of UNKNOWN_DISTANCE,
+ * so that a newly created (all zero) file holds unknown distances
+ * without having to be written.  The distances can be changed, but
+ * members can't be added or removed.
+ * @author Keith
+ */
+public class MappedDistanceMatrix extends DistanceMatrix<String> {
+
+	/** The extension for files in this format. */
+	public static final String MATRIX_EXT = "dmx";
+
+	/** "DMXF" */
+	public static final int MAGIC = 0x444d5846;
+
+	public static final int VERSION = 1;
+
+	/** The position of the first entry in the file. */
+	private static final int DATA_OFFSET = 4 * 4;
+
+	/** The file is mapped in segments of this many bytes (2^30), as a
+	 * single buffer can't exceed 2GB.  Entries never straddle segments. */
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private static final long UNKNOWN_DOUBLE_BITS =
+		Double.doubleToRawLongBits(UNKNOWN_DISTANCE.doubleValue());
+	private static final int UNKNOWN_FLOAT_BITS =
+		Float.floatToRawIntBits(UNKNOWN_DISTANCE.floatValue());
+
+	/** The file holding the distances. */
+	protected File file;
+
+	/** 4 for float entries, 8 for double entries. */
+	protected int entrySize;
+
+	/** The mapped segments of the entries. */
+	protected MappedByteBuffer[] segments;
+
+	/**
+	 * Creates a matrix of unknown distances in the file, replacing
+	 * whatever the file held.
+	 * @param headers the members used for row and column headers
+	 * @param file the file to hold the distances
+	 * @param singlePrecision true to store floats; false to store doubles
+	 */
+	public MappedDistanceMatrix(List<String> headers, File file,
+			boolean singlePrecision) throws IOException {
+		this.file = file;
+		entrySize = singlePrecision ? 4 : 8;
+		setHeaders(headers);
+		long dataSize = getDataSize(headers.size());
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(headerBytes);
+		for (String header : headers) {
+			headerOut.writeUTF(header);
+		}
+		headerOut.flush();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeInt(entrySize);
+			raf.writeInt(headers.size());
+			// Extending the file fills the entries with zeros
+			raf.setLength(DATA_OFFSET + dataSize);
+			raf.seek(DATA_OFFSET + dataSize);
+			raf.write(headerBytes.toByteArray());
+			map(raf.getChannel(), FileChannel.MapMode.READ_WRITE);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reopens a matrix written by this class.
+	 * @param file the file holding the distances
+	 * @param readOnly true if the distances won't be changed, allowing
+	 *   the file to be shared by several processes
+	 */
+	public MappedDistanceMatrix(File file, boolean readOnly)
+			throws IOException {
+		this.file = file;
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (file.length() < DATA_OFFSET || in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a distance matrix");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + " has distance matrix version "
+						+ version + "; expected " + VERSION);
+			}
+			entrySize = in.readInt();
+			int numHeaders = in.readInt();
+			if ((entrySize != 4 && entrySize != 8) || numHeaders < 0) {
+				throw new IOException(file + " is corrupt");
+			}
+			long dataSize = getDataSize(numHeaders);
+			if (file.length() < DATA_OFFSET + dataSize) {
+				throw new IOException(file + " is truncated");
+			}
+			// Skip the entries to get to the headers
+			long toSkip = dataSize;
+			while (toSkip > 0) {
+				long skipped = in.skip(toSkip);
+				if (skipped <= 0) {
+					throw new IOException(file + " is truncated");
+				}
+				toSkip -= skipped;
+			}
+			List<String> headers = new ArrayList<String>(numHeaders);
+			for (int i = 0; i < numHeaders; i++) {
+				headers.add(in.readUTF());
+			}
+			setHeaders(headers);
+		} finally {
+			in.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+		try {
+			map(raf.getChannel(), readOnly ? FileChannel.MapMode.READ_ONLY
+					: FileChannel.MapMode.READ_WRITE);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of bytes taken by the entries
+	 */
+	private long getDataSize(long numHeaders) {
+		return numHeaders * (numHeaders + 1) / 2 * entrySize;
+	}
+
+	/**
+	 * Maps the entries, one segment at a time.
+	 */
+	private void map(FileChannel channel, FileChannel.MapMode mode)
+			throws IOException {
+		long dataSize = getDataSize(headers.size());
+		int numSegments = (int) ((dataSize + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		segments = new MappedByteBuffer[numSegments];
+		for (int s = 0; s < numSegments; s++) {
+			long start = (long) s << SEGMENT_SHIFT;
+			long length = Math.min(SEGMENT_MASK + 1, dataSize - start);
+			segments[s] = channel.map(mode, DATA_OFFSET + start, length);
+		}
+	}
+
+	/**
+	 * @return the position of an entry relative to the first entry
+	 */
+	private long getPosition(int row, int column) {
+		if (row < column) {
+			int temp = row;
+			row = column;
+			column = temp;
+		}
+		return ((long) row * (row + 1) / 2 + column) * entrySize;
+	}
+
+	/**
+	 * The file's size and headers are fixed when it is created, so
+	 * members can't be added.
+	 */
+	@Override
+	public int addMember(String member) {
+		throw new UnsupportedOperationException(
+				"Members can't be added to " + file);
+	}
+
+	/**
+	 * The file's size and headers are fixed when it is created, so
+	 * members can't be removed; otherwise the headers in memory would
+	 * no longer match those in the file.
+	 */
+	@Override
+	public boolean removeMember(String member) {
+		throw new UnsupportedOperationException(
+				"Members can't be removed from " + file);
+	}
+
+	@Override
+	protected double getValue(int row, int column) {
+		long position = getPosition(row, column);
+		MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+		int offset = (int) (position & SEGMENT_MASK);
+		double value;
+		if (entrySize == 4) {
+			value = Float.intBitsToFloat(
+					segment.getInt(offset) ^ UNKNOWN_FLOAT_BITS);
+		} else {
+			value = Double.longBitsToDouble(
+					segment.getLong(offset) ^ UNKNOWN_DOUBLE_BITS);
+		}
+		return value;
+	}
+
+	@Override
+	protected void setValue(int row, int column, double value) {
+		long position = getPosition(row, column);
+		MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+		int offset = (int) (position & SEGMENT_MASK);
+		if (entrySize == 4) {
+			segment.putInt(offset,
+					Float.floatToRawIntBits((float) value) ^ UNKNOWN_FLOAT_BITS);
+		} else {
+			segment.putLong(offset,
+					Double.doubleToRawLongBits(value) ^ UNKNOWN_DOUBLE_BITS);
+		}
+	}
+
+	/**
+	 * Writes any changed distances to the file.
+	 */
+	public void flush() {
+		for (MappedByteBuffer segment : segments) {
+			if (!segment.isReadOnly()) {
+				segment.force();
+			}
+		}
+	}
+
+	/**
+	 * @return the file holding the distances
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the distances are stored as floats; false if doubles
+	 */
+	public boolean isSinglePrecision() {
+		return entrySize == 4;
+	}
+
+}
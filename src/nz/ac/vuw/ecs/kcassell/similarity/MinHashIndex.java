@@ -0,0 +1,401 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+/**
+ * The MinHashIndex finds the pairs of members with similar property sets
+ * without comparing every pair, so that Jaccard distances can be used
+ * across a whole project rather than only within a class.
+ * <p>
+ * Each member's property set is summarized by a MinHash signature: for
+ * each of a number of hash functions, the minimum hash of the member's
+ * properties.  Two members' signatures agree at a position with a
+ * probability equal to the Jaccard similarity of their property sets.
+ * The signatures are divided into bands of rows (locality-sensitive
+ * hashing), and members whose signatures agree in all of the rows of
+ * any band become candidate pairs.  A pair with similarity s becomes
+ * a candidate with probability 1 - (1 - s^r)^b for b bands of r rows, so
+ * similar pairs are very likely to be found, and dissimilar ones are
+ * rarely compared.  The candidates' similarities are then calculated
+ * exactly.  (See chapter 3 of Leskovec, Rajaraman and Ullman,
+ * "Mining of Massive Datasets".)
+ * @author Keith
+ * @see JaccardCalculator
+ */
+public class MinHashIndex {
+
+	/** The number of hash functions used when only a similarity
+	 * threshold is specified. */
+	public static final int DEFAULT_SIGNATURE_SIZE = 128;
+
+	/** When only a similarity threshold is specified, the bands are
+	 * chosen so that a pair with the threshold similarity becomes a
+	 * candidate with at least this probability. */
+	public static final double CANDIDATE_PROBABILITY = 0.95;
+
+	/** The number of bands the signatures are divided into. */
+	protected int numBands;
+
+	/** The number of signature rows in each band. */
+	protected int rowsPerBand;
+
+	/** The multipliers of the hash functions, one per signature row. */
+	protected long[] hashMultipliers;
+
+	/** The offsets of the hash functions, one per signature row. */
+	protected long[] hashOffsets;
+
+	/** The indexed members. */
+	protected List<String> members = new ArrayList<String>();
+
+	/** keeps track of which index corresponds to each member. */
+	protected HashMap<String, Integer> memberIndex =
+		new HashMap<String, Integer>();
+
+	/** The properties of each member, as sorted arrays of property ids. */
+	protected List<int[]> memberProperties = new ArrayList<int[]>();
+
+	/** The ids of the properties seen so far. */
+	protected HashMap<String, Integer> propertyIds =
+		new HashMap<String, Integer>();
+
+	/** For each band, the indices of the members whose signatures hash to
+	 * the same band key.  Members without properties aren't included. */
+	protected List<HashMap<Long, List<Integer>>> buckets =
+		new ArrayList<HashMap<Long, List<Integer>>>();
+
+	/** The number of candidate pairs whose similarity was calculated. */
+	protected long candidates = 0;
+
+	/**
+	 * Creates an empty index.
+	 * @param numBands the number of bands the signatures are divided into
+	 * @param rowsPerBand the number of signature rows in each band
+	 * @param random the source of the hash functions
+	 */
+	public MinHashIndex(int numBands, int rowsPerBand, Random random) {
+		this.numBands = numBands;
+		this.rowsPerBand = rowsPerBand;
+		int numHashes = numBands * rowsPerBand;
+		hashMultipliers = new long[numHashes];
+		hashOffsets = new long[numHashes];
+
+		for (int i = 0; i < numHashes; i++) {
+			hashMultipliers[i] = random.nextLong() | 1L;
+			hashOffsets[i] = random.nextLong();
+		}
+		for (int band = 0; band < numBands; band++) {
+			buckets.add(new HashMap<Long, List<Integer>>());
+		}
+	}
+
+	/**
+	 * Creates an empty index with DEFAULT_SIGNATURE_SIZE hash functions,
+	 * banded for finding the pairs at least as similar as the threshold.
+	 * @param minSimilarity the similarity threshold
+	 * @param random the source of the hash functions
+	 */
+	public MinHashIndex(double minSimilarity, Random random) {
+		this(DEFAULT_SIGNATURE_SIZE
+				/ getRowsPerBand(DEFAULT_SIGNATURE_SIZE, minSimilarity),
+			getRowsPerBand(DEFAULT_SIGNATURE_SIZE, minSimilarity), random);
+	}
+
+	/**
+	 * Chooses the largest number of rows per band (and so the fewest
+	 * candidates) for which a pair with the threshold similarity becomes
+	 * a candidate with at least CANDIDATE_PROBABILITY.
+	 * @param numHashes the number of hash functions
+	 * @param minSimilarity the similarity threshold
+	 * @return the number of rows per band
+	 */
+	public static int getRowsPerBand(int numHashes, double minSimilarity) {
+		int rowsPerBand = 1;
+
+		for (int rows = 2; rows <= numHashes; rows++) {
+			int bands = numHashes / rows;
+			double probability =
+				1.0 - Math.pow(1.0 - Math.pow(minSimilarity, rows), bands);
+			if (probability >= CANDIDATE_PROBABILITY) {
+				rowsPerBand = rows;
+			}
+		}
+		return rowsPerBand;
+	}
+
+	/**
+	 * Adds a member to the index.
+	 * @param member the member
+	 * @param properties the member's property set
+	 */
+	public void add(String member, Set<String> properties) {
+		int index = members.size();
+		int[] ids = new int[properties.size()];
+		int i = 0;
+
+		for (String property : properties) {
+			Integer id = propertyIds.get(property);
+			if (id == null) {
+				id = propertyIds.size();
+				propertyIds.put(property, id);
+			}
+			ids[i++] = id;
+		}
+		Arrays.sort(ids);
+		members.add(member);
+		memberIndex.put(member, index);
+		memberProperties.add(ids);
+
+		if (ids.length > 0) {
+			int[] signature = getSignature(ids);
+			for (int band = 0; band < numBands; band++) {
+				Long key = getBandKey(signature, band);
+				HashMap<Long, List<Integer>> bandBuckets = buckets.get(band);
+				List<Integer> bucket = bandBuckets.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<Integer>(2);
+					bandBuckets.put(key, bucket);
+				}
+				bucket.add(index);
+			}
+		}
+	}
+
+	/**
+	 * Adds the members known to the calculator to the index, with the
+	 * calculator's properties.
+	 * @param memberNames the names of the members
+	 * @param calc the calculator providing the property sets
+	 */
+	public void addAll(List<String> memberNames, PropertySetCalculatorIfc calc) {
+		for (String member : memberNames) {
+			Set<String> properties = calc.getMemberProperties(member);
+			if (properties != null) {
+				add(member, properties);
+			}
+		}
+	}
+
+	/**
+	 * @param ids the sorted property ids of a member
+	 * @return the MinHash signature of the properties
+	 */
+	protected int[] getSignature(int[] ids) {
+		int[] signature = new int[hashMultipliers.length];
+
+		for (int h = 0; h < signature.length; h++) {
+			int min = Integer.MAX_VALUE;
+			for (int id : ids) {
+				int hash = hash(hashMultipliers[h] * id + hashOffsets[h]);
+				if (hash < min) {
+					min = hash;
+				}
+			}
+			signature[h] = min;
+		}
+		return signature;
+	}
+
+	/**
+	 * @return a key for the rows of the band, equal for equal rows
+	 */
+	protected long getBandKey(int[] signature, int band) {
+		long key = band;
+		int start = band * rowsPerBand;
+
+		for (int row = start; row < start + rowsPerBand; row++) {
+			key = mix(key * 31 + signature[row]);
+		}
+		return key;
+	}
+
+	/**
+	 * @return a well-distributed 32 bit hash of the value
+	 */
+	protected static int hash(long value) {
+		return (int) (mix(value) >>> 32);
+	}
+
+	/**
+	 * Scrambles the bits of the value (the finalizer of SplitMix64).
+	 */
+	protected static long mix(long value) {
+		long z = value;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of two members from their
+	 * signatures' agreement.
+	 * @return the estimated similarity, or 0 if either member is
+	 *   unknown or has no properties
+	 */
+	public double estimateSimilarity(String member1, String member2) {
+		double similarity = 0.0;
+		Integer index1 = memberIndex.get(member1);
+		Integer index2 = memberIndex.get(member2);
+
+		if (index1 != null && index2 != null
+				&& memberProperties.get(index1).length > 0
+				&& memberProperties.get(index2).length > 0) {
+			int[] signature1 = getSignature(memberProperties.get(index1));
+			int[] signature2 = getSignature(memberProperties.get(index2));
+			int agreements = 0;
+			for (int h = 0; h < signature1.length; h++) {
+				if (signature1[h] == signature2[h]) {
+					agreements++;
+				}
+			}
+			similarity = 1.0 * agreements / signature1.length;
+		}
+		return similarity;
+	}
+
+	/**
+	 * Finds the candidate pairs whose exact Jaccard similarity is at least
+	 * the threshold.  Pairs at least as similar as the threshold the index
+	 * was banded for are found with high probability, not certainty.
+	 * @param minSimilarity the similarity threshold
+	 * @return the Jaccard distances of the similar pairs, nearest first
+	 */
+	public List<Distance<String>> findSimilarPairs(double minSimilarity) {
+		List<Distance<String>> pairs = new ArrayList<Distance<String>>();
+		HashSet<Long> compared = new HashSet<Long>();
+
+		for (HashMap<Long, List<Integer>> bandBuckets : buckets) {
+			for (List<Integer> bucket : bandBuckets.values()) {
+				for (int i = 0; i < bucket.size(); i++) {
+					int index1 = bucket.get(i);
+					for (int j = i + 1; j < bucket.size(); j++) {
+						int index2 = bucket.get(j);
+						// Members are added to buckets in index order
+						long pair = ((long) index1 << 32) | index2;
+						if (compared.add(pair)) {
+							candidates++;
+							double similarity =
+								JaccardCalculator.calculateSimilarity(
+									memberProperties.get(index1),
+									memberProperties.get(index2));
+							if (similarity >= minSimilarity) {
+								pairs.add(new Distance<String>(
+										members.get(index1),
+										members.get(index2),
+										1.0 - similarity));
+							}
+						}
+					}
+				}
+			}
+		}
+		Collections.sort(pairs, new Comparator<Distance<String>>() {
+			public int compare(Distance<String> d1, Distance<String> d2) {
+				return Double.compare(d1.getDistance().doubleValue(),
+						d2.getDistance().doubleValue());
+			}
+		});
+		return pairs;
+	}
+
+	/**
+	 * Creates an undirected graph with a node for each member, linking
+	 * the similar pairs, so that the graph clusterers can be applied.
+	 * Each link is weighted by the Jaccard distance it represents.
+	 * @param minSimilarity the similarity threshold
+	 * @return the graph
+	 */
+	public JavaCallGraph createCallGraph(double minSimilarity) {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setDefaultEdgeType(EdgeType.UNDIRECTED);
+		HashMap<String, CallGraphNode> nodes =
+			new HashMap<String, CallGraphNode>();
+
+		for (String member : members) {
+			nodes.put(member, graph.createNode(member));
+		}
+		for (Distance<String> distance : findSimilarPairs(minSimilarity)) {
+			CallGraphLink link = graph.createLink(
+					nodes.get(distance.getFirst()),
+					nodes.get(distance.getSecond()));
+			link.setWeight(distance.getDistance().doubleValue());
+		}
+		return graph;
+	}
+
+	/**
+	 * @return the indexed members
+	 */
+	public List<String> getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return the number of bands the signatures are divided into
+	 */
+	public int getNumBands() {
+		return numBands;
+	}
+
+	/**
+	 * @return the number of signature rows in each band
+	 */
+	public int getRowsPerBand() {
+		return rowsPerBand;
+	}
+
+	/**
+	 * @return the number of candidate pairs whose similarity was calculated
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+}
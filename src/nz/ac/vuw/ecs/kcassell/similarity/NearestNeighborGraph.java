@@ -0,0 +1,467 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+/**
+ * The NearestNeighborGraph is a sparse alternative to the DistanceMatrix.
+ * Rather than the distances between all pairs of objects, it stores only
+ * the distances from each object to its k nearest neighbors, so it needs
+ * memory proportional to n * k rather than n * n.  Distances are assumed
+ * to be symmetric.
+ * <p>
+ * The neighbors can be found exactly, by comparing every pair of objects,
+ * or approximately by "nearest neighbor descent" (Dong, Charikar and Li,
+ * "Efficient k-nearest neighbor graph construction for generic similarity
+ * measures", WWW 2011), which only compares the neighbors of neighbors and
+ * usually needs far fewer than n * n / 2 distance calculations.
+ * @author Keith
+ * @param <V> the type of the objects whose neighbors are being stored
+ */
+public class NearestNeighborGraph<V> implements RefactoringConstants {
+
+	/** Up to this many objects, fill compares every pair of objects. */
+	public static final int MAX_EXACT_SIZE = 1000;
+
+	/** Neighbor descent stops when fewer than this fraction of the
+	 * n * k neighbors change in an iteration. */
+	protected static final double DESCENT_TERMINATION = 0.001;
+
+	/** The maximum number of neighbor descent iterations. */
+	protected static final int MAX_DESCENT_ITERATIONS = 30;
+
+	/** The objects whose neighbors are stored. */
+	protected List<V> headers;
+
+	/** keeps track of which index corresponds to each object. */
+	protected HashMap<V, Integer> memberIndex = new HashMap<V, Integer>();
+
+	/** The (maximum) number of neighbors stored for each object. */
+	protected int numNeighbors;
+
+	/** The neighbors of object i are at neighbors[i * numNeighbors]
+	 * onwards, nearest first. */
+	protected int[] neighbors;
+
+	/** The distances corresponding to the entries in neighbors. */
+	protected double[] distances;
+
+	/** The number of neighbors found so far for each object. */
+	protected int[] neighborCounts;
+
+	/** Whether each neighbor was added since the last descent iteration. */
+	protected boolean[] isNew;
+
+	/** The number of distances calculated while filling the graph. */
+	protected long calculations = 0;
+
+	/**
+	 * Creates an empty nearest neighbor graph.
+	 * @param headers the objects whose neighbors are to be stored
+	 * @param numNeighbors how many neighbors to store for each object
+	 */
+	public NearestNeighborGraph(List<V> headers, int numNeighbors) {
+		this.headers = headers;
+		int index = 0;
+
+		for (V member : headers) {
+			memberIndex.put(member, index++);
+		}
+		int size = headers.size();
+		this.numNeighbors = Math.max(0, Math.min(numNeighbors, size - 1));
+		neighbors = new int[size * this.numNeighbors];
+		distances = new double[size * this.numNeighbors];
+		isNew = new boolean[size * this.numNeighbors];
+		neighborCounts = new int[size];
+	}
+
+	/**
+	 * Finds the neighbors exactly for small collections of objects, and by
+	 * neighbor descent for larger ones.
+	 * @param calc the distance calculator
+	 */
+	public void fill(DistanceCalculatorIfc<V> calc) {
+		if (headers.size() <= MAX_EXACT_SIZE) {
+			fillExactly(calc);
+		} else {
+			fillByNeighborDescent(calc, new Random(headers.size()));
+		}
+	}
+
+	/**
+	 * Finds the nearest neighbors of every object by calculating the
+	 * distance between every pair of objects.
+	 * @param calc the distance calculator
+	 */
+	public void fillExactly(DistanceCalculatorIfc<V> calc) {
+		clear();
+		if (numNeighbors > 0) {
+			for (int row = 1; row < headers.size(); row++) {
+				for (int col = 0; col < row; col++) {
+					double distance = calculateDistance(calc, row, col);
+					if (!Double.isNaN(distance)) {
+						addNeighbor(row, col, distance, false);
+						addNeighbor(col, row, distance, false);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds approximate nearest neighbors by neighbor descent: starting
+	 * from random neighbors, each object's neighbors are compared with
+	 * one another, since a neighbor of a neighbor is likely to be a
+	 * neighbor.  Only pairs involving a neighbor added since the previous
+	 * iteration are compared.
+	 * @param calc the distance calculator
+	 * @param random chooses the initial neighbors
+	 */
+	public void fillByNeighborDescent(DistanceCalculatorIfc<V> calc,
+			Random random) {
+		clear();
+		int size = headers.size();
+		if (numNeighbors > 0) {
+			for (int i = 0; i < size; i++) {
+				for (int attempt = 0; attempt < 2 * numNeighbors
+						&& neighborCounts[i] < numNeighbors; attempt++) {
+					int j = random.nextInt(size);
+					if (j != i && !isNeighbor(i, j)) {
+						double distance = calculateDistance(calc, i, j);
+						if (!Double.isNaN(distance)) {
+							addNeighbor(i, j, distance, true);
+							addNeighbor(j, i, distance, true);
+						}
+					}
+				}
+			}
+		}
+		// The objects whose neighbor lists contain i, split by whether
+		// i is new to them
+		int maxCandidates = 2 * numNeighbors;
+		int[][] newCandidates = new int[size][maxCandidates];
+		int[][] oldCandidates = new int[size][maxCandidates];
+		int[] newCounts = new int[size];
+		int[] oldCounts = new int[size];
+		long threshold = (long) Math.ceil(DESCENT_TERMINATION * size * numNeighbors);
+		long updates = threshold + 1;
+
+		for (int iteration = 0;
+				iteration < MAX_DESCENT_ITERATIONS && updates > threshold;
+				iteration++) {
+			Arrays.fill(newCounts, 0);
+			Arrays.fill(oldCounts, 0);
+			for (int i = 0; i < size; i++) {
+				int base = i * numNeighbors;
+				for (int n = 0; n < neighborCounts[i]; n++) {
+					int j = neighbors[base + n];
+					if (isNew[base + n]) {
+						isNew[base + n] = false;
+						addCandidate(newCandidates, newCounts, i, j, random);
+						addCandidate(newCandidates, newCounts, j, i, random);
+					} else {
+						addCandidate(oldCandidates, oldCounts, i, j, random);
+						addCandidate(oldCandidates, oldCounts, j, i, random);
+					}
+				}
+			}
+			updates = 0;
+			for (int i = 0; i < size; i++) {
+				int[] news = newCandidates[i];
+				int numNew = Math.min(newCounts[i], maxCandidates);
+				int numOld = Math.min(oldCounts[i], maxCandidates);
+				for (int a = 0; a < numNew; a++) {
+					for (int b = a + 1; b < numNew; b++) {
+						updates += compare(calc, news[a], news[b]);
+					}
+					for (int b = 0; b < numOld; b++) {
+						updates += compare(calc, news[a], oldCandidates[i][b]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds j to the candidates of i, keeping a uniformly random sample
+	 * of the candidates once there are too many.
+	 */
+	private static void addCandidate(int[][] candidates, int[] counts,
+			int i, int j, Random random) {
+		int[] list = candidates[i];
+		int count = counts[i]++;
+		if (count < list.length) {
+			list[count] = j;
+		} else {
+			int slot = random.nextInt(count + 1);
+			if (slot < list.length) {
+				list[slot] = j;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the distance between two objects and offers each as a
+	 * neighbor of the other.
+	 * @return the number of neighbor lists that changed
+	 */
+	private int compare(DistanceCalculatorIfc<V> calc, int i, int j) {
+		int changes = 0;
+		if (i != j && !(isNeighbor(i, j) && isNeighbor(j, i))) {
+			double distance = calculateDistance(calc, i, j);
+			if (!Double.isNaN(distance)) {
+				changes += addNeighbor(i, j, distance, true) ? 1 : 0;
+				changes += addNeighbor(j, i, distance, true) ? 1 : 0;
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * @return the distance between the objects at the indices, or NaN
+	 *   if the distance is unknown
+	 */
+	private double calculateDistance(DistanceCalculatorIfc<V> calc,
+			int index1, int index2) {
+		calculations++;
+		Number distance =
+			calc.calculateDistance(headers.get(index1), headers.get(index2));
+		double result = Double.NaN;
+		if (distance != null && !UNKNOWN_DISTANCE.equals(distance)) {
+			result = Math.max(0.0, distance.doubleValue());
+		}
+		return result;
+	}
+
+	private void clear() {
+		Arrays.fill(neighborCounts, 0);
+		calculations = 0;
+	}
+
+	/**
+	 * @return true if j is stored as one of i's neighbors
+	 */
+	private boolean isNeighbor(int i, int j) {
+		boolean found = false;
+		int base = i * numNeighbors;
+		for (int n = 0; n < neighborCounts[i] && !found; n++) {
+			found = (neighbors[base + n] == j);
+		}
+		return found;
+	}
+
+	/**
+	 * Inserts j into i's neighbors if it is nearer than the farthest of
+	 * them, or if i doesn't have enough neighbors yet.
+	 * @return true if j was added
+	 */
+	private boolean addNeighbor(int i, int j, double distance,
+			boolean checkDuplicates) {
+		boolean added = false;
+		int base = i * numNeighbors;
+		int count = neighborCounts[i];
+		if ((count < numNeighbors || distance < distances[base + count - 1])
+				&& (!checkDuplicates || !isNeighbor(i, j))) {
+			int n = Math.min(count, numNeighbors - 1);
+			while (n > 0 && distances[base + n - 1] > distance) {
+				neighbors[base + n] = neighbors[base + n - 1];
+				distances[base + n] = distances[base + n - 1];
+				isNew[base + n] = isNew[base + n - 1];
+				n--;
+			}
+			neighbors[base + n] = j;
+			distances[base + n] = distance;
+			isNew[base + n] = true;
+			if (count < numNeighbors) {
+				neighborCounts[i]++;
+			}
+			added = true;
+		}
+		return added;
+	}
+
+	/**
+	 * @return the objects whose neighbors are stored
+	 */
+	public List<V> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return the maximum number of neighbors stored for each object
+	 */
+	public int getNumNeighbors() {
+		return numNeighbors;
+	}
+
+	/**
+	 * @return the number of distances calculated while filling the graph
+	 */
+	public long getCalculations() {
+		return calculations;
+	}
+
+	/**
+	 * @param index the index of an object in the headers
+	 * @return the number of neighbors stored for the object
+	 */
+	public int getNeighborCount(int index) {
+		return neighborCounts[index];
+	}
+
+	/**
+	 * @param index the index of an object in the headers
+	 * @param n which neighbor, 0 being the nearest
+	 * @return the index of the neighbor in the headers
+	 */
+	public int getNeighbor(int index, int n) {
+		return neighbors[index * numNeighbors + n];
+	}
+
+	/**
+	 * @param index the index of an object in the headers
+	 * @param n which neighbor, 0 being the nearest
+	 * @return the distance to the neighbor
+	 */
+	public double getNeighborDistance(int index, int n) {
+		return distances[index * numNeighbors + n];
+	}
+
+	/**
+	 * Gets the distance between two objects if either is stored as a
+	 * neighbor of the other.
+	 * @return the distance, or UNKNOWN_DISTANCE if not stored
+	 */
+	public Number getDistance(V node1, V node2) {
+		Number distance = UNKNOWN_DISTANCE;
+		Integer index1 = memberIndex.get(node1);
+		Integer index2 = memberIndex.get(node2);
+		if (index1 != null && index2 != null) {
+			int n = findNeighbor(index1, index2);
+			if (n >= 0) {
+				distance = distances[index1 * numNeighbors + n];
+			} else if ((n = findNeighbor(index2, index1)) >= 0) {
+				distance = distances[index2 * numNeighbors + n];
+			}
+		}
+		return distance;
+	}
+
+	private int findNeighbor(int i, int j) {
+		int found = -1;
+		int base = i * numNeighbors;
+		for (int n = 0; n < neighborCounts[i] && found < 0; n++) {
+			if (neighbors[base + n] == j) {
+				found = n;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the two elements that are closest together.
+	 * Ties are broken arbitrarily.
+	 */
+	public Distance<V> findNearest() {
+		Distance<V> nearest = null;
+		double smallestYet = MAX_DISTANCE.doubleValue();
+
+		for (int i = 0; i < headers.size(); i++) {
+			if (neighborCounts[i] > 0
+					&& distances[i * numNeighbors] < smallestYet) {
+				smallestYet = distances[i * numNeighbors];
+				nearest = new Distance<V>(headers.get(i),
+						headers.get(neighbors[i * numNeighbors]), smallestYet);
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Creates an undirected graph with a node for each object, linked
+	 * to the nodes of its neighbors, so that the graph clusterers can be
+	 * applied.  Each link is weighted by the distance it represents.
+	 * @return the graph
+	 */
+	public JavaCallGraph createCallGraph() {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setDefaultEdgeType(EdgeType.UNDIRECTED);
+		int size = headers.size();
+		CallGraphNode[] nodes = new CallGraphNode[size];
+		for (int i = 0; i < size; i++) {
+			nodes[i] = graph.createNode(headers.get(i).toString());
+		}
+		for (int i = 0; i < size; i++) {
+			int base = i * numNeighbors;
+			for (int n = 0; n < neighborCounts[i]; n++) {
+				int j = neighbors[base + n];
+				// Link mutual neighbors only once
+				if (j < i || findNeighbor(j, i) < 0) {
+					CallGraphLink link = graph.createLink(nodes[i], nodes[j]);
+					link.setWeight(distances[base + n]);
+				}
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * @return a human-readable form of the neighbors
+	 */
+	public String toString() {
+		StringBuffer buf = new StringBuffer("NearestNeighborGraph@"
+				+ hashCode() + "\n");
+		for (int i = 0; i < headers.size(); i++) {
+			buf.append(" ").append(i).append(" ").append(headers.get(i));
+			for (int n = 0; n < neighborCounts[i]; n++) {
+				buf.append("\t").append(getNeighbor(i, n)).append(":")
+					.append(String.format("%.2f", getNeighborDistance(i, n)));
+			}
+			buf.append("\n");
+		}
+		return buf.toString();
+	}
+
+}
@@ -0,0 +1,574 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.EigenvalueDecomposition;
+
+/**
+ * Calculates a truncated singular value decomposition A ~ U S V' of a
+ * sparse matrix A, keeping only the largest singular values, by the
+ * randomized range finder of Halko, Martinsson and Tropp ("Finding
+ * structure with randomness", SIAM Review, 2011):
+ * <ol>
+ * <li>multiply A by a random Gaussian matrix with rank + oversampling
+ *   columns, and alternately by A' and A a few more times (the power
+ *   iterations), to get an orthonormal basis Q for most of A's range;</li>
+ * <li>decompose the small matrix B = Q'A, via the eigenvectors of BB',
+ *   and map its left singular vectors back through Q.</li>
+ * </ol>
+ * The range is found on the smaller side of the matrix (for a tall matrix,
+ * A' is decomposed instead), as that's where most of the work is done.
+ * Only the sparse matrix and a few dense matrices with rank + oversampling
+ * columns are held in memory.  The matrix products are divided among
+ * several threads, in chunks of rows that don't depend on the number of
+ * threads, so the results depend only on the seed.
+ * @author Keith
+ */
+public class RandomizedSVD {
+
+	/** The seed used unless another is given. */
+	public static final long DEFAULT_SEED = 1L;
+
+	/** The number of rows multiplied by each task. */
+	protected static final int CHUNK_SIZE = 1024;
+
+	/** The dense products work on this many rows together, so that the
+	 * rows of the small matrices are read once for every few rows of the
+	 * tall ones, rather than for each row. */
+	protected static final int GROUP_SIZE = 4;
+
+	/** Directions whose (squared) length is less than this fraction of
+	 * the longest's are taken to be outside the matrix's range. */
+	protected static final double RANK_TOLERANCE = 1e-12;
+
+	/** The number of singular values to keep. */
+	protected int rank;
+
+	/** The number of extra random directions, which make the largest
+	 * singular values more accurate. */
+	protected int oversampling;
+
+	/** The number of extra multiplications by A' and A, which make the
+	 * decomposition more accurate when the singular values decay slowly. */
+	protected int powerIterations = 2;
+
+	protected long seed = DEFAULT_SEED;
+
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/** The pool running the matrix products during decompose. */
+	protected ExecutorService pool = null;
+
+	/** The singular values, largest first. */
+	protected double[] singularValues = new double[0];
+
+	/** The left singular vectors (columns of U), stored by rows. */
+	protected double[] leftVectors = new double[0];
+
+	/** The right singular vectors (columns of V), stored by rows. */
+	protected double[] rightVectors = new double[0];
+
+	/**
+	 * @param rank the number of singular values to keep
+	 * @param oversampling the number of extra random directions
+	 */
+	public RandomizedSVD(int rank, int oversampling) {
+		this.rank = rank;
+		this.oversampling = oversampling;
+	}
+
+	/**
+	 * @param rank the number of singular values to keep
+	 * @param oversampling the number of extra random directions
+	 * @param powerIterations the number of extra multiplications
+	 * @param seed the seed of the random directions
+	 * @param numThreads the number of threads multiplying matrices
+	 */
+	public RandomizedSVD(int rank, int oversampling, int powerIterations,
+			long seed, int numThreads) {
+		this(rank, oversampling);
+		this.powerIterations = powerIterations;
+		this.seed = seed;
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Calculates the decomposition of the matrix.  If the matrix's rank
+	 * is less than the rank requested, fewer singular values are kept.
+	 * @param matrix the matrix to decompose
+	 */
+	public void decompose(SparseMatrix matrix) {
+		singularValues = new double[0];
+		leftVectors = new double[0];
+		rightVectors = new double[0];
+		pool = (numThreads > 1)
+			? Executors.newFixedThreadPool(numThreads) : null;
+		try {
+			SparseMatrix transpose = matrix.transpose();
+			if (matrix.getNumRows() > matrix.getNumColumns()) {
+				// A' = V S U'
+				decompose(transpose, matrix);
+				double[] vectors = leftVectors;
+				leftVectors = rightVectors;
+				rightVectors = vectors;
+			} else {
+				decompose(matrix, transpose);
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the decomposition of a matrix with no more rows than
+	 * columns.  The long side's vectors are only ever multiplied by the
+	 * sparse matrix: the product of Z = A'Q with itself is Q'(AZ), so it
+	 * is calculated on the short side.
+	 * @param matrix the matrix to decompose
+	 * @param transpose its transpose
+	 */
+	protected void decompose(SparseMatrix matrix, SparseMatrix transpose) {
+		int numRows = matrix.getNumRows();
+		int numColumns = matrix.getNumColumns();
+		int width = Math.min(rank + oversampling, numRows);
+		double[] basis = new double[0];
+
+		if (width > 0) {
+			basis = multiply(matrix, getRandomMatrix(numColumns, width), width);
+			// The power iterations only need to keep the columns from
+			// collapsing onto the largest singular vectors, so a single
+			// pass of orthonormalization is enough for them
+			for (int i = 0; i < powerIterations && basis.length > 0; i++) {
+				basis = orthonormalize(basis, numRows, 1);
+				width = basis.length / numRows;
+				double[] coBasis = multiply(transpose, basis, width);
+				double[] product = multiply(matrix, coBasis, width);
+				// The columns of Z T are orthonormal, and A Z T = (AZ) T
+				double[] transform = getOrthonormalizer(
+						crossProduct(basis, product, numRows, width), width);
+				basis = multiply(product, numRows, width, transform,
+						transform.length / width);
+			}
+		}
+		if (basis.length > 0) {
+			basis = orthonormalize(basis, numRows, 2);
+		}
+		if (basis.length > 0) {
+			width = basis.length / numRows;
+			// B' = A'Q, so B = Q'A and BB' = Q'(AB')
+			double[] bTranspose = multiply(transpose, basis, width);
+			double[] gram = crossProduct(basis,
+					multiply(matrix, bTranspose, width), numRows, width);
+			decomposeProjection(basis, bTranspose, gram, numRows,
+					numColumns, width);
+		}
+	}
+
+	/**
+	 * Calculates the decomposition from B = Q'A.  If BB' = W L W', the
+	 * singular values are the square roots of the eigenvalues L, U = QW,
+	 * and V = B'W / S.
+	 * @param basis Q, stored by rows
+	 * @param bTranspose B', stored by rows
+	 * @param gram BB', stored by rows
+	 */
+	protected void decomposeProjection(double[] basis, double[] bTranspose,
+			double[] gram, int numRows, int numColumns, int width) {
+		int[] order = new int[width];
+		double[][] eigenvectors = new double[width][];
+		double[] eigenvalues =
+			getEigenvectors(gram, width, order, eigenvectors);
+		int numValues = Math.min(rank, width);
+		singularValues = new double[numValues];
+		double[] transform = new double[width * numValues];
+		for (int j = 0; j < numValues; j++) {
+			singularValues[j] = Math.sqrt(Math.max(0.0, eigenvalues[order[j]]));
+			double scale = (singularValues[j] > 0.0)
+				? 1.0 / singularValues[j] : 0.0;
+			for (int i = 0; i < width; i++) {
+				transform[i * numValues + j] =
+					eigenvectors[i][order[j]] * scale;
+			}
+		}
+		rightVectors =
+			multiply(bTranspose, numColumns, width, transform, numValues);
+		for (int j = 0; j < numValues; j++) {
+			for (int i = 0; i < width; i++) {
+				transform[i * numValues + j] = eigenvectors[i][order[j]];
+			}
+		}
+		leftVectors = multiply(basis, numRows, width, transform, numValues);
+	}
+
+	/**
+	 * @return a matrix of independent standard Gaussian values,
+	 *   stored by rows
+	 */
+	protected double[] getRandomMatrix(int numRows, int width) {
+		Random random = new Random(seed);
+		double[] matrix = new double[numRows * width];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i] = random.nextGaussian();
+		}
+		return matrix;
+	}
+
+	/**
+	 * Orthonormalizes the columns of a tall matrix, dropping those that
+	 * depend on the others.  A second pass restores the accuracy lost when
+	 * the columns are nearly dependent.
+	 * @param matrix the matrix, stored by rows
+	 * @param numPasses the number of passes
+	 * @return a matrix, stored by rows, whose columns are an orthonormal
+	 *   basis for the columns of the matrix
+	 * @see #getOrthonormalizer(double[], int)
+	 */
+	protected double[] orthonormalize(double[] matrix, int numRows,
+			int numPasses) {
+		for (int pass = 0; pass < numPasses && matrix.length > 0; pass++) {
+			int width = matrix.length / numRows;
+			double[] transform = getOrthonormalizer(
+					crossProduct(matrix, matrix, numRows, width), width);
+			matrix = multiply(matrix, numRows, width, transform,
+					transform.length / width);
+		}
+		return matrix;
+	}
+
+	/**
+	 * If G = X'X = W L W', the columns of X W / sqrt(L) are orthonormal.
+	 * Columns for eigenvalues that are (nearly) zero, which depend on
+	 * the others, are left out.
+	 * @param gram X'X, stored by rows
+	 * @return W / sqrt(L), stored by rows
+	 */
+	protected static double[] getOrthonormalizer(double[] gram, int width) {
+		int[] order = new int[width];
+		double[][] eigenvectors = new double[width][];
+		double[] eigenvalues =
+			getEigenvectors(gram, width, order, eigenvectors);
+		double threshold =
+			RANK_TOLERANCE * Math.max(0.0, eigenvalues[order[0]]);
+		int numKept = 0;
+		while (numKept < width && eigenvalues[order[numKept]] > threshold) {
+			numKept++;
+		}
+		double[] transform = new double[width * numKept];
+		for (int j = 0; j < numKept; j++) {
+			double scale = 1.0 / Math.sqrt(eigenvalues[order[j]]);
+			for (int i = 0; i < width; i++) {
+				transform[i * numKept + j] = eigenvectors[i][order[j]] * scale;
+			}
+		}
+		return transform;
+	}
+
+	/**
+	 * Calculates the eigenvalues and eigenvectors of a symmetric matrix.
+	 * @param symmetric the matrix, stored by rows
+	 * @param order filled with the indices of the eigenvalues, largest first
+	 * @param eigenvectors filled with the rows of the matrix whose columns
+	 *   are the eigenvectors
+	 * @return the eigenvalues
+	 */
+	protected static double[] getEigenvectors(double[] symmetric, int width,
+			int[] order, double[][] eigenvectors) {
+		DoubleMatrix2D matrix = new DenseDoubleMatrix2D(width, width);
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < width; j++) {
+				matrix.setQuick(i, j, symmetric[i * width + j]);
+			}
+		}
+		EigenvalueDecomposition decomposition =
+			new EigenvalueDecomposition(matrix);
+		double[] eigenvalues = decomposition.getRealEigenvalues().toArray();
+		double[][] vectors = decomposition.getV().toArray();
+		System.arraycopy(vectors, 0, eigenvectors, 0, width);
+
+		// Sort by decreasing eigenvalue (ties by index, to be deterministic)
+		Integer[] indices = new Integer[width];
+		for (int i = 0; i < width; i++) {
+			indices[i] = i;
+		}
+		final double[] values = eigenvalues;
+		Arrays.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer index1, Integer index2) {
+				int comparison =
+					Double.compare(values[index2], values[index1]);
+				if (comparison == 0) {
+					comparison = index1.compareTo(index2);
+				}
+				return comparison;
+			}
+		});
+		for (int i = 0; i < width; i++) {
+			order[i] = indices[i];
+		}
+		return eigenvalues;
+	}
+
+	/**
+	 * Calculates X'Y for tall matrices X and Y, where X'Y is known to be
+	 * symmetric (which it is up to rounding, so it is made exactly
+	 * symmetric).  The partial sums of the chunks are added in order, so
+	 * the result doesn't depend on the threads.
+	 * @param matrix1 X, stored by rows
+	 * @param matrix2 Y, stored by rows
+	 * @return X'Y, stored by rows
+	 */
+	protected double[] crossProduct(final double[] matrix1,
+			final double[] matrix2, int numRows, final int width) {
+		List<Object> partialSums = forEachChunk(numRows, new ChunkTask() {
+			public Object run(int first, int last) {
+				double[] sums = new double[width * width];
+				int row = first;
+				for (; row + GROUP_SIZE <= last; row += GROUP_SIZE) {
+					int start0 = row * width;
+					int start1 = start0 + width;
+					int start2 = start1 + width;
+					int start3 = start2 + width;
+					for (int i = 0; i < width; i++) {
+						double value0 = matrix1[start0 + i];
+						double value1 = matrix1[start1 + i];
+						double value2 = matrix1[start2 + i];
+						double value3 = matrix1[start3 + i];
+						int sumStart = i * width;
+						for (int j = 0; j < width; j++) {
+							sums[sumStart + j] += value0 * matrix2[start0 + j]
+								+ value1 * matrix2[start1 + j]
+								+ value2 * matrix2[start2 + j]
+								+ value3 * matrix2[start3 + j];
+						}
+					}
+				}
+				for (; row < last; row++) {
+					int start = row * width;
+					for (int i = 0; i < width; i++) {
+						double value = matrix1[start + i];
+						int sumStart = i * width;
+						for (int j = 0; j < width; j++) {
+							sums[sumStart + j] += value * matrix2[start + j];
+						}
+					}
+				}
+				return sums;
+			}
+		});
+		double[] product = new double[width * width];
+		for (Object partialSum : partialSums) {
+			double[] sums = (double[]) partialSum;
+			for (int i = 0; i < product.length; i++) {
+				product[i] += sums[i];
+			}
+		}
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < i; j++) {
+				double mean = 0.5 * (product[i * width + j]
+						+ product[j * width + i]);
+				product[i * width + j] = mean;
+				product[j * width + i] = mean;
+			}
+		}
+		return product;
+	}
+
+	/**
+	 * Multiplies a sparse matrix by a dense one.
+	 * @param dense the dense matrix, stored by rows
+	 * @param width the number of columns of the dense matrix
+	 * @return the product, stored by rows
+	 */
+	protected double[] multiply(final SparseMatrix sparse,
+			final double[] dense, final int width) {
+		final double[] product = new double[sparse.getNumRows() * width];
+		forEachChunk(sparse.getNumRows(), new ChunkTask() {
+			public Object run(int first, int last) {
+				sparse.multiplyRows(dense, width, product, first, last);
+				return null;
+			}
+		});
+		return product;
+	}
+
+	/**
+	 * Multiplies a tall dense matrix by a small one.
+	 * @param matrix the tall matrix, stored by rows
+	 * @param small the small matrix, with width rows, stored by rows
+	 * @param productWidth the number of columns of the small matrix
+	 * @return the product, stored by rows
+	 */
+	protected double[] multiply(final double[] matrix, int numRows,
+			final int width, final double[] small, final int productWidth) {
+		final double[] product = new double[numRows * productWidth];
+		forEachChunk(numRows, new ChunkTask() {
+			public Object run(int first, int last) {
+				int row = first;
+				for (; row + GROUP_SIZE <= last; row += GROUP_SIZE) {
+					int start0 = row * width;
+					int start1 = start0 + width;
+					int start2 = start1 + width;
+					int start3 = start2 + width;
+					int productStart0 = row * productWidth;
+					int productStart1 = productStart0 + productWidth;
+					int productStart2 = productStart1 + productWidth;
+					int productStart3 = productStart2 + productWidth;
+					for (int i = 0; i < width; i++) {
+						double value0 = matrix[start0 + i];
+						double value1 = matrix[start1 + i];
+						double value2 = matrix[start2 + i];
+						double value3 = matrix[start3 + i];
+						int smallStart = i * productWidth;
+						for (int j = 0; j < productWidth; j++) {
+							double smallValue = small[smallStart + j];
+							product[productStart0 + j] += value0 * smallValue;
+							product[productStart1 + j] += value1 * smallValue;
+							product[productStart2 + j] += value2 * smallValue;
+							product[productStart3 + j] += value3 * smallValue;
+						}
+					}
+				}
+				for (; row < last; row++) {
+					int start = row * width;
+					int productStart = row * productWidth;
+					for (int i = 0; i < width; i++) {
+						double value = matrix[start + i];
+						int smallStart = i * productWidth;
+						for (int j = 0; j < productWidth; j++) {
+							product[productStart + j] +=
+								value * small[smallStart + j];
+						}
+					}
+				}
+				return null;
+			}
+		});
+		return product;
+	}
+
+	/**
+	 * A task working on a range of rows.
+	 */
+	protected abstract static class ChunkTask {
+		/**
+		 * @param first the first row
+		 * @param last one past the last row
+		 * @return the task's result
+		 */
+		public abstract Object run(int first, int last);
+	}
+
+	/**
+	 * Runs the task on each chunk of rows, on the pool's threads if
+	 * there is a pool.
+	 * @return the results, in the order of the chunks
+	 */
+	protected List<Object> forEachChunk(int numRows, final ChunkTask task) {
+		List<Object> results = new ArrayList<Object>();
+		if (pool == null || numRows <= CHUNK_SIZE) {
+			for (int first = 0; first < numRows; first += CHUNK_SIZE) {
+				results.add(task.run(first,
+						Math.min(numRows, first + CHUNK_SIZE)));
+			}
+		} else {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int first = 0; first < numRows; first += CHUNK_SIZE) {
+				final int chunkFirst = first;
+				final int chunkLast = Math.min(numRows, first + CHUNK_SIZE);
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						return task.run(chunkFirst, chunkLast);
+					}
+				});
+			}
+			try {
+				for (Future<Object> future : pool.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return the number of singular values kept
+	 */
+	public int getNumValues() {
+		return singularValues.length;
+	}
+
+	/**
+	 * @return the singular values, largest first
+	 */
+	public double[] getSingularValues() {
+		return singularValues;
+	}
+
+	/**
+	 * @return U, with a row for each row of the matrix and a column for
+	 *   each singular value, stored by rows
+	 */
+	public double[] getLeftVectors() {
+		return leftVectors;
+	}
+
+	/**
+	 * @return V, with a row for each column of the matrix and a column for
+	 *   each singular value, stored by rows
+	 */
+	public double[] getRightVectors() {
+		return rightVectors;
+	}
+
+}
@@ -34,6 +34,7 @@ package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Set;
 
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
@@ -45,7 +46,8 @@ import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
  */
 public class SimonDistanceCalculator
 extends JaccardCalculator
-implements DistanceCalculatorIfc<String>
+implements PropertySetCalculatorIfc, IncrementalDistanceCalculatorIfc<String>,
+    CacheableDistanceCalculatorIfc<String>
 {
     /** The graph showing the static interrelationships of methods and
      * attributes.  */
@@ -108,6 +110,36 @@ implements DistanceCalculatorIfc<String>
     }
     
 
+    /* (non-Javadoc)
+     * @see nz.ac.vuw.ecs.kcassell.similarity.PropertySetCalculatorIfc#getMemberProperties(java.lang.String)
+     */
+    public Set<String> getMemberProperties(String member)
+    {
+        Set<String> properties = null;
+        CallGraphNode node = javaCallGraph.getNode(member);
+
+        if (node != null) {
+        	properties = getProperties(node, javaCallGraph);
+        }
+        return properties;
+    }
+
+    /* (non-Javadoc)
+     * @see nz.ac.vuw.ecs.kcassell.similarity.CacheableDistanceCalculatorIfc#getFingerprint()
+     */
+    public String getFingerprint()
+    {
+        return javaCallGraph.getFingerprint();
+    }
+
+    /* (non-Javadoc)
+     * @see nz.ac.vuw.ecs.kcassell.similarity.IncrementalDistanceCalculatorIfc#getAffectedMembers(java.lang.Object)
+     */
+    public Collection<String> getAffectedMembers(String member)
+    {
+        return javaCallGraph.getNeighborhoodLabels(member);
+    }
+
     /* (non-Javadoc)
      * @see nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc#calculateDistance(java.lang.String, java.lang.String)
      */
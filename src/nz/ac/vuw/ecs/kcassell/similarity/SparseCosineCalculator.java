@@ -0,0 +1,227 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.Serializable;
+
+/**
+ * Calculates cosine similarities between sparse document vectors.  The
+ * documents are the rows of a SparseMatrix, each a sorted array of
+ * (term, weight) entries, and the matrix's transpose is an inverted
+ * index listing the documents that contain each term.
+ * <p>
+ * The similarities among a set of documents are accumulated over the
+ * postings of the documents' terms, so a pair of documents sharing no
+ * term is never visited, and a pair sharing terms costs only the size of
+ * the overlap.  Documents made from identifiers have only a few terms
+ * each, so this skips most of the pairs of a class.
+ * <p>
+ * As with Similarity.cosineSimilarity, a document without terms has no
+ * similarity to anything.
+ * @author Keith
+ */
+public class SparseCosineCalculator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The documents, with a row of term weights for each document. */
+	protected final SparseMatrix documents;
+
+	/** The inverted index, with a row of document weights for each term. */
+	protected final SparseMatrix postings;
+
+	/** The length of each document's vector. */
+	protected final double[] documentNorms;
+
+	/** The length of each term's vector. */
+	protected final double[] termNorms;
+
+	/**
+	 * @param documents the documents, with a row of term weights
+	 *   for each document
+	 */
+	public SparseCosineCalculator(SparseMatrix documents) {
+		this.documents = documents;
+		this.postings = documents.transpose();
+		this.documentNorms = getNorms(documents);
+		this.termNorms = getNorms(postings);
+	}
+
+	/**
+	 * @return the length of each row of the matrix
+	 */
+	protected static double[] getNorms(SparseMatrix matrix) {
+		double[] norms = new double[matrix.numRows];
+		for (int row = 0; row < matrix.numRows; row++) {
+			double sumOfSquares = 0.0;
+			for (int i = matrix.rowStarts[row];
+					i < matrix.rowStarts[row + 1]; i++) {
+				sumOfSquares += matrix.values[i] * matrix.values[i];
+			}
+			norms[row] = Math.sqrt(sumOfSquares);
+		}
+		return norms;
+	}
+
+	/**
+	 * @return the cosine similarity of two documents
+	 */
+	public double getSimilarity(int document1, int document2) {
+		return getCosine(documents, documentNorms, document1, document2);
+	}
+
+	/**
+	 * @return the cosine similarity of two terms, based on the
+	 *   documents that contain them
+	 */
+	public double getTermSimilarity(int term1, int term2) {
+		return getCosine(postings, termNorms, term1, term2);
+	}
+
+	/**
+	 * Calculates the cosine of two rows by merging their sorted entries.
+	 * @param matrix the rows
+	 * @param norms the length of each row
+	 */
+	protected static double getCosine(SparseMatrix matrix, double[] norms,
+			int row1, int row2) {
+		double similarity = 0.0;
+		double norms12 = norms[row1] * norms[row2];
+		if (norms12 > 0.0) {
+			int i = matrix.rowStarts[row1];
+			int end1 = matrix.rowStarts[row1 + 1];
+			int j = matrix.rowStarts[row2];
+			int end2 = matrix.rowStarts[row2 + 1];
+			double dotProduct = 0.0;
+			while (i < end1 && j < end2) {
+				int column1 = matrix.columns[i];
+				int column2 = matrix.columns[j];
+				if (column1 < column2) {
+					i++;
+				} else if (column2 < column1) {
+					j++;
+				} else {
+					dotProduct += matrix.values[i++] * matrix.values[j++];
+				}
+			}
+			similarity = dotProduct / norms12;
+		}
+		return similarity;
+	}
+
+	/**
+	 * Stores the cosine distance, 1 - similarity (but at least 0),
+	 * between each pair of documents in the matrix.
+	 * @param matrix the matrix to fill
+	 * @param documentIds the document for each of the matrix's headers,
+	 *   or -1 for a header without a document
+	 */
+	public <V> void fillMatrix(DistanceMatrix<V> matrix, int[] documentIds) {
+		BlockCosineCalculator.setDistances(matrix,
+				calculateSimilarities(documentIds));
+	}
+
+	/**
+	 * Calculates the cosine similarities between the documents.  An
+	 * inverted index is built over just these documents, listing for each
+	 * term the positions of the documents containing it in increasing
+	 * order, and then each document's similarities to the documents
+	 * before it are accumulated over the postings of its terms.
+	 * @param documentIds the documents, or -1 for a missing document
+	 * @return the lower triangle of the similarity matrix, packed by rows
+	 *   (the similarity of row and col <= row is at row*(row+1)/2 + col)
+	 */
+	public double[] calculateSimilarities(int[] documentIds) {
+		int numRows = documentIds.length;
+		int numTerms = documents.numColumns;
+		int[] rowStarts = documents.rowStarts;
+		int[] terms = documents.columns;
+		double[] weights = documents.values;
+
+		// Count the postings of each term, then fill them in row order
+		int[] postingStarts = new int[numTerms + 1];
+		for (int row = 0; row < numRows; row++) {
+			int document = documentIds[row];
+			if (document >= 0) {
+				for (int i = rowStarts[document];
+						i < rowStarts[document + 1]; i++) {
+					postingStarts[terms[i] + 1]++;
+				}
+			}
+		}
+		for (int t = 0; t < numTerms; t++) {
+			postingStarts[t + 1] += postingStarts[t];
+		}
+		int[] postingEnds = new int[numTerms];
+		System.arraycopy(postingStarts, 0, postingEnds, 0, numTerms);
+		int[] postingRows = new int[postingStarts[numTerms]];
+		double[] postingWeights = new double[postingRows.length];
+		for (int row = 0; row < numRows; row++) {
+			int document = documentIds[row];
+			if (document >= 0 && documentNorms[document] > 0.0) {
+				double scale = 1.0 / documentNorms[document];
+				for (int i = rowStarts[document];
+						i < rowStarts[document + 1]; i++) {
+					int posting = postingEnds[terms[i]]++;
+					postingRows[posting] = row;
+					postingWeights[posting] = weights[i] * scale;
+				}
+			}
+		}
+
+		double[] similarities =
+			new double[(int) ((long) numRows * (numRows + 1) / 2)];
+		for (int row = 0; row < numRows; row++) {
+			int document = documentIds[row];
+			if (document >= 0 && documentNorms[document] > 0.0) {
+				int packedStart = (int) ((long) row * (row + 1) / 2);
+				double scale = 1.0 / documentNorms[document];
+				for (int i = rowStarts[document];
+						i < rowStarts[document + 1]; i++) {
+					int term = terms[i];
+					double weight = weights[i] * scale;
+					int end = postingEnds[term];
+					for (int posting = postingStarts[term];
+							posting < end && postingRows[posting] <= row;
+							posting++) {
+						similarities[packedStart + postingRows[posting]] +=
+							weight * postingWeights[posting];
+					}
+				}
+			}
+		}
+		return similarities;
+	}
+
+}
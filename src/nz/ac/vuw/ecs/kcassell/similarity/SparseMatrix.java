@@ -0,0 +1,149 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.Serializable;
+
+/**
+ * An immutable sparse matrix in compressed sparse row form: the nonzero
+ * entries of row r are at columns[rowStarts[r]..rowStarts[r+1]), in
+ * increasing column order, with their values at the same positions of
+ * values.
+ * @author Keith
+ */
+public class SparseMatrix implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final int numRows;
+	protected final int numColumns;
+	protected final int[] rowStarts;
+	protected final int[] columns;
+	protected final double[] values;
+
+	/**
+	 * @param numColumns the number of columns
+	 * @param rowStarts where each row's entries start, followed by the
+	 *   total number of entries
+	 * @param columns the column of each entry
+	 * @param values the value of each entry
+	 */
+	public SparseMatrix(int numColumns, int[] rowStarts, int[] columns,
+			double[] values) {
+		this.numRows = rowStarts.length - 1;
+		this.numColumns = numColumns;
+		this.rowStarts = rowStarts;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/**
+	 * @return the transpose, also in compressed sparse row form
+	 */
+	public SparseMatrix transpose() {
+		int[] starts = new int[numColumns + 1];
+		int numEntries = rowStarts[numRows];
+		for (int i = 0; i < numEntries; i++) {
+			starts[columns[i] + 1]++;
+		}
+		for (int c = 0; c < numColumns; c++) {
+			starts[c + 1] += starts[c];
+		}
+		int[] next = new int[numColumns];
+		System.arraycopy(starts, 0, next, 0, numColumns);
+		int[] transposedColumns = new int[numEntries];
+		double[] transposedValues = new double[numEntries];
+		for (int row = 0; row < numRows; row++) {
+			for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+				int position = next[columns[i]]++;
+				transposedColumns[position] = row;
+				transposedValues[position] = values[i];
+			}
+		}
+		return new SparseMatrix(numRows, starts, transposedColumns,
+				transposedValues);
+	}
+
+	/**
+	 * Multiplies rows first..last-1 by a dense matrix.
+	 * @param dense the dense matrix, stored by rows, with numColumns rows
+	 * @param width the number of columns of the dense matrix
+	 * @param product the product, stored by rows, with numRows rows
+	 */
+	public void multiplyRows(double[] dense, int width, double[] product,
+			int first, int last) {
+		for (int row = first; row < last; row++) {
+			int productStart = row * width;
+			for (int c = productStart; c < productStart + width; c++) {
+				product[c] = 0.0;
+			}
+			for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+				double value = values[i];
+				int denseStart = columns[i] * width;
+				for (int c = 0; c < width; c++) {
+					product[productStart + c] += value * dense[denseStart + c];
+				}
+			}
+		}
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * @return the number of nonzero entries
+	 */
+	public int getNumEntries() {
+		return rowStarts[numRows];
+	}
+
+	/**
+	 * @return the value at the row and column
+	 */
+	public double get(int row, int column) {
+		double value = 0.0;
+		for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++) {
+			if (columns[i] == column) {
+				value = values[i];
+			}
+		}
+		return value;
+	}
+
+}
@@ -5,23 +5,25 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.StringTokenizer;
 
 import nz.ac.vuw.ecs.kcassell.utils.EclipseUtils;
 import nz.ac.vuw.ecs.kcassell.utils.ObjectPersistence;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+import nz.ac.vuw.ecs.kcassell.utils.StringUtils;
 
 import org.eclipse.jdt.core.JavaModelException;
 
-import edu.ucla.sspace.common.KACSemanticSpace;
 import edu.ucla.sspace.common.Similarity;
-import edu.ucla.sspace.vector.DoubleVector;
 import edu.ucla.sspace.vector.Vector;
-import edu.ucla.sspace.vsm.VectorSpaceModel;
 
 /**
  * The VectorSpaceModelCalculator calculates distances between "documents"
@@ -30,16 +32,23 @@ import edu.ucla.sspace.vsm.VectorSpaceModel;
  * stemmed parts of the identifier.
  * (2) A "document" could be a Java class with its terms being the members 
  * it accesses.
+ * <p>
+ * A document's vector holds the number of times each term occurs in it.
+ * Documents have only a few terms, so the vectors are kept as sorted
+ * sparse arrays, with an inverted index from each term to the documents
+ * containing it (see SparseCosineCalculator).
  * @author kcassell
  *
  */
 public class VectorSpaceModelCalculator 
 // TODO extends SemanticsCalculator
-implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
+implements IncrementalDistanceCalculatorIfc<String>,
+    BulkDistanceCalculatorIfc<String>, CacheableDistanceCalculatorIfc<String>,
+    RefactoringConstants, Serializable {
 
 	public static final double MAX_CONCEPTUAL_DISTANCE = 1.0;
 
-	private static final long serialVersionUID = 2L;
+	private static final long serialVersionUID = 4L;
 	
 	/** Maps a project name to the calculator for that project. */
 	protected static transient Hashtable<String, VectorSpaceModelCalculator> calculatorMap =
@@ -55,14 +64,20 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 
 	/** The vector space model maintains document vectors
 	 * where class members are documents and the "words" are
-	 * stemmed parts of identifiers.  This will be either a
-	 * VectorSpaceModel or a LatentSemanticAnalysis object.  */
-	protected KACSemanticSpace semanticSpace = null;
+	 * stemmed parts of identifiers.  */
+	protected SparseCosineCalculator cosineCalculator = null;
 	
-	/** Maintains a mapping from the member handle to the S-Space
-	 * VectorSpaceModel's document number. */
+	/** Maps each term to its index in the document vectors. */
+	protected Map<String, Integer> termToIndex =
+		new HashMap<String, Integer>();
+	
+	/** Maintains a mapping from the member handle to the
+	 * document number. */
 	protected Map<String, Integer> memberHandleToDocumentNumber =
 		new HashMap<String, Integer>();
+	
+	/** A digest of the member documents the model was built from. */
+	protected String documentsFingerprint = "";
 
 	/**
 	 * Construct the calculator, building the vector space model
@@ -172,60 +187,118 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 * @param fileName the name of the file that contains
 	 * one member per line.  The first token is the member handle, and the 
 	 * remaining tokens are the stemmed words found in identifiers.
+	 * @return the calculator for the document vectors
 	 * @throws IOException
 	 */
-	public KACSemanticSpace initializeSemanticSpace(String fileName)
+	public SparseCosineCalculator initializeSemanticSpace(String fileName)
+	throws IOException {
+		termToIndex = new HashMap<String, Integer>();
+		memberHandleToDocumentNumber = new HashMap<String, Integer>();
+		List<String> documentLines = new ArrayList<String>();
+		List<int[]> documents = readDocuments(fileName, termToIndex,
+				memberHandleToDocumentNumber, documentLines);
+		documentsFingerprint = getDocumentsDigest(documentLines);
+		cosineCalculator = new SparseCosineCalculator(
+				createCountMatrix(documents, termToIndex.size()));
+		return cosineCalculator;
+	}
+
+	/**
+	 * Reads a file that contains all of the members in a class.
+	 * @param fileName the name of the file that contains
+	 * one member per line.  The first token is the member handle, and the 
+	 * remaining tokens are the words found in identifiers and comments.
+	 * @param termToIndex receives the index of each term
+	 * @param memberHandleToDocumentNumber receives the document number
+	 *   of each member
+	 * @param documentLines receives the lines holding the documents
+	 * @return the indices of the terms in each document
+	 * @throws IOException
+	 */
+	protected static List<int[]> readDocuments(String fileName,
+			Map<String, Integer> termToIndex,
+			Map<String, Integer> memberHandleToDocumentNumber,
+			List<String> documentLines)
 	throws IOException {
-		semanticSpace = new VectorSpaceModel();
 		BufferedReader documentFileReader = new BufferedReader(new FileReader(
 				fileName));
-		int lineNum = 0;
-		String line = null;
-		String memberName = null;
-		while ((line = documentFileReader.readLine()) != null) {
-			memberName = processMemberDocument(semanticSpace, line);
-			
-			if (semanticSpace.getProcessedDocument()) {
-				memberHandleToDocumentNumber.put(memberName, lineNum++);
-			} else {
-				System.out.println("processMemberDocument failed for " + line);
+		List<int[]> documents = new ArrayList<int[]>();
+		try {
+			String line = null;
+			while ((line = documentFileReader.readLine()) != null) {
+				StringTokenizer tokenizer = new StringTokenizer(line, " ");
+				if (tokenizer.hasMoreTokens()) {
+					String memberName = tokenizer.nextToken();
+					int[] termIds = new int[tokenizer.countTokens()];
+					for (int i = 0; i < termIds.length; i++) {
+						String term = tokenizer.nextToken();
+						Integer termId = termToIndex.get(term);
+						if (termId == null) {
+							termId = termToIndex.size();
+							termToIndex.put(term, termId);
+						}
+						termIds[i] = termId;
+					}
+					memberHandleToDocumentNumber.put(memberName, documents.size());
+					documents.add(termIds);
+					documentLines.add(line);
+				}
 			}
+		} finally {
+			documentFileReader.close();
 		}
-		documentFileReader.close();
-		
-		semanticSpace.processSpace(System.getProperties());
-//		int vsmColumns = vectorSpaceModel.getVectorLength();
-//		int docsRead = memberHandleToDocumentNumber.size();
-		return semanticSpace;
+		return documents;
 	}
 
 	/**
-	 * Process a line from a file that contains all of the members in a class.
-	 * @param vsm
-	 * @param line the first token is the member handle, and the 
-	 * remaining tokens are the words found in identifiers and comments.
-	 * @throws IOException
+	 * @param documentLines the lines holding the member documents
+	 * @return a digest of the documents that doesn't depend on the
+	 *   order of the lines
+	 */
+	protected static String getDocumentsDigest(List<String> documentLines) {
+		List<String> sortedLines = new ArrayList<String>(documentLines);
+		Collections.sort(sortedLines);
+		return StringUtils.getDigest(sortedLines);
+	}
+
+	/**
+	 * Creates the document-term matrix, with a row for each document
+	 * holding the number of times each term occurs in the document.
+	 * @param documents the ids of the terms in each document
+	 * @param numTerms the number of distinct terms
+	 * @return the matrix of counts
 	 */
-	protected static String processMemberDocument(KACSemanticSpace vsm,
-			String line) throws IOException {
-		String memberName;
-		String restOfMember;
-		int spaceIndex = line.indexOf(' ');
-		if (spaceIndex > -1) {
-			memberName = line.substring(0, spaceIndex);
-			if (spaceIndex < line.length() - 2) {
-				restOfMember = line.substring(spaceIndex + 1);
-			} else {
-				restOfMember = "";
+	protected static SparseMatrix createCountMatrix(List<int[]> documents,
+			int numTerms) {
+		int numDocuments = documents.size();
+		int[] rowStarts = new int[numDocuments + 1];
+		List<int[]> sortedDocuments = new ArrayList<int[]>(numDocuments);
+		for (int d = 0; d < numDocuments; d++) {
+			int[] termIds = documents.get(d).clone();
+			Arrays.sort(termIds);
+			sortedDocuments.add(termIds);
+			int numDistinct = 0;
+			for (int i = 0; i < termIds.length; i++) {
+				if (i == 0 || termIds[i] != termIds[i - 1]) {
+					numDistinct++;
+				}
+			}
+			rowStarts[d + 1] = rowStarts[d] + numDistinct;
+		}
+		int[] columns = new int[rowStarts[numDocuments]];
+		double[] counts = new double[columns.length];
+		for (int d = 0; d < numDocuments; d++) {
+			int[] termIds = sortedDocuments.get(d);
+			int entry = rowStarts[d] - 1;
+			for (int i = 0; i < termIds.length; i++) {
+				if (i == 0 || termIds[i] != termIds[i - 1]) {
+					entry++;
+					columns[entry] = termIds[i];
+				}
+				counts[entry]++;
 			}
-			StringReader stringReader = new StringReader(restOfMember);
-			BufferedReader memberTokensReader =
-				new BufferedReader(stringReader);
-			vsm.processDocument(memberTokensReader);
-		} else {
-			memberName = line;
 		}
-		return memberName;
+		return new SparseMatrix(numTerms, rowStarts, columns, counts);
 	}
 
 //	/**
@@ -267,11 +340,14 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		int numPairs = 0;
 		Double total = 0.0;
 		if (numMethods > 1) {
+			DistanceMatrix<String> distances =
+				new DistanceMatrix<String>(methodHandles);
+			fillMatrix(distances);
 			for (int i = 0; i < numMethods; i++) {
 				String handleI = methodHandles.get(i);
 				for (int j = i + 1; j < numMethods; j++) {
 					String handleJ = methodHandles.get(j);
-					Number distance = calculateDistance(handleI, handleJ);
+					Number distance = distances.getDistance(handleI, handleJ);
 					double similarity = 1.0 - distance.doubleValue();
 					numPairs++;
 					total += similarity;
@@ -298,17 +374,9 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		Integer documentInt2 = memberHandleToDocumentNumber.get(handle2);
 		
 		if (documentInt1 != null && documentInt2 != null) {
-			try {
-				DoubleVector vector1 = semanticSpace.getDocumentVector(documentInt1);
-				try {
-					DoubleVector vector2 = semanticSpace.getDocumentVector(documentInt2);
-					distance = calculateCosineDistance(vector1, vector2);
-				} catch (IllegalArgumentException e) {
-					System.err.println("No document vector found for " + handle2);
-				}
-			} catch (IllegalArgumentException e) {
-				System.err.println("No document vector found for " + handle1);
-			}
+			double similarity =
+				cosineCalculator.getSimilarity(documentInt1, documentInt2);
+			distance = Math.max(0.0, 1.0 - similarity);
 		}
 		if (distance < 0.0) {
 			distance = MAX_CONCEPTUAL_DISTANCE;
@@ -316,6 +384,25 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 		return distance;
 	}
 
+	/**
+	 * Calculates the distances between all of the matrix's members at
+	 * once, accumulating the similarities over an inverted index of the
+	 * members' terms so that members sharing no term are skipped.
+	 * Members without a document are at the maximum distance
+	 * from everything, as with calculateDistance.
+	 * @param matrix the matrix whose headers are member handles
+	 */
+	public void fillMatrix(DistanceMatrix<String> matrix) {
+		List<String> handles = matrix.getHeaders();
+		int[] documentIds = new int[handles.size()];
+		for (int i = 0; i < documentIds.length; i++) {
+			Integer documentInt =
+				memberHandleToDocumentNumber.get(handles.get(i));
+			documentIds[i] = (documentInt == null) ? -1 : documentInt;
+		}
+		cosineCalculator.fillMatrix(matrix, documentIds);
+	}
+
 	/**
 	 * Returns a number between 0 and 1 indicating how distant (dissimilar)
 	 * two vectors are.
@@ -343,15 +430,36 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 	 */
 	public Number calculateDistanceBetweenTerms(String handle1, String handle2) {
 		double distance = UNKNOWN_DISTANCE.doubleValue();
-		Vector<?> vector1 = semanticSpace.getVector(handle1);
-		Vector<?> vector2 = semanticSpace.getVector(handle2);
-		distance = calculateCosineDistance(vector1, vector2);
+		Integer termInt1 = termToIndex.get(handle1);
+		Integer termInt2 = termToIndex.get(handle2);
+		if (termInt1 != null && termInt2 != null) {
+			double similarity =
+				cosineCalculator.getTermSimilarity(termInt1, termInt2);
+			distance = Math.max(0.0, 1.0 - similarity);
+		}
 		return distance;
 	}
 
+	/**
+	 * The distance between two members depends only on their documents,
+	 * so editing a member only affects the member's own distances.
+	 * @param member the Eclipse handle of a class member
+	 * @return the member
+	 */
+	public Collection<String> getAffectedMembers(String member) {
+		return Collections.singletonList(member);
+	}
+
 	public DistanceCalculatorEnum getType() {
 		return DistanceCalculatorEnum.VectorSpaceModel;
 	}
+
+	/* (non-Javadoc)
+	 * @see nz.ac.vuw.ecs.kcassell.similarity.CacheableDistanceCalculatorIfc#getFingerprint()
+	 */
+	public String getFingerprint() {
+		return documentsFingerprint;
+	}
 	
 	/**
 	 * A simple test
@@ -415,23 +523,20 @@ implements DistanceCalculatorIfc<String>, RefactoringConstants, Serializable {
 				.get(documentMember2);
 		Integer documentInt3 = memberHandleToDocumentNumber
 				.get(documentMember3);
-		DoubleVector vector0 = semanticSpace
-				.getDocumentVector(documentInt0);
-		DoubleVector vector1 = semanticSpace
-				.getDocumentVector(documentInt1);
-		DoubleVector vector2 = semanticSpace
-				.getDocumentVector(documentInt2);
-		DoubleVector vector3 = semanticSpace
-				.getDocumentVector(documentInt3);
-		double similarity01 = Similarity.cosineSimilarity(vector0, vector1);
+		double similarity01 =
+			cosineCalculator.getSimilarity(documentInt0, documentInt1);
 		System.out.println("similarity01: " + similarity01);
-		double similarity12 = Similarity.cosineSimilarity(vector1, vector2);
+		double similarity12 =
+			cosineCalculator.getSimilarity(documentInt1, documentInt2);
 		System.out.println("similarity12: " + similarity12);
-		double similarity23 = Similarity.cosineSimilarity(vector2, vector3);
+		double similarity23 =
+			cosineCalculator.getSimilarity(documentInt2, documentInt3);
 		System.out.println("similarity23: " + similarity23);
-		double similarity13 = Similarity.cosineSimilarity(vector1, vector3);
+		double similarity13 =
+			cosineCalculator.getSimilarity(documentInt1, documentInt3);
 		System.out.println("similarity13: " + similarity13);
-		double similarity03 = Similarity.cosineSimilarity(vector0, vector3);
+		double similarity03 =
+			cosineCalculator.getSimilarity(documentInt0, documentInt3);
 		System.out.println("similarity03: " + similarity03);
 	}
 
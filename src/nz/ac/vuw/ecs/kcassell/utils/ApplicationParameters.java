@@ -147,6 +147,28 @@ public class ApplicationParameters {
 		return value;
 	}
 	
+	/**
+	 * Retrieve the stored value for the parameter if it exists.
+	 * If not, use the provided default value
+	 * @param key the parameter name
+	 * @param value the default value to use if none is stored
+	 * @return the parameter's value
+	 */
+	public double getDoubleParameter(String key, double value)
+	{
+		if (properties != null) {
+			String sValue = properties.getProperty(key);
+			if (sValue != null) {
+				try {
+				    value = Double.parseDouble(sValue.trim());
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return value;
+	}
+	
 	/**
 	 * Store the value for the parameter
 	 * @param key the parameter name
@@ -33,7 +33,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.utils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -52,6 +52,7 @@ import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.Signature;
 import org.eclipse.jdt.core.search.IJavaSearchConstants;
 import org.eclipse.jdt.core.search.IJavaSearchScope;
 import org.eclipse.jdt.core.search.SearchEngine;
@@ -368,26 +369,54 @@ implements IJavaSearchConstants, RefactoringConstants {
 
 		ITypeHierarchy hierarchy = aType.newSupertypeHierarchy(null);
 		IType[] supertypes = hierarchy.getAllSupertypes(aType);
-		HashSet<IMethod> allSuperMethods = new HashSet<IMethod>();
+		// The key is the similarity key of a supertype's method
+		HashMap<String, IMethod> allSuperMethods =
+			new HashMap<String, IMethod>();
 
 		for (IType supertype : supertypes) {
 			IMethod[] methods = supertype.getMethods();
-			List<IMethod> superMethods = Arrays.asList(methods);
-			allSuperMethods.addAll(superMethods);
+			for (IMethod superMethod : methods) {
+				String key = getSimilarityKey(superMethod);
+				if (!allSuperMethods.containsKey(key)) {
+					allSuperMethods.put(key, superMethod);
+				}
+			}
 		}
 
 		// Check each method to see if it is declared elsewhere
 		for (IMethod method : theseMethods) {
-			for (IMethod superMethod : allSuperMethods) {
-				if (method.isSimilar(superMethod)) {
-					requiredMethods.add(superMethod);
-					break;
-				}
+			IMethod superMethod = allSuperMethods.get(getSimilarityKey(method));
+			if (superMethod != null) {
+				requiredMethods.add(superMethod);
 			}
 		}
 		return requiredMethods;
 	}
 
+	/**
+	 * Gets a key that is the same for two methods exactly when
+	 * IMethod.isSimilar considers them similar, i.e. when they have the
+	 * same name and the same simple names for the erasures of their
+	 * parameter types.  This allows similar methods to be found with a
+	 * hash lookup rather than by comparing every pair of methods.
+	 * @param method the method
+	 * @return the method's name followed by its simple parameter type names
+	 */
+	public static String getSimilarityKey(IMethod method) {
+		StringBuffer buf = new StringBuffer(method.getElementName());
+		buf.append('(');
+		String[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				buf.append(',');
+			}
+			String erasure = Signature.getTypeErasure(parameterTypes[i]);
+			buf.append(Signature.getSimpleName(Signature.toString(erasure)));
+		}
+		buf.append(')');
+		return buf.toString();
+	}
+
 	/**
 	 * @param type the type whose superclasses are desired
 	 * @return all supertypes, in bottom up order
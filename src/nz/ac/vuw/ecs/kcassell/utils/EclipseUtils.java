@@ -34,6 +34,7 @@ package nz.ac.vuw.ecs.kcassell.utils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JOptionPane;
 
@@ -67,6 +68,11 @@ import org.eclipse.ui.part.FileEditorInput;
 
 public class EclipseUtils {
 
+	/** Java elements already created from their handles.  The elements
+	 *  are themselves only handles, so they can be shared. */
+	private static ConcurrentHashMap<String, IJavaElement> elementCache =
+		new ConcurrentHashMap<String, IJavaElement>();
+
 	public static IJavaModel prepareWorkspace() {
 		IWorkspace workspace = ResourcesPlugin.getWorkspace();
 		IWorkspaceRoot workspaceRoot = workspace.getRoot();
@@ -99,18 +105,44 @@ public class EclipseUtils {
 		workbenchWindow.getActivePage();
 	}
 
+	/**
+	 * Creates the Java element for a handle, reusing the element
+	 * if it has been created before.
+	 * @param handle The Eclipse handle for the Java element
+	 * @return the element, or null if none could be created
+	 */
+	public static IJavaElement getElementFromHandle(String handle) {
+		IJavaElement element = null;
+		if (handle != null) {
+			element = elementCache.get(handle);
+			if (element == null) {
+				element = JavaCore.create(handle);
+				if (element != null) {
+					elementCache.putIfAbsent(handle, element);
+				}
+			}
+		}
+		return element;
+	}
+
 	public static IType getTypeFromHandle(String handle) {
     	IType type = null;
-        IJavaElement element = JavaCore.create(handle);
-        if (element == null) {
+    	JavaElementHandle parsedHandle = JavaElementHandle.intern(handle);
+        if (parsedHandle == null) {
             System.err.println("  No element created from " + handle);
-        } else {
-			IOpenable openable = element.getOpenable();
-			if (openable == null) {
-				System.err.println(handle + " has no openable ancestors");
-			} else if (element instanceof IType) {
-			    type = (IType) element;
-			}
+        } else if (parsedHandle.getKind() == JavaElementHandle.Kind.TYPE) {
+        	// Only types need the Java model
+            IJavaElement element = getElementFromHandle(handle);
+            if (element == null) {
+                System.err.println("  No element created from " + handle);
+            } else {
+    			IOpenable openable = element.getOpenable();
+    			if (openable == null) {
+    				System.err.println(handle + " has no openable ancestors");
+    			} else if (element instanceof IType) {
+    			    type = (IType) element;
+    			}
+            }
 		}
 		return type;
 	}
@@ -121,13 +153,13 @@ public class EclipseUtils {
 	 */
 	public static String getNameFromHandle(String handle) {
     	String name = null;
-        IJavaElement element = JavaCore.create(handle);
-        if (element == null) {
+    	JavaElementHandle parsedHandle = JavaElementHandle.intern(handle);
+        if (parsedHandle == null) {
             System.err.println("EclipseUtils.getNameFromHandle:" + 
             		" No element created from " + handle);
             name = handle;
         } else {
-            name = element.getElementName();
+            name = parsedHandle.getElementName();
         }
 		return name;
 	}
@@ -138,13 +170,13 @@ public class EclipseUtils {
 	 */
 	public static String getProjectNameFromHandle(String handle) {
     	String name = null;
-        IJavaElement element = JavaCore.create(handle);
-        if (element == null) {
+    	JavaElementHandle parsedHandle = JavaElementHandle.intern(handle);
+        if (parsedHandle == null) {
             System.err.println("EclipseUtils.getProjectNameFromHandle:" + 
             		" No element created from " + handle);
             name = handle;
         } else {
-            name = element.getJavaProject().getElementName();
+            name = parsedHandle.getProjectName();
         }
 		return name;
 	}
@@ -0,0 +1,311 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The information encoded in an Eclipse Java element handle (memento),
+ * e.g. =Weka/&lt;weka.core{Instances.java[Instances~insertAttributeAt~QAttribute;~I
+ * The handle is parsed without consulting the Java model, so this works
+ * without a workbench.  Parsed handles are immutable and interned, so
+ * each distinct handle is parsed only once no matter how many threads
+ * ask for it.
+ * @author Keith
+ */
+public class JavaElementHandle {
+
+	/** The kind of Java element a handle refers to. */
+	public enum Kind {
+		PROJECT,
+		PACKAGE_FRAGMENT_ROOT,
+		PACKAGE_FRAGMENT,
+		COMPILATION_UNIT,
+		CLASS_FILE,
+		TYPE,
+		FIELD,
+		METHOD,
+		INITIALIZER,
+		LOCAL_VARIABLE,
+		OTHER
+	}
+
+	// Delimiters used in handle mementos (see org.eclipse.jdt.internal.core.JavaElement)
+	private static final char JEM_ESCAPE = '\\';
+	private static final char JEM_JAVAPROJECT = '=';
+	private static final char JEM_PACKAGEFRAGMENTROOT = '/';
+	private static final char JEM_PACKAGEFRAGMENT = '<';
+	private static final char JEM_FIELD = '^';
+	private static final char JEM_METHOD = '~';
+	private static final char JEM_INITIALIZER = '|';
+	private static final char JEM_COMPILATIONUNIT = '{';
+	private static final char JEM_CLASSFILE = '(';
+	private static final char JEM_TYPE = '[';
+	private static final char JEM_PACKAGEDECLARATION = '%';
+	private static final char JEM_IMPORTDECLARATION = '#';
+	private static final char JEM_COUNT = '!';
+	private static final char JEM_LOCALVARIABLE = '@';
+	private static final char JEM_TYPE_PARAMETER = ']';
+	private static final char JEM_ANNOTATION = '}';
+
+	private static final String DELIMITERS = "=/<^~|{([%#!@]}";
+
+	/** Previously parsed handles, keyed by the handle string. */
+	private static ConcurrentHashMap<String, JavaElementHandle> internedHandles =
+		new ConcurrentHashMap<String, JavaElementHandle>();
+
+	private final String handle;
+	private final Kind kind;
+	private final String projectName;
+	private final String packageName;
+	/** The name of the innermost type, or "" if there is none. */
+	private final String typeName;
+	/** The type names, outermost first, joined with "." */
+	private final String qualifiedTypeName;
+	private final String elementName;
+	/** The parameter type signatures of a method. */
+	private final List<String> parameterTypes;
+
+	private JavaElementHandle(String handle, Kind kind, String projectName,
+			String packageName, List<String> typeNames, String elementName,
+			List<String> parameterTypes) {
+		this.handle = handle;
+		this.kind = kind;
+		this.projectName = projectName;
+		this.packageName = packageName;
+		this.elementName = elementName;
+		this.parameterTypes = Collections.unmodifiableList(parameterTypes);
+		StringBuffer buf = new StringBuffer();
+		for (String name : typeNames) {
+			if (buf.length() > 0) {
+				buf.append(".");
+			}
+			buf.append(name);
+		}
+		this.qualifiedTypeName = buf.toString();
+		this.typeName = typeNames.isEmpty() ?
+				"" : typeNames.get(typeNames.size() - 1);
+	}
+
+	/**
+	 * Returns the parsed form of the handle, parsing it only if no
+	 * thread has done so before.
+	 * @param handle an Eclipse Java element handle
+	 * @return the parsed handle, or null if the string isn't a handle
+	 */
+	public static JavaElementHandle intern(String handle) {
+		JavaElementHandle parsed = null;
+		if (handle != null) {
+			parsed = internedHandles.get(handle);
+			if (parsed == null) {
+				parsed = parse(handle);
+				if (parsed != null) {
+					JavaElementHandle previous =
+						internedHandles.putIfAbsent(handle, parsed);
+					if (previous != null) {
+						parsed = previous;
+					}
+				}
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Parses a handle without consulting the cache.
+	 * @param handle an Eclipse Java element handle
+	 * @return the parsed handle, or null if the string isn't a handle
+	 */
+	public static JavaElementHandle parse(String handle) {
+		if (handle == null || handle.length() < 2
+				|| handle.charAt(0) != JEM_JAVAPROJECT) {
+			return null;
+		}
+		Kind kind = Kind.PROJECT;
+		String projectName = "";
+		String packageName = "";
+		String elementName = "";
+		List<String> typeNames = new ArrayList<String>();
+		List<String> parameterTypes = new ArrayList<String>();
+		StringBuffer token = new StringBuffer();
+		int length = handle.length();
+		int position = 0;
+		boolean done = false;
+
+		while (position < length && !done) {
+			char delimiter = handle.charAt(position);
+			position = readToken(handle, position + 1, token);
+			String name = token.toString();
+
+			switch (delimiter) {
+			case JEM_JAVAPROJECT:
+				kind = Kind.PROJECT;
+				projectName = name;
+				elementName = name;
+				break;
+			case JEM_PACKAGEFRAGMENTROOT:
+				kind = Kind.PACKAGE_FRAGMENT_ROOT;
+				elementName = name;
+				break;
+			case JEM_PACKAGEFRAGMENT:
+				kind = Kind.PACKAGE_FRAGMENT;
+				packageName = name;
+				elementName = name;
+				break;
+			case JEM_COMPILATIONUNIT:
+				kind = Kind.COMPILATION_UNIT;
+				elementName = name;
+				break;
+			case JEM_CLASSFILE:
+				kind = Kind.CLASS_FILE;
+				elementName = name;
+				break;
+			case JEM_TYPE:
+				kind = Kind.TYPE;
+				typeNames.add(name);
+				elementName = name;
+				break;
+			case JEM_FIELD:
+				kind = Kind.FIELD;
+				elementName = name;
+				break;
+			case JEM_METHOD:
+				if (kind == Kind.METHOD) {
+					parameterTypes.add(name);
+				} else {
+					kind = Kind.METHOD;
+					elementName = name;
+					parameterTypes.clear();
+				}
+				break;
+			case JEM_INITIALIZER:
+				kind = Kind.INITIALIZER;
+				elementName = "";
+				break;
+			case JEM_COUNT:
+				// occurrence count - doesn't change the element
+				break;
+			case JEM_LOCALVARIABLE:
+				// The rest of the memento describes the variable's position
+				kind = Kind.LOCAL_VARIABLE;
+				elementName = name;
+				done = true;
+				break;
+			case JEM_TYPE_PARAMETER:
+			case JEM_ANNOTATION:
+			case JEM_IMPORTDECLARATION:
+			case JEM_PACKAGEDECLARATION:
+				kind = Kind.OTHER;
+				elementName = name;
+				break;
+			default:
+				return null;
+			}
+		}
+		return new JavaElementHandle(handle, kind, projectName, packageName,
+				typeNames, elementName, parameterTypes);
+	}
+
+	/**
+	 * Collects the (unescaped) characters up to the next delimiter.
+	 * @return the position of the next delimiter (or the end of the handle)
+	 */
+	private static int readToken(String handle, int position,
+			StringBuffer token) {
+		token.setLength(0);
+		int length = handle.length();
+		while (position < length) {
+			char c = handle.charAt(position);
+			if (c == JEM_ESCAPE && position + 1 < length) {
+				position++;
+				token.append(handle.charAt(position));
+			} else if (DELIMITERS.indexOf(c) >= 0) {
+				break;
+			} else {
+				token.append(c);
+			}
+			position++;
+		}
+		return position;
+	}
+
+	public String getHandle() {
+		return handle;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getProjectName() {
+		return projectName;
+	}
+
+	public String getPackageName() {
+		return packageName;
+	}
+
+	/** @return the simple name of the innermost type, or "" */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/** @return the type's name qualified by its package and any
+	 * enclosing types, e.g. weka.core.Instances */
+	public String getFullyQualifiedTypeName() {
+		String qualifiedName = qualifiedTypeName;
+		if (packageName.length() > 0 && qualifiedTypeName.length() > 0) {
+			qualifiedName = packageName + "." + qualifiedTypeName;
+		}
+		return qualifiedName;
+	}
+
+	/** @return the element's simple name, as IJavaElement.getElementName
+	 *  would return it */
+	public String getElementName() {
+		return elementName;
+	}
+
+	/** @return a read-only list of a method's parameter type signatures */
+	public List<String> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	public String toString() {
+		return kind + " " + elementName + " (" + handle + ")";
+	}
+}
@@ -59,6 +59,14 @@ public interface ParameterConstants {
     use for displaying the results of agglomerative clustering. */
 	public static final String CLUSTER_TEXT_FORMAT_KEY = "clusterTextFormat";
 
+	/** The key for determining how precisely distance matrices store
+	 * distances.  See DistancePrecisionEnum for acceptable values. */
+	public static final String DISTANCE_PRECISION_KEY = "distancePrecision";
+
+	/** The key for determining the difference between adjacent distances
+	 * when distances are stored with FIXED_POINT precision. */
+	public static final String DISTANCE_STEP_KEY = "distanceStep";
+
 	/** The key for determining the edge type - directed or undirected. */
 	public static final String EDGE_TYPE_KEY = "edgeType";
 	
@@ -76,15 +84,61 @@ public interface ParameterConstants {
     use in agglomerative clustering. */
 	public static final String LINKAGE_KEY = "groupLinkage";
 
+	/** The key for the number of dimensions of the LSA space. */
+	public static final String LSA_RANK_KEY = "lsaRank";
+
+	/** The key for the number of extra random directions used when
+	 * finding the LSA space, which make it more accurate. */
+	public static final String LSA_OVERSAMPLING_KEY = "lsaOversampling";
+
+	/** The key for the number of power iterations used when finding
+	 * the LSA space, which make it more accurate. */
+	public static final String LSA_POWER_ITERATIONS_KEY =
+		"lsaPowerIterations";
+
+	/** The key for the directory where distance matrices are stored
+	 * for reuse.  If empty, matrices aren't stored. */
+	public static final String MATRIX_STORE_DIRECTORY_KEY =
+		"matrixStoreDirectory";
+
+	/** The key for the size limit, in megabytes, of the stored
+	 * distance matrices. */
+	public static final String MATRIX_STORE_MEGABYTES_KEY =
+		"matrixStoreMegabytes";
+
+	/** The key for determining whether distance matrices are stored
+	 * as floats rather than doubles. */
+	public static final String MATRIX_STORE_SINGLE_PRECISION_KEY =
+		"matrixStoreSinglePrecision";
+
 	/** The key for determining the max size threshold for the number of members
 	 * in a class.  */
 	public static final String MAX_MEMBERS_KEY = "maxMembers";
 	
+	/** The key for determining how many nearest neighbors are kept for
+	 * each member when clustering from a sparse neighbor graph. */
+	public static final String NEAREST_NEIGHBORS_KEY = "nearestNeighbors";
+	
+	/** The key for determining how many members a class must have before
+	 * single link clustering switches to the sparse neighbor graph. */
+	public static final String NEAREST_NEIGHBOR_THRESHOLD_KEY =
+		"nearestNeighborThreshold";
+	
 	/** The key for determining how many new betweenness clusters should
 	 * be created.	 */
 	public static final String NEW_BETWEENNESS_CLUSTERS_KEY =
 		"newBetweennessClusters";
 	
+	/** The key for determining how many new clusters should be created
+	 * by cutting the minimum cut tree.	 */
+	public static final String NEW_MAX_FLOW_CLUSTERS_KEY =
+		"newMaxFlowClusters";
+	
+	/** The key for determining the cohesion threshold (link capacity)
+	 * used by Flake's cut clustering.	 */
+	public static final String FLAKE_COHESION_THRESHOLD_KEY =
+		"flakeCohesionThreshold";
+	
 	/** The key for retrieving the parameter specifying how graph
 	 * nodes should be sized.
 	 * See nz.ac.vuw.ecs.kcassell.callgraph.ScoreType for acceptable values */
@@ -32,10 +32,43 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package nz.ac.vuw.ecs.kcassell.utils;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
 public class StringUtils {
 
 	public static final String SPACES140 =
 		"                                                                      " +
 		"                                                                      ";
 
+	/**
+	 * Computes a digest of the lines that is the same in every session,
+	 * for use as a key for stored results.
+	 * @param lines the lines of text, in order
+	 * @return the SHA-1 digest of the lines, as a hexadecimal string
+	 */
+	public static String getDigest(List<String> lines) {
+		StringBuffer buf = new StringBuffer();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String line : lines) {
+				digest.update(line.getBytes("UTF-8"));
+				digest.update((byte) '\n');
+			}
+			for (byte b : digest.digest()) {
+				buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+				buf.append(Character.forDigit(b & 0xf, 16));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-1
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform supports UTF-8
+			throw new IllegalStateException(e);
+		}
+		return buf.toString();
+	}
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2008, the JUNG Project and the Regents of the University
+ * of California
+ * All rights reserved.
+ *
+ * This software is open-source under the BSD license; see either
+ * "license.txt" or
+ * http://jung.sourceforge.net/license.txt for a description.
+ */
+package edu.uci.ics.jung.algorithms.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.DirectedSparseGraph;
+import edu.uci.ics.jung.graph.util.Pair;
+
+public class DAGLayoutBattistaTest {
+
+    /**
+     * Generates a DAG whose edges go from lower to higher numbered vertices,
+     * with the vertices added in a shuffled order.
+     */
+    private DirectedSparseGraph<Integer, Integer> generateDAG(Random random,
+            int numVertices, int numEdges) {
+        DirectedSparseGraph<Integer, Integer> graph =
+            new DirectedSparseGraph<Integer, Integer>();
+        List<Integer> vertices = new ArrayList<Integer>();
+        for (int v = 0; v < numVertices; v++) {
+            vertices.add(v);
+        }
+        Collections.shuffle(vertices, random);
+        for (Integer v : vertices) {
+            graph.addVertex(v);
+        }
+        for (int e = 0; graph.getEdgeCount() < numEdges; e++) {
+            int v1 = random.nextInt(numVertices);
+            int v2 = random.nextInt(numVertices);
+            if (v1 != v2 && graph.findEdge(Math.min(v1, v2), Math.max(v1, v2)) == null) {
+                graph.addEdge(e, Math.min(v1, v2), Math.max(v1, v2));
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Counts the crossings in the drawing, from the locations of the ends
+     * of the edges between adjacent layers.
+     */
+    private int countDrawnCrossings(DAGLayoutBattista<Integer, Integer> layout) {
+        List<List<double[]>> segments = new ArrayList<List<double[]>>();
+        for (int l = 0; l < layout.layers.size(); l++) {
+            segments.add(new ArrayList<double[]>());
+        }
+        for (Virtualizable<Integer> e : layout.virtualGraph.getEdges()) {
+            Pair<Virtualizable<Integer>> ends = layout.virtualGraph.getEndpoints(e);
+            int level = layout.vertexLevel.get(ends.getFirst());
+            Point2D upper = layout.getCoordinates(ends.getFirst());
+            Point2D lower = layout.getCoordinates(ends.getSecond());
+            segments.get(level).add(new double[] {upper.getX(), lower.getX()});
+        }
+        int crossings = 0;
+        for (List<double[]> layerSegments : segments) {
+            for (int i = 0; i < layerSegments.size(); i++) {
+                for (int j = i + 1; j < layerSegments.size(); j++) {
+                    double[] s1 = layerSegments.get(i);
+                    double[] s2 = layerSegments.get(j);
+                    if ((s1[0] - s2[0]) * (s1[1] - s2[1]) < 0) {
+                        crossings++;
+                    }
+                }
+            }
+        }
+        return crossings;
+    }
+
+    @Test
+    public void testEdgesJoinAdjacentLayers() {
+        Random random = new Random(7);
+        DirectedSparseGraph<Integer, Integer> graph = generateDAG(random, 150, 300);
+        DAGLayoutBattista<Integer, Integer> layout =
+            new DAGLayoutBattista<Integer, Integer>(graph, new Dimension(800, 600));
+
+        for (Virtualizable<Integer> e : layout.virtualGraph.getEdges()) {
+            Pair<Virtualizable<Integer>> ends = layout.virtualGraph.getEndpoints(e);
+            assertEquals(layout.vertexLevel.get(ends.getFirst()) + 1,
+                    (int) layout.vertexLevel.get(ends.getSecond()));
+        }
+        for (Integer v : graph.getVertices()) {
+            int level = layout.vertexLevel.get(new Virtualizable<Integer>(v, false));
+            for (Integer child : graph.getSuccessors(v)) {
+                assertTrue(layout.getY(child) > layout.getY(v));
+            }
+            if (graph.getPredecessorCount(v) == 0) {
+                assertEquals(0, level);
+            }
+        }
+    }
+
+    @Test
+    public void testTreesHaveNoCrossings() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 20; trial++) {
+            DirectedSparseGraph<Integer, Integer> tree =
+                new DirectedSparseGraph<Integer, Integer>();
+            tree.addVertex(0);
+            for (int v = 1; v < 200; v++) {
+                tree.addEdge(v, random.nextInt(v), v);
+            }
+            DAGLayoutBattista<Integer, Integer> layout =
+                new DAGLayoutBattista<Integer, Integer>(tree, new Dimension(800, 600));
+            assertEquals(0, layout.layeredGraph.countCrossings());
+            assertEquals(0, countDrawnCrossings(layout));
+        }
+    }
+
+    @Test
+    public void testCrossingsReduced() {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 20; trial++) {
+            DirectedSparseGraph<Integer, Integer> graph =
+                generateDAG(random, 50 + random.nextInt(250), 400);
+            DAGLayoutBattista<Integer, Integer> layout =
+                new DAGLayoutBattista<Integer, Integer>(graph, new Dimension(800, 600));
+            LayeredGraph layered = layout.layeredGraph;
+            long crossings = layered.countCrossings();
+
+            // The drawing preserves the ordering
+            assertEquals(crossings, countDrawnCrossings(layout));
+
+            // Reordering from random orders halves the crossings at least,
+            // and ends up near the layout's own ordering
+            for (int shuffle = 0; shuffle < 3; shuffle++) {
+                int[][] order = new int[layered.order.length][];
+                for (int l = 0; l < order.length; l++) {
+                    List<Integer> vertices = new ArrayList<Integer>();
+                    for (int v : layered.order[l]) {
+                        vertices.add(v);
+                    }
+                    Collections.shuffle(vertices, random);
+                    order[l] = new int[vertices.size()];
+                    for (int k = 0; k < order[l].length; k++) {
+                        order[l][k] = vertices.get(k);
+                    }
+                }
+                LayeredGraph shuffled = new LayeredGraph(order, layered.upper,
+                        layered.lower, layered.virtual);
+                long shuffledCrossings = shuffled.countCrossings();
+                shuffled.reduceCrossings(24);
+                long reducedCrossings = shuffled.countCrossings();
+                assertTrue(reducedCrossings <= shuffledCrossings / 2);
+                assertTrue(crossings <= 2 * reducedCrossings + 10);
+            }
+        }
+    }
+}
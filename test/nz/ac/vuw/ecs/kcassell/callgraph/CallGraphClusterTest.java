@@ -104,4 +104,37 @@ public class CallGraphClusterTest extends TestCase {
         assertTrue(indexNode2 > indexNode3);
     }
 
+    @Test
+    public void testNestedClusterElements()
+    {
+        Vector<CallGraphNode> nodeVec = new Vector<CallGraphNode>();
+        CallGraphNode[] leaves = new CallGraphNode[4];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = new CallGraphNode();
+            leaves[i].setId(i);
+            leaves[i].setScore(ScoreType.BASIC, i);
+        }
+        nodeVec.add(leaves[0]);
+        nodeVec.add(leaves[3]);
+        CallGraphCluster inner = new CallGraphCluster(nodeVec);
+        nodeVec.clear();
+        nodeVec.add(inner);
+        nodeVec.add(leaves[1]);
+        nodeVec.add(leaves[2]);
+        CallGraphCluster outer = new CallGraphCluster(nodeVec);
+
+        SortedSet<CallGraphNode> nodes = outer.getElements();
+        assertEquals(4, nodes.size());
+        assertEquals(leaves[3], nodes.first());
+        assertEquals(leaves[0], nodes.last());
+        assertFalse(nodes.contains(inner));
+        try {
+            nodes.remove(leaves[1]);
+            fail("Expected a read-only view");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(4, outer.getElements().size());
+        }
+        assertEquals(2, inner.getElements().size());
+    }
+
 }
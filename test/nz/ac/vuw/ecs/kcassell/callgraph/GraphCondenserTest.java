@@ -0,0 +1,255 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.CycleCalculator;
+import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+
+public class GraphCondenserTest {
+
+	private static final String SMALL_TESTS_DIR =
+		RefactoringConstants.DATA_DIR + "SmallTests/";
+
+	private static JavaCallGraph readGraph(String fileName) throws IOException {
+		CallGraphReader reader = new CallGraphReader(
+				new CallGraphNode.CallGraphNodeFactory(),
+				new CallGraphLink.CallGraphLinkFactory());
+		return reader.readGraph(SMALL_TESTS_DIR + fileName);
+	}
+
+	/** Generates a directed graph made up of chains of small cycles. */
+	private static JavaCallGraph generateGraph(Random random, int numNodes,
+			int numLinks) {
+		JavaCallGraph graph = new JavaCallGraph();
+		graph.setDefaultEdgeType(EdgeType.DIRECTED);
+		List<CallGraphNode> nodes = new ArrayList<CallGraphNode>();
+		for (int i = 0; i < numNodes; i++) {
+			nodes.add(graph.createNode("m" + i));
+		}
+		for (int i = 0; i < numLinks; i++) {
+			int n1 = random.nextInt(numNodes);
+			// Mostly forward links, with some back links making cycles
+			int n2 = (random.nextInt(4) == 0)
+				? Math.max(0, n1 - random.nextInt(5))
+				: n1 + random.nextInt(numNodes - n1);
+			graph.createLink(nodes.get(n1), nodes.get(n2));
+		}
+		return graph;
+	}
+
+	/**
+	 * Maps each node of the original graph to the node that replaced it
+	 * in the condensed graph.
+	 */
+	private static Map<CallGraphNode, CallGraphNode> getTranslation(
+			JavaCallGraph condensed) {
+		Map<CallGraphNode, CallGraphNode> translation =
+			new HashMap<CallGraphNode, CallGraphNode>();
+		for (CallGraphNode node : condensed.getJungGraph().getVertices()) {
+			if (node.getUserData() instanceof CallGraphCluster) {
+				CallGraphCluster cluster = (CallGraphCluster) node.getUserData();
+				for (CallGraphNode member : cluster.getElements()) {
+					translation.put(member, node);
+				}
+			} else {
+				translation.put(node, node);
+			}
+		}
+		return translation;
+	}
+
+	/**
+	 * Counts the links expected between the condensed nodes: one for each
+	 * successor of each original node, unless both are condensed into
+	 * the same node.
+	 */
+	private static Map<Pair<CallGraphNode>, Integer> getExpectedLinks(
+			Graph<CallGraphNode, CallGraphLink> graph,
+			Map<CallGraphNode, CallGraphNode> translation) {
+		Map<Pair<CallGraphNode>, Integer> expected =
+			new HashMap<Pair<CallGraphNode>, Integer>();
+		for (CallGraphNode node : graph.getVertices()) {
+			for (CallGraphNode successor : graph.getSuccessors(node)) {
+				CallGraphNode source = translation.get(node);
+				CallGraphNode dest = translation.get(successor);
+				if (source != dest) {
+					Pair<CallGraphNode> pair =
+						new Pair<CallGraphNode>(source, dest);
+					Integer count = expected.get(pair);
+					expected.put(pair, (count == null) ? 1 : count + 1);
+				}
+			}
+		}
+		return expected;
+	}
+
+	private static Map<Pair<CallGraphNode>, Integer> getLinks(
+			Graph<CallGraphNode, CallGraphLink> graph) {
+		Map<Pair<CallGraphNode>, Integer> links =
+			new HashMap<Pair<CallGraphNode>, Integer>();
+		for (CallGraphLink link : graph.getEdges()) {
+			Pair<CallGraphNode> pair = graph.getEndpoints(link);
+			Integer count = links.get(pair);
+			links.put(pair, (count == null) ? 1 : count + 1);
+		}
+		return links;
+	}
+
+	private static void assertCondensedToDAG(JavaCallGraph callGraph) {
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		Set<Set<CallGraphNode>> expectedComponents =
+			new HashSet<Set<CallGraphNode>>();
+		for (CallGraphCluster cluster :
+				new CycleCalculator().getStronglyConnectedComponents(graph)) {
+			expectedComponents.add(
+					new HashSet<CallGraphNode>(cluster.getElements()));
+		}
+
+		JavaCallGraph dag = GraphCondenser.toDAG(callGraph);
+		Graph<CallGraphNode, CallGraphLink> dagGraph = dag.getJungGraph();
+		Set<Set<CallGraphNode>> components = new HashSet<Set<CallGraphNode>>();
+		for (CallGraphNode node : dagGraph.getVertices()) {
+			if (node.getNodeType() == NodeType.CLUSTER) {
+				CallGraphCluster cluster = (CallGraphCluster) node.getUserData();
+				assertTrue(cluster.getElements().size() > 1);
+				components.add(new HashSet<CallGraphNode>(cluster.getElements()));
+			} else {
+				components.add(Collections.singleton(node));
+			}
+		}
+		assertEquals(expectedComponents.size(), dagGraph.getVertexCount());
+		assertEquals(expectedComponents, components);
+
+		// One directed link for each pair of linked components
+		Map<Pair<CallGraphNode>, Integer> expectedLinks =
+			getExpectedLinks(graph, getTranslation(dag));
+		Map<Pair<CallGraphNode>, Integer> links = getLinks(dagGraph);
+		assertEquals(expectedLinks.keySet(), links.keySet());
+		for (Integer count : links.values()) {
+			assertEquals(1, count.intValue());
+		}
+		for (CallGraphLink link : dagGraph.getEdges()) {
+			assertEquals(EdgeType.DIRECTED, dagGraph.getEdgeType(link));
+		}
+		for (CallGraphCluster cluster :
+				new CycleCalculator().getStronglyConnectedComponents(dagGraph)) {
+			assertEquals(1, cluster.getElements().size());
+		}
+	}
+
+	@Test
+	public void testToDAG() throws IOException {
+		String[] names = {"boxkite.net", "zachary.net", "denseGraph.net",
+				"cutSetExample14.net", "minSpForest.net"};
+		for (String name : names) {
+			assertCondensedToDAG(JavaCallGraph.toDirectedGraph(readGraph(name)));
+		}
+		Random random = new Random(40);
+		for (int trial = 0; trial < 20; trial++) {
+			assertCondensedToDAG(generateGraph(random, 200, 400));
+		}
+	}
+
+	@Test
+	public void testAssignComponentsOnLongCycle() {
+		// A cycle long enough to overflow a recursive search
+		int numVertices = 200000;
+		int[][] successors = new int[numVertices][];
+		for (int v = 0; v < numVertices; v++) {
+			successors[v] = new int[] {(v + 1) % numVertices};
+		}
+		int[] component = new int[numVertices];
+		assertEquals(1, CycleCalculator.assignComponents(successors, component));
+
+		// Breaking the cycle leaves a chain of components, numbered from
+		// the end of the chain
+		successors[numVertices - 1] = new int[0];
+		assertEquals(numVertices,
+				CycleCalculator.assignComponents(successors, component));
+		for (int v = 0; v < numVertices; v++) {
+			assertEquals(numVertices - 1 - v, component[v]);
+		}
+	}
+
+	@Test
+	public void testToCondensedGraph() throws IOException {
+		Random random = new Random(9);
+		for (EdgeType edgeType : EdgeType.values()) {
+			JavaCallGraph callGraph = readGraph("zachary.net");
+			if (edgeType == EdgeType.DIRECTED) {
+				callGraph = JavaCallGraph.toDirectedGraph(callGraph);
+			}
+			Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+			List<CallGraphNode> nodes =
+				new ArrayList<CallGraphNode>(graph.getVertices());
+			Collections.shuffle(nodes, random);
+			Set<CallGraphCluster> clusters = new HashSet<CallGraphCluster>();
+			clusters.add(new CallGraphCluster(nodes.subList(0, 5)));
+			clusters.add(new CallGraphCluster(nodes.subList(5, 8)));
+			clusters.add(new CallGraphCluster(nodes.subList(8, 9)));
+
+			JavaCallGraph condensed =
+				GraphCondenser.toCondensedGraph(callGraph, clusters);
+			Graph<CallGraphNode, CallGraphLink> condensedGraph =
+				condensed.getJungGraph();
+			assertEquals(graph.getVertexCount() - 4 - 2,
+					condensedGraph.getVertexCount());
+			assertEquals(getExpectedLinks(graph, getTranslation(condensed)),
+					getLinks(condensedGraph));
+			for (CallGraphLink link : condensedGraph.getEdges()) {
+				assertEquals(edgeType, condensedGraph.getEdgeType(link));
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.algorithms.shortestpath.BFSDistanceLabeler;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class LevelFinderTest {
+
+	private static final String SMALL_TESTS_DIR =
+		RefactoringConstants.DATA_DIR + "SmallTests/";
+
+	private static JavaCallGraph readGraph(String fileName) throws IOException {
+		CallGraphReader reader = new CallGraphReader(
+				new CallGraphNode.CallGraphNodeFactory(),
+				new CallGraphLink.CallGraphLinkFactory());
+		return reader.readGraph(SMALL_TESTS_DIR + fileName);
+	}
+
+	/** Makes some of the nodes fields, and the rest methods. */
+	private static Set<CallGraphNode> chooseFields(
+			Graph<CallGraphNode, CallGraphLink> graph, Random random) {
+		Set<CallGraphNode> fields = new HashSet<CallGraphNode>();
+		for (CallGraphNode node : graph.getVertices()) {
+			if (random.nextInt(5) == 0) {
+				node.setNodeType(NodeType.FIELD);
+				fields.add(node);
+			} else {
+				node.setNodeType(NodeType.METHOD);
+			}
+		}
+		return fields;
+	}
+
+	private static void assertSameLevels(
+			Graph<CallGraphNode, CallGraphLink> graph, Set<CallGraphNode> fields,
+			LevelFinder levelFinder) {
+		BFSDistanceLabeler<CallGraphNode, CallGraphLink> labeler =
+			new BFSDistanceLabeler<CallGraphNode, CallGraphLink>();
+		labeler.labelDistances(graph, fields);
+		// The fields may be taken in a different order, but each level
+		// must be visited before the next
+		List<CallGraphNode> visited = levelFinder.getVerticesInOrderVisited();
+		assertEquals(new HashSet<CallGraphNode>(labeler.getVerticesInOrderVisited()),
+				new HashSet<CallGraphNode>(visited));
+		for (int i = 1; i < visited.size(); i++) {
+			assertTrue(levelFinder.getLevel(visited.get(i - 1))
+					<= levelFinder.getLevel(visited.get(i)));
+		}
+
+		int numLinks = 0;
+		for (CallGraphNode node : graph.getVertices()) {
+			assertEquals(labeler.getDistance(graph, node),
+					levelFinder.getLevel(node));
+			Set<CallGraphNode> predecessors = labeler.getPredecessors(node);
+			numLinks += (predecessors == null) ? 0 : predecessors.size();
+		}
+		assertEquals(numLinks, levelFinder.getNumDAGLinks());
+		for (int i = 0; i < levelFinder.getNumDAGLinks(); i++) {
+			CallGraphNode source = levelFinder.getDAGLinkSource(i);
+			assertTrue(labeler.getPredecessors(source).contains(
+					levelFinder.getDAGLinkTarget(i)));
+		}
+	}
+
+	@Test
+	public void testMatchesBFSDistanceLabeler() throws IOException {
+		Random random = new Random(21);
+		LevelFinder levelFinder = new LevelFinder();
+		String[] names = {"boxkite.net", "zachary.net", "denseGraph.net",
+				"cutSetExample14.net", "minSpForest.net"};
+		for (String name : names) {
+			for (EdgeType edgeType : EdgeType.values()) {
+				JavaCallGraph callGraph = readGraph(name);
+				if (edgeType == EdgeType.DIRECTED) {
+					callGraph = JavaCallGraph.toDirectedGraph(callGraph);
+				}
+				Graph<CallGraphNode, CallGraphLink> graph =
+					callGraph.getJungGraph();
+				Set<CallGraphNode> fields = chooseFields(graph, random);
+				levelFinder.findLevels(graph);
+				assertSameLevels(graph, fields, levelFinder);
+
+				Graph<CallGraphNode, CallGraphLink> dag =
+					levelFinder.createDAG(graph);
+				assertEquals(levelFinder.getNumDAGLinks(), dag.getEdgeCount());
+				for (CallGraphLink link : dag.getEdges()) {
+					CallGraphNode source = dag.getSource(link);
+					CallGraphNode dest = dag.getDest(link);
+					assertEquals(levelFinder.getLevel(source),
+							levelFinder.getLevel(dest) + 1);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLevelsCachedPerVersion() throws IOException {
+		JavaCallGraph callGraph = readGraph("zachary.net");
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		Set<CallGraphNode> fields = chooseFields(graph, new Random(4));
+		LevelFinder levelFinder = new LevelFinder();
+
+		assertTrue(levelFinder.findLevels(callGraph));
+		assertFalse(levelFinder.findLevels(callGraph));
+		assertSameLevels(graph, fields, levelFinder);
+
+		// A new link changes the version, so the levels are found again
+		CallGraphNode field = fields.iterator().next();
+		CallGraphNode node = callGraph.createNode("newMethod");
+		callGraph.createLink(field, node);
+		assertTrue(levelFinder.findLevels(callGraph));
+		assertEquals(1, levelFinder.getLevel(node));
+		assertSameLevels(graph, fields, levelFinder);
+		assertFalse(levelFinder.findLevels(callGraph));
+
+		// Another graph isn't mistaken for this one
+		JavaCallGraph other = readGraph("boxkite.net");
+		Set<CallGraphNode> otherFields =
+			chooseFields(other.getJungGraph(), new Random(5));
+		assertTrue(levelFinder.findLevels(other));
+		assertSameLevels(other.getJungGraph(), otherFields, levelFinder);
+		assertTrue(levelFinder.findLevels(callGraph));
+	}
+
+	@Test
+	public void testDAGReusedPerVersion() throws IOException {
+		JavaCallGraph callGraph = readGraph("zachary.net");
+		Set<CallGraphNode> fields =
+			chooseFields(callGraph.getJungGraph(), new Random(6));
+		LevelFinder levelFinder = new LevelFinder();
+		Graph<CallGraphNode, CallGraphLink> dag =
+			levelFinder.createDAG(callGraph);
+		assertSame(dag, levelFinder.createDAG(callGraph));
+
+		// A change made directly to the JUNG graph that keeps its size
+		// is noticed if reported
+		Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+		CallGraphNode field = fields.iterator().next();
+		CallGraphLink link = graph.getIncidentEdges(field).iterator().next();
+		graph.removeEdge(link);
+		for (CallGraphNode node : graph.getVertices()) {
+			if (node != field && !graph.isNeighbor(field, node)) {
+				graph.addEdge(link, field, node);
+				break;
+			}
+		}
+		callGraph.graphChanged();
+		Graph<CallGraphNode, CallGraphLink> dag2 =
+			levelFinder.createDAG(callGraph);
+		assertNotSame(dag, dag2);
+		assertEquals(levelFinder.getNumDAGLinks(), dag2.getEdgeCount());
+		assertSameLevels(callGraph.getJungGraph(), fields, levelFinder);
+	}
+}
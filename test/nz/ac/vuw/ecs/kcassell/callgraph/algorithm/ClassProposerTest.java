@@ -0,0 +1,305 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.ClassProposer.Proposal;
+import nz.ac.vuw.ecs.kcassell.callgraph.algorithm.ClassProposer.Status;
+import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
+import nz.ac.vuw.ecs.kcassell.cluster.BetweennessClusterer;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassProposerTest {
+
+	private static final String SMALL_TESTS_DIR =
+		RefactoringConstants.DATA_DIR + "SmallTests/";
+
+	private File outputDir = null;
+
+	@Before
+	public void setUp() throws IOException {
+		outputDir = File.createTempFile("ClassProposerTest", "");
+		outputDir.delete();
+		outputDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : outputDir.listFiles()) {
+			file.delete();
+		}
+		outputDir.delete();
+	}
+
+	private List<File> getGraphFiles() {
+		List<String> paths = new ArrayList<String>();
+		paths.add(SMALL_TESTS_DIR + "zachary.net");
+		paths.add(SMALL_TESTS_DIR);
+		return ClassProposer.getGraphFiles(paths);
+	}
+
+	private ClassProposer createProposer(String format) {
+		ClassProposer proposer = new ClassProposer();
+		proposer.setNumThreads(3);
+		proposer.setOutputDir(outputDir);
+		proposer.setFormat(format);
+		return proposer;
+	}
+
+	@Test
+	public void testGetGraphFiles() {
+		List<File> files = getGraphFiles();
+		assertEquals("zachary.net", files.get(0).getName());
+		List<String> names = new ArrayList<String>();
+		for (File file : files.subList(1, files.size())) {
+			names.add(file.getName());
+		}
+		assertTrue(names.contains("kite.net"));
+		assertTrue(!names.contains("graphmlColors.xml"));
+		List<String> sortedNames = new ArrayList<String>(names);
+		Collections.sort(sortedNames);
+		assertEquals(sortedNames, names);
+	}
+
+	@Test
+	public void testResultsInInputOrder() throws IOException {
+		List<File> files = getGraphFiles();
+		ClassProposer proposer = createProposer(ClassProposer.CSV_FORMAT);
+		List<Proposal> proposals = proposer.proposeClasses(files);
+		assertEquals(files.size(), proposals.size());
+
+		File resultsFile = new File(outputDir, "results.csv");
+		proposer.writeResults(proposals, resultsFile);
+		List<String> lines = readLines(resultsFile);
+		assertEquals(files.size() + 1, lines.size());
+		assertEquals(proposer.getCsvHeader(), lines.get(0));
+		int numColumns = lines.get(0).split(",").length;
+
+		for (int i = 0; i < files.size(); i++) {
+			Proposal proposal = proposals.get(i);
+			assertEquals(files.get(i), proposal.getGraphFile());
+			assertEquals(Status.OK, proposal.getStatus());
+			String line = lines.get(i + 1);
+			assertTrue(line, line.startsWith(files.get(i).getPath() + ","));
+			assertEquals(line, numColumns, countCsvColumns(line));
+		}
+		Proposal zachary = proposals.get(0);
+		assertEquals(34, zachary.getNumNodes());
+		assertEquals(5, zachary.getClusterings().size());
+	}
+
+	@Test
+	public void testUpToDateResultsReused() {
+		List<File> files = getGraphFiles();
+		ClassProposer proposer = createProposer(ClassProposer.JSON_LINES_FORMAT);
+		List<Proposal> first = proposer.proposeClasses(files);
+		List<Proposal> second = proposer.proposeClasses(files);
+
+		for (int i = 0; i < files.size(); i++) {
+			assertEquals(Status.CACHED, second.get(i).getStatus());
+			assertEquals(first.get(i).getRecord(), second.get(i).getRecord());
+			assertTrue(second.get(i).getRecord().startsWith("{\"file\":"));
+		}
+		proposer.setForce(true);
+		List<Proposal> forced = proposer.proposeClasses(files);
+		assertEquals(Status.OK, forced.get(0).getStatus());
+	}
+
+	@Test
+	public void testTimeout() {
+		ClassProposer proposer = new ClassProposer() {
+			public Proposal proposeClasses(File graphFile) {
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.proposeClasses(graphFile);
+			}
+		};
+		proposer.setOutputDir(outputDir);
+		proposer.setTimeoutSeconds(1);
+		List<File> files = new ArrayList<File>();
+		files.add(new File(SMALL_TESTS_DIR + "kite.net"));
+		files.add(new File(SMALL_TESTS_DIR + "boxkite.net"));
+		List<Proposal> proposals = proposer.proposeClasses(files);
+
+		for (Proposal proposal : proposals) {
+			assertEquals(Status.TIMEOUT, proposal.getStatus());
+		}
+		assertEquals(0, outputDir.listFiles().length);
+	}
+
+	@Test
+	public void testMissingFile() {
+		ClassProposer proposer = createProposer(ClassProposer.CSV_FORMAT);
+		List<File> files = new ArrayList<File>();
+		files.add(new File(SMALL_TESTS_DIR + "noSuchGraph.net"));
+		Proposal proposal = proposer.proposeClasses(files).get(0);
+		assertEquals(Status.ERROR, proposal.getStatus());
+		assertTrue(proposal.getRecord().indexOf(",error,") > 0);
+	}
+
+	/**
+	 * Incremental removal should find the same clusters that
+	 * cluster(n) does for each number of edges removed.
+	 */
+	@Test
+	public void testClusterIncrementallyMatchesCluster() throws IOException {
+		String graphFile = SMALL_TESTS_DIR + "zachary.net";
+		BetweennessClusterer clusterer =
+			new BetweennessClusterer(readGraph(graphFile));
+		int numEdges = clusterer.getCallGraph().getJungGraph().getEdgeCount();
+		SortedMap<Integer, Collection<CallGraphNode>> clusterings =
+			clusterer.clusterIncrementally(3);
+		assertEquals(4, clusterings.size());
+		assertEquals(numEdges,
+				clusterer.getCallGraph().getJungGraph().getEdgeCount());
+
+		for (Map.Entry<Integer, Collection<CallGraphNode>> entry
+				: clusterings.entrySet()) {
+			BetweennessClusterer fresh =
+				new BetweennessClusterer(readGraph(graphFile));
+			Collection<CallGraphNode> expected = fresh.cluster(entry.getKey());
+			assertEquals(sortedSizes(expected), sortedSizes(entry.getValue()));
+		}
+	}
+
+	/**
+	 * An interrupt must stop the search part way through a betweenness
+	 * pass, which for this graph would otherwise take very long.
+	 */
+	@Test
+	public void testClusterIncrementallyStopsWithinPass() throws Exception {
+		JavaCallGraph callGraph = new JavaCallGraph();
+		CallGraphNode previous = callGraph.createNode("n0");
+		for (int i = 1; i < 20000; i++) {
+			CallGraphNode node = callGraph.createNode("n" + i);
+			callGraph.createLink(previous, node);
+			previous = node;
+		}
+		final BetweennessClusterer clusterer =
+			new BetweennessClusterer(callGraph);
+		final List<SortedMap<Integer, Collection<CallGraphNode>>> results =
+			new ArrayList<SortedMap<Integer, Collection<CallGraphNode>>>();
+		Thread worker = new Thread() {
+			public void run() {
+				results.add(clusterer.clusterIncrementally(1));
+			}
+		};
+		worker.start();
+		Thread.sleep(200);
+		worker.interrupt();
+		worker.join(10000);
+		assertFalse(worker.isAlive());
+		assertEquals(1, results.size());
+		assertEquals(1, results.get(0).size());
+		assertEquals(19999, callGraph.getJungGraph().getEdgeCount());
+	}
+
+	@Test
+	public void testResultFilesOfSameNamedGraphsDiffer() throws IOException {
+		ClassProposer proposer = createProposer(ClassProposer.CSV_FORMAT);
+		File file1 = new File(SMALL_TESTS_DIR, "kite.net");
+		File file2 = new File(outputDir, "kite.net");
+		assertFalse(proposer.getResultFile(file1).equals(
+				proposer.getResultFile(file2)));
+		assertEquals(proposer.getResultFile(file1),
+				proposer.getResultFile(new File(SMALL_TESTS_DIR + "./kite.net")));
+	}
+
+	private static JavaCallGraph readGraph(String fileName) throws IOException {
+		CallGraphReader reader = new CallGraphReader(
+				new CallGraphNode.CallGraphNodeFactory(),
+				new CallGraphLink.CallGraphLinkFactory());
+		return reader.readGraph(fileName);
+	}
+
+	private static List<Integer> sortedSizes(Collection<CallGraphNode> clusters) {
+		List<Integer> sizes = CallGraphCluster.getClusterSizes(clusters);
+		Collections.sort(sizes);
+		return sizes;
+	}
+
+	private static int countCsvColumns(String line) {
+		int count = 1;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			while (line != null) {
+				lines.add(line);
+				line = reader.readLine();
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,178 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.callgraph.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.io.CallGraphReader;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+import edu.uci.ics.jung.algorithms.scoring.HITS;
+import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
+import edu.uci.ics.jung.graph.Graph;
+
+public class SparseHITSTest {
+
+	private static final String SMALL_TESTS_DIR =
+		RefactoringConstants.DATA_DIR + "SmallTests/";
+
+	/** A graph with self loops, parallel edges, sources and sinks. */
+	private static Graph<Integer, Integer> randomGraph(Random random,
+			int numVertices, int numEdges) {
+		Graph<Integer, Integer> graph =
+			new DirectedSparseMultigraph<Integer, Integer>();
+		for (int v = 0; v < numVertices; v++) {
+			graph.addVertex(v);
+		}
+		for (int e = 0; e < numEdges; e++) {
+			// Skewed, so that some vertices are much better linked
+			int source = (int) (numVertices * Math.pow(random.nextDouble(), 2));
+			int target = random.nextInt(numVertices / 2);
+			graph.addEdge(e, source, target);
+		}
+		return graph;
+	}
+
+	/**
+	 * Checks the scores converge to those JUNG reaches after many
+	 * iterations (JUNG never detects convergence itself).
+	 */
+	private static <V, E> void assertConvergesToJungScores(Graph<V, E> graph) {
+		SparseHITS<V> sparse = new SparseHITS<V>(graph);
+		sparse.setTolerance(1e-12);
+		sparse.setMaxIterations(1000);
+		sparse.evaluate();
+		assertTrue(sparse.getIterations() < 1000);
+
+		HITS<V, E> jung = new HITS<V, E>(graph);
+		jung.setMaxIterations(2000);
+		jung.evaluate();
+		for (V v : graph.getVertices()) {
+			HITS.Scores scores = jung.getVertexScore(v);
+			assertEquals(scores.hub, sparse.getHubScore(v), 1e-9);
+			assertEquals(scores.authority, sparse.getAuthorityScore(v), 1e-9);
+		}
+	}
+
+	@Test
+	public void testConvergesToJungScores() throws IOException {
+		String[] names = {"boxkite.net", "kite.net", "zachary.net",
+				"denseGraph.net", "cutSetExample.net"};
+		for (String name : names) {
+			CallGraphReader reader = new CallGraphReader(
+					new CallGraphNode.CallGraphNodeFactory(),
+					new CallGraphLink.CallGraphLinkFactory());
+			JavaCallGraph callGraph = reader.readGraph(SMALL_TESTS_DIR + name);
+			Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+			assertConvergesToJungScores(graph);
+		}
+		assertConvergesToJungScores(randomGraph(new Random(3), 300, 1200));
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		Graph<Integer, Integer> graph = randomGraph(new Random(17), 10000, 40000);
+		SparseHITS<Integer> sparse = new SparseHITS<Integer>(graph);
+		sparse.setNumThreads(4);
+		sparse.evaluate();
+
+		SparseHITS<Integer> serial = new SparseHITS<Integer>(graph);
+		serial.setNumThreads(1);
+		serial.evaluate();
+		assertEquals(sparse.getIterations(), serial.getIterations());
+		for (Integer v : graph.getVertices()) {
+			assertEquals(serial.getHubScore(v), sparse.getHubScore(v), 0.0);
+			assertEquals(serial.getAuthorityScore(v),
+					sparse.getAuthorityScore(v), 0.0);
+		}
+	}
+
+	@Test
+	public void testIterationLimit() {
+		Graph<Integer, Integer> graph = randomGraph(new Random(5), 500, 2000);
+		SparseHITS<Integer> sparse = new SparseHITS<Integer>(graph);
+		sparse.setTolerance(0.0);
+		sparse.setMaxIterations(7);
+		sparse.evaluate();
+		assertEquals(7, sparse.getIterations());
+
+		sparse.setTolerance(0.001);
+		sparse.setMaxIterations(100);
+		sparse.evaluate();
+		assertTrue(sparse.getIterations() < 20);
+	}
+
+	@Test
+	public void testTopK() {
+		Graph<Integer, Integer> graph = randomGraph(new Random(9), 2000, 6000);
+		final SparseHITS<Integer> sparse = new SparseHITS<Integer>(graph);
+		sparse.evaluate();
+		List<Integer> sorted = new ArrayList<Integer>(graph.getVertices());
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer v1, Integer v2) {
+				int result = Double.compare(sparse.getAuthorityScore(v2),
+						sparse.getAuthorityScore(v1));
+				return (result == 0) ? v1.compareTo(v2) : result;
+			}
+		});
+		Comparator<Integer> natural = new Comparator<Integer>() {
+			public int compare(Integer v1, Integer v2) {
+				return v1.compareTo(v2);
+			}
+		};
+		for (int k : new int[] {0, 1, 10, 1999, 2000, 5000}) {
+			List<Integer> top = sparse.getTopAuthorities(k, natural);
+			assertEquals(sorted.subList(0, Math.min(k, sorted.size())), top);
+		}
+		List<Integer> hubs = sparse.getTopHubs(50, null);
+		assertEquals(50, hubs.size());
+		for (int i = 1; i < hubs.size(); i++) {
+			assertTrue(sparse.getHubScore(hubs.get(i - 1))
+					>= sparse.getHubScore(hubs.get(i)));
+		}
+	}
+}
@@ -34,26 +34,55 @@ package nz.ac.vuw.ecs.kcassell.callgraph.io;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
 import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
 import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+import nz.ac.vuw.ecs.kcassell.callgraph.ScoreType;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 
 import org.apache.commons.collections15.Factory;
+import org.apache.commons.collections15.Transformer;
 import org.junit.Before;
 import org.junit.Test;
 
 import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.SparseMultigraph;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
+import edu.uci.ics.jung.io.PajekNetReader;
+import edu.uci.ics.jung.io.graphml.GraphMLReader2;
 
 public class CallGraphReaderTest {
 
+	private static final String SMALL_TESTS_DIR =
+		RefactoringConstants.DATA_DIR + "SmallTests/";
+
+	Factory<CallGraphNode> vertexFactory = null;
+	Factory<CallGraphLink> edgeFactory = null;
+
 	@Before
 	public void setUp() throws Exception {
+		vertexFactory = new CallGraphNode.CallGraphNodeFactory();
+		edgeFactory = new CallGraphLink.CallGraphLinkFactory();
 	}
 
 	@Test
@@ -101,4 +130,323 @@ public class CallGraphReaderTest {
         assertEquals(7, jungGraph.getEdgeCount());
 	}
 
+	/** The streaming parser must read the same graphs as PajekNetReader. */
+	@Test
+	public void testPajekNetGraphsMatchPajekNetReader() throws IOException {
+		for (File file : getPajekFiles()) {
+			CallGraphReader graphReader =
+				new CallGraphReader(vertexFactory, edgeFactory);
+			JavaCallGraph callGraph = graphReader.readPajekNetGraph(file.getPath());
+			List<String> expected = readWithPajekNetReader(
+					new BufferedReader(new FileReader(file)));
+			assertEquals(file.getName(), expected,
+					describe(callGraph.getJungGraph(), graphReader.getVertexLabeler()));
+		}
+	}
+
+	/** Graphs written as Pajek must read back unchanged. */
+	@Test
+	public void testPajekNetRoundTrip() throws IOException {
+		for (File file : getPajekFiles()) {
+			CallGraphReader graphReader =
+				new CallGraphReader(vertexFactory, edgeFactory);
+			JavaCallGraph callGraph = graphReader.readPajekNetGraph(file.getPath());
+			List<String> original =
+				describe(callGraph.getJungGraph(), graphReader.getVertexLabeler());
+			StringWriter writer = new StringWriter();
+			CallGraphWriter.writePajekNet(callGraph.getJungGraph(), writer,
+					graphReader.getVertexLabeler(),
+					new CallGraphLink.LinkWeightTransformer());
+
+			CallGraphReader reader2 = new CallGraphReader(vertexFactory, edgeFactory);
+			JavaCallGraph callGraph2 = reader2.readPajekNetGraph(
+					new BufferedReader(new StringReader(writer.toString())));
+			assertEquals(file.getName(), original,
+					describe(callGraph2.getJungGraph(), reader2.getVertexLabeler()));
+			assertEquals(file.getName(), original, readWithPajekNetReader(
+					new BufferedReader(new StringReader(writer.toString()))));
+		}
+	}
+
+	/** The streaming parser must read the same graph as GraphMLReader2. */
+	@Test
+	public void testGraphMLGraphMatchesGraphMLReader2() throws Exception {
+		String file = SMALL_TESTS_DIR + "graphmlColors.xml";
+		Graph<CallGraphNode, CallGraphLink> graph =
+			GraphReader.readGraphMLGraph(file);
+		Graph<CallGraphNode, CallGraphLink> expected =
+			readWithGraphMLReader2(new BufferedReader(new FileReader(file)));
+		assertEquals(describe(expected, new NodeLabeler()),
+				describe(graph, new NodeLabeler()));
+	}
+
+	/** Graphs written as GraphML must read back unchanged. */
+	@Test
+	public void testGraphMLRoundTrip() throws Exception {
+		for (File file : getPajekFiles()) {
+			CallGraphReader graphReader =
+				new CallGraphReader(vertexFactory, edgeFactory);
+			Graph<CallGraphNode, CallGraphLink> graph =
+				graphReader.readPajekNetGraph(file.getPath()).getJungGraph();
+			// GraphML readers give unweighted edges a weight of 0
+			for (CallGraphLink edge : graph.getEdges()) {
+				if (edge.getWeight() == null) {
+					edge.setWeight(0.5);
+				}
+			}
+			StringWriter writer = new StringWriter();
+			CallGraphWriter.writeGraphML(graph, writer);
+
+			Graph<CallGraphNode, CallGraphLink> graph2 = new GraphMLParser()
+					.load(new StringReader(writer.toString()));
+			assertEquals(file.getName(), describe(graph, new NodeLabeler()),
+					describe(graph2, new NodeLabeler()));
+			Graph<CallGraphNode, CallGraphLink> graph3 = readWithGraphMLReader2(
+					new BufferedReader(new StringReader(writer.toString())));
+			assertEquals(file.getName(), describe(graph, new NodeLabeler()),
+					describe(graph3, new NodeLabeler()));
+		}
+	}
+
+	/** Graphs written in binary must read back unchanged. */
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		File binaryFile = File.createTempFile("callGraph",
+				"." + BinaryCallGraphFormat.BINARY_EXT);
+		binaryFile.deleteOnExit();
+
+		for (File file : getPajekFiles()) {
+			CallGraphReader graphReader =
+				new CallGraphReader(vertexFactory, edgeFactory);
+			JavaCallGraph callGraph = graphReader.readPajekNetGraph(file.getPath());
+			Graph<CallGraphNode, CallGraphLink> graph = callGraph.getJungGraph();
+			int i = 0;
+			for (CallGraphNode node : graph.getVertices()) {
+				node.setNodeType(NodeType.FIELD);
+				node.setMemberFlags(i % 3);
+				node.setScore(ScoreType.BASIC, i++ / 4.0);
+			}
+			CallGraphWriter.writeBinary(callGraph, binaryFile.getPath());
+
+			CallGraphReader reader2 = new CallGraphReader(vertexFactory, edgeFactory);
+			JavaCallGraph callGraph2 = reader2.readGraph(binaryFile.getPath());
+			Graph<CallGraphNode, CallGraphLink> graph2 = callGraph2.getJungGraph();
+			assertEquals(file.getName(),
+					describe(graph, graphReader.getVertexLabeler()),
+					describe(graph2, reader2.getVertexLabeler()));
+			for (CallGraphNode node : graph2.getVertices()) {
+				String label = callGraph2.getVertexLabel(node);
+				assertEquals(label, node.getLabel());
+				assertEquals(label, node.getSimpleName());
+				assertEquals(NodeType.FIELD, node.getNodeType());
+				assertEquals(node, callGraph2.getNode(label));
+				CallGraphNode original = callGraph.getNode(label);
+				assertEquals(original.getMemberFlags(), node.getMemberFlags());
+				assertEquals(original.getScores(), node.getScores());
+			}
+		}
+	}
+
+	/** Clusters must read back as clusters of the same nodes. */
+	@Test
+	public void testBinaryRoundTripKeepsClusters() throws IOException {
+		File binaryFile = File.createTempFile("callGraph",
+				"." + BinaryCallGraphFormat.BINARY_EXT);
+		binaryFile.deleteOnExit();
+		JavaCallGraph callGraph = new JavaCallGraph();
+		List<CallGraphNode> members = new ArrayList<CallGraphNode>();
+		members.add(new CallGraphNode.CallGraphNodeFactory().create());
+		members.get(0).setSimpleName("a");
+		members.add(new CallGraphNode.CallGraphNodeFactory().create());
+		members.get(1).setSimpleName("b");
+		members.get(1).setInherited(true);
+		List<CallGraphNode> subClusters = new ArrayList<CallGraphNode>();
+		subClusters.add(new CallGraphCluster(members));
+		CallGraphNode single = callGraph.createNode("c");
+		CallGraphCluster cluster = new CallGraphCluster(subClusters);
+		callGraph.addNode(cluster);
+		callGraph.createLink(cluster, single);
+		CallGraphWriter.writeBinary(callGraph, binaryFile.getPath());
+
+		CallGraphReader reader = new CallGraphReader(vertexFactory, edgeFactory);
+		JavaCallGraph callGraph2 = reader.readGraph(binaryFile.getPath());
+		CallGraphNode cluster2 = callGraph2.getNode(cluster.getLabel());
+		assertTrue(cluster2 instanceof CallGraphCluster);
+		assertEquals(cluster.toNestedString(), cluster2.toNestedString());
+		assertEquals(2, ((CallGraphCluster) cluster2).getElementCount());
+		CallGraphNode b = ((CallGraphCluster) cluster2).getElements().last();
+		assertEquals("b", b.getSimpleName());
+		assertTrue(b.isInherited());
+		assertEquals(1, callGraph2.getJungGraph().getEdgeCount());
+		assertEquals(2, callGraph2.getJungGraph().getVertexCount());
+	}
+
+	@Test
+	public void testBinaryRejectsOtherFiles() throws IOException {
+		File binaryFile = File.createTempFile("notCallGraph",
+				"." + BinaryCallGraphFormat.BINARY_EXT);
+		binaryFile.deleteOnExit();
+		FileWriter writer = new FileWriter(binaryFile);
+		writer.write("*Vertices 1\n1 \"A1\"\n");
+		writer.close();
+		CallGraphReader graphReader = new CallGraphReader(vertexFactory, edgeFactory);
+		try {
+			graphReader.readBinaryGraph(binaryFile.getPath());
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().indexOf("not a binary call graph") > -1);
+		}
+	}
+
+	@Test
+	public void testReadPajekNetGraphsInParallel() throws IOException {
+		List<File> files = getPajekFiles();
+		List<GraphReader<CallGraphNode, CallGraphLink>> readers =
+			GraphReader.readPajekNetGraphs(files, vertexFactory, edgeFactory, 3);
+		assertEquals(files.size(), readers.size());
+		List<GraphReader<CallGraphNode, CallGraphLink>> dirReaders =
+			GraphReader.readPajekNetGraphs(new File(SMALL_TESTS_DIR),
+					vertexFactory, edgeFactory);
+		assertEquals(files.size(), dirReaders.size());
+
+		for (int i = 0; i < files.size(); i++) {
+			GraphReader<CallGraphNode, CallGraphLink> serialReader =
+				new GraphReader<CallGraphNode, CallGraphLink>(
+						vertexFactory, edgeFactory);
+			Graph<CallGraphNode, CallGraphLink> expected =
+				serialReader.readPajekNetGraph(files.get(i).getPath());
+			List<String> expectedDescription =
+				describe(expected, serialReader.getVertexLabeler());
+			GraphReader<CallGraphNode, CallGraphLink> reader = readers.get(i);
+			assertEquals(files.get(i).getName(), expectedDescription,
+					describe(reader.getGraph(), reader.getVertexLabeler()));
+			reader = dirReaders.get(i);
+			assertEquals(files.get(i).getName(), expectedDescription,
+					describe(reader.getGraph(), reader.getVertexLabeler()));
+		}
+	}
+
+	/** GraphML files are written and read as UTF-8. */
+	@Test
+	public void testGraphMLFileKeepsNonAsciiLabels() throws Exception {
+		File graphMLFile = File.createTempFile("callGraph", ".xml");
+		graphMLFile.deleteOnExit();
+		JavaCallGraph callGraph = new JavaCallGraph();
+		CallGraphNode node1 = callGraph.createNode("caf\u00e9()");
+		CallGraphNode node2 = callGraph.createNode("\u03bb<T>&x");
+		CallGraphLink link = callGraph.createLink(node1, node2);
+		link.setWeight(0.5);
+		CallGraphWriter.writeGraphML(callGraph, graphMLFile.getPath());
+
+		Graph<CallGraphNode, CallGraphLink> graph =
+			GraphReader.readGraphMLGraph(graphMLFile.getPath());
+		assertEquals(describe(callGraph.getJungGraph(), new NodeLabeler()),
+				describe(graph, new NodeLabeler()));
+	}
+
+	/** A Pajek graph that can not be read must not replace the last one. */
+	@Test
+	public void testFailedPajekReadKeepsGraph() throws IOException {
+		GraphReader<CallGraphNode, CallGraphLink> graphReader =
+			new GraphReader<CallGraphNode, CallGraphLink>(
+					vertexFactory, edgeFactory);
+		BufferedReader closedReader =
+			new BufferedReader(new StringReader("*Vertices 1\n1 \"A1\"\n"));
+		closedReader.close();
+		try {
+			graphReader.readPajekNetGraph(closedReader);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertNull(graphReader.getGraph());
+		}
+
+		String file = SMALL_TESTS_DIR + "kite.net";
+		Graph<CallGraphNode, CallGraphLink> graph =
+			graphReader.readPajekNetGraph(file);
+		closedReader = new BufferedReader(new StringReader(""));
+		closedReader.close();
+		try {
+			graphReader.readPajekNetGraph(closedReader);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertSame(graph, graphReader.getGraph());
+		}
+	}
+
+	private List<File> getPajekFiles() {
+		File dir = new File(SMALL_TESTS_DIR);
+		List<File> files = new ArrayList<File>();
+		for (String name : dir.list(new PajekNetFilenameFilter())) {
+			files.add(new File(dir, name));
+		}
+		Collections.sort(files);
+		assertTrue(files.size() > 0);
+		return files;
+	}
+
+	private List<String> readWithPajekNetReader(BufferedReader reader)
+			throws IOException {
+		Graph<CallGraphNode, CallGraphLink> graph =
+			new SparseMultigraph<CallGraphNode, CallGraphLink>();
+		PajekNetReader<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink> pajekReader =
+			new PajekNetReader<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink>(
+				vertexFactory, edgeFactory);
+		pajekReader.setEdgeWeightTransformer(
+				new CallGraphLink.SettableLinkWeightTransformer());
+		pajekReader.load(reader, graph);
+		reader.close();
+		return describe(graph, pajekReader.getVertexLabeller());
+	}
+
+	private Graph<CallGraphNode, CallGraphLink> readWithGraphMLReader2(
+			BufferedReader reader) throws Exception {
+		GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink> graphMLreader =
+			new GraphMLReader2<Graph<CallGraphNode, CallGraphLink>, CallGraphNode, CallGraphLink>(
+				reader, new JavaCallGraph.CallGraphMetadataTransformer(),
+				new CallGraphNode.GraphMLNodeMetadataReader(),
+				new CallGraphLink.EdgeMetadataTransformer(),
+				new CallGraphLink.HyperEdgeMetadataTransformer());
+		Graph<CallGraphNode, CallGraphLink> graph = graphMLreader.readGraph();
+		graphMLreader.close();
+		return graph;
+	}
+
+	/** Labels nodes read from GraphML. */
+	private static class NodeLabeler implements Transformer<CallGraphNode, String> {
+		public String transform(CallGraphNode node) {
+			return node.getLabel();
+		}
+	}
+
+	/**
+	 * Describes a graph independently of vertex identity and iteration
+	 * order: the sorted vertex labels, then the sorted edges, each with
+	 * its endpoint labels, direction and weight.
+	 */
+	private static List<String> describe(Graph<CallGraphNode, CallGraphLink> graph,
+			Transformer<CallGraphNode, String> labeler) {
+		List<String> vertices = new ArrayList<String>();
+		for (CallGraphNode vertex : graph.getVertices()) {
+			vertices.add("vertex " + labeler.transform(vertex));
+		}
+		List<String> edges = new ArrayList<String>();
+		for (CallGraphLink edge : graph.getEdges()) {
+			Pair<CallGraphNode> endpoints = graph.getEndpoints(edge);
+			String label1 = labeler.transform(endpoints.getFirst());
+			String label2 = labeler.transform(endpoints.getSecond());
+			boolean directed = graph.getEdgeType(edge) == EdgeType.DIRECTED;
+			if (!directed && String.valueOf(label1).compareTo(String.valueOf(label2)) > 0) {
+				String temp = label1;
+				label1 = label2;
+				label2 = temp;
+			}
+			edges.add("edge " + label1 + (directed ? " -> " : " -- ") + label2
+					+ " " + edge.getWeight());
+		}
+		Collections.sort(vertices);
+		Collections.sort(edges);
+		vertices.addAll(edges);
+		return vertices;
+	}
+
 }
@@ -0,0 +1,130 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.SortedMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DendrogramCutsTest extends TestCase {
+
+	private int elementNumber = 0;
+
+	/** Builds a dendrogram whose distances needn't grow toward the root. */
+	private MemberCluster buildDendrogram(Random random, int depth) {
+		MemberCluster cluster = new MemberCluster();
+		cluster.setClusterName("c" + elementNumber++);
+		int numChildren = 1 + random.nextInt(3);
+		for (int i = 0; i < numChildren; i++) {
+			if (depth > 0 && random.nextInt(3) > 0) {
+				cluster.addCluster(buildDendrogram(random, depth - 1));
+			} else {
+				cluster.addElement("e" + elementNumber++);
+			}
+		}
+		cluster.setDistance(random.nextInt(11) / 10.0);
+		return cluster;
+	}
+
+	@Test
+	public void testSmallDendrogram() {
+		MemberCluster methods = new MemberCluster();
+		methods.setClusterName("3methods");
+		methods.setDistance(0.5);
+		methods.addElement("method1");
+		methods.addElement("method2");
+		methods.addElement("method3");
+		MemberCluster fields = new MemberCluster();
+		fields.setClusterName("2fields");
+		fields.setDistance(0.3);
+		fields.addElement("field1");
+		fields.addElement("field2");
+		MemberCluster top = new MemberCluster();
+		top.setDistance(1.0);
+		top.addCluster(fields);
+		top.addCluster(methods);
+
+		DendrogramCuts cuts =
+			new DendrogramCuts(top, new double[] {1.0, 0.9, 0.49, 0.2});
+		assertEquals(1, cuts.getClusterCount(0));
+		assertEquals(2, cuts.getClusterCount(1));
+		assertEquals(4, cuts.getClusterCount(2));
+		assertEquals(5, cuts.getClusterCount(3));
+		assertEquals("5", cuts.getSizesString(0));
+		assertEquals("3,2", cuts.getSizesString(1));
+		assertEquals("2,1(3)", cuts.getSizesString(2));
+		assertEquals("1(5)", cuts.getSizesString(3));
+		SortedMap<Integer, Integer> histogram = cuts.getSizeHistogram(2);
+		assertEquals(Integer.valueOf(2), histogram.firstKey());
+		assertEquals(Integer.valueOf(3), histogram.get(1));
+	}
+
+	@Test
+	public void testMatchesClustersAtDistance() {
+		double[] cutOffs = {0.999, 0.9, 0.75, 0.5, 0.0, 0.35, 1.0};
+		Random random = new Random(7);
+
+		for (int trial = 0; trial < 200; trial++) {
+			MemberCluster dendrogram = buildDendrogram(random, 6);
+			DendrogramCuts cuts = new DendrogramCuts(dendrogram, cutOffs, true);
+
+			for (int i = 0; i < cutOffs.length; i++) {
+				ArrayList<Object> expected =
+					dendrogram.getClustersAtDistance(cutOffs[i]);
+				assertEquals(expected, cuts.getClusters(i));
+				assertEquals(expected.size(), cuts.getClusterCount(i));
+				assertEquals(MemberCluster.clusterSizesToString(expected),
+						cuts.getSizesString(i));
+			}
+		}
+	}
+
+	@Test
+	public void testPartitionsNotKept() {
+		MemberCluster cluster = new MemberCluster();
+		cluster.addElement("field1");
+		DendrogramCuts cuts = new DendrogramCuts(cluster, new double[] {0.5});
+		assertEquals(1, cuts.getClusterCount(0));
+		try {
+			cuts.getClusters(0);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.similarity.IntraClassDistanceCalculator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class GraphBasedAgglomerativeClustererTest extends TestCase {
+
+	private JavaCallGraph callGraph = null;
+	private GraphBasedAgglomerativeClusterer clusterer = null;
+
+	@Before
+	public void setUp() {
+		callGraph = new JavaCallGraph();
+		callGraph.setDefaultEdgeType(EdgeType.UNDIRECTED);
+		CallGraphNode a = callGraph.createNode("a");
+		CallGraphNode b = callGraph.createNode("b");
+		CallGraphNode c = callGraph.createNode("c");
+		CallGraphNode d = callGraph.createNode("d");
+		CallGraphNode e = callGraph.createNode("e");
+		// The calculator weights c-d as the shortest link
+		callGraph.createLink(a, b);
+		callGraph.createLink(b, c);
+		callGraph.createLink(c, d);
+		callGraph.createLink(b, e);
+		clusterer = new GraphBasedAgglomerativeClusterer(callGraph,
+				new IntraClassDistanceCalculator(callGraph));
+	}
+
+	@Test
+	public void testCluster() {
+		Collection<CallGraphNode> clusters = clusterer.cluster(1);
+		assertEquals(4, clusters.size());
+		CallGraphCluster cluster = findCluster(clusters);
+		assertNotNull(cluster);
+		assertEquals(2, cluster.getElementCount());
+		assertTrue(cluster.getElements().contains(callGraph.getNode("c")));
+		assertTrue(cluster.getElements().contains(callGraph.getNode("d")));
+
+		clusters = clusterer.cluster(4);
+		assertEquals(1, clusters.size());
+		assertEquals(5, findCluster(clusters).getElementCount());
+	}
+
+	@Test
+	public void testClusterBackwards() {
+		clusterer.cluster(4);
+		Collection<CallGraphNode> clusters = clusterer.cluster(0);
+		assertEquals(5, clusters.size());
+		assertEquals(4, callGraph.getJungGraph().getEdgeCount());
+		assertNull(findCluster(clusters));
+		for (CallGraphLink link : callGraph.getEdges()) {
+			assertEquals(2,
+					callGraph.getJungGraph().getIncidentVertices(link).size());
+		}
+
+		// Redoing the history produces the same clusters
+		Collection<CallGraphNode> clusters1 = clusterer.cluster(1);
+		assertEquals(4, clusters1.size());
+		CallGraphCluster cluster = findCluster(clusters1);
+		assertTrue(cluster.getElements().contains(callGraph.getNode("c")));
+		assertTrue(cluster.getElements().contains(callGraph.getNode("d")));
+		assertEquals(1, clusterer.cluster(4).size());
+	}
+
+	@Test
+	public void testGetSnapshot() {
+		clusterer.cluster(2);
+		JavaCallGraph snapshot = clusterer.getSnapshot(0);
+		assertEquals(5, snapshot.getJungGraph().getVertexCount());
+		assertEquals(3, clusterer.getClusters().size());
+
+		// The snapshot doesn't share structure with the clustered graph
+		clusterer.cluster(4);
+		assertEquals(5, snapshot.getJungGraph().getVertexCount());
+		assertEquals(4, snapshot.getJungGraph().getEdgeCount());
+	}
+
+	/** Merging and unmerging must be seen by results cached per version. */
+	@Test
+	public void testClusteringChangesVersion() {
+		String fingerprint = callGraph.getFingerprint();
+		int version = callGraph.getVersion();
+		clusterer.cluster(1);
+		assertTrue(version != callGraph.getVersion());
+		assertFalse(fingerprint.equals(callGraph.getFingerprint()));
+
+		version = callGraph.getVersion();
+		clusterer.cluster(0);
+		assertTrue(version != callGraph.getVersion());
+		assertEquals(fingerprint, callGraph.getFingerprint());
+		clusterer.cluster(1);
+		assertFalse(fingerprint.equals(callGraph.getFingerprint()));
+	}
+
+	private static CallGraphCluster findCluster(
+			Collection<CallGraphNode> nodes) {
+		CallGraphCluster cluster = null;
+		for (CallGraphNode node : nodes) {
+			if (node instanceof CallGraphCluster) {
+				cluster = (CallGraphCluster) node;
+			}
+		}
+		return cluster;
+	}
+
+}
@@ -0,0 +1,155 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphCluster;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.uci.ics.jung.graph.util.EdgeType;
+
+public class MaxFlowClustererTest extends TestCase {
+
+	private JavaCallGraph callGraph = null;
+
+	/** Two cliques of four nodes joined by a single link, plus
+	 * a disconnected node. */
+	@Before
+	public void setUp() {
+		callGraph = new JavaCallGraph();
+		callGraph.setDefaultEdgeType(EdgeType.UNDIRECTED);
+		createClique("a");
+		createClique("b");
+		callGraph.createLink(callGraph.getNode("a1"), callGraph.getNode("b1"));
+		callGraph.createNode("z");
+	}
+
+	private void createClique(String prefix) {
+		CallGraphNode[] nodes = new CallGraphNode[4];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = callGraph.createNode(prefix + (i + 1));
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			for (int j = i + 1; j < nodes.length; j++) {
+				callGraph.createLink(nodes[i], nodes[j]);
+			}
+		}
+	}
+
+	@Test
+	public void testCluster() {
+		MaxFlowClusterer clusterer = new MaxFlowClusterer(callGraph);
+		Collection<CallGraphNode> clusters = clusterer.cluster(0);
+		assertEquals(2, clusters.size());
+		assertSame(clusters, clusterer.getClusters());
+
+		clusters = clusterer.cluster(1);
+		assertEquals(3, clusters.size());
+		assertClusterOf(clusters, "a1", 4, "a4");
+		assertClusterOf(clusters, "b1", 4, "b4");
+		assertClusterOf(clusters, "z", 1, "z");
+
+		// Every further cut splits off another node
+		assertEquals(4, clusterer.cluster(2).size());
+		assertEquals(9, clusterer.cluster(8).size());
+		assertEquals(9, clusterer.cluster(20).size());
+	}
+
+	@Test
+	public void testClusterSourceSink() {
+		MaxFlowClusterer clusterer = new MaxFlowClusterer(callGraph,
+				callGraph.getNode("a2"), callGraph.getNode("b2"));
+		Collection<CallGraphNode> clusters = clusterer.cluster();
+		assertEquals(2, clusters.size());
+		assertClusterOf(clusters, "a3", 4, "a1");
+		assertClusterOf(clusters, "b3", 5, "z");
+	}
+
+	@Test
+	public void testFlakeCluster() {
+		FlakeGraphClusterer clusterer = new FlakeGraphClusterer(callGraph, 2);
+		Collection<CallGraphNode> clusters = clusterer.cluster();
+		assertEquals(3, clusters.size());
+		assertClusterOf(clusters, "a1", 4, "a2");
+		assertClusterOf(clusters, "b4", 4, "b1");
+
+		// A lower threshold leaves every node on its own
+		assertEquals(9, clusterer.cluster(1).size());
+
+		// A higher threshold merges the cliques
+		clusters = clusterer.cluster(10);
+		assertEquals(2, clusters.size());
+		assertClusterOf(clusters, "a1", 8, "b1");
+	}
+
+	@Test
+	public void testFlakeExtract() {
+		FlakeGraphClusterer clusterer = new FlakeGraphClusterer(callGraph, 2);
+		Set<CallGraphNode> roots = new HashSet<CallGraphNode>();
+		roots.add(callGraph.getNode("a2"));
+		Set<CallGraphNode> community = clusterer.extract(roots);
+		assertEquals(4, community.size());
+		assertTrue(community.contains(callGraph.getNode("a1")));
+		assertFalse(community.contains(callGraph.getNode("b1")));
+	}
+
+	/**
+	 * Checks that the cluster containing one node has the expected size
+	 * and also contains the other node.
+	 */
+	private void assertClusterOf(Collection<CallGraphNode> clusters,
+			String label, int size, String otherLabel) {
+		CallGraphNode node = callGraph.getNode(label);
+		CallGraphNode other = callGraph.getNode(otherLabel);
+		for (CallGraphNode cluster : clusters) {
+			Collection<CallGraphNode> elements =
+				((CallGraphCluster) cluster).getElements();
+			if (elements.contains(node)) {
+				assertEquals(size, elements.size());
+				assertTrue(elements.contains(other));
+				return;
+			}
+		}
+		fail(label + " not found in " + clusters);
+	}
+
+}
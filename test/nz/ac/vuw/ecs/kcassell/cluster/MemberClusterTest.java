@@ -111,6 +111,62 @@ public class MemberClusterTest extends TestCase {
         assertTrue(elements.containsAll(methodVec));
 }
 
+    @Test
+    public void testGetElementsReadOnly()
+    {
+        MemberCluster cluster = new MemberCluster();
+        cluster.addElement("field1");
+        Set<String> elements = cluster.getElements();
+        try {
+            elements.add("field2");
+            fail("getElements should return a read-only view");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // The view reflects later additions without being refetched
+        cluster.addElement("field2");
+        assertEquals(2, elements.size());
+        assertSame(elements, cluster.getElements());
+    }
+
+    @Test
+    public void testGetElementsFollowsSubclusters()
+    {
+        MemberCluster inner = new MemberCluster();
+        inner.addElement("field1");
+        MemberCluster outer = new MemberCluster();
+        outer.addElement("method1");
+        outer.addCluster(inner);
+        Set<String> elements = outer.getElements();
+        assertEquals(2, elements.size());
+        assertTrue(inner.getElements().contains("field1"));
+        assertFalse(inner.getElements().contains("method1"));
+
+        // A change to a subcluster shows in the clusters containing it
+        inner.addElement("field2");
+        assertEquals(3, elements.size());
+        assertTrue(elements.contains("field2"));
+        assertEquals(2, inner.getElements().size());
+    }
+
+    @Test
+    public void testGetElementsOfDeepDendrogram()
+    {
+        MemberCluster cluster = new MemberCluster();
+        cluster.addElement("m0");
+        for (int i = 1; i < 20000; i++) {
+            MemberCluster merged = new MemberCluster();
+            merged.addCluster(cluster);
+            merged.addElement("m" + i);
+            cluster = merged;
+        }
+        Set<String> elements = cluster.getElements();
+        assertEquals(20000, elements.size());
+        assertTrue(elements.contains("m0"));
+        assertTrue(elements.contains("m19999"));
+        assertFalse(elements.contains("m20000"));
+    }
+
 
     @Test
     public void testGetChildren()
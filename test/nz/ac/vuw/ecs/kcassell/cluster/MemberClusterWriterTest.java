@@ -0,0 +1,154 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemberClusterWriterTest extends TestCase {
+
+	MemberCluster cluster = null;
+
+	@Before
+	public void setUp() {
+		MemberCluster methods = new MemberCluster();
+		methods.setClusterName("method1+method2+1");
+		methods.setDistance(0.125);
+		methods.addElement("method1");
+		methods.addElement("method2");
+		MemberCluster field2 = new MemberCluster();
+		field2.setClusterName("field2");
+		field2.addElement("field2");
+		cluster = new MemberCluster();
+		cluster.setClusterName("field1+method1+2");
+		cluster.setDistance(0.875);
+		cluster.addElement("field1");
+		cluster.addCluster(methods);
+		cluster.addCluster(field2);
+	}
+
+	private String write(MemberCluster cluster, ClusterTextFormatEnum format)
+	throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		new MemberClusterWriter(stringWriter, format).write(cluster);
+		return stringWriter.toString();
+	}
+
+	@Test
+	public void testWriteNewick() throws IOException {
+		String expected = "(\n"
+			+ "  field1:0.88,\n"
+			+ "  field2:0.88,\n"
+			+ "  (\n"
+			+ "    method1:0.13,\n"
+			+ "    method2:0.13\n"
+			+ "  ) it1-0.13:0.75\n"
+			+ ") it2-0.88:0.13;\n";
+		assertEquals(expected, write(cluster, ClusterTextFormatEnum.NEWICK));
+		assertEquals(expected, cluster.toNewickString());
+	}
+
+	@Test
+	public void testWriteNested() throws IOException {
+		String expected = "field1+method1+2\n"
+			+ "  |-field1\n"
+			+ "  |+field2\n"
+			+ "    |-field2\n"
+			+ "  |+1 ()\n"
+			+ "    |-method1\n"
+			+ "    |-method2\n";
+		assertEquals(expected, write(cluster, ClusterTextFormatEnum.NESTED));
+		assertEquals(expected, cluster.toNestedString());
+	}
+
+	@Test
+	public void testWriteFlat() throws IOException {
+		String expected = "field1+method1+2:\n"
+			+ "  field1\n"
+			+ "  field2\n"
+			+ "  method1\n"
+			+ "  method2\n";
+		assertEquals(expected, write(cluster, ClusterTextFormatEnum.FLAT));
+		assertEquals(expected, cluster.toFlatString());
+	}
+
+	@Test
+	public void testDeepDendrogram() throws IOException {
+		int depth = 2000;
+		MemberCluster chain = new MemberCluster();
+		chain.addElement("leaf0");
+		chain.addElement("leaf1");
+
+		for (int i = 2; i < depth; i++) {
+			MemberCluster parent = new MemberCluster();
+			parent.setClusterName("c+" + i);
+			parent.setDistance(i / (double) depth);
+			parent.addElement("leaf" + i);
+			parent.addCluster(chain);
+			chain = parent;
+		}
+		String newick = write(chain, ClusterTextFormatEnum.NEWICK);
+		assertTrue(newick.startsWith("(\n"));
+		assertTrue(newick.endsWith(";\n"));
+		assertTrue(newick.indexOf("leaf0") > 0);
+		String nested = write(chain, ClusterTextFormatEnum.NESTED);
+		assertTrue(nested.indexOf("|-leaf0") > 0);
+		String flat = write(chain, ClusterTextFormatEnum.FLAT);
+		assertTrue(flat.indexOf("  leaf0\n") > 0);
+	}
+
+	@Test
+	public void testFormatDistance() {
+		double[] values = { 0.0, -0.0, 0.005, 0.015, 0.125, 1.005, 2.675,
+				99.995, -0.001, 0.3, 1.0, Double.MIN_VALUE, 1.0e-5,
+				1.2345e7, 1.0e20, Double.NaN, Double.NEGATIVE_INFINITY };
+		for (double value : values) {
+			assertEquals("" + value, String.format("%.2f", value),
+					MemberClusterWriter.formatDistance(value));
+		}
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			double value = (i % 2 == 0) ? random.nextDouble() * 2
+					: random.nextInt(100000) / 1000.0 + 0.005;
+			assertEquals("" + value, String.format("%.2f", value),
+					MemberClusterWriter.formatDistance(value));
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.utils.ApplicationParameters;
+import nz.ac.vuw.ecs.kcassell.utils.ParameterConstants;
+
+import org.junit.Test;
+
+public class NearestNeighborAgglomerativeClustererTest extends TestCase {
+
+	/**
+	 * Calculates the distance by computing the differences between the numbers
+	 * at the end of the names (after the "+" character).
+	 */
+	private static DistanceCalculatorIfc<String> calc =
+		new DistanceCalculatorIfc<String>() {
+
+			public Number calculateDistance(String name1, String name2) {
+				double num1 = extractTrailingNumber(name1);
+				double num2 = extractTrailingNumber(name2);
+				return Math.abs(num1 - num2);
+			}
+
+			private double extractTrailingNumber(String name) {
+				return Double.parseDouble(name.substring(name.indexOf("+") + 1));
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return null;
+			}
+	};
+
+	/**
+	 * Generates elements spread across groups, with the elements of each
+	 * group roughly evenly spaced.
+	 */
+	private static List<String> generateElements(Random random,
+			int numElements, double[] groupStarts, double groupWidth) {
+		List<String> elements = new ArrayList<String>();
+		int numGroups = groupStarts.length;
+		double spacing = groupWidth * numGroups / numElements;
+		for (int i = 0; i < numElements; i++) {
+			double start = groupStarts[i % numGroups];
+			double offset = spacing * (i / numGroups + random.nextDouble());
+			elements.add("m" + i + "+" + (start + offset));
+		}
+		return elements;
+	}
+
+	/** @return the elements of the current clusters */
+	private static Set<Set<String>> getGroups(Collection<MemberCluster> clusters) {
+		Set<Set<String>> groups = new HashSet<Set<String>>();
+		for (MemberCluster cluster : clusters) {
+			groups.add(new HashSet<String>(cluster.getElements()));
+		}
+		return groups;
+	}
+
+	@Test
+	public void testMatchesMatrixSingleLink() {
+		List<String> elements = generateElements(new Random(5), 60,
+				new double[] {0.0}, 1.0);
+		MatrixBasedAgglomerativeClusterer matrixClusterer =
+			new MatrixBasedAgglomerativeClusterer(elements, calc,
+					ClusterCombinationEnum.SINGLE_LINK.toString());
+		NearestNeighborAgglomerativeClusterer clusterer =
+			new NearestNeighborAgglomerativeClusterer(elements, calc,
+					elements.size() - 1);
+
+		for (int iteration = 1; iteration < elements.size(); iteration++) {
+			matrixClusterer.cluster(iteration);
+			clusterer.cluster(iteration);
+			assertEquals(getGroups(matrixClusterer.getMemberClusters()),
+					getGroups(clusterer.getMemberClusters()));
+		}
+		assertEquals(1, clusterer.getClusters().size());
+		MemberCluster cluster = clusterer.getMemberClusters().iterator().next();
+		MemberCluster matrixCluster =
+			matrixClusterer.getMemberClusters().iterator().next();
+		assertEquals(matrixCluster.getDistance(), cluster.getDistance(), 1e-12);
+	}
+
+	@Test
+	public void testFewNeighbors() {
+		double[] groupStarts = {0.0, 0.4, 0.8};
+		List<String> elements =
+			generateElements(new Random(6), 600, groupStarts, 0.1);
+		NearestNeighborAgglomerativeClusterer clusterer =
+			new NearestNeighborAgglomerativeClusterer(elements, calc, 5);
+
+		// The groups aren't linked to one another, so they are formed first
+		Collection<String> names = clusterer.cluster(elements.size() - 3);
+		assertEquals(3, names.size());
+		for (MemberCluster cluster : clusterer.getMemberClusters()) {
+			assertEquals(200, cluster.getElementCount());
+			assertTrue(cluster.getDistance() < 0.1);
+			for (String element : cluster.getElements()) {
+				int i = Integer.parseInt(element.substring(1, element.indexOf("+")));
+				assertTrue(clusterer.getClusterHistory().containsKey(element));
+				assertEquals(i % 3, indexOfGroup(cluster, groupStarts));
+			}
+		}
+		// and are then merged as unrelated clusters
+		MemberCluster all = clusterer.getSingleCluster();
+		assertEquals(600, all.getElementCount());
+		assertEquals(1.0, all.getDistance());
+		assertEquals(1, clusterer.getClusters().size());
+	}
+
+	@Test
+	public void testClusterElementsAboveThreshold() {
+		ApplicationParameters parameters = ApplicationParameters.getSingleton();
+		String oldThreshold = parameters.getParameter(
+				ParameterConstants.NEAREST_NEIGHBOR_THRESHOLD_KEY, "2000");
+		String oldNeighbors = parameters.getParameter(
+				ParameterConstants.NEAREST_NEIGHBORS_KEY, "10");
+		double[] groupStarts = {0.0, 0.4, 0.8};
+		List<String> elements =
+			generateElements(new Random(7), 300, groupStarts, 0.1);
+		String singleLink = ClusterCombinationEnum.SINGLE_LINK.toString();
+		try {
+			parameters.setParameter(ParameterConstants.NEAREST_NEIGHBORS_KEY, "5");
+			parameters.setParameter(
+					ParameterConstants.NEAREST_NEIGHBOR_THRESHOLD_KEY, "300");
+			MemberCluster matrixCluster = MatrixBasedAgglomerativeClusterer
+				.clusterElements(elements, calc, singleLink);
+			assertEquals(300, matrixCluster.getElementCount());
+			assertTrue(matrixCluster.getDistance() < 0.4);
+
+			// Above the threshold, the unlinked groups are merged last
+			parameters.setParameter(
+					ParameterConstants.NEAREST_NEIGHBOR_THRESHOLD_KEY, "299");
+			MemberCluster cluster = MatrixBasedAgglomerativeClusterer
+				.clusterElements(elements, calc, singleLink);
+			assertEquals(300, cluster.getElementCount());
+			assertEquals(1.0, cluster.getDistance());
+		} finally {
+			parameters.setParameter(
+					ParameterConstants.NEAREST_NEIGHBOR_THRESHOLD_KEY, oldThreshold);
+			parameters.setParameter(
+					ParameterConstants.NEAREST_NEIGHBORS_KEY, oldNeighbors);
+		}
+	}
+
+	/** @return the group to which the first element of the cluster belongs */
+	private static int indexOfGroup(MemberCluster cluster, double[] groupStarts) {
+		String first = cluster.getElements().iterator().next();
+		double value = Double.parseDouble(first.substring(first.indexOf("+") + 1));
+		int group = 0;
+		while (group + 1 < groupStarts.length && value >= groupStarts[group + 1]) {
+			group++;
+		}
+		return group;
+	}
+}
@@ -0,0 +1,274 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+
+package nz.ac.vuw.ecs.kcassell.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallData;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
+import nz.ac.vuw.ecs.kcassell.cluster.MaxFlowClusterer;
+import nz.ac.vuw.ecs.kcassell.logging.UtilLogger.MessageSupplier;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorEnum;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceCalculatorIfc;
+import nz.ac.vuw.ecs.kcassell.similarity.DistanceMatrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UtilLoggerTest extends TestCase {
+
+	private static final String LOGGER_NAME = "UtilLoggerTest";
+
+	/** Counts how many times its string form has been requested. */
+	private static class CountingObject {
+		int toStringCount = 0;
+
+		public String toString() {
+			toStringCount++;
+			return "counted";
+		}
+	}
+
+	/** Counts how many times a message has been requested. */
+	private static class CountingSupplier implements MessageSupplier {
+		int messageCount = 0;
+
+		public String getMessage() {
+			messageCount++;
+			return "supplied";
+		}
+	}
+
+	/** A node that counts how many times it has been rendered. */
+	private static class CountingNode extends CallGraphNode {
+		static int toStringCount = 0;
+
+		CountingNode(String name) {
+			setLabel(name);
+			setSimpleName(name);
+		}
+
+		public String toString() {
+			toStringCount++;
+			return super.toString();
+		}
+	}
+
+	/** A matrix that counts how many times it has been rendered. */
+	private static class CountingMatrix extends DistanceMatrix<String> {
+		int toStringCount = 0;
+
+		CountingMatrix(List<String> headers) {
+			super(headers);
+		}
+
+		public String toString() {
+			toStringCount++;
+			return super.toString();
+		}
+	}
+
+	/** A clusterer whose distance matrix counts its renderings. */
+	private static class CountingClusterer
+	extends MatrixBasedAgglomerativeClusterer {
+		CountingClusterer(List<String> elements,
+				DistanceCalculatorIfc<String> calc) {
+			super(elements, calc);
+		}
+
+		protected void buildDistanceMatrix(List<String> elements) {
+			super.buildDistanceMatrix(elements);
+			distanceMatrix = new CountingMatrix(elements);
+		}
+
+		int getToStringCount() {
+			return ((CountingMatrix) distanceMatrix).toStringCount;
+		}
+	}
+
+	/** A graph that counts how many times it has been rendered. */
+	private static class CountingGraph extends JavaCallGraph {
+		int toStringCount = 0;
+
+		public String toString() {
+			toStringCount++;
+			return super.toString();
+		}
+	}
+
+	/** Every pair of members is the same distance apart. */
+	private static final DistanceCalculatorIfc<String> unitCalc =
+		new DistanceCalculatorIfc<String>() {
+
+			public Number calculateDistance(String name1, String name2) {
+				return name1.equals(name2) ? 0.0 : 1.0;
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return null;
+			}
+	};
+
+	UtilLogger logger = null;
+
+	@Before
+	public void setUp() {
+		logger = new UtilLogger(LOGGER_NAME);
+		Logger.getLogger(LOGGER_NAME).setLevel(Level.INFO);
+	}
+
+	@Test
+	public void testParametersNotFormattedWhenDisabled() {
+		CountingObject matrix = new CountingObject();
+		assertFalse(logger.isLoggable(Level.FINE));
+		logger.fine("{0}", matrix);
+		logger.finer("{0} and {1}", matrix, matrix);
+		assertEquals(0, matrix.toStringCount);
+	}
+
+	@Test
+	public void testSupplierNotCalledWhenDisabled() {
+		CountingSupplier supplier = new CountingSupplier();
+		logger.fine(supplier);
+		logger.finer(supplier);
+		assertEquals(0, supplier.messageCount);
+	}
+
+	@Test
+	public void testEnabledMessagesAreBuilt() {
+		Logger.getLogger(LOGGER_NAME).setLevel(Level.FINE);
+		assertTrue(logger.isLoggable(Level.FINE));
+		CountingObject matrix = new CountingObject();
+		CountingSupplier supplier = new CountingSupplier();
+		logger.fine("{0}", matrix);
+		logger.fine(supplier);
+		logger.finer(supplier);
+		assertEquals(1, matrix.toStringCount);
+		assertEquals(1, supplier.messageCount);
+	}
+
+	/**
+	 * MaxFlowClusterer logs its clusters and its source and sink at FINE.
+	 * For a large graph, none of the nodes should be rendered unless FINE
+	 * is enabled.
+	 */
+	@Test
+	public void testLargeGraphNotRenderedWhenDisabled() {
+		JavaCallGraph callGraph = new JavaCallGraph();
+		CallGraphNode first = null;
+		CallGraphNode previous = null;
+		for (int i = 0; i < 2000; i++) {
+			CallGraphNode node = new CountingNode("m" + i);
+			callGraph.addNode(node);
+			if (previous == null) {
+				first = node;
+			} else {
+				callGraph.createLink(previous, node);
+			}
+			previous = node;
+		}
+		Logger clustererLogger = Logger.getLogger("MaxFlowClusterer");
+		Level oldLevel = clustererLogger.getLevel();
+		try {
+			clustererLogger.setLevel(Level.INFO);
+			CountingNode.toStringCount = 0;
+			new MaxFlowClusterer(callGraph).cluster(3);
+			new MaxFlowClusterer(callGraph, first, previous).cluster();
+			assertEquals(0, CountingNode.toStringCount);
+
+			clustererLogger.setLevel(Level.FINE);
+			new MaxFlowClusterer(callGraph, first, previous).cluster();
+			assertTrue(CountingNode.toStringCount > 0);
+		} finally {
+			clustererLogger.setLevel(oldLevel);
+		}
+	}
+
+	/**
+	 * The agglomerative clusterers log their distance matrix at FINE.
+	 * The matrix should not be rendered unless FINE is enabled.
+	 */
+	@Test
+	public void testDistanceMatrixNotRenderedWhenDisabled() {
+		List<String> members = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			members.add("m" + i);
+		}
+		Logger clustererLogger =
+			Logger.getLogger("MatrixBasedAgglomerativeClusterer");
+		Level oldLevel = clustererLogger.getLevel();
+		try {
+			clustererLogger.setLevel(Level.INFO);
+			CountingClusterer clusterer =
+				new CountingClusterer(members, unitCalc);
+			assertEquals(0, clusterer.getToStringCount());
+
+			clustererLogger.setLevel(Level.FINE);
+			clusterer = new CountingClusterer(members, unitCalc);
+			assertEquals(1, clusterer.getToStringCount());
+		} finally {
+			clustererLogger.setLevel(oldLevel);
+		}
+	}
+
+	/**
+	 * JavaCallGraph logs the whole graph at FINE after processing the
+	 * call data.  The graph should not be rendered unless FINE is enabled.
+	 */
+	@Test
+	public void testCallGraphNotRenderedWhenDisabled() {
+		Logger graphLogger = Logger.getLogger("JavaCallGraph");
+		Level oldLevel = graphLogger.getLevel();
+		try {
+			graphLogger.setLevel(Level.INFO);
+			CountingGraph callGraph = new CountingGraph();
+			callGraph.processCallData(new CallData());
+			assertEquals(0, callGraph.toStringCount);
+
+			graphLogger.setLevel(Level.FINE);
+			callGraph.processCallData(new CallData());
+			assertEquals(1, callGraph.toStringCount);
+		} finally {
+			graphLogger.setLevel(oldLevel);
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.ucla.sspace.vector.CompactSparseVector;
+import edu.ucla.sspace.vector.DenseVector;
+import edu.ucla.sspace.vector.DoubleVector;
+
+public class BlockCosineCalculatorTest extends TestCase {
+
+	/**
+	 * Generates sparse and dense vectors with a few nonzero entries,
+	 * including a zero vector and a missing (null) vector.
+	 */
+	private static List<DoubleVector> generateVectors(Random random,
+			int numVectors, int length) {
+		List<DoubleVector> vectors = new ArrayList<DoubleVector>();
+		for (int v = 0; v < numVectors; v++) {
+			DoubleVector vector = (v % 2 == 0)
+				? new CompactSparseVector(length) : new DenseVector(length);
+			if (v != 7) {
+				int numEntries = 1 + random.nextInt(10);
+				for (int e = 0; e < numEntries; e++) {
+					// Most entries are in the first few dimensions
+					int index = (random.nextInt(4) == 0)
+						? random.nextInt(length) : random.nextInt(20);
+					vector.set(index, 1.0 + random.nextInt(3));
+				}
+			}
+			vectors.add(vector);
+		}
+		vectors.set(11, null);
+		return vectors;
+	}
+
+	private static List<String> getNames(int numVectors) {
+		List<String> names = new ArrayList<String>();
+		for (int v = 0; v < numVectors; v++) {
+			names.add("m" + v);
+		}
+		return names;
+	}
+
+	@Test
+	public void testMatchesPairwiseCosine() {
+		int numVectors = 150;
+		List<DoubleVector> vectors =
+			generateVectors(new Random(4), numVectors, 500);
+		List<String> names = getNames(numVectors);
+
+		for (int numThreads = 1; numThreads <= 4; numThreads += 3) {
+			DistanceMatrix<String> matrix = new DistanceMatrix<String>(names);
+			new BlockCosineCalculator(numThreads).fillMatrix(matrix, vectors);
+
+			for (int i = 0; i < numVectors; i++) {
+				for (int j = 0; j < numVectors; j++) {
+					double expected = 1.0;
+					if (vectors.get(i) != null && vectors.get(j) != null) {
+						expected = VectorSpaceModelCalculator
+							.calculateCosineDistance(vectors.get(i),
+									vectors.get(j));
+					}
+					assertEquals(expected, matrix.getDistance(names.get(i),
+							names.get(j)).doubleValue(), 1e-12);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFillMatrixUsesBulkCalculator() {
+		final int numVectors = 40;
+		final List<DoubleVector> vectors =
+			generateVectors(new Random(9), numVectors, 50);
+		final List<String> names = getNames(numVectors);
+		BulkDistanceCalculatorIfc<String> calc =
+			new BulkDistanceCalculatorIfc<String>() {
+
+				public Number calculateDistance(String name1, String name2) {
+					fail("Distances should be calculated in bulk");
+					return null;
+				}
+
+				public DistanceCalculatorEnum getType() {
+					return null;
+				}
+
+				public void fillMatrix(DistanceMatrix<String> matrix) {
+					new BlockCosineCalculator().fillMatrix(matrix, vectors);
+				}
+		};
+		DistanceMatrix<String> matrix =
+			DistanceMatrix.createMatrix(names, DistancePrecisionEnum.FLOAT, 0.0);
+		matrix.fillMatrix(calc);
+		assertEquals(0.0, matrix.getDistance("m3", "m3").doubleValue(), 1e-6);
+		assertEquals(1.0, matrix.getDistance("m7", "m7").doubleValue(), 1e-6);
+		assertEquals(1.0, matrix.getDistance("m3", "m11").doubleValue(), 1e-6);
+	}
+}
@@ -0,0 +1,174 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+public class DistanceCollectorTest extends TestCase {
+
+	private static final String[] WORDS = { "get", "set", "calculate",
+			"distance", "node", "graph", "cluster", "matrix", "name", "value" };
+
+	/** The number of distances calculated by the counting calculator. */
+	private int calculations = 0;
+
+	/** A calculator without property sets, which counts its calculations. */
+	private DistanceCalculatorIfc<String> countingCalc =
+		new DistanceCalculatorIfc<String>() {
+
+			public Number calculateDistance(String name1, String name2) {
+				calculations++;
+				return Math.abs(name1.length() - name2.length());
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return null;
+			}
+	};
+
+	/**
+	 * Generates a graph of methods calling methods and using fields,
+	 * with camel case names made from a few words.
+	 */
+	private JavaCallGraph generateGraph(Random random, int numMethods,
+			int numFields, int numLinks) {
+		JavaCallGraph graph = new JavaCallGraph();
+		List<CallGraphNode> methods = new ArrayList<CallGraphNode>();
+		List<CallGraphNode> fields = new ArrayList<CallGraphNode>();
+
+		for (int i = 0; i < numMethods + numFields; i++) {
+			String name = WORDS[random.nextInt(WORDS.length)]
+				+ WORDS[random.nextInt(WORDS.length)].substring(0, 1).toUpperCase()
+				+ WORDS[random.nextInt(WORDS.length)].substring(1) + i;
+			CallGraphNode node = graph.createNode(name);
+			if (i < numMethods) {
+				node.setNodeType(NodeType.METHOD);
+				methods.add(node);
+			} else {
+				node.setNodeType(NodeType.FIELD);
+				fields.add(node);
+			}
+		}
+		for (int i = 0; i < numLinks; i++) {
+			CallGraphNode method = methods.get(random.nextInt(numMethods));
+			CallGraphNode target = random.nextBoolean()
+				? methods.get(random.nextInt(numMethods))
+				: fields.get(random.nextInt(numFields));
+			if (method != target && graph.findLink(method, target) == null) {
+				graph.createLink(method, target);
+			}
+		}
+		return graph;
+	}
+
+	@Test
+	public void testSinglePassMatchesEachCalculator() {
+		JavaCallGraph graph = generateGraph(new Random(5), 60, 20, 200);
+		List<String> memberNames = new ArrayList<String>();
+		for (CallGraphNode node : graph.getNodes()) {
+			memberNames.add(node.getLabel());
+		}
+		// A member missing from the graph has unknown distances
+		memberNames.add("missingMember");
+		Collections.sort(memberNames);
+
+		List<DistanceCalculatorIfc<String>> calculators =
+			new ArrayList<DistanceCalculatorIfc<String>>();
+		calculators.add(new CzibulaDistanceCalculator(graph));
+		calculators.add(new SimonDistanceCalculator(graph));
+		calculators.add(new JDeodorantDistanceCalculator(graph));
+		calculators.add(new LocalNeighborhoodDistanceCalculator(graph));
+		calculators.add(new IdentifierDistanceCalculator());
+		calculators.add(countingCalc);
+		DistanceCollector collector = new DistanceCollector(calculators);
+		collector.collectDistances(memberNames);
+		int size = memberNames.size();
+		assertEquals(size * (size + 1) / 2, calculations);
+
+		for (DistanceCalculatorIfc<String> calc : calculators) {
+			DistanceMatrix<String> expected =
+				new DistanceMatrix<String>(memberNames);
+			expected.fillMatrix(calc);
+			DistanceMatrix<String> matrix =
+				collector.getAllDistances().get(calc);
+
+			for (String name1 : memberNames) {
+				for (String name2 : memberNames) {
+					assertEquals(expected.getDistance(name1, name2),
+							matrix.getDistance(name1, name2));
+				}
+			}
+		}
+		DistanceMatrix<String> matrix =
+			collector.getAllDistances().get(calculators.get(0));
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				matrix.getDistance("missingMember", memberNames.get(0)));
+	}
+
+	@Test
+	public void testSingleCalculator() {
+		JavaCallGraph graph = generateGraph(new Random(8), 30, 10, 80);
+		List<String> memberNames = new ArrayList<String>();
+		for (CallGraphNode node : graph.getNodes()) {
+			memberNames.add(node.getLabel());
+		}
+		Collections.sort(memberNames);
+		SimonDistanceCalculator calc = new SimonDistanceCalculator(graph);
+		List<DistanceCalculatorIfc<String>> calculators =
+			new ArrayList<DistanceCalculatorIfc<String>>();
+		calculators.add(calc);
+		DistanceCollector collector = new DistanceCollector(calculators);
+		DistanceMatrix<String> matrix =
+			collector.collectDistances(memberNames, calc);
+		assertSame(matrix, collector.getAllDistances().get(calc));
+
+		for (String name1 : memberNames) {
+			for (String name2 : memberNames) {
+				assertEquals(calc.calculateDistance(name1, name2),
+						matrix.getDistance(name1, name2));
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
+
+import org.junit.Test;
+
+public class DistanceMatrixStoreTest extends TestCase {
+
+	private File directory = null;
+
+	protected void setUp() throws IOException {
+		directory = File.createTempFile("distances", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Creates a graph of methods a0..aN calling their successors
+	 * and using the field f.
+	 */
+	private JavaCallGraph createGraph(int numMethods) {
+		JavaCallGraph graph = new JavaCallGraph();
+		CallGraphNode field = graph.createNode("f");
+		field.setNodeType(NodeType.FIELD);
+		CallGraphNode previous = null;
+		for (int i = 0; i < numMethods; i++) {
+			CallGraphNode method = graph.createNode("a" + i);
+			method.setNodeType(NodeType.METHOD);
+			graph.createLink(method, field);
+			if (previous != null) {
+				graph.createLink(previous, method);
+			}
+			previous = method;
+		}
+		return graph;
+	}
+
+	private static List<String> getMembers(JavaCallGraph graph) {
+		List<String> members = new ArrayList<String>();
+		for (CallGraphNode node : graph.getNodes()) {
+			members.add(node.getLabel());
+		}
+		Collections.sort(members);
+		return members;
+	}
+
+	private static DistanceMatrix<String> calculate(List<String> members,
+			DistanceCalculatorIfc<String> calc) {
+		DistanceMatrix<String> matrix = new DistanceMatrix<String>(members);
+		matrix.fillMatrix(calc);
+		return matrix;
+	}
+
+	@Test
+	public void testStoreAndLoad() {
+		JavaCallGraph graph = createGraph(20);
+		List<String> members = getMembers(graph);
+		CzibulaDistanceCalculator calc = new CzibulaDistanceCalculator(graph);
+		DistanceMatrixStore store =
+			new DistanceMatrixStore(directory, 1024 * 1024, false);
+		assertNull(store.load(members, calc));
+
+		DistanceMatrix<String> expected = calculate(members, calc);
+		store.store(expected, calc);
+		DistanceMatrix<String> loaded = store.load(members, calc);
+		assertNotNull(loaded);
+		assertEquals(members, loaded.getHeaders());
+		for (String name1 : members) {
+			for (String name2 : members) {
+				assertEquals(expected.getDistance(name1, name2),
+						loaded.getDistance(name1, name2));
+			}
+		}
+
+		// Another calculator on the same graph has its own matrix
+		assertNull(store.load(members,
+				new SimonDistanceCalculator(graph)));
+
+		// Changing the graph changes the key
+		graph.createLink(graph.getNode("a0"), graph.getNode("a5"));
+		assertNull(store.load(members, calc));
+	}
+
+	@Test
+	public void testIgnoredIdentifiersChangeKey() {
+		List<String> members = getMembers(createGraph(10));
+		IdentifierDistanceCalculator calc = new IdentifierDistanceCalculator();
+		DistanceMatrixStore store =
+			new DistanceMatrixStore(directory, 1024 * 1024, true);
+		store.store(calculate(members, calc), calc);
+		assertNotNull(store.load(members, calc));
+
+		calc.toIgnore.add("get");
+		assertNull(store.load(members, calc));
+		// A different set of members has its own matrix
+		calc.toIgnore.remove("get");
+		assertNull(store.load(members.subList(1, members.size()), calc));
+	}
+
+	@Test
+	public void testFingerprintIgnoresOrder() {
+		JavaCallGraph graph1 = new JavaCallGraph();
+		JavaCallGraph graph2 = new JavaCallGraph();
+		String[] names = { "m1", "m2", "m3" };
+		for (int i = 0; i < names.length; i++) {
+			graph1.createNode(names[i]).setNodeType(NodeType.METHOD);
+			graph2.createNode(names[names.length - 1 - i])
+				.setNodeType(NodeType.METHOD);
+		}
+		graph1.createLink(graph1.getNode("m1"), graph1.getNode("m2"));
+		graph1.createLink(graph1.getNode("m2"), graph1.getNode("m3"));
+		graph2.createLink(graph2.getNode("m2"), graph2.getNode("m3"));
+		graph2.createLink(graph2.getNode("m1"), graph2.getNode("m2"));
+		assertEquals(graph1.getFingerprint(), graph2.getFingerprint());
+
+		String fingerprint = graph1.getFingerprint();
+		graph1.createLink(graph1.getNode("m3"), graph1.getNode("m1"));
+		assertFalse(fingerprint.equals(graph1.getFingerprint()));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		List<String> members = getMembers(createGraph(30));
+		List<CacheableDistanceCalculatorIfc<String>> calculators =
+			new ArrayList<CacheableDistanceCalculatorIfc<String>>();
+		for (int i = 0; i < 3; i++) {
+			IdentifierDistanceCalculator calc =
+				new IdentifierDistanceCalculator();
+			calc.toIgnore.add("word" + i);
+			calculators.add(calc);
+		}
+		DistanceMatrixStore unlimited =
+			new DistanceMatrixStore(directory, Long.MAX_VALUE, false);
+		unlimited.store(calculate(members, calculators.get(0)),
+				calculators.get(0));
+		File file0 = unlimited.getFile(
+				DistanceMatrixStore.getKey(members, calculators.get(0)));
+		long fileSize = file0.length();
+		assertTrue(fileSize > 0);
+
+		// Room for two matrices
+		DistanceMatrixStore store =
+			new DistanceMatrixStore(directory, 2 * fileSize, false);
+		store.store(calculate(members, calculators.get(1)),
+				calculators.get(1));
+		File file1 = store.getFile(
+				DistanceMatrixStore.getKey(members, calculators.get(1)));
+		long now = System.currentTimeMillis();
+		file0.setLastModified(now - 20000);
+		file1.setLastModified(now - 10000);
+
+		// Using the oldest makes the other the least recently used
+		assertNotNull(store.load(members, calculators.get(0)));
+		store.store(calculate(members, calculators.get(2)),
+				calculators.get(2));
+		File file2 = store.getFile(
+				DistanceMatrixStore.getKey(members, calculators.get(2)));
+		assertTrue(file0.exists());
+		assertFalse(file1.exists());
+		assertTrue(file2.exists());
+	}
+}
@@ -33,9 +33,17 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package nz.ac.vuw.ecs.kcassell.similarity;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphLink;
+import nz.ac.vuw.ecs.kcassell.callgraph.CallGraphNode;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.callgraph.NodeType;
 import nz.ac.vuw.ecs.kcassell.cluster.Distance;
 import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
 
@@ -118,4 +126,168 @@ public class DistanceMatrixTest extends TestCase {
 		assertTrue(v3index > -1);
 	}
 
+	@Test
+	public void testCreateMatrix() {
+		List<String> headers = matrix.getHeaders();
+		for (DistancePrecisionEnum precision : DistancePrecisionEnum.values()) {
+			DistanceMatrix<String> created =
+				DistanceMatrix.createMatrix(headers, precision, 0.01);
+			assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+					created.getDistance(A0, B1));
+			created.setDistance(A0, A4, 0.25);
+			created.setDistance(B1, A4, RefactoringConstants.MAX_DISTANCE);
+			assertEquals(0.25, created.getDistance(A4, A0).doubleValue());
+			assertEquals(RefactoringConstants.MAX_DISTANCE,
+					created.getDistance(A4, B1));
+		}
+		assertTrue(DistanceMatrix.createMatrix(headers,
+				DistancePrecisionEnum.FLOAT, 0.01) instanceof FloatDistanceMatrix);
+	}
+
+	@Test
+	public void testAddAndRemoveMembers() {
+		DistanceCalculatorIfc<String> calc =
+			new DistanceCalculatorIfc<String>() {
+
+				public Number calculateDistance(String s1, String s2) {
+					return Math.abs(s1.hashCode() % 100 - s2.hashCode() % 100) / 4.0;
+				}
+
+				public DistanceCalculatorEnum getType() {
+					return null;
+				}
+		};
+		for (DistancePrecisionEnum precision : DistancePrecisionEnum.values()) {
+			DistanceMatrix<String> edited = DistanceMatrix.createMatrix(
+					new ArrayList<String>(), precision, 0.25);
+			Random random = new Random(6);
+			List<String> members = new ArrayList<String>();
+
+			for (int i = 0; i < 300; i++) {
+				if (members.isEmpty() || random.nextInt(3) > 0) {
+					String member = "m" + i;
+					members.add(member);
+					edited.addMember(member);
+					edited.recalculate(Collections.singletonList(member), calc);
+				} else {
+					String member = members.remove(random.nextInt(members.size()));
+					assertTrue(edited.removeMember(member));
+					assertFalse(edited.removeMember(member));
+				}
+			}
+			assertEquals(members.size(), edited.getHeaders().size());
+			assertTrue(edited.getHeaders().containsAll(members));
+
+			DistanceMatrix<String> expected =
+				new DistanceMatrix<String>(edited.getHeaders());
+			expected.fillMatrix(calc);
+			for (String member1 : members) {
+				for (String member2 : members) {
+					assertEquals(expected.getDistance(member1, member2),
+							edited.getDistance(member1, member2));
+				}
+			}
+		}
+		// The caller's headers aren't changed
+		List<String> headers = new ArrayList<String>(matrix.getHeaders());
+		DistanceMatrix<String> other = new DistanceMatrix<String>(headers);
+		other.addMember("c2");
+		other.removeMember(A0);
+		assertEquals(3, headers.size());
+		assertEquals(A0, headers.get(0));
+	}
+
+	@Test
+	public void testRecalculateAffectedMembers() {
+		JavaCallGraph graph = new JavaCallGraph();
+		Random random = new Random(2);
+		for (int i = 0; i < 40; i++) {
+			graph.createNode("n" + i).setNodeType(
+					(i < 30) ? NodeType.METHOD : NodeType.FIELD);
+		}
+		for (int i = 0; i < 80; i++) {
+			CallGraphNode node1 = graph.getNode("n" + random.nextInt(30));
+			CallGraphNode node2 = graph.getNode("n" + random.nextInt(40));
+			if (node1 != node2 && graph.findLink(node1, node2) == null) {
+				graph.createLink(node1, node2);
+			}
+		}
+		List<IncrementalDistanceCalculatorIfc<String>> calcs =
+			new ArrayList<IncrementalDistanceCalculatorIfc<String>>();
+		calcs.add(new CzibulaDistanceCalculator(graph));
+		calcs.add(new SimonDistanceCalculator(graph));
+		calcs.add(new JDeodorantDistanceCalculator(graph));
+		calcs.add(new LocalNeighborhoodDistanceCalculator(graph));
+		List<String> names = new ArrayList<String>();
+		for (CallGraphNode node : graph.getNodes()) {
+			names.add(node.getLabel());
+		}
+		List<DistanceMatrix<String>> matrices =
+			new ArrayList<DistanceMatrix<String>>();
+		for (IncrementalDistanceCalculatorIfc<String> calc : calcs) {
+			DistanceMatrix<String> calcMatrix = new DistanceMatrix<String>(names);
+			calcMatrix.fillMatrix(calc);
+			matrices.add(calcMatrix);
+		}
+
+		// Add a method using some members
+		CallGraphNode added = graph.createNode("added");
+		added.setNodeType(NodeType.METHOD);
+		graph.createLink(added, graph.getNode("n3"));
+		graph.createLink(added, graph.getNode("n35"));
+		graph.createLink(graph.getNode("n7"), added);
+		for (int c = 0; c < calcs.size(); c++) {
+			matrices.get(c).addMember("added");
+			matrices.get(c).recalculate(
+					calcs.get(c).getAffectedMembers("added"), calcs.get(c));
+		}
+		assertRecalculated(calcs, matrices);
+
+		// Remove a field, getting the affected members beforehand
+		List<Collection<String>> affected = new ArrayList<Collection<String>>();
+		for (IncrementalDistanceCalculatorIfc<String> calc : calcs) {
+			affected.add(calc.getAffectedMembers("n35"));
+		}
+		graph.removeFromGraph(new Object[] {"n35"});
+		for (int c = 0; c < calcs.size(); c++) {
+			matrices.get(c).removeMember("n35");
+			matrices.get(c).recalculate(affected.get(c), calcs.get(c));
+		}
+		assertRecalculated(calcs, matrices);
+
+		// Edit a method to drop a link, combining the affected members
+		// from before and after the edit
+		affected.clear();
+		for (IncrementalDistanceCalculatorIfc<String> calc : calcs) {
+			affected.add(new HashSet<String>(calc.getAffectedMembers("added")));
+		}
+		CallGraphLink dropped =
+			graph.findLink(added, graph.getNode("n3"));
+		graph.getJungGraph().removeEdge(dropped);
+		graph.graphChanged();
+		for (int c = 0; c < calcs.size(); c++) {
+			assertFalse(calcs.get(c).getAffectedMembers("added").contains("n3"));
+			affected.get(c).addAll(calcs.get(c).getAffectedMembers("added"));
+			matrices.get(c).recalculate(affected.get(c), calcs.get(c));
+		}
+		assertRecalculated(calcs, matrices);
+	}
+
+	private void assertRecalculated(
+			List<IncrementalDistanceCalculatorIfc<String>> calcs,
+			List<DistanceMatrix<String>> matrices) {
+		for (int c = 0; c < calcs.size(); c++) {
+			DistanceMatrix<String> edited = matrices.get(c);
+			DistanceMatrix<String> expected =
+				new DistanceMatrix<String>(edited.getHeaders());
+			expected.fillMatrix(calcs.get(c));
+			for (String member1 : edited.getHeaders()) {
+				for (String member2 : edited.getHeaders()) {
+					assertEquals(expected.getDistance(member1, member2),
+							edited.getDistance(member1, member2));
+				}
+			}
+		}
+	}
+
 }
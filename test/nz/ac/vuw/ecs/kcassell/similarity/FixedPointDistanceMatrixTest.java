@@ -0,0 +1,145 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+public class FixedPointDistanceMatrixTest extends TestCase {
+
+	private static final double STEP = 0.001;
+
+	private List<String> generateHeaders(int size) {
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < size; i++) {
+			headers.add("m" + i);
+		}
+		return headers;
+	}
+
+	@Test
+	public void testRounding() {
+		List<String> headers = generateHeaders(100);
+		DistanceMatrix<String> matrix =
+			new FixedPointDistanceMatrix<String>(headers, STEP);
+		Random random = new Random(4);
+		double[][] expected = new double[100][100];
+
+		for (int row = 0; row < 100; row++) {
+			for (int col = 0; col <= row; col++) {
+				double distance = random.nextDouble() * 3.0;
+				expected[row][col] = distance;
+				matrix.setDistance(headers.get(row), headers.get(col), distance);
+			}
+		}
+		for (int row = 0; row < 100; row++) {
+			for (int col = 0; col <= row; col++) {
+				double distance = matrix.getDistance(headers.get(col),
+						headers.get(row)).doubleValue();
+				assertEquals(expected[row][col], distance, STEP / 2);
+				// Equal distances are stored the same way
+				assertEquals(Math.rint(expected[row][col] / STEP) * STEP,
+						distance, 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testSpecialDistances() {
+		List<String> headers = generateHeaders(4);
+		DistanceMatrix<String> matrix =
+			new FixedPointDistanceMatrix<String>(headers, STEP);
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				matrix.getDistance("m1", "m2"));
+		matrix.setDistance("m1", "m2", RefactoringConstants.MAX_DISTANCE);
+		assertEquals(RefactoringConstants.MAX_DISTANCE,
+				matrix.getDistance("m2", "m1"));
+		matrix.setDistance("m1", "m3", 1000.0);
+		assertEquals(FixedPointDistanceMatrix.MAX_STEPS * STEP,
+				matrix.getDistance("m1", "m3").doubleValue(), 1e-9);
+		matrix.setDistance("m0", "m3", -0.5);
+		assertEquals(0.0, matrix.getDistance("m0", "m3"));
+		matrix.setDistance("m0", "m3", RefactoringConstants.UNKNOWN_DISTANCE);
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				matrix.getDistance("m3", "m0"));
+	}
+
+	@Test
+	public void testFindNearestTies() {
+		List<String> headers = generateHeaders(50);
+		DistanceMatrix<String> matrix =
+			new FixedPointDistanceMatrix<String>(headers, 0.1);
+		DistanceMatrix<String> floatMatrix =
+			new FloatDistanceMatrix<String>(headers);
+		Random random = new Random(9);
+
+		for (int row = 0; row < 50; row++) {
+			for (int col = 0; col < row; col++) {
+				// Many distances round to the same step
+				double distance = 0.12 + random.nextDouble() * 0.5;
+				matrix.setDistance(headers.get(row), headers.get(col), distance);
+				floatMatrix.setDistance(headers.get(row), headers.get(col),
+						distance);
+			}
+		}
+		Distance<String> nearest = matrix.findNearest();
+		assertEquals(0.1, nearest.getDistance().doubleValue(), 1e-12);
+
+		// The tie goes to the first nearest pair in row order
+		Distance<String> first = null;
+		for (int row = 0; row < 50 && first == null; row++) {
+			for (int col = 0; col < row && first == null; col++) {
+				Number distance =
+					matrix.getDistance(headers.get(row), headers.get(col));
+				if (distance.doubleValue() == 0.1) {
+					first = new Distance<String>(headers.get(row),
+							headers.get(col), distance);
+				}
+			}
+		}
+		assertEquals(first.getFirst(), nearest.getFirst());
+		assertEquals(first.getSecond(), nearest.getSecond());
+		assertEquals(nearest.getFirst(), matrix.findNearest().getFirst());
+
+		Distance<String> floatNearest = floatMatrix.findNearest();
+		assertTrue(floatNearest.getDistance().doubleValue() < 0.15);
+	}
+}
@@ -0,0 +1,173 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.ClusterCombinationEnum;
+import nz.ac.vuw.ecs.kcassell.cluster.MatrixBasedAgglomerativeClusterer;
+
+import org.junit.Test;
+
+public class LSACalculatorTest extends TestCase {
+
+	private static final String CLASS_HANDLE =
+		"=Project/src<nz.ac.vuw.ecs.kcassell.geometry{PointShape.java[PointShape";
+
+	@Test
+	public void testLogEntropyWeights() {
+		List<int[]> documents = new ArrayList<int[]>();
+		// Term 0 is in every document equally often; term 1 in just one
+		documents.add(new int[] { 0, 1, 1, 0 });
+		documents.add(new int[] { 0, 0 });
+		documents.add(new int[] { 0, 2, 0 });
+		SparseMatrix matrix =
+			LSACalculator.createDocumentTermMatrix(documents, 3);
+		assertEquals(3, matrix.getNumRows());
+		assertEquals(3, matrix.getNumColumns());
+		assertEquals(0.0, matrix.get(0, 0), 1e-12);
+		assertEquals(Math.log(3.0), matrix.get(0, 1), 1e-12);
+		assertEquals(0.0, matrix.get(1, 1));
+		assertEquals(Math.log(2.0), matrix.get(2, 2), 1e-12);
+	}
+
+	/** @return a temporary file holding the member documents */
+	private static File writeDocuments(String[] documents) throws IOException {
+		File file = File.createTempFile("ProjectMembers", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		for (String document : documents) {
+			writer.write(CLASS_HANDLE + document + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testSimilarMembersAreClose() throws IOException {
+		String[] documents = {
+				"~getX x get coordinate",
+				"~setX x set coordinate",
+				"~getY y get coordinate",
+				"~draw draw paint graphics",
+				"~paint paint graphics colour",
+				"~fill fill paint colour",
+				"~move x y translate coordinate"
+		};
+		File file = writeDocuments(documents);
+
+		LSACalculator calc = new LSACalculator(CLASS_HANDLE);
+		RandomizedSVD svd = calc.initializeSemanticSpace(file.getPath());
+		assertTrue(svd.getNumValues() > 0);
+		double near = calc.calculateDistance(CLASS_HANDLE + "~getX",
+				CLASS_HANDLE + "~setX").doubleValue();
+		double far = calc.calculateDistance(CLASS_HANDLE + "~getX",
+				CLASS_HANDLE + "~paint").doubleValue();
+		assertTrue(near < far);
+		assertEquals(LSACalculator.MAX_CONCEPTUAL_DISTANCE,
+				calc.calculateDistance(CLASS_HANDLE + "~getX",
+						CLASS_HANDLE + "~missing"));
+
+		// The bulk distances are the same as the pairwise ones
+		List<String> handles = new ArrayList<String>();
+		for (String document : documents) {
+			handles.add(CLASS_HANDLE + document.substring(0,
+					document.indexOf(' ')));
+		}
+		DistanceMatrix<String> matrix = new DistanceMatrix<String>(handles);
+		matrix.fillMatrix(calc);
+		for (String handle1 : handles) {
+			for (String handle2 : handles) {
+				assertEquals(calc.calculateDistance(handle1, handle2)
+						.doubleValue(),
+						matrix.getDistance(handle1, handle2).doubleValue(),
+						1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testFingerprintFollowsDocuments() throws IOException {
+		String[] documents = {
+				"~getX x get coordinate",
+				"~draw draw paint graphics",
+				"~fill fill paint colour"
+		};
+		LSACalculator calc = new LSACalculator(CLASS_HANDLE);
+		calc.initializeSemanticSpace(writeDocuments(documents).getPath());
+		String fingerprint = calc.getFingerprint();
+		calc.initializeSemanticSpace(writeDocuments(documents).getPath());
+		assertEquals(fingerprint, calc.getFingerprint());
+
+		// Reordering the documents renumbers them and their terms, which
+		// changes the random projection of the decomposition
+		String[] reordered = { documents[2], documents[0], documents[1] };
+		calc.initializeSemanticSpace(writeDocuments(reordered).getPath());
+		assertFalse(fingerprint.equals(calc.getFingerprint()));
+		String[] edited = { documents[0], documents[1], "~fill fill colour" };
+		calc.initializeSemanticSpace(writeDocuments(edited).getPath());
+		assertFalse(fingerprint.equals(calc.getFingerprint()));
+	}
+
+	@Test
+	public void testClustererUsesHandles() throws IOException {
+		String[] documents = {
+				"~getX x get coordinate",
+				"~setX x set coordinate",
+				"~draw draw paint graphics",
+				"~paint paint graphics colour"
+		};
+		LSACalculator calc = new LSACalculator(CLASS_HANDLE);
+		calc.initializeSemanticSpace(writeDocuments(documents).getPath());
+		List<String> handles = new ArrayList<String>();
+		for (String document : documents) {
+			handles.add(CLASS_HANDLE + document.substring(0,
+					document.indexOf(' ')));
+		}
+		MatrixBasedAgglomerativeClusterer clusterer =
+			new MatrixBasedAgglomerativeClusterer(handles, calc,
+					ClusterCombinationEnum.SINGLE_LINK.toString());
+		DistanceMatrix<String> matrix = clusterer.getDistanceMatrix();
+		double near = calc.calculateDistance(handles.get(0), handles.get(1))
+			.doubleValue();
+		assertTrue(near < LSACalculator.MAX_CONCEPTUAL_DISTANCE);
+		assertEquals(near, matrix.getDistance(handles.get(0), handles.get(1))
+				.doubleValue(), 1e-9);
+	}
+}
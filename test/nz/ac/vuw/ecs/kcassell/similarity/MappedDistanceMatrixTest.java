@@ -0,0 +1,240 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+public class MappedDistanceMatrixTest extends TestCase {
+
+	/** Counts the distances calculated. */
+	private int calculations = 0;
+
+	/** The fingerprint of calc. */
+	private String fingerprint = "";
+
+	private CacheableDistanceCalculatorIfc<String> calc =
+		new CacheableDistanceCalculatorIfc<String>() {
+			LevenshteinDistanceCalculator levenshtein =
+				new LevenshteinDistanceCalculator();
+
+			public Number calculateDistance(String name1, String name2) {
+				calculations++;
+				return levenshtein.calculateDistance(name1, name2);
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return DistanceCalculatorEnum.Levenshtein;
+			}
+
+			public String getFingerprint() {
+				return fingerprint;
+			}
+	};
+
+	private static List<String> generateNames(Random random, int numNames) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < numNames; i++) {
+			StringBuffer name = new StringBuffer("get");
+			int length = 2 + random.nextInt(8);
+			for (int c = 0; c < length; c++) {
+				name.append((char) ('a' + random.nextInt(6)));
+			}
+			names.add(name.toString() + i);
+		}
+		return names;
+	}
+
+	private static File createTempFile() throws IOException {
+		File file = File.createTempFile("distances",
+				"." + MappedDistanceMatrix.MATRIX_EXT);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void assertSameDistances(DistanceMatrix<String> expected,
+			DistanceMatrix<String> actual, double tolerance) {
+		assertEquals(expected.getHeaders(), actual.getHeaders());
+		for (String name1 : expected.getHeaders()) {
+			for (String name2 : expected.getHeaders()) {
+				assertEquals(expected.getDistance(name1, name2).doubleValue(),
+						actual.getDistance(name1, name2).doubleValue(),
+						tolerance);
+			}
+		}
+		Distance<String> nearest = expected.findNearest();
+		Distance<String> actualNearest = actual.findNearest();
+		assertEquals(nearest.getDistance().doubleValue(),
+				actualNearest.getDistance().doubleValue(), tolerance);
+	}
+
+	@Test
+	public void testMatchesHeapMatrix() throws IOException {
+		List<String> names = generateNames(new Random(1), 120);
+		DistanceMatrix<String> heapMatrix = new DistanceMatrix<String>(names);
+		heapMatrix.fillMatrix(calc);
+
+		MappedDistanceMatrix doubles =
+			new MappedDistanceMatrix(names, createTempFile(), false);
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE.doubleValue(),
+				doubles.getDistance(names.get(3), names.get(7)).doubleValue());
+		doubles.fillMatrix(calc);
+		assertFalse(doubles.isSinglePrecision());
+		assertSameDistances(heapMatrix, doubles, 0.0);
+		assertEquals(heapMatrix.toString().replaceAll("@\\d+", ""),
+				doubles.toString().replaceAll("@\\d+", ""));
+
+		MappedDistanceMatrix floats =
+			new MappedDistanceMatrix(names, createTempFile(), true);
+		floats.fillMatrix(calc);
+		assertTrue(floats.isSinglePrecision());
+		assertSameDistances(heapMatrix, floats, 1e-6);
+
+		// Unset distances stay unknown
+		floats.setDistance(names.get(5), names.get(2),
+				RefactoringConstants.UNKNOWN_DISTANCE);
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE.doubleValue(),
+				floats.getDistance(names.get(2), names.get(5)).doubleValue());
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		List<String> names = generateNames(new Random(2), 80);
+		File file = createTempFile();
+		MappedDistanceMatrix matrix = new MappedDistanceMatrix(names, file, false);
+		matrix.fillMatrix(calc);
+		matrix.flush();
+
+		MappedDistanceMatrix reopened = new MappedDistanceMatrix(file, true);
+		assertSameDistances(matrix, reopened, 0.0);
+
+		// Changes made through a writable mapping are seen by the others
+		MappedDistanceMatrix writable = new MappedDistanceMatrix(file, false);
+		writable.setDistance(names.get(0), names.get(1), 0.125);
+		writable.flush();
+		assertEquals(0.125, reopened.getDistance(names.get(1), names.get(0)));
+
+		File notMatrix = createTempFile();
+		FileWriter writer = new FileWriter(notMatrix);
+		writer.write("*Vertices 3\n");
+		writer.close();
+		try {
+			new MappedDistanceMatrix(notMatrix, true);
+			fail("Opened a file that isn't a distance matrix");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMembersAreFixed() throws IOException {
+		List<String> names = generateNames(new Random(4), 20);
+		File file = createTempFile();
+		MappedDistanceMatrix matrix = new MappedDistanceMatrix(names, file, false);
+		matrix.fillMatrix(calc);
+		try {
+			matrix.removeMember(names.get(3));
+			fail("Removed a member from " + file);
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			matrix.addMember("getAdded");
+			fail("Added a member to " + file);
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		matrix.setDistance(names.get(3), names.get(19), 0.25);
+		matrix.flush();
+
+		// The file still matches the matrix after the edits
+		MappedDistanceMatrix reopened = new MappedDistanceMatrix(file, true);
+		assertEquals(names, reopened.getHeaders());
+		assertSameDistances(matrix, reopened, 0.0);
+		assertEquals(0.25, reopened.getDistance(names.get(19), names.get(3)));
+	}
+
+	@Test
+	public void testCollectorReusesMatrices() throws IOException {
+		List<String> names = generateNames(new Random(3), 50);
+		Collections.sort(names);
+		File directory = createTempFile();
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		List<DistanceCalculatorIfc<String>> calculators =
+			new ArrayList<DistanceCalculatorIfc<String>>();
+		calculators.add(calc);
+
+		DistanceCollector collector = new DistanceCollector(calculators);
+		collector.setMatrixDirectory(directory, true);
+		DistanceMatrix<String> matrix = collector.collectDistances(names, calc);
+		assertTrue(matrix instanceof MappedDistanceMatrix);
+		assertEquals(50 * 51 / 2, calculations);
+		for (File file : directory.listFiles()) {
+			file.deleteOnExit();
+		}
+
+		// Another collector, e.g. in another process, reuses the file
+		DistanceCollector collector2 = new DistanceCollector(calculators);
+		collector2.setMatrixDirectory(directory, true);
+		DistanceMatrix<String> matrix2 = collector2.collectDistances(names, calc);
+		assertEquals(50 * 51 / 2, calculations);
+		assertSameDistances(matrix, matrix2, 0.0);
+
+		// but not once the calculator's fingerprint has changed
+		fingerprint = "edited";
+		collector2.collectDistances(names, calc);
+		assertEquals(2 * 50 * 51 / 2, calculations);
+
+		// or for different members
+		names.remove(0);
+		collector2.collectDistances(names, calc);
+		assertEquals(2 * 50 * 51 / 2 + 49 * 50 / 2, calculations);
+		for (File file : directory.listFiles()) {
+			file.deleteOnExit();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+
+import org.junit.Test;
+
+public class MinHashIndexTest extends TestCase {
+
+	/** The property sets of the generated members, keyed by member. */
+	private HashMap<String, Set<String>> properties =
+		new HashMap<String, Set<String>>();
+
+	/**
+	 * Generates groups of members whose property sets are variations
+	 * of the group's property set, so that the members of a group have
+	 * a range of similarities to each other.
+	 */
+	private List<String> generateMembers(Random random, int numGroups,
+			int groupSize, int numProperties) {
+		List<String> members = new ArrayList<String>();
+		for (int g = 0; g < numGroups; g++) {
+			List<String> groupProperties = new ArrayList<String>();
+			for (int p = 0; p < numProperties; p++) {
+				groupProperties.add("p" + random.nextInt(100000));
+			}
+			for (int m = 0; m < groupSize; m++) {
+				double changeProbability = random.nextDouble() * 0.5;
+				Set<String> memberProperties = new HashSet<String>();
+				for (String property : groupProperties) {
+					if (random.nextDouble() < changeProbability) {
+						memberProperties.add("p" + random.nextInt(100000));
+					} else {
+						memberProperties.add(property);
+					}
+				}
+				String member = "g" + g + "m" + m;
+				members.add(member);
+				properties.put(member, memberProperties);
+			}
+		}
+		return members;
+	}
+
+	@Test
+	public void testRecall() {
+		Random random = new Random(17);
+		List<String> members = generateMembers(random, 60, 20, 20);
+		double minSimilarity = 0.5;
+		MinHashIndex index = new MinHashIndex(minSimilarity, random);
+		for (String member : members) {
+			index.add(member, properties.get(member));
+		}
+		List<Distance<String>> pairs = index.findSimilarPairs(minSimilarity);
+
+		HashSet<String> found = new HashSet<String>();
+		double previous = 0.0;
+		for (Distance<String> pair : pairs) {
+			double distance = pair.getDistance().doubleValue();
+			assertTrue(distance >= previous);
+			previous = distance;
+			assertEquals(new JaccardCalculator().calculateDistance(
+					properties.get(pair.getFirst()),
+					properties.get(pair.getSecond())), distance, 1e-12);
+			found.add(pair.getFirst() + " " + pair.getSecond());
+		}
+
+		int similarPairs = 0;
+		int foundPairs = 0;
+		for (int i = 0; i < members.size(); i++) {
+			for (int j = i + 1; j < members.size(); j++) {
+				String member1 = members.get(i);
+				String member2 = members.get(j);
+				double similarity = JaccardCalculator.calculateSimilarity(
+						properties.get(member1), properties.get(member2));
+				if (similarity >= minSimilarity) {
+					similarPairs++;
+					if (found.contains(member1 + " " + member2)) {
+						foundPairs++;
+					}
+				}
+			}
+		}
+		assertEquals(found.size(), foundPairs);
+		assertTrue(similarPairs > 1000);
+		assertTrue(foundPairs >= 0.9 * similarPairs);
+
+		// Far fewer than all of the pairs were compared
+		int allPairs = members.size() * (members.size() - 1) / 2;
+		assertTrue(index.getCandidates() < allPairs / 20);
+	}
+
+	@Test
+	public void testEstimateSimilarity() {
+		Random random = new Random(3);
+		List<String> members = generateMembers(random, 5, 10, 50);
+		MinHashIndex index = new MinHashIndex(100, 2, random);
+		for (String member : members) {
+			index.add(member, properties.get(member));
+		}
+		for (String member1 : members) {
+			for (String member2 : members) {
+				double similarity = JaccardCalculator.calculateSimilarity(
+						properties.get(member1), properties.get(member2));
+				assertEquals(similarity,
+						index.estimateSimilarity(member1, member2), 0.2);
+			}
+		}
+		assertEquals(0.0, index.estimateSimilarity(members.get(0), "unknown"));
+	}
+
+	@Test
+	public void testGetRowsPerBand() {
+		int numHashes = MinHashIndex.DEFAULT_SIGNATURE_SIZE;
+		for (double s = 0.1; s < 1.0; s += 0.1) {
+			int rows = MinHashIndex.getRowsPerBand(numHashes, s);
+			double probability = 1.0 - Math.pow(1.0 - Math.pow(s, rows),
+					numHashes / rows);
+			assertTrue(rows == 1
+					|| probability >= MinHashIndex.CANDIDATE_PROBABILITY);
+		}
+		// Higher thresholds need fewer candidates
+		assertTrue(MinHashIndex.getRowsPerBand(numHashes, 0.8)
+				> MinHashIndex.getRowsPerBand(numHashes, 0.3));
+	}
+}
@@ -0,0 +1,188 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.callgraph.JavaCallGraph;
+import nz.ac.vuw.ecs.kcassell.cluster.Distance;
+import nz.ac.vuw.ecs.kcassell.utils.RefactoringConstants;
+
+import org.junit.Test;
+
+public class NearestNeighborGraphTest extends TestCase {
+
+	/** The coordinates of the points, keyed by name. */
+	private HashMap<String, double[]> points = new HashMap<String, double[]>();
+
+	/** The Euclidean distance between named points. */
+	private DistanceCalculatorIfc<String> calc =
+		new DistanceCalculatorIfc<String>() {
+
+			public Number calculateDistance(String name1, String name2) {
+				double[] p1 = points.get(name1);
+				double[] p2 = points.get(name2);
+				double sum = 0.0;
+				for (int d = 0; d < p1.length; d++) {
+					sum += (p1[d] - p2[d]) * (p1[d] - p2[d]);
+				}
+				return Math.sqrt(sum);
+			}
+
+			public DistanceCalculatorEnum getType() {
+				return null;
+			}
+	};
+
+	private List<String> generatePoints(Random random, int numPoints,
+			int dimensions) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < numPoints; i++) {
+			double[] point = new double[dimensions];
+			for (int d = 0; d < dimensions; d++) {
+				point[d] = random.nextDouble();
+			}
+			String name = "p" + i;
+			points.put(name, point);
+			names.add(name);
+		}
+		return names;
+	}
+
+	@Test
+	public void testFillExactly() {
+		List<String> names = generatePoints(new Random(1), 200, 3);
+		NearestNeighborGraph<String> graph =
+			new NearestNeighborGraph<String>(names, 8);
+		graph.fillExactly(calc);
+		assertEquals(200L * 199 / 2, graph.getCalculations());
+
+		for (int i = 0; i < names.size(); i++) {
+			double[] expected = new double[names.size() - 1];
+			int e = 0;
+			for (int j = 0; j < names.size(); j++) {
+				if (j != i) {
+					expected[e++] = calc.calculateDistance(
+							names.get(i), names.get(j)).doubleValue();
+				}
+			}
+			Arrays.sort(expected);
+			assertEquals(8, graph.getNeighborCount(i));
+			for (int n = 0; n < 8; n++) {
+				int neighbor = graph.getNeighbor(i, n);
+				assertEquals(expected[n], graph.getNeighborDistance(i, n));
+				assertEquals(expected[n], graph.getDistance(names.get(i),
+						names.get(neighbor)).doubleValue());
+			}
+		}
+		Distance<String> nearest = graph.findNearest();
+		assertEquals(graph.getNeighborDistance(
+				names.indexOf(nearest.getFirst()), 0),
+				nearest.getDistance().doubleValue());
+	}
+
+	@Test
+	public void testNeighborDescentRecall() {
+		int size = 3000;
+		int k = 10;
+		List<String> names = generatePoints(new Random(2), size, 4);
+		NearestNeighborGraph<String> exact =
+			new NearestNeighborGraph<String>(names, k);
+		exact.fillExactly(calc);
+		NearestNeighborGraph<String> approximate =
+			new NearestNeighborGraph<String>(names, k);
+		approximate.fillByNeighborDescent(calc, new Random(3));
+
+		int found = 0;
+		for (int i = 0; i < size; i++) {
+			Set<Integer> exactNeighbors = new HashSet<Integer>();
+			for (int n = 0; n < k; n++) {
+				exactNeighbors.add(exact.getNeighbor(i, n));
+			}
+			assertEquals(k, approximate.getNeighborCount(i));
+			for (int n = 0; n < k; n++) {
+				if (exactNeighbors.contains(approximate.getNeighbor(i, n))) {
+					found++;
+				}
+				if (n > 0) {
+					assertTrue(approximate.getNeighborDistance(i, n - 1)
+							<= approximate.getNeighborDistance(i, n));
+				}
+			}
+		}
+		double recall = found / (double) (size * k);
+		assertTrue("recall " + recall, recall > 0.95);
+		assertTrue(approximate.getCalculations() < exact.getCalculations() / 2);
+	}
+
+	@Test
+	public void testSmallGraphs() {
+		List<String> names = generatePoints(new Random(4), 3, 2);
+		NearestNeighborGraph<String> graph =
+			new NearestNeighborGraph<String>(names, 10);
+		graph.fill(calc);
+		assertEquals(2, graph.getNumNeighbors());
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				graph.getDistance("p0", "p0"));
+		assertEquals(RefactoringConstants.UNKNOWN_DISTANCE,
+				graph.getDistance("p0", "eh?"));
+
+		// Each pair is linked once in the graph for the graph clusterers
+		JavaCallGraph callGraph = graph.createCallGraph();
+		assertEquals(3, callGraph.getJungGraph().getVertexCount());
+		assertEquals(3, callGraph.getJungGraph().getEdgeCount());
+
+		NearestNeighborGraph<String> empty = new NearestNeighborGraph<String>(
+				new ArrayList<String>(), 10);
+		empty.fill(calc);
+		assertNull(empty.findNearest());
+
+		// Keeping no neighbors leaves every object unlinked
+		NearestNeighborGraph<String> none =
+			new NearestNeighborGraph<String>(names, 0);
+		none.fillExactly(calc);
+		assertEquals(0, none.getNumNeighbors());
+		assertEquals(0, none.getNeighborCount(0));
+		assertEquals(0L, none.getCalculations());
+		none.fillByNeighborDescent(calc, new Random(5));
+		assertEquals(0, none.getNeighborCount(0));
+	}
+}
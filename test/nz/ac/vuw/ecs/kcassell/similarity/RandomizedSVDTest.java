@@ -0,0 +1,173 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.SingularValueDecomposition;
+
+public class RandomizedSVDTest extends TestCase {
+
+	/**
+	 * Generates a sparse matrix whose rows each use a few of the columns
+	 * belonging to one of several topics, plus a little noise when
+	 * noisy, so that a few singular values dominate.
+	 */
+	private static SparseMatrix generateMatrix(Random random, int numRows,
+			int numColumns, int numTopics, boolean noisy) {
+		int[] rowStarts = new int[numRows + 1];
+		int[] columns = new int[numRows * numColumns];
+		double[] values = new double[columns.length];
+		int entry = 0;
+		for (int row = 0; row < numRows; row++) {
+			int topic = random.nextInt(numTopics);
+			for (int col = 0; col < numColumns; col++) {
+				double value = 0.0;
+				if (col % numTopics == topic) {
+					value = 1.0 + (col % 3);
+				} else if (noisy && random.nextInt(50) == 0) {
+					value = 0.1 * random.nextDouble();
+				}
+				if (value != 0.0) {
+					columns[entry] = col;
+					values[entry++] = value;
+				}
+			}
+			rowStarts[row + 1] = entry;
+		}
+		return new SparseMatrix(numColumns, rowStarts, columns, values);
+	}
+
+	private static DoubleMatrix2D toDense(SparseMatrix matrix) {
+		DoubleMatrix2D dense = new DenseDoubleMatrix2D(matrix.getNumRows(),
+				matrix.getNumColumns());
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			for (int col = 0; col < matrix.getNumColumns(); col++) {
+				dense.setQuick(row, col, matrix.get(row, col));
+			}
+		}
+		return dense;
+	}
+
+	@Test
+	public void testMatchesFullDecomposition() {
+		SparseMatrix matrix = generateMatrix(new Random(2), 400, 120, 8, true);
+		RandomizedSVD svd = new RandomizedSVD(5, 10, 2, 7L, 4);
+		svd.decompose(matrix);
+		double[] expected =
+			new SingularValueDecomposition(toDense(matrix)).getSingularValues();
+		assertEquals(5, svd.getNumValues());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(expected[i], svd.getSingularValues()[i],
+					1e-6 * expected[0]);
+		}
+
+		// U and V have orthonormal columns
+		double[] left = svd.getLeftVectors();
+		double[] right = svd.getRightVectors();
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				double leftDot = 0.0;
+				for (int row = 0; row < matrix.getNumRows(); row++) {
+					leftDot += left[row * 5 + i] * left[row * 5 + j];
+				}
+				double rightDot = 0.0;
+				for (int col = 0; col < matrix.getNumColumns(); col++) {
+					rightDot += right[col * 5 + i] * right[col * 5 + j];
+				}
+				assertEquals((i == j) ? 1.0 : 0.0, leftDot, 1e-8);
+				assertEquals((i == j) ? 1.0 : 0.0, rightDot, 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testReconstructsLowRankMatrix() {
+		// Without noise, the matrix has rank 6, less than the rank requested
+		SparseMatrix matrix =
+			generateMatrix(new Random(3), 3000, 60, 6, false);
+		RandomizedSVD svd = new RandomizedSVD(10, 5);
+		svd.decompose(matrix);
+		int rank = svd.getNumValues();
+		assertEquals(6, rank);
+		double[] values = svd.getSingularValues();
+		double[] left = svd.getLeftVectors();
+		double[] right = svd.getRightVectors();
+		for (int row = 0; row < matrix.getNumRows(); row += 7) {
+			for (int col = 0; col < matrix.getNumColumns(); col++) {
+				double value = 0.0;
+				for (int i = 0; i < rank; i++) {
+					value += left[row * rank + i] * values[i]
+					              * right[col * rank + i];
+				}
+				assertEquals(matrix.get(row, col), value, 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testDeterministic() {
+		SparseMatrix matrix =
+			generateMatrix(new Random(5), 5000, 300, 20, true);
+		RandomizedSVD svd1 = new RandomizedSVD(15, 10, 2, 11L, 1);
+		svd1.decompose(matrix);
+		RandomizedSVD svd4 = new RandomizedSVD(15, 10, 2, 11L, 4);
+		svd4.decompose(matrix);
+		assertTrue(Arrays.equals(svd1.getSingularValues(),
+				svd4.getSingularValues()));
+		assertTrue(Arrays.equals(svd1.getLeftVectors(),
+				svd4.getLeftVectors()));
+		assertTrue(Arrays.equals(svd1.getRightVectors(),
+				svd4.getRightVectors()));
+	}
+
+	@Test
+	public void testTranspose() {
+		SparseMatrix matrix = generateMatrix(new Random(6), 30, 20, 4, true);
+		SparseMatrix transpose = matrix.transpose();
+		assertEquals(matrix.getNumEntries(), transpose.getNumEntries());
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			for (int col = 0; col < matrix.getNumColumns(); col++) {
+				assertEquals(matrix.get(row, col), transpose.get(col, row));
+			}
+		}
+	}
+}
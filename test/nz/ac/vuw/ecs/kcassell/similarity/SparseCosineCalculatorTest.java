@@ -0,0 +1,196 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.similarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class SparseCosineCalculatorTest extends TestCase {
+
+	private static final String CLASS_HANDLE =
+		"=Project/src<nz.ac.vuw.ecs.kcassell.geometry{PointShape.java[PointShape";
+
+	/**
+	 * Generates documents with a few (possibly repeated) terms each,
+	 * including an empty document.
+	 */
+	private static List<int[]> generateDocuments(Random random,
+			int numDocuments, int numTerms) {
+		List<int[]> documents = new ArrayList<int[]>();
+		for (int d = 0; d < numDocuments; d++) {
+			int[] termIds = new int[(d == 5) ? 0 : 1 + random.nextInt(6)];
+			for (int i = 0; i < termIds.length; i++) {
+				// Most terms are among the first few
+				termIds[i] = (random.nextInt(4) == 0)
+					? random.nextInt(numTerms) : random.nextInt(15);
+			}
+			documents.add(termIds);
+		}
+		return documents;
+	}
+
+	/**
+	 * @return the cosine of two rows, calculated from dense copies
+	 */
+	private static double getDenseCosine(SparseMatrix matrix, int row1,
+			int row2) {
+		double dotProduct = 0.0;
+		double sumOfSquares1 = 0.0;
+		double sumOfSquares2 = 0.0;
+		for (int c = 0; c < matrix.getNumColumns(); c++) {
+			double value1 = matrix.get(row1, c);
+			double value2 = matrix.get(row2, c);
+			dotProduct += value1 * value2;
+			sumOfSquares1 += value1 * value1;
+			sumOfSquares2 += value2 * value2;
+		}
+		double norms = Math.sqrt(sumOfSquares1 * sumOfSquares2);
+		return (norms == 0.0) ? 0.0 : dotProduct / norms;
+	}
+
+	@Test
+	public void testMatchesDenseCosine() {
+		List<int[]> documents = new ArrayList<int[]>();
+		documents.add(new int[] { 3, 1, 3 });
+		SparseMatrix counts =
+			VectorSpaceModelCalculator.createCountMatrix(documents, 4);
+		assertEquals(2, counts.getNumEntries());
+		assertEquals(1.0, counts.get(0, 1));
+		assertEquals(2.0, counts.get(0, 3));
+
+		Random random = new Random(6);
+		int numTerms = 200;
+		counts = VectorSpaceModelCalculator.createCountMatrix(
+				generateDocuments(random, 300, numTerms), numTerms);
+		SparseCosineCalculator calc = new SparseCosineCalculator(counts);
+
+		// A shuffled subset, with a repeated and a missing document
+		int[] documentIds = new int[120];
+		for (int i = 0; i < documentIds.length; i++) {
+			documentIds[i] = random.nextInt(counts.getNumRows());
+		}
+		documentIds[10] = 5;
+		documentIds[20] = -1;
+		documentIds[30] = documentIds[31];
+		double[] similarities = calc.calculateSimilarities(documentIds);
+		int index = 0;
+		for (int row = 0; row < documentIds.length; row++) {
+			for (int col = 0; col <= row; col++) {
+				double expected = 0.0;
+				if (documentIds[row] >= 0 && documentIds[col] >= 0) {
+					expected = getDenseCosine(counts, documentIds[row],
+							documentIds[col]);
+					assertEquals(expected, calc.getSimilarity(
+							documentIds[row], documentIds[col]), 1e-12);
+				}
+				assertEquals(expected, similarities[index++], 1e-12);
+			}
+		}
+		assertEquals(0.0, similarities[10 * 11 / 2 + 10]);
+		assertEquals(1.0, similarities[31 * 32 / 2 + 30], 1e-12);
+
+		SparseMatrix postings = counts.transpose();
+		for (int term1 = 0; term1 < 30; term1++) {
+			for (int term2 = 0; term2 < 30; term2++) {
+				assertEquals(getDenseCosine(postings, term1, term2),
+						calc.getTermSimilarity(term1, term2), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testVectorSpaceModelDistances() throws IOException {
+		File file = File.createTempFile("ProjectMembers", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		String[] documents = {
+				"~getX x get coordinate",
+				"~setX x set coordinate",
+				"~getY y get get coordinate",
+				"~draw draw paint graphics",
+				"~paint paint graphics colour",
+				"~noTerms"
+		};
+		for (String document : documents) {
+			writer.write(CLASS_HANDLE + document + "\n");
+		}
+		writer.close();
+
+		VectorSpaceModelCalculator calc =
+			new VectorSpaceModelCalculator(CLASS_HANDLE);
+		calc.initializeSemanticSpace(file.getPath());
+		assertEquals(1.0 - 2.0 / 3.0, calc.calculateDistance(
+				CLASS_HANDLE + "~getX", CLASS_HANDLE + "~setX").doubleValue(),
+				1e-12);
+		assertEquals(1.0 - 3.0 / Math.sqrt(3.0 * 6.0), calc.calculateDistance(
+				CLASS_HANDLE + "~getX", CLASS_HANDLE + "~getY").doubleValue(),
+				1e-12);
+		assertEquals(1.0, calc.calculateDistance(CLASS_HANDLE + "~getX",
+				CLASS_HANDLE + "~draw").doubleValue(), 1e-12);
+		assertEquals(VectorSpaceModelCalculator.MAX_CONCEPTUAL_DISTANCE,
+				calc.calculateDistance(CLASS_HANDLE + "~getX",
+						CLASS_HANDLE + "~missing"));
+		// "x" is in getX and setX, "get" twice in getY and once in getX
+		assertEquals(1.0 - 1.0 / Math.sqrt(2.0 * 5.0),
+				calc.calculateDistanceBetweenTerms("x", "get").doubleValue(),
+				1e-12);
+
+		// The bulk distances are the same as the pairwise ones
+		List<String> handles = new ArrayList<String>();
+		for (String document : documents) {
+			int space = document.indexOf(' ');
+			handles.add(CLASS_HANDLE
+					+ ((space < 0) ? document : document.substring(0, space)));
+		}
+		handles.add(CLASS_HANDLE + "~missing");
+		DistanceMatrix<String> matrix = new DistanceMatrix<String>(handles);
+		matrix.fillMatrix(calc);
+		for (String handle1 : handles) {
+			for (String handle2 : handles) {
+				assertEquals(calc.calculateDistance(handle1, handle2)
+						.doubleValue(),
+						matrix.getDistance(handle1, handle2).doubleValue(),
+						1e-12);
+			}
+		}
+	}
+}
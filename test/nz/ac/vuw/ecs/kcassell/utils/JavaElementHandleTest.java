@@ -0,0 +1,134 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+Copyright (c) 2010, Keith Cassell
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following 
+      disclaimer in the documentation and/or other materials
+      provided with the distribution.
+    * Neither the name of the Victoria University of Wellington
+      nor the names of its contributors may be used to endorse or
+      promote products derived from this software without specific
+      prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+
+package nz.ac.vuw.ecs.kcassell.utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import nz.ac.vuw.ecs.kcassell.utils.JavaElementHandle.Kind;
+
+import org.junit.Test;
+
+public class JavaElementHandleTest extends TestCase {
+
+	private static final String TYPE_HANDLE =
+		"=HeritrixRBetw/<org.apache.commons.httpclient{HttpConnection.java[HttpConnection";
+
+	@Test
+	public void testParseType() {
+		JavaElementHandle handle = JavaElementHandle.parse(TYPE_HANDLE);
+		assertEquals(Kind.TYPE, handle.getKind());
+		assertEquals("HeritrixRBetw", handle.getProjectName());
+		assertEquals("org.apache.commons.httpclient", handle.getPackageName());
+		assertEquals("HttpConnection", handle.getTypeName());
+		assertEquals("HttpConnection", handle.getElementName());
+		assertEquals("org.apache.commons.httpclient.HttpConnection",
+				handle.getFullyQualifiedTypeName());
+	}
+
+	@Test
+	public void testParseMembers() {
+		JavaElementHandle method =
+			JavaElementHandle.parse(TYPE_HANDLE + "~write~\\[B~I~I");
+		assertEquals(Kind.METHOD, method.getKind());
+		assertEquals("write", method.getElementName());
+		assertEquals("HttpConnection", method.getTypeName());
+		assertEquals(3, method.getParameterTypes().size());
+		assertEquals("[B", method.getParameterTypes().get(0));
+		assertEquals("I", method.getParameterTypes().get(2));
+
+		JavaElementHandle field = JavaElementHandle.parse(
+				"=Weka/src\\/main\\/java<weka.core{Instances.java[Instances[Inner^m_Data");
+		assertEquals(Kind.FIELD, field.getKind());
+		assertEquals("m_Data", field.getElementName());
+		assertEquals("Weka", field.getProjectName());
+		assertEquals("weka.core.Instances.Inner",
+				field.getFullyQualifiedTypeName());
+
+		JavaElementHandle initializer =
+			JavaElementHandle.parse(TYPE_HANDLE + "|1");
+		assertEquals(Kind.INITIALIZER, initializer.getKind());
+		assertEquals("", initializer.getElementName());
+	}
+
+	@Test
+	public void testParseNonHandles() {
+		assertNull(JavaElementHandle.parse(null));
+		assertNull(JavaElementHandle.parse(""));
+		assertNull(JavaElementHandle.parse("field1"));
+		assertEquals("field1", EclipseUtils.getNameFromHandle("field1"));
+	}
+
+	@Test
+	public void testIntern() {
+		JavaElementHandle handle = JavaElementHandle.intern(TYPE_HANDLE);
+		assertSame(handle, JavaElementHandle.intern(TYPE_HANDLE));
+		assertEquals("HeritrixRBetw",
+				EclipseUtils.getProjectNameFromHandle(TYPE_HANDLE + "^logger"));
+		assertEquals("logger",
+				EclipseUtils.getNameFromHandle(TYPE_HANDLE + "^logger"));
+	}
+
+	/**
+	 * Every member handle in a member document should parse.
+	 */
+	@Test
+	public void testParseMemberDocuments() throws IOException {
+		String fileName = RefactoringConstants.DATA_DIR
+			+ "MemberDocuments/HeritrixRBetw/HeritrixRBetwMembers.txt";
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		int count = 0;
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String sHandle = (space < 0) ? line : line.substring(0, space);
+				if (sHandle.length() > 0) {
+					JavaElementHandle handle = JavaElementHandle.parse(sHandle);
+					assertNotNull(sHandle, handle);
+					assertTrue(sHandle, handle.getKind() == Kind.METHOD
+							|| handle.getKind() == Kind.FIELD);
+					assertEquals("HeritrixRBetw", handle.getProjectName());
+					assertTrue(sHandle, handle.getElementName().length() > 0);
+					count++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		assertTrue(count > 0);
+	}
+}